@@ -17,6 +17,7 @@
 package jetbrains.buildServer.server.rest.data;
 
 
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 import jetbrains.buildServer.server.rest.errors.NotFoundException;
@@ -64,6 +65,14 @@ public abstract class AbstractFinder<ITEM> extends FinderImpl<ITEM> implements F
   @NotNull
   public abstract  ItemFilter<ITEM> getFilter(@NotNull final Locator locator);
 
+  /**
+   * @see FinderDataBinding.LocatorDataBinding#getComparator()
+   */
+  @Nullable
+  public Comparator<ITEM> getComparator(@NotNull final Locator locator) {
+    return null;
+  }
+
   @NotNull
   @Override
   public LocatorDataBinding<ITEM> getLocatorDataBinding(@NotNull final Locator locator) {
@@ -79,6 +88,12 @@ public abstract class AbstractFinder<ITEM> extends FinderImpl<ITEM> implements F
       public ItemFilter<ITEM> getFilter() {
         return AbstractFinder.this.getFilter(locator);
       }
+
+      @Nullable
+      @Override
+      public Comparator<ITEM> getComparator() {
+        return AbstractFinder.this.getComparator(locator);
+      }
     };
   }
 
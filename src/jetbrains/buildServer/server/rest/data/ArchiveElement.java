@@ -17,15 +17,21 @@
 package jetbrains.buildServer.server.rest.data;
 
 import com.intellij.openapi.diagnostic.Logger;
-import java.io.BufferedOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.List;
+import java.io.*;
+import java.util.*;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
+import jetbrains.buildServer.server.rest.util.ContainerFileTransfer;
+import jetbrains.buildServer.server.rest.util.ParallelProcessingPools;
+import jetbrains.buildServer.server.rest.util.ZipStreamWriter;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
 import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.ItemProcessor;
 import jetbrains.buildServer.util.browser.Browser;
 import jetbrains.buildServer.util.browser.BrowserException;
 import jetbrains.buildServer.util.browser.Element;
@@ -42,12 +48,66 @@ import org.jetbrains.annotations.Nullable;
 public class ArchiveElement implements Element {
   private static final Logger LOG = Logger.getInstance(ArchiveElement.class.getName());
 
+  public static final String PARALLELISM_PROPERTY = "rest.files.archive.parallelism";
+  public static final String CHUNK_SIZE_PROPERTY = "rest.files.archive.chunkSize";
+  public static final String COMPRESSION_PROPERTY = "rest.files.archive.compression";
+  public static final String CRC_CACHE_SIZE_PROPERTY = "rest.files.archive.crcCacheSize";
+
+  /**
+   * CRC of the local files for the stored archives, by the file path, size and modification time.
+   * The local header of a stored entry contains the CRC before the data, so without the cache a full download of a stored archive reads each file twice:
+   * to compute the CRC and to write the data (a download of a range reads only the files with the headers or the data within the range).
+   * Artifacts of finished builds do not change, so the repeated and resumed downloads of the same archive read the files once while the CRC is cached.
+   * The cache is in memory only and keeps the least recently used values for not more than CRC_CACHE_SIZE_PROPERTY files (about 200 bytes per file).
+   */
+  private static final Map<String, Long> ourLocalFilesCrc = new LinkedHashMap<>(16, 0.75f, true); //LRU, guarded by itself
+
+  /**
+   * Extensions of the files which are already compressed, so that compressing them again is mostly a waste of CPU
+   */
+  private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+    "zip", "jar", "war", "ear", "apk", "ipa", "nupkg", "whl", "gem", "gz", "tgz", "bz2", "tbz2", "xz", "txz", "lz4", "zst", "7z", "rar", "cab", "dmg",
+    "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "avi", "mkv", "mov", "docx", "xlsx", "pptx"));
+
+  public enum Compression {
+    /**
+     * All the files are compressed
+     */
+    DEFLATE,
+    /**
+     * The files are not compressed
+     */
+    NONE,
+    /**
+     * Files with extensions of already compressed formats are not compressed
+     */
+    AUTO,
+    /**
+     * The files are stored without compression and without data descriptors, the archive is the same for the same files,
+     * so its size is known before it is written and any range of it can be produced (e.g. to resume the download)
+     */
+    STORE
+  }
+
   private final List<ArtifactTreeElement> myArtifacts;
   private final String myName;
+  @Nullable private final ParallelProcessingPools myParallelProcessingPools;
+  @NotNull private final Compression myCompression;
+  @Nullable private StoredLayout myStoredLayout;
 
   public ArchiveElement(final List<ArtifactTreeElement> artifacts, final String name) {
+    this(artifacts, name, null, Compression.DEFLATE);
+  }
+
+  /**
+   * @param parallelProcessingPools if not null, the files are compressed in parallel (see PARALLELISM_PROPERTY) on the archives pool
+   */
+  public ArchiveElement(final List<ArtifactTreeElement> artifacts, final String name, @Nullable final ParallelProcessingPools parallelProcessingPools,
+                        @NotNull final Compression compression) {
     myArtifacts = artifacts;
     myName = name;
+    myParallelProcessingPools = parallelProcessingPools;
+    myCompression = compression;
   }
 
   @NotNull
@@ -74,8 +134,20 @@ public class ArchiveElement implements Element {
   }
 
   public StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length, final Supplier<String> detailsForLog) {
+    final int parallelism = myParallelProcessingPools == null ? 1 : TeamCityProperties.getInteger(PARALLELISM_PROPERTY, 4);
+    final StoredLayout storedLayout = getStoredLayout();
+    if (storedLayout != null) {
+      final long start = startOffset != null ? startOffset : 0;
+      final long end = length != null ? start + length : storedLayout.mySize;
+      return out -> writeStored(out, storedLayout, start, end, parallelism, detailsForLog);
+    }
+
     if (startOffset != null || length != null){
-      throw new IllegalStateException("Partial streaming is not yet supported");
+      throw new IllegalStateException("Partial streaming is not supported");
+    }
+
+    if (parallelism > 1 || myCompression != Compression.DEFLATE) {
+      return out -> writeChunked(out, parallelism, detailsForLog);
     }
 
     return new StreamingOutput() {
@@ -140,13 +212,479 @@ public class ArchiveElement implements Element {
   }
 
 
+  /**
+   * The content of the files is read sequentially in chunks, the chunks are compressed in parallel into parts of the entry deflate stream and are written in order.
+   * Not compressed files are also written as deflate stream (with no compression) as the sizes and CRC are not known before the data is read.
+   */
+  private void writeChunked(@NotNull final OutputStream out, final int parallelism, @NotNull final Supplier<String> detailsForLog) throws IOException {
+    final ZipStreamWriter writer = new ZipStreamWriter(new BufferedOutputStream(out));
+    final ChunksIterator chunks = new ChunksIterator(Math.max(1024, TeamCityProperties.getInteger(CHUNK_SIZE_PROPERTY, 1024 * 1024)));
+    final ItemProcessor<CompressedChunk> chunksWriter = chunk -> {
+      try {
+        chunk.writeTo(writer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e); //the client has disconnected, stop reading the files
+      }
+      return true;
+    };
+    try {
+      if (myParallelProcessingPools == null || parallelism <= 1) {
+        while (chunks.hasNext()) {
+          chunksWriter.processItem(compress(chunks.next()));
+        }
+      } else {
+        myParallelProcessingPools.getProcessor(ParallelProcessingPools.Purpose.ARCHIVES, parallelism).process(() -> chunks, ArchiveElement::compress, chunksWriter);
+      }
+      writer.finish();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      chunks.close();
+      if (chunks.myErrorsCount > 0) {
+        LOG.warn("Encountered " + chunks.myErrorsCount + " errors while processing " + detailsForLog.get());
+      }
+    }
+  }
+
+  @NotNull
+  private static CompressedChunk compress(@NotNull final Chunk chunk) {
+    if (chunk.myFile == null) return new CompressedChunk(chunk, new byte[0], 0);
+    final Deflater deflater = new Deflater(chunk.myFile.myCompressionLevel, true);
+    try {
+      deflater.setInput(chunk.myData, 0, chunk.myLength);
+      if (chunk.myLast) deflater.finish();
+      byte[] result = new byte[chunk.myLength + (chunk.myLength >> 10) + 64];
+      int length = 0;
+      while (true) {
+        if (length == result.length) result = Arrays.copyOf(result, result.length * 2);
+        if (chunk.myLast) {
+          length += deflater.deflate(result, length, result.length - length);
+          if (deflater.finished()) break;
+        } else {
+          //not final block aligned to a byte boundary, so that the next chunk can be appended
+          length += deflater.deflate(result, length, result.length - length, Deflater.SYNC_FLUSH);
+          if (length < result.length) break;
+        }
+      }
+      return new CompressedChunk(chunk, result, length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static class FileEntry {
+    @NotNull private final String myName;
+    @Nullable private final Long myLastModified;
+    private final long mySize;
+    private final int myCompressionLevel;
+
+    private FileEntry(@NotNull final ArtifactTreeElement artifact, @NotNull final Compression compression) {
+      myName = artifact.getFullName();
+      myLastModified = artifact.getLastModified();
+      mySize = artifact.getSize();
+      myCompressionLevel = compression == Compression.NONE || compression == Compression.STORE || (compression == Compression.AUTO && COMPRESSED_EXTENSIONS.contains(getExtension(myName)))
+                           ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @NotNull
+    private static String getExtension(@NotNull final String name) {
+      final int index = name.lastIndexOf('.');
+      return index < 0 || name.indexOf('/', index) >= 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  /**
+   * Either a directory (no file) or a part of the file content
+   */
+  private static class Chunk {
+    @NotNull private final ArtifactTreeElement myArtifact;
+    @Nullable private final FileEntry myFile;
+    @NotNull private final byte[] myData;
+    private final int myLength;
+    private final boolean myFirst;
+    private final boolean myLast;
+
+    private Chunk(@NotNull final ArtifactTreeElement artifact, @Nullable final FileEntry file, @NotNull final byte[] data, final int length, final boolean first, final boolean last) {
+      myArtifact = artifact;
+      myFile = file;
+      myData = data;
+      myLength = length;
+      myFirst = first;
+      myLast = last;
+    }
+  }
+
+  private static class CompressedChunk {
+    @NotNull private final Chunk myChunk;
+    @NotNull private final byte[] myCompressed;
+    private final int myCompressedLength;
+
+    private CompressedChunk(@NotNull final Chunk chunk, @NotNull final byte[] compressed, final int compressedLength) {
+      myChunk = chunk;
+      myCompressed = compressed;
+      myCompressedLength = compressedLength;
+    }
+
+    private void writeTo(@NotNull final ZipStreamWriter writer) throws IOException {
+      final FileEntry file = myChunk.myFile;
+      if (file == null) {
+        writer.addDirectory(myChunk.myArtifact.getFullName(), myChunk.myArtifact.getLastModified());
+        return;
+      }
+      if (myChunk.myFirst) writer.startDeflatedEntry(file.myName, file.myLastModified, file.mySize);
+      writer.writeDeflated(myCompressed, myCompressedLength, myChunk.myData, 0, myChunk.myLength);
+      if (myChunk.myLast) writer.closeEntry();
+    }
+  }
+
+  /**
+   * Reads the files in chunks, in the calling thread
+   */
+  private class ChunksIterator implements Iterator<Chunk>, Closeable {
+    private final int myChunkSize;
+    @NotNull private final Iterator<ArtifactTreeElement> myArtifactsIterator = myArtifacts.iterator();
+    @NotNull private final ArrayDeque<Chunk> myNext = new ArrayDeque<>(2);
+    @Nullable private ArtifactTreeElement myCurrentArtifact;
+    @Nullable private FileEntry myCurrentFile;
+    @Nullable private InputStream myCurrentStream;
+    private long myCurrentRead;
+    private int myErrorsCount = 0;
+
+    private ChunksIterator(final int chunkSize) {
+      myChunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+      fill();
+      return !myNext.isEmpty();
+    }
+
+    @Override
+    public Chunk next() {
+      fill();
+      final Chunk result = myNext.poll();
+      if (result == null) throw new NoSuchElementException();
+      return result;
+    }
+
+    private void fill() {
+      while (myNext.isEmpty()) {
+        if (myCurrentStream != null) {
+          readChunk();
+          continue;
+        }
+        if (!myArtifactsIterator.hasNext()) return;
+        final ArtifactTreeElement artifact = myArtifactsIterator.next(); //todo: need to read-lock artifacts???
+        if (!artifact.isLeaf()) {
+          myNext.add(new Chunk(artifact, null, new byte[0], 0, true, true));
+        }
+        if (!artifact.isContentAvailable()) continue;
+        try {
+          myCurrentStream = artifact.getInputStream();
+          myCurrentArtifact = artifact;
+          myCurrentFile = new FileEntry(artifact, myCompression);
+          myCurrentRead = 0;
+        } catch (IOException e) {
+          myErrorsCount++;
+          LOG.warnAndDebugDetails("Error packing artifact, ignoring. File: '" + artifact.getFullName() + "'", e);
+        }
+      }
+    }
+
+    private void readChunk() {
+      final InputStream stream = myCurrentStream;
+      final FileEntry file = myCurrentFile;
+      final ArtifactTreeElement artifact = myCurrentArtifact;
+      assert stream != null && file != null && artifact != null;
+      //for the files of known size, do not allocate more than the rest of the file (plus one byte to detect the end of the stream)
+      final long expectedRest = file.mySize >= 0 ? Math.max(0, file.mySize - myCurrentRead) + 1 : Long.MAX_VALUE;
+      final byte[] data = new byte[(int)Math.min(myChunkSize, expectedRest)];
+      int length = 0;
+      boolean last = false;
+      try {
+        while (length < data.length) {
+          final int read = stream.read(data, length, data.length - length);
+          if (read < 0) {
+            last = true;
+            break;
+          }
+          length += read;
+        }
+      } catch (IOException e) {
+        myErrorsCount++;
+        LOG.warnAndDebugDetails("Error packing artifact, ignoring the rest of the content. File: '" + file.myName + "'", e);
+        last = true;
+      }
+      myNext.add(new Chunk(artifact, file, data, length, myCurrentRead == 0, last));
+      myCurrentRead += length;
+      if (last) {
+        close();
+      }
+    }
+
+    @Override
+    public void close() {
+      FileUtil.close(myCurrentStream);
+      myCurrentStream = null;
+      myCurrentFile = null;
+      myCurrentArtifact = null;
+    }
+  }
+
+  /**
+   * @return true if a part of the archive can be produced, i.e. the archive is stored (see {@link Compression#STORE}) and the sizes of all the files are known
+   */
+  public boolean isRangeSupported() {
+    return getStoredLayout() != null;
+  }
+
+  /**
+   * @return tag of the stored archive content or null if the archive is not stored (see {@link #isRangeSupported()}).
+   * The stored archive is the same for the same names, sizes and modification times of the files, so it is computed from them without reading the files
+   * and can be used as a strong entity tag
+   */
+  @Nullable
+  public String getStoredArchiveTag() {
+    final StoredLayout storedLayout = getStoredLayout();
+    if (storedLayout == null) return null;
+    final StringBuilder result = new StringBuilder();
+    for (StoredEntry entry : storedLayout.myEntries) {
+      result.append(entry.myArtifact.getFullName()).append('\n').append(entry.myDirectory ? -1 : entry.mySize).append('\n').append(entry.myLastModified).append('\n');
+    }
+    return EncryptUtil.md5(result.toString());
+  }
+
+  /**
+   * @return the layout of the stored archive or null if the archive is not stored or the layout cannot be computed without reading the files
+   */
+  @Nullable
+  private StoredLayout getStoredLayout() {
+    if (myCompression != Compression.STORE) return null;
+    if (myStoredLayout == null) {
+      myStoredLayout = computeStoredLayout();
+    }
+    return myStoredLayout.mySize >= 0 ? myStoredLayout : null;
+  }
+
+  @NotNull
+  private StoredLayout computeStoredLayout() {
+    final List<StoredEntry> entries = new ArrayList<>();
+    final ZipStreamWriter writer = new ZipStreamWriter(new ByteArrayOutputStream(0), 0, 0); //empty range: the writer only computes the offsets
+    try {
+      for (ArtifactTreeElement artifact : myArtifacts) {
+        //the time is never the current one so that the archive does not change between the requests
+        final long lastModified = artifact.getLastModified() != null ? artifact.getLastModified() : 0;
+        if (!artifact.isLeaf()) {
+          final long headerOffset = writer.getOffset();
+          writer.addDirectory(artifact.getFullName(), lastModified);
+          entries.add(new StoredEntry(artifact, true, lastModified, headerOffset, writer.getOffset(), 0));
+        }
+        if (!artifact.isContentAvailable()) continue;
+        final long size = artifact.getSize();
+        if (size < 0) {
+          LOG.debug("The size of artifact '" + artifact.getFullName() + "' is not known, cannot create stored archive, the files will be written without compression instead");
+          return new StoredLayout(entries, -1);
+        }
+        final long headerOffset = writer.getOffset();
+        writer.startStoredEntry(artifact.getFullName(), lastModified, size, 0);
+        entries.add(new StoredEntry(artifact, false, lastModified, headerOffset, writer.getOffset(), size));
+        writer.skipStored(size);
+        writer.closeEntry();
+      }
+      writer.finish();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected error while computing archive layout", e); //nothing is written
+    }
+    for (int i = 0; i < entries.size(); i++) {
+      entries.get(i).myCentralDirectoryHeaderOffset = writer.getCentralDirectoryHeaderOffset(i);
+      entries.get(i).myCentralDirectoryHeaderEnd = i + 1 < entries.size() ? writer.getCentralDirectoryHeaderOffset(i + 1) : writer.getOffset();
+    }
+    return new StoredLayout(entries, writer.getOffset());
+  }
+
+  /**
+   * Writes the range of the stored archive. CRC of the files is computed in parallel (see PARALLELISM_PROPERTY) ahead of writing the files
+   * and only for the files with the local or central directory header within the range.
+   */
+  private void writeStored(@NotNull final OutputStream out, @NotNull final StoredLayout layout, final long start, final long end, final int parallelism,
+                           @NotNull final Supplier<String> detailsForLog) throws IOException {
+    final BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+    final ZipStreamWriter writer = new ZipStreamWriter(bufferedOut, start, end);
+    final Function<StoredEntry, StoredEntry> crcComputation = entry -> {
+      entry.myCrc = entry.isCrcNeeded(start, end) ? getCrc(entry) : 0;
+      return entry;
+    };
+    final ItemProcessor<StoredEntry> entriesWriter = entry -> {
+      try {
+        writeStoredEntry(writer, entry, start, end);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e); //the file cannot be read or the client has disconnected, stop reading the files
+      }
+      return !writer.isRangeWritten();
+    };
+    try {
+      if (myParallelProcessingPools == null || parallelism <= 1) {
+        for (StoredEntry entry : layout.myEntries) {
+          if (!entriesWriter.processItem(crcComputation.apply(entry))) break;
+        }
+      } else {
+        myParallelProcessingPools.getProcessor(ParallelProcessingPools.Purpose.ARCHIVES, parallelism).process(layout.myEntries, crcComputation, entriesWriter);
+      }
+      if (!writer.isRangeWritten()) {
+        writer.finish();
+      }
+      bufferedOut.flush();
+    } catch (UncheckedIOException e) {
+      LOG.debug("Aborted writing stored archive for " + detailsForLog.get() + ": " + e.getCause());
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * @throws IOException if the file cannot be read or the client has disconnected. The size and CRC of the entry are already written,
+   * so the archive is aborted rather than completed with wrong data: the client gets a broken download and can retry instead of a corrupted archive
+   */
+  private static void writeStoredEntry(@NotNull final ZipStreamWriter writer, @NotNull final StoredEntry entry, final long start, final long end) throws IOException {
+    final String name = entry.myArtifact.getFullName();
+    if (entry.myDirectory) {
+      writer.addDirectory(name, entry.myLastModified);
+      return;
+    }
+    writer.startStoredEntry(name, entry.myLastModified, entry.mySize, entry.myCrc);
+    if (!writer.isInRange(entry.mySize)) {
+      writer.skipStored(entry.mySize);
+      writer.closeEntry();
+      return;
+    }
+    final long skipped = Math.max(0, start - writer.getOffset());
+    final long length = Math.min(entry.mySize, end - writer.getOffset()) - skipped;
+    if (skipped > 0) writer.skipStored(skipped);
+    long written = 0;
+    InputStream input = null;
+    try {
+      try {
+        input = ContainerFileTransfer.getInputStream(entry.myArtifact, skipped);
+      } catch (IOException e) {
+        LOG.warnAndDebugDetails("Error packing artifact, aborting stored archive. File: '" + name + "'", e);
+        throw e;
+      }
+      final byte[] buffer = new byte[64 * 1024];
+      while (written < length) {
+        final int read;
+        try {
+          read = input.read(buffer, 0, (int)Math.min(buffer.length, length - written));
+          if (read < 0) throw new EOFException("The file is shorter than its size " + entry.mySize);
+        } catch (IOException e) {
+          LOG.warnAndDebugDetails("Error packing artifact, aborting stored archive. File: '" + name + "'", e);
+          throw e;
+        }
+        writer.writeStored(buffer, 0, read);
+        written += read;
+      }
+    } finally {
+      FileUtil.close(input);
+    }
+    writer.skipStored(entry.mySize - skipped - length);
+    writer.closeEntry();
+  }
+
+  /**
+   * @throws UncheckedIOException if the file cannot be read: the CRC is written before the data, so the archive cannot be completed correctly
+   */
+  private static long getCrc(@NotNull final StoredEntry entry) {
+    final File localFile = ContainerFileTransfer.getLocalFile(entry.myArtifact);
+    final String cacheKey = localFile == null ? null : localFile.getAbsolutePath() + "|" + entry.mySize + "|" + entry.myLastModified;
+    if (cacheKey != null) {
+      synchronized (ourLocalFilesCrc) {
+        final Long result = ourLocalFilesCrc.get(cacheKey);
+        if (result != null) return result;
+      }
+    }
+    final CRC32 crc = new CRC32();
+    InputStream input = null;
+    try {
+      input = entry.myArtifact.getInputStream();
+      final byte[] buffer = new byte[64 * 1024];
+      long rest = entry.mySize;
+      while (rest > 0) {
+        final int read = input.read(buffer, 0, (int)Math.min(buffer.length, rest));
+        if (read < 0) throw new EOFException("The file is shorter than its size " + entry.mySize);
+        crc.update(buffer, 0, read);
+        rest -= read;
+      }
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Error computing checksum of artifact, aborting stored archive. File: '" + entry.myArtifact.getFullName() + "'", e);
+      throw new UncheckedIOException(e);
+    } finally {
+      FileUtil.close(input);
+    }
+    final long result = crc.getValue();
+    if (cacheKey != null) {
+      final int cacheSize = TeamCityProperties.getInteger(CRC_CACHE_SIZE_PROPERTY, 100000);
+      synchronized (ourLocalFilesCrc) {
+        ourLocalFilesCrc.put(cacheKey, result);
+        final Iterator<String> eldest = ourLocalFilesCrc.keySet().iterator();
+        while (ourLocalFilesCrc.size() > cacheSize && eldest.hasNext()) {
+          eldest.next();
+          eldest.remove();
+        }
+      }
+    }
+    return result;
+  }
+
+  private static class StoredLayout {
+    @NotNull private final List<StoredEntry> myEntries;
+    /**
+     * Size of the archive or -1 if it cannot be computed
+     */
+    private final long mySize;
+
+    private StoredLayout(@NotNull final List<StoredEntry> entries, final long size) {
+      myEntries = entries;
+      mySize = size;
+    }
+  }
+
+  private static class StoredEntry {
+    @NotNull private final ArtifactTreeElement myArtifact;
+    private final boolean myDirectory;
+    private final long myLastModified;
+    private final long myHeaderOffset;
+    private final long myDataOffset;
+    private final long mySize;
+    private long myCentralDirectoryHeaderOffset;
+    private long myCentralDirectoryHeaderEnd;
+    private volatile long myCrc;
+
+    private StoredEntry(@NotNull final ArtifactTreeElement artifact, final boolean directory, final long lastModified, final long headerOffset, final long dataOffset,
+                        final long size) {
+      myArtifact = artifact;
+      myDirectory = directory;
+      myLastModified = lastModified;
+      myHeaderOffset = headerOffset;
+      myDataOffset = dataOffset;
+      mySize = size;
+    }
+
+    /**
+     * @return true if the range contains the local or the central directory header of the entry
+     */
+    private boolean isCrcNeeded(final long start, final long end) {
+      if (myDirectory) return false;
+      return (myHeaderOffset < end && myDataOffset > start) || (myCentralDirectoryHeaderOffset < end && myCentralDirectoryHeaderEnd > start);
+    }
+  }
+
   @NotNull
   public InputStream getInputStream() throws IllegalStateException, IOException, BrowserException {
     throw new IllegalStateException("Operation is not supported");
   }
 
   public long getSize() throws IllegalStateException {
-    return -1;
+    final StoredLayout storedLayout = getStoredLayout();
+    return storedLayout != null ? storedLayout.mySize : -1;
   }
 
   @NotNull
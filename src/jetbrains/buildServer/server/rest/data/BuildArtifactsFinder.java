@@ -341,6 +341,11 @@ public class BuildArtifactsFinder extends AbstractFinder<ArtifactTreeElement> {
 
   @NotNull
   public static Element getArtifactElement(@NotNull final BuildPromotion buildPromotion, @NotNull final String path, final @NotNull ServiceLocator serviceLocator) {
+    final BuildArtifactsIndex index = serviceLocator.findSingletonService(BuildArtifactsIndex.class);
+    if (index != null) {
+      final ArtifactTreeElement indexed = index.getElement(buildPromotion, path);
+      if (indexed != null) return indexed;
+    }
     final BuildPromotionEx buildPromotionEx = (BuildPromotionEx)buildPromotion;
     final BuildArtifacts artifacts = buildPromotionEx.getArtifacts(BuildArtifactsViewMode.VIEW_ALL_WITH_ARCHIVES_CONTENT);
     final BuildArtifactHolder holder = artifacts.findArtifact(path);
@@ -589,7 +594,10 @@ public class BuildArtifactsFinder extends AbstractFinder<ArtifactTreeElement> {
   }
 
   static boolean isWithinHidden(final @NotNull Element data) {
-    final String fullName = data.getFullName();
+    return isWithinHidden(data.getFullName());
+  }
+
+  static boolean isWithinHidden(final @NotNull String fullName) {
     return fullName.equals(ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR) ||
            fullName.startsWith(ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR + "/");
   }
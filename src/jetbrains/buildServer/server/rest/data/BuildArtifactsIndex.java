@@ -0,0 +1,760 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.ArtifactsConstants;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactHolder;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+import jetbrains.buildServer.serverSide.impl.LogUtil;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import jetbrains.buildServer.util.browser.Browser;
+import jetbrains.buildServer.util.browser.BrowserException;
+import jetbrains.buildServer.util.browser.Element;
+import jetbrains.buildServer.util.browser.ZipElement;
+import jetbrains.buildServer.web.artifacts.browser.ArtifactTreeElement;
+import jetbrains.buildServer.web.artifacts.browser.ArtifactsBrowserImpl;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Index of the artifacts tree (including the content of archives) of finished builds, so that listing the artifacts does not walk the artifacts storage and open archives.
+ * The index is created in background when a build finishes or its artifacts are first requested and is stored in a file per build in the plugin data directory.
+ * The files are read into memory rather than memory-mapped, so that they can be replaced and deleted while the index is in use (a mapped file cannot be deleted on Windows),
+ * the loaded indexes are limited by count and total size (see LOADED_COUNT_PROPERTY and LOADED_SIZE_PROPERTY).
+ * The index is dropped when the artifacts are changed (published to a finished build or removed by cleanup). On loading, the index is not used if any of the artifacts
+ * directories is modified after the index creation, while a loaded index only checks the root directory.
+ * Hidden artifacts (.teamcity directory) are not indexed.
+ * Experimental, is disabled by default.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class BuildArtifactsIndex extends BuildServerAdapter {
+  private static final Logger LOG = Logger.getInstance(BuildArtifactsIndex.class.getName());
+
+  public static final String ENABLED_PROPERTY = "rest.files.artifactsIndex.enabled";
+  public static final String MAX_ENTRIES_PROPERTY = "rest.files.artifactsIndex.maxEntries";
+  public static final String LOADED_COUNT_PROPERTY = "rest.files.artifactsIndex.loadedCount";
+  public static final String LOADED_SIZE_PROPERTY = "rest.files.artifactsIndex.loadedSize";
+  public static final String QUEUE_SIZE_PROPERTY = "rest.files.artifactsIndex.queueSize";
+  public static final String NOT_INDEXABLE_COUNT_PROPERTY = "rest.files.artifactsIndex.notIndexableCount";
+
+  private static final int STORAGE_MAGIC = 0x52414958;
+  private static final int STORAGE_VERSION = 2;
+  private static final int HEADER_SIZE = 40;
+  private static final int RECORD_SIZE = 48;
+
+  private static final int FLAG_LEAF = 1;
+  private static final int FLAG_CONTENT_AVAILABLE = 1 << 1;
+  private static final int FLAG_ARCHIVE = 1 << 2;
+  private static final int FLAG_INSIDE_ARCHIVE = 1 << 3;
+  private static final int FLAG_NOT_INDEXED = 1 << 4;
+  private static final int FLAG_LAST_MODIFIED = 1 << 5;
+
+  @NotNull private final ServerPaths myServerPaths;
+  @NotNull private final SecurityContextEx mySecurityContext;
+  @NotNull private final Map<Long, Index> myLoaded = new LinkedHashMap<>(16, 0.75f, true); //LRU, guarded by itself
+  private long myLoadedSize = 0; //guarded by myLoaded
+  @NotNull private final Set<Long> myScheduled = Collections.synchronizedSet(new HashSet<>()); //bounded by the executor queue size
+  @NotNull private final Set<Long> myNotIndexable;
+  @Nullable private ThreadPoolExecutor myExecutor;
+  private boolean myShutdown = false;
+
+  public BuildArtifactsIndex(@NotNull final SBuildServer server, @NotNull final ServerPaths serverPaths, @NotNull final SecurityContextEx securityContext) {
+    myServerPaths = serverPaths;
+    mySecurityContext = securityContext;
+    //the builds dropped from here are tried to be indexed again when requested
+    myNotIndexable = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Long, Boolean> eldest) {
+        return size() > TeamCityProperties.getInteger(NOT_INDEXABLE_COUNT_PROPERTY, 10000);
+      }
+    }));
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * @return the element served from the index or null if the element should be got from the build artifacts (the index is not available yet, the path is not found
+   * or points to a file not within an archive, which is better served by the artifacts storage directly)
+   */
+  @Nullable
+  public ArtifactTreeElement getElement(@NotNull final BuildPromotion buildPromotion, @NotNull final String path) {
+    if (BuildArtifactsFinder.isWithinHidden(path)) return null;
+    final Index index = getIndex(buildPromotion);
+    if (index == null) return null;
+    final int record = index.find(path);
+    if (record < 0) return null;
+    final int flags = index.getFlags(record);
+    if ((flags & FLAG_CONTENT_AVAILABLE) != 0 && (flags & FLAG_INSIDE_ARCHIVE) == 0) return null;
+    return new IndexedElement(index, record, null);
+  }
+
+  @Nullable
+  private Index getIndex(@NotNull final BuildPromotion buildPromotion) {
+    if (!isEnabled()) return null;
+    final SBuild build = buildPromotion.getAssociatedBuild();
+    if (build == null || !build.isFinished()) return null;
+    final long id = buildPromotion.getId();
+    Index result;
+    synchronized (myLoaded) {
+      result = myLoaded.get(id);
+    }
+    if (result != null && result.isRootUpToDate()) return result;
+
+    result = load(buildPromotion);
+    synchronized (myLoaded) {
+      final Index previous = result != null ? myLoaded.put(id, result) : myLoaded.remove(id);
+      if (previous != null) myLoadedSize -= previous.getStorageSize();
+      if (result != null) {
+        myLoadedSize += result.getStorageSize();
+        final int maxCount = TeamCityProperties.getInteger(LOADED_COUNT_PROPERTY, 100);
+        final long maxSize = TeamCityProperties.getLong(LOADED_SIZE_PROPERTY, 64 * 1024 * 1024);
+        //the just loaded index is the last one and is kept even if it exceeds the limits alone
+        final Iterator<Index> eldest = myLoaded.values().iterator();
+        while ((myLoaded.size() > maxCount || myLoadedSize > maxSize) && myLoaded.size() > 1) {
+          myLoadedSize -= eldest.next().getStorageSize();
+          eldest.remove();
+        }
+      }
+    }
+    if (result == null) {
+      schedule(buildPromotion);
+    }
+    return result;
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    if (isEnabled()) schedule(build.getBuildPromotion());
+  }
+
+  @Override
+  public void entryDeleted(@NotNull final SFinishedBuild oldEntry) {
+    invalidate(oldEntry.getBuildPromotion().getId());
+  }
+
+  @Override
+  public void buildArtifactsChanged(@NotNull final SBuild build) {
+    invalidate(build.getBuildPromotion().getId());
+  }
+
+  @Override
+  public void cleanupFinished() {
+    //cleanup can remove a part of the artifacts: the indexes are checked against all the artifacts directories when loaded again
+    synchronized (myLoaded) {
+      myLoaded.clear();
+      myLoadedSize = 0;
+    }
+    myNotIndexable.clear();
+  }
+
+  @Override
+  public synchronized void serverShutdown() {
+    myShutdown = true;
+    if (myExecutor != null) {
+      myExecutor.shutdownNow();
+    }
+  }
+
+  private void invalidate(final long promotionId) {
+    synchronized (myLoaded) {
+      final Index removed = myLoaded.remove(promotionId);
+      if (removed != null) myLoadedSize -= removed.getStorageSize();
+    }
+    myNotIndexable.remove(promotionId);
+    FileUtil.delete(getStorageFile(promotionId));
+  }
+
+  @Nullable
+  private synchronized ThreadPoolExecutor getExecutor() {
+    if (myShutdown) return null;
+    if (myExecutor == null) {
+      final int queueSize = Math.max(1, TeamCityProperties.getInteger(QUEUE_SIZE_PROPERTY, 1000));
+      myExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), new NamedDaemonThreadFactory("REST API artifacts index"));
+      myExecutor.allowCoreThreadTimeOut(true);
+    }
+    return myExecutor;
+  }
+
+  private void schedule(@NotNull final BuildPromotion buildPromotion) {
+    final long id = buildPromotion.getId();
+    final ThreadPoolExecutor executor = getExecutor();
+    if (executor == null || myNotIndexable.contains(id) || !myScheduled.add(id)) return;
+    try {
+      executor.submit(() -> {
+        try {
+          mySecurityContext.runAsSystem(() -> create(buildPromotion));
+        } catch (Throwable e) {
+          myNotIndexable.add(id); //do not retry on each request
+          LOG.warnAndDebugDetails("Error while creating artifacts index for build " + LogUtil.describe(buildPromotion) + ", the artifacts of the build are not indexed", e);
+        } finally {
+          myScheduled.remove(id);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      myScheduled.remove(id); //the queue is full or shutting down, the build is scheduled again when requested
+    }
+  }
+
+  @NotNull
+  private File getStorageFile(final long promotionId) {
+    return new File(new File(new File(myServerPaths.getPluginDataDirectory(), "rest-api"), "artifactsIndex"), promotionId + ".bin");
+  }
+
+  /**
+   * Creates the index file of the build artifacts
+   *
+   * @return false if the index cannot be created, e.g. there are too many artifacts
+   */
+  boolean create(@NotNull final BuildPromotion buildPromotion) throws IOException {
+    final SBuild build = buildPromotion.getAssociatedBuild();
+    if (build == null || !build.isFinished()) return false;
+    //before listing, so that any later change is noticed
+    final long artifactsModified = buildPromotion.getArtifactsDirectory().lastModified();
+    final long artifactsSignature = getArtifactsSignature(buildPromotion.getArtifactsDirectory());
+    final BuildArtifactHolder rootHolder = getArtifacts(buildPromotion).findArtifact("");
+    if (!rootHolder.isAvailable()) {
+      myNotIndexable.add(buildPromotion.getId()); //no artifacts
+      return false;
+    }
+    final Element root = new BuildArtifactsFinder.BuildHoldingElement(rootHolder.getArtifact(), buildPromotion);
+
+    final long startTime = System.currentTimeMillis();
+    final int maxEntries = TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 1000000);
+    final IndexWriter writer = new IndexWriter();
+    //breadth-first, so that the children of each entry are stored one after another
+    final ArrayDeque<Element> queue = new ArrayDeque<>();
+    queue.add(root);
+    writer.add(root, -1, "");
+    for (int record = 0; !queue.isEmpty(); record++) {
+      final Element element = queue.poll();
+      if (element.isLeaf() || writer.isNotIndexed(record)) continue;
+      final Iterable<Element> children;
+      try {
+        children = element.getChildren();
+      } catch (BrowserException e) {
+        //e.g. a broken archive: the children are listed from the build artifacts, reporting the same error
+        LOG.debug("Error listing children of artifact '" + element.getFullName() + "' of build " + LogUtil.describe(buildPromotion) + ", the children are not indexed: " + e.toString());
+        writer.setNotIndexed(record);
+        continue;
+      }
+      if (children == null) continue;
+      final String parentFullName = writer.getFullName(record);
+      for (Element child : children) {
+        if (writer.getCount() >= maxEntries) {
+          LOG.info("Build " + LogUtil.describe(buildPromotion) + " has more than " + maxEntries + " artifacts, the artifacts are not indexed");
+          myNotIndexable.add(buildPromotion.getId());
+          return false;
+        }
+        writer.add(child, record, parentFullName);
+        queue.add(child);
+      }
+    }
+
+    final File file = getStorageFile(buildPromotion.getId());
+    final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    Files.createDirectories(tempFile.getParentFile().toPath());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      writer.write(out, buildPromotion.getId(), artifactsModified, artifactsSignature);
+    }
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Artifacts index of build " + LogUtil.describe(buildPromotion) + " with " + writer.getCount() + " entries is created in " +
+                (System.currentTimeMillis() - startTime) + " ms");
+    }
+    return true;
+  }
+
+  @Nullable
+  private Index load(@NotNull final BuildPromotion buildPromotion) {
+    final File file = getStorageFile(buildPromotion.getId());
+    if (!file.isFile()) return null;
+    final Index result;
+    try {
+      result = new Index(Files.readAllBytes(file.toPath()), buildPromotion);
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Error reading artifacts index from \"" + file.getAbsolutePath() + "\", the index will be created anew", e);
+      FileUtil.delete(file);
+      return null;
+    }
+    if (!result.isUpToDate()) {
+      LOG.debug("Artifacts of build " + LogUtil.describe(buildPromotion) + " were modified after the index was created, the index will be created anew");
+      FileUtil.delete(file);
+      return null;
+    }
+    return result;
+  }
+
+  /**
+   * @return signature of the artifacts directories tree. Modification time of a directory changes when its entries are added, removed or renamed,
+   * so the changes deeper than the root directory are noticed without reading the files. Hidden artifacts are not indexed and are not included
+   */
+  private static long getArtifactsSignature(@NotNull final File artifactsDirectory) {
+    long result = 17;
+    final ArrayDeque<File> queue = new ArrayDeque<>();
+    queue.add(artifactsDirectory);
+    while (!queue.isEmpty()) {
+      final File directory = queue.poll();
+      result = 31 * result + directory.lastModified();
+      final File[] files = directory.listFiles();
+      if (files == null) continue;
+      Arrays.sort(files);
+      for (File file : files) {
+        if (directory.equals(artifactsDirectory) && file.getName().equals(ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR)) continue;
+        if (file.isDirectory()) {
+          result = 31 * result + file.getName().hashCode();
+          queue.add(file);
+        }
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static BuildArtifacts getArtifacts(@NotNull final BuildPromotion buildPromotion) {
+    return ((BuildPromotionEx)buildPromotion).getArtifacts(BuildArtifactsViewMode.VIEW_ALL_WITH_ARCHIVES_CONTENT);
+  }
+
+  /**
+   * Full names of the most entries are derived from the parent ones, so only the names are stored for them
+   */
+  @NotNull
+  private static String getDerivedFullName(@NotNull final String parentFullName, final boolean parentIsArchive, @NotNull final String name) {
+    if (parentFullName.isEmpty()) return name;
+    return parentFullName + (parentIsArchive ? "!/" : "/") + name;
+  }
+
+  private static class IndexWriter {
+    private int myCount = 0;
+    @NotNull private int[] myParents = new int[1024];
+    @NotNull private int[] myFlags = new int[1024];
+    @NotNull private long[] mySizes = new long[1024];
+    @NotNull private long[] myLastModified = new long[1024];
+    @NotNull private int[] myNames = new int[1024]; //offset, length
+    @NotNull private int[] myFullNames = new int[1024]; //offset (-1 if derived), length
+    @NotNull private final List<String> myStoredFullNames = new ArrayList<>(); //full names of the entries being listed, by record
+    @NotNull private final List<String> myNameStrings = new ArrayList<>(); //by record, to sort the children by name
+    @NotNull private final ByteArrayOutputStream myStrings = new ByteArrayOutputStream();
+
+    private void add(@NotNull final Element element, final int parent, @NotNull final String parentFullName) throws IOException {
+      if (myCount == myParents.length) {
+        final int size = myCount * 2;
+        myParents = Arrays.copyOf(myParents, size);
+        myFlags = Arrays.copyOf(myFlags, size);
+        mySizes = Arrays.copyOf(mySizes, size);
+        myLastModified = Arrays.copyOf(myLastModified, size);
+        myNames = Arrays.copyOf(myNames, size * 2);
+        myFullNames = Arrays.copyOf(myFullNames, size * 2);
+      }
+      final int record = myCount++;
+      final String fullName = element.getFullName();
+      final boolean contentAvailable = element.isContentAvailable();
+      final ZipElement zipElement = element instanceof ZipElement ? (ZipElement)element : null;
+      final Long lastModified = element instanceof ArtifactTreeElement ? ((ArtifactTreeElement)element).getLastModified() : null;
+      int flags = 0;
+      if (element.isLeaf()) flags |= FLAG_LEAF;
+      if (contentAvailable) flags |= FLAG_CONTENT_AVAILABLE;
+      if (zipElement != null && zipElement.isArchive()) flags |= FLAG_ARCHIVE;
+      if (zipElement != null && zipElement.isInsideArchive()) flags |= FLAG_INSIDE_ARCHIVE;
+      if (parent >= 0 && BuildArtifactsFinder.isHiddenDir(element)) flags |= FLAG_NOT_INDEXED; //accessibility of hidden artifacts depends on the user
+      if (lastModified != null) flags |= FLAG_LAST_MODIFIED;
+
+      myParents[record] = parent;
+      myFlags[record] = flags;
+      mySizes[record] = contentAvailable ? element.getSize() : -1;
+      myLastModified[record] = lastModified != null ? lastModified : 0;
+      putString(myNames, record, element.getName());
+      myNameStrings.add(element.getName());
+      if (parent >= 0 && fullName.equals(getDerivedFullName(parentFullName, (myFlags[parent] & FLAG_ARCHIVE) != 0, element.getName()))) {
+        myFullNames[record * 2] = -1;
+      } else {
+        putString(myFullNames, record, fullName);
+      }
+      myStoredFullNames.add(element.isLeaf() ? null : fullName);
+    }
+
+    private void putString(@NotNull final int[] target, final int record, @NotNull final String value) throws IOException {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if ((long)myStrings.size() + bytes.length > Integer.MAX_VALUE) throw new IOException("Too long artifact names");
+      target[record * 2] = myStrings.size();
+      target[record * 2 + 1] = bytes.length;
+      myStrings.write(bytes);
+    }
+
+    private int getCount() {
+      return myCount;
+    }
+
+    private void setNotIndexed(final int record) {
+      myFlags[record] |= FLAG_NOT_INDEXED;
+    }
+
+    private boolean isNotIndexed(final int record) {
+      return (myFlags[record] & FLAG_NOT_INDEXED) != 0;
+    }
+
+    @NotNull
+    private String getFullName(final int record) {
+      final String result = myStoredFullNames.set(record, null); //not needed any more as the children are listed in the order of the records
+      return result != null ? result : "";
+    }
+
+    private void write(@NotNull final DataOutputStream out, final long promotionId, final long artifactsModified, final long artifactsSignature) throws IOException {
+      //children of each record are consecutive
+      final int[] firstChildren = new int[myCount];
+      final int[] childrenCounts = new int[myCount];
+      for (int i = myCount - 1; i > 0; i--) {
+        firstChildren[myParents[i]] = i;
+        childrenCounts[myParents[i]]++;
+      }
+
+      out.writeInt(STORAGE_MAGIC);
+      out.writeInt(STORAGE_VERSION);
+      out.writeLong(promotionId);
+      out.writeLong(artifactsModified);
+      out.writeLong(artifactsSignature);
+      out.writeInt(myCount);
+      out.writeInt(0); //reserved
+      for (int i = 0; i < myCount; i++) {
+        out.writeInt(myParents[i]);
+        out.writeInt(childrenCounts[i] > 0 ? firstChildren[i] : -1);
+        out.writeInt(childrenCounts[i]);
+        out.writeInt(myFlags[i]);
+        out.writeLong(mySizes[i]);
+        out.writeLong(myLastModified[i]);
+        out.writeInt(myNames[i * 2]);
+        out.writeInt(myNames[i * 2 + 1]);
+        out.writeInt(myFullNames[i * 2]);
+        out.writeInt(myFullNames[i * 2 + 1]);
+      }
+      //the children of each record ordered by name (at the positions of the children records) to find them by binary search, the records keep the listing order
+      out.writeInt(0);
+      for (int i = 0; i < myCount; i++) {
+        if (childrenCounts[i] == 0) continue;
+        final List<Integer> children = new ArrayList<>(childrenCounts[i]);
+        for (int child = firstChildren[i]; child < firstChildren[i] + childrenCounts[i]; child++) {
+          children.add(child);
+        }
+        children.sort(Comparator.comparing(myNameStrings::get));
+        for (Integer child : children) {
+          out.writeInt(child);
+        }
+      }
+      myStrings.writeTo(out);
+    }
+  }
+
+  /**
+   * Read-only view of the index file. The buffer is only accessed with absolute positions, so the index can be used concurrently
+   */
+  private static class Index {
+    @NotNull private final byte[] myBytes;
+    @NotNull private final ByteBuffer myBuffer;
+    @NotNull private final BuildPromotion myBuildPromotion;
+    private final long myArtifactsModified;
+    private final long myArtifactsSignature;
+    private final int myCount;
+    private final int mySortedChildrenOffset;
+    private final int myStringsOffset;
+
+    private Index(@NotNull final byte[] bytes, @NotNull final BuildPromotion buildPromotion) throws IOException {
+      myBytes = bytes;
+      myBuffer = ByteBuffer.wrap(bytes);
+      myBuildPromotion = buildPromotion;
+      if (bytes.length < HEADER_SIZE || myBuffer.getInt(0) != STORAGE_MAGIC || myBuffer.getInt(4) != STORAGE_VERSION) {
+        throw new IOException("Unsupported format");
+      }
+      if (myBuffer.getLong(8) != buildPromotion.getId()) throw new IOException("The index is for another build");
+      myArtifactsModified = myBuffer.getLong(16);
+      myArtifactsSignature = myBuffer.getLong(24);
+      myCount = myBuffer.getInt(32);
+      final long sortedChildrenOffset = HEADER_SIZE + (long)myCount * RECORD_SIZE;
+      final long stringsOffset = sortedChildrenOffset + (long)myCount * 4;
+      if (myCount <= 0 || stringsOffset > bytes.length) throw new IOException("Wrong records count " + myCount);
+      mySortedChildrenOffset = (int)sortedChildrenOffset;
+      myStringsOffset = (int)stringsOffset;
+    }
+
+    private int getStorageSize() {
+      return myBytes.length;
+    }
+
+    /**
+     * Checks only the root artifacts directory, see {@link #isUpToDate()}
+     */
+    private boolean isRootUpToDate() {
+      return myBuildPromotion.getArtifactsDirectory().lastModified() == myArtifactsModified;
+    }
+
+    /**
+     * Checks all the artifacts directories, so is used on loading only
+     */
+    private boolean isUpToDate() {
+      return isRootUpToDate() && getArtifactsSignature(myBuildPromotion.getArtifactsDirectory()) == myArtifactsSignature;
+    }
+
+    private int getInt(final int record, final int offset) {
+      return myBuffer.getInt(HEADER_SIZE + record * RECORD_SIZE + offset);
+    }
+
+    private long getLong(final int record, final int offset) {
+      return myBuffer.getLong(HEADER_SIZE + record * RECORD_SIZE + offset);
+    }
+
+    private int getParent(final int record) {
+      return getInt(record, 0);
+    }
+
+    private int getFirstChild(final int record) {
+      return getInt(record, 4);
+    }
+
+    private int getChildrenCount(final int record) {
+      return getInt(record, 8);
+    }
+
+    private int getFlags(final int record) {
+      return getInt(record, 12);
+    }
+
+    private long getSize(final int record) {
+      return getLong(record, 16);
+    }
+
+    @Nullable
+    private Long getLastModified(final int record) {
+      return (getFlags(record) & FLAG_LAST_MODIFIED) != 0 ? getLong(record, 24) : null;
+    }
+
+    @NotNull
+    private String getName(final int record) {
+      return getString(getInt(record, 32), getInt(record, 36));
+    }
+
+    @NotNull
+    private String getFullName(final int record) {
+      final int offset = getInt(record, 40);
+      if (offset >= 0) return getString(offset, getInt(record, 44));
+      return getFullName(record, getFullName(getParent(record)));
+    }
+
+    /**
+     * @param parentFullName full name of the parent record, to avoid computing it again
+     */
+    @NotNull
+    private String getFullName(final int record, @NotNull final String parentFullName) {
+      final int offset = getInt(record, 40);
+      if (offset >= 0) return getString(offset, getInt(record, 44));
+      return getDerivedFullName(parentFullName, (getFlags(getParent(record)) & FLAG_ARCHIVE) != 0, getName(record));
+    }
+
+    @NotNull
+    private String getString(final int offset, final int length) {
+      return new String(myBytes, myStringsOffset + offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the record of the path or -1 if not found
+     */
+    private int find(@NotNull final String path) {
+      String normalizedPath = path;
+      while (normalizedPath.startsWith("/")) normalizedPath = normalizedPath.substring(1);
+      while (normalizedPath.endsWith("/")) normalizedPath = normalizedPath.substring(0, normalizedPath.length() - 1);
+      int record = 0;
+      String fullName = "";
+      while (true) {
+        if (fullName.equals(normalizedPath)) return record;
+        if ((getFlags(record) & FLAG_NOT_INDEXED) != 0) return -1;
+        final int first = getFirstChild(record);
+        final int count = getChildrenCount(record);
+        if (first < 0 || count <= 0) return -1;
+
+        //the name of the child is the next path element, "a.zip!/b" denotes "b" within "a.zip" archive
+        int next = -1;
+        final String prefix = fullName.isEmpty() ? "" : getDerivedFullName(fullName, (getFlags(record) & FLAG_ARCHIVE) != 0, "");
+        if (normalizedPath.startsWith(prefix)) {
+          final String rest = normalizedPath.substring(prefix.length());
+          final int separatorIndex = rest.indexOf('/');
+          final String name = separatorIndex < 0 ? rest : rest.substring(0, separatorIndex);
+          next = findChild(first, count, name);
+          if (next < 0 && name.endsWith("!")) next = findChild(first, count, name.substring(0, name.length() - 1));
+        }
+        String nextFullName = next >= 0 ? getFullName(next, fullName) : null;
+        if (nextFullName == null || !isWithin(normalizedPath, nextFullName)) {
+          //the full names which are not derived from the parent ones are rare, they are compared directly
+          next = -1;
+          for (int child = first; child < first + count; child++) {
+            if (getInt(child, 40) < 0) continue;
+            final String childFullName = getFullName(child, fullName);
+            if (isWithin(normalizedPath, childFullName)) {
+              next = child;
+              nextFullName = childFullName;
+              break;
+            }
+          }
+        }
+        if (next < 0) return -1;
+        record = next;
+        fullName = nextFullName;
+      }
+    }
+
+    private static boolean isWithin(@NotNull final String path, @NotNull final String fullName) {
+      return path.equals(fullName) || path.startsWith(fullName + "/") || path.startsWith(fullName + "!/");
+    }
+
+    /**
+     * Binary search of the child by name among the children of the record sorted by name
+     * @return the child record or -1 if not found
+     */
+    private int findChild(final int first, final int count, @NotNull final String name) {
+      int low = first;
+      int high = first + count - 1;
+      while (low <= high) {
+        final int middle = (low + high) >>> 1;
+        final int child = myBuffer.getInt(mySortedChildrenOffset + middle * 4);
+        final int comparison = getName(child).compareTo(name);
+        if (comparison == 0) return child;
+        if (comparison < 0) {
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Artifact with the metadata from the index, the content and the children of not indexed entries are got from the build artifacts
+   */
+  public static class IndexedElement implements ArtifactTreeElement {
+    @NotNull private final Index myIndex;
+    private final int myRecord;
+    private final int myFlags;
+    @Nullable private String myFullName;
+
+    @Nullable private final String myParentFullName;
+
+    /**
+     * @param parentFullName full name of the parent if known
+     */
+    private IndexedElement(@NotNull final Index index, final int record, @Nullable final String parentFullName) {
+      myIndex = index;
+      myRecord = record;
+      myFlags = index.getFlags(record);
+      myParentFullName = parentFullName;
+    }
+
+    @NotNull
+    public String getName() {
+      return myIndex.getName(myRecord);
+    }
+
+    @NotNull
+    public String getFullName() {
+      if (myFullName == null) {
+        myFullName = myParentFullName != null ? myIndex.getFullName(myRecord, myParentFullName) : myIndex.getFullName(myRecord);
+      }
+      return myFullName;
+    }
+
+    public boolean isLeaf() {
+      return (myFlags & FLAG_LEAF) != 0;
+    }
+
+    @Nullable
+    public Iterable<Element> getChildren() throws BrowserException {
+      if (isLeaf()) return null;
+      if ((myFlags & FLAG_NOT_INDEXED) != 0) {
+        return getOriginal().getChildren();
+      }
+      final int first = myIndex.getFirstChild(myRecord);
+      final int count = myIndex.getChildrenCount(myRecord);
+      final String fullName = getFullName();
+      final List<Element> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        result.add(new IndexedElement(myIndex, first + i, fullName));
+      }
+      return result;
+    }
+
+    public boolean isContentAvailable() {
+      return (myFlags & FLAG_CONTENT_AVAILABLE) != 0;
+    }
+
+    @NotNull
+    public InputStream getInputStream() throws IllegalStateException, IOException, BrowserException {
+      return getOriginal().getInputStream();
+    }
+
+    public long getSize() {
+      return myIndex.getSize(myRecord);
+    }
+
+    @NotNull
+    public Browser getBrowser() {
+      return new ArtifactsBrowserImpl(getArtifacts(myIndex.myBuildPromotion));
+    }
+
+    public boolean isArchive() {
+      return (myFlags & FLAG_ARCHIVE) != 0;
+    }
+
+    public boolean isInsideArchive() {
+      return (myFlags & FLAG_INSIDE_ARCHIVE) != 0;
+    }
+
+    @Nullable
+    public Long getLastModified() {
+      return myIndex.getLastModified(myRecord);
+    }
+
+    @NotNull
+    private Element getOriginal() throws BrowserException {
+      final BuildArtifactHolder holder = getArtifacts(myIndex.myBuildPromotion).findArtifact(getFullName());
+      if (!holder.isAvailable()) {
+        throw new BrowserException("Artifact '" + getFullName() + "' is not found in build " + LogUtil.describe(myIndex.myBuildPromotion));
+      }
+      return new BuildArtifactsFinder.BuildHoldingElement(holder.getArtifact(), myIndex.myBuildPromotion);
+    }
+
+    @Override
+    public String toString() {
+      return "Indexed artifact '" + getFullName() + "'";
+    }
+  }
+}
@@ -203,6 +203,34 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
     return Locator.merge(result, additionalLocator);
   }
 
+  /**
+   * Dimensions which filter the builds only by the data which changes with builds events of the build type
+   */
+  private static final Set<String> BUILD_TYPE_HISTORY_DIMENSIONS = new HashSet<>(Arrays.asList(
+    BUILD_TYPE, BRANCH, STATE, RUNNING, NUMBER, STATUS, CANCELED, FAILED_TO_START, PINNED, PERSONAL, COMPOSITE, TAG, DEFAULT_FILTERING,
+    PagerData.START, PagerData.COUNT, DIMENSION_LOOKUP_LIMIT));
+
+  /**
+   * @return build types whose builds alone define the result of the locator or null if that cannot be determined cheaply,
+   * e.g. if the builds can be filtered by other entities
+   */
+  @Nullable
+  public List<SBuildType> getHistoryBuildTypes(@Nullable final String locatorText) {
+    if (locatorText == null) return null;
+    try {
+      final Locator locator = new Locator(locatorText);
+      if (locator.isSingleValue()) return null;
+      for (String dimension : locator.getDefinedDimensions()) {
+        if (!BUILD_TYPE_HISTORY_DIMENSIONS.contains(dimension)) return null;
+      }
+      final String buildTypeLocator = locator.getSingleDimensionValue(BUILD_TYPE);
+      if (buildTypeLocator == null) return null;
+      return myBuildTypeFinder.getBuildTypes(null, buildTypeLocator);
+    } catch (LocatorProcessException | NotFoundException | BadRequestException | AccessDeniedException e) {
+      return null; //the error will be reported on finding the builds
+    }
+  }
+
   @Override
   public Long getDefaultPageItemsCount() {
     return (long)Constants.getDefaultPageItemsCount();
@@ -1149,7 +1177,8 @@ public class BuildPromotionFinder extends AbstractFinder<BuildPromotion> {
       for (Locator partialLocator : partialLocators) {
         partialLocator.setDimensionIfNotPresent(PagerData.COUNT, "1");  //limit to single item per strob item by default
         final String finalBuildLocator = Locator.createLocator(strobBuildLocator, partialLocator, new String[]{}).getStringRepresentation();
-        strobResult.add(getItemHolder(getItems(finalBuildLocator).myEntries));
+        //the builds are found only when processed, so that the rest of the strob items are not searched once the processing is stopped (e.g. aggregated status icon)
+        strobResult.add(processor -> getItemHolder(getItems(finalBuildLocator).myEntries).process(processor));
       }
       strobLocator.checkLocatorFullyProcessed();
       return strobResult;
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches data for build status icon requests which are frequent (e.g. badges on external pages):
+ * content of the icon files and the status computed for a build locator.
+ * A cached status is dropped when the related builds or configuration change (see ServerStateVersions) and also after a timeout,
+ * as the permissions to view the status can change without the events tracked.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class BuildStatusIconCache {
+  public static final String CACHE_SIZE_PROPERTY = "rest.buildRequest.statusIcon.cacheSize";
+  public static final String CACHE_TIMEOUT_PROPERTY = "rest.buildRequest.statusIcon.cacheTimeoutSeconds";
+  public static final String ICONS_CACHE_SIZE_PROPERTY = "rest.buildRequest.statusIcon.iconsCacheSize";
+
+  @NotNull private final ServerStateVersions myVersions;
+  @NotNull private final BuildPromotionFinder myBuildPromotionFinder;
+  @NotNull private final SecurityContextEx mySecurityContext;
+
+  @NotNull private final Map<File, Icon> myIcons = new LinkedHashMap<File, Icon>(16, 0.75f, true) { //by canonical file, contains only existing files
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<File, Icon> eldest) {
+      return size() > TeamCityProperties.getInteger(ICONS_CACHE_SIZE_PROPERTY, 100);
+    }
+  };
+  @NotNull private final Map<Key, CachedStatus> myStatuses = new LinkedHashMap<Key, CachedStatus>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<Key, CachedStatus> eldest) {
+      return size() > TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 10000);
+    }
+  };
+
+  public BuildStatusIconCache(@NotNull final ServerStateVersions versions,
+                              @NotNull final BuildPromotionFinder buildPromotionFinder,
+                              @NotNull final SecurityContextEx securityContext) {
+    myVersions = versions;
+    myBuildPromotionFinder = buildPromotionFinder;
+    mySecurityContext = securityContext;
+  }
+
+  /**
+   * @param aggregated     whether the status is computed for all the builds found by the locator or for a single build
+   * @param statusComputer computes the status for the current user, the result is cached only if it is not null
+   */
+  @Nullable
+  public <S> S getStatus(final boolean aggregated, @NotNull final String locator, @NotNull final AuthorityHolder authorityHolder, @NotNull final Supplier<S> statusComputer) {
+    if (TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 10000) <= 0) return statusComputer.get();
+
+    final User user = authorityHolder.getAssociatedUser();
+    final Key key = new Key(aggregated, locator, user == null ? null : user.getId());
+    CachedStatus cached;
+    synchronized (myStatuses) {
+      cached = myStatuses.get(key);
+    }
+    if (cached != null && cached.isValid()) {
+      //noinspection unchecked
+      return (S)cached.myStatus;
+    }
+
+    //get versions before computing so that changes made during the computation are not missed
+    final long configVersion = myVersions.getConfigVersion();
+    final List<SBuildType> buildTypes = getHistoryBuildTypes(locator);
+    final long buildsVersion = getBuildsVersion(buildTypes);
+    final S result = statusComputer.get();
+    if (result != null) {
+      cached = new CachedStatus(result, configVersion, buildTypes, buildsVersion);
+      synchronized (myStatuses) {
+        myStatuses.put(key, cached);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param iconFile       existing file of the icon
+   * @param iconsDirectory the icon is cached only if the file is located under the directory, so that the number of the cached files is bounded by the known icons
+   */
+  @NotNull
+  public Icon getIcon(@NotNull final File iconFile, @NotNull final File iconsDirectory) throws IOException {
+    final File file = iconFile.getCanonicalFile();
+    final String version = file.length() + "-" + file.lastModified();
+    final boolean cacheable = TeamCityProperties.getInteger(ICONS_CACHE_SIZE_PROPERTY, 100) > 0 &&
+                              file.toPath().startsWith(iconsDirectory.getCanonicalFile().toPath());
+    if (cacheable) {
+      synchronized (myIcons) {
+        final Icon cached = myIcons.get(file);
+        if (cached != null && cached.myVersion.equals(version)) return cached;
+      }
+    }
+    final Icon result = new Icon(Files.readAllBytes(file.toPath()), file.getName(), version);
+    if (cacheable) {
+      synchronized (myIcons) {
+        myIcons.put(file, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The status is computed regardless of the current user permissions, so the build types are also found under system
+   */
+  @Nullable
+  private List<SBuildType> getHistoryBuildTypes(@NotNull final String locator) {
+    final List<SBuildType> result;
+    try {
+      result = mySecurityContext.runAsSystem(() -> myBuildPromotionFinder.getHistoryBuildTypes(locator));
+    } catch (Throwable e) {
+      return null;
+    }
+    return result == null || result.isEmpty() ? null : result; //empty list would never change
+  }
+
+  private long getBuildsVersion(@Nullable final List<SBuildType> buildTypes) {
+    if (buildTypes == null) return myVersions.getBuildsVersion();
+    long result = 0;
+    for (SBuildType buildType : buildTypes) {
+      result += myVersions.getBuildTypeHistoryVersion(buildType);
+    }
+    return result;
+  }
+
+  public static class Icon {
+    @NotNull private final byte[] myContent;
+    @NotNull private final String myFileName;
+    @NotNull private final String myVersion;
+
+    private Icon(@NotNull final byte[] content, @NotNull final String fileName, @NotNull final String version) {
+      myContent = content;
+      myFileName = fileName;
+      myVersion = version;
+    }
+
+    @NotNull
+    public byte[] getContent() {
+      return myContent;
+    }
+
+    @NotNull
+    public String getFileName() {
+      return myFileName;
+    }
+
+    /**
+     * @return version of the icon file which can be used in the ETag
+     */
+    @NotNull
+    public String getVersion() {
+      return myVersion;
+    }
+  }
+
+  private class CachedStatus {
+    @NotNull private final Object myStatus;
+    private final long myConfigVersion;
+    @Nullable private final List<SBuildType> myBuildTypes;
+    private final long myBuildsVersion;
+    private final long myCreatedTime = System.currentTimeMillis();
+
+    private CachedStatus(@NotNull final Object status, final long configVersion, @Nullable final List<SBuildType> buildTypes, final long buildsVersion) {
+      myStatus = status;
+      myConfigVersion = configVersion;
+      myBuildTypes = buildTypes;
+      myBuildsVersion = buildsVersion;
+    }
+
+    private boolean isValid() {
+      return System.currentTimeMillis() - myCreatedTime < TeamCityProperties.getInteger(CACHE_TIMEOUT_PROPERTY, 60) * 1000L &&
+             myConfigVersion == myVersions.getConfigVersion() && myBuildsVersion == getBuildsVersion(myBuildTypes);
+    }
+  }
+
+  private static class Key {
+    private final boolean myAggregated;
+    @NotNull private final String myLocator;
+    @Nullable private final Long myUserId;
+
+    private Key(final boolean aggregated, @NotNull final String locator, @Nullable final Long userId) {
+      myAggregated = aggregated;
+      myLocator = locator;
+      myUserId = userId;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key)o;
+      return myAggregated == key.myAggregated && myLocator.equals(key.myLocator) && Objects.equals(myUserId, key.myUserId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myAggregated, myLocator, myUserId);
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.*;
+import java.util.function.LongPredicate;
+import jetbrains.buildServer.server.rest.util.IdSet;
+import jetbrains.buildServer.util.ItemProcessor;
+import jetbrains.buildServer.util.graph.DAG;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.VcsManager;
+import jetbrains.buildServer.vcs.VcsRootInstanceEx;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Traverses the changes graph of VCS root instances over change ids.
+ * Changes are found by id only when they are passed to the processor, so traversal stops as soon as the processor has got enough items or lookupLimit is reached.
+ *
+ * @author Yegor.Yarko
+ *         Date: 18/10/2018
+ */
+public class ChangeDagFinder extends GraphFinder<SVcsModification> {
+  private static final Logger LOG = Logger.getInstance(ChangeDagFinder.class.getName());
+
+  @NotNull private final Finder<SVcsModification> myFinder;
+  @NotNull private final VcsManager myVcsManager;
+
+  public ChangeDagFinder(@NotNull final Finder<SVcsModification> finder, @NotNull final VcsManager vcsManager) {
+    super(finder);
+    myFinder = finder;
+    myVcsManager = vcsManager;
+  }
+
+  /**
+   * @return the items in the same way as GraphFinder does, but lazily
+   */
+  @NotNull
+  public ItemHolder<SVcsModification> getLazyItems(@NotNull final String locatorText) {
+    final Locator locator = createLocator(locatorText, null);
+    final ItemHolder<SVcsModification> result = getPrefilteredItems(locator);
+    locator.checkLocatorFullyProcessed();
+    return result;
+  }
+
+  @NotNull
+  @Override
+  public ItemHolder<SVcsModification> getPrefilteredItems(@NotNull final Locator locator) {
+    final boolean recursive = locator.getSingleDimensionValueAsStrictBoolean(DIMENSION_RECURSIVE, true);
+    final boolean includeInitial = locator.getSingleDimensionValueAsStrictBoolean(DIMENSION_INCLUDE_INITIAL, false);
+
+    final List<SVcsModification> toItems = getChanges(locator, DIMENSION_TO);
+    final List<SVcsModification> fromItems = getChanges(locator, DIMENSION_FROM);
+    final List<SVcsModification> stopItems = getChanges(locator, DIMENSION_STOP);
+    final Long lookupLimit = locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT, getDefaultLookupLimit());
+
+    if (toItems.isEmpty() && fromItems.isEmpty()) {
+      return FinderDataBinding.getItemHolder(Collections.<SVcsModification>emptyList());
+    }
+
+    final IdSet fromStopIds = getIds(toItems, stopItems);
+    if (toItems.isEmpty()) {
+      return getLinkedItems(fromItems, false, includeInitial, recursive, fromStopIds, null, lookupLimit);
+    }
+
+    final IdSet toStopIds = getIds(fromItems, stopItems);
+    if (fromItems.isEmpty()) {
+      return getLinkedItems(toItems, true, includeInitial, recursive, toStopIds, null, lookupLimit);
+    }
+
+    //only ids are collected here, the result is intersection of the changes found from both sides
+    final IdSet fromResultIds = new IdSet();
+    final LongQueue fromResult = new LongQueue();
+    traverse(fromItems, false, includeInitial, recursive, fromStopIds, lookupLimit, id -> {
+      fromResultIds.add(id);
+      fromResult.add(id);
+      return true;
+    });
+    if (fromResult.isEmpty()) {
+      //same as in GraphFinder: when one of the sides finds nothing, the result of the other side is returned
+      return getLinkedItems(toItems, true, includeInitial, recursive, toStopIds, null, lookupLimit);
+    }
+    return new ItemHolder<SVcsModification>() {
+      @Override
+      public void process(@NotNull final ItemProcessor<SVcsModification> processor) {
+        final boolean[] toSideFound = {false};
+        traverse(toItems, true, includeInitial, recursive, toStopIds, lookupLimit, id -> {
+          toSideFound[0] = true;
+          if (!fromResultIds.contains(id)) return true;
+          final SVcsModification modification = myVcsManager.findModificationById(id, false);
+          return modification == null || processor.processItem(modification);
+        });
+        if (toSideFound[0]) return;
+        for (int i = 0; i < fromResult.size(); i++) {
+          final SVcsModification modification = myVcsManager.findModificationById(fromResult.get(i), false);
+          if (modification != null && !processor.processItem(modification)) return;
+        }
+      }
+    };
+  }
+
+  /**
+   * @return changes which have the change as a descendant, the change itself included
+   */
+  @NotNull
+  public ItemHolder<SVcsModification> getAncestors(@NotNull final SVcsModification change, @Nullable final Long lookupLimit) {
+    return getLinkedItems(Collections.singletonList(change), true, true, true, new IdSet(), null, lookupLimit);
+  }
+
+  /**
+   * @return changes which have the change as an ancestor, the change itself included
+   */
+  @NotNull
+  public ItemHolder<SVcsModification> getDescendants(@NotNull final SVcsModification change, @Nullable final Long lookupLimit) {
+    return getLinkedItems(Collections.singletonList(change), false, true, true, new IdSet(), null, lookupLimit);
+  }
+
+  @NotNull
+  private ItemHolder<SVcsModification> getLinkedItems(@NotNull final List<SVcsModification> initialItems,
+                                                      final boolean toParents,
+                                                      final boolean includeInitial,
+                                                      final boolean recursive,
+                                                      @NotNull final IdSet stopIds,
+                                                      @Nullable final IdSet includeOnlyIds,
+                                                      @Nullable final Long lookupLimit) {
+    return new ItemHolder<SVcsModification>() {
+      @Override
+      public void process(@NotNull final ItemProcessor<SVcsModification> processor) {
+        traverse(initialItems, toParents, includeInitial, recursive, stopIds, lookupLimit, id -> {
+          if (includeOnlyIds != null && !includeOnlyIds.contains(id)) return true;
+          final SVcsModification modification = myVcsManager.findModificationById(id, false);
+          return modification == null || processor.processItem(modification);
+        });
+      }
+    };
+  }
+
+  /**
+   * Breadth-first traversal with the same semantics as in GraphFinder: stop items are reported, but not traversed further;
+   * lookupLimit is the number of the found items (initial items are not counted) after which the traversal stops once the current level is complete.
+   * The graph is per VCS root instance, the graphs of all the initial items are traversed level by level together.
+   * @param processor gets ids of the found changes, returns false to stop the traversal
+   */
+  private static void traverse(@NotNull final List<SVcsModification> initialItems,
+                               final boolean toParents,
+                               final boolean includeInitial,
+                               final boolean recursive,
+                               @NotNull final IdSet stopIds,
+                               @Nullable final Long lookupLimit,
+                               @NotNull final LongPredicate processor) {
+    final IdSet reported = new IdSet();
+    final IdSet traversed = new IdSet();
+    final Map<DAG<Long>, LongQueue> queues = new LinkedHashMap<>();
+    for (Map.Entry<DAG<Long>, List<Long>> entry : groupByDag(initialItems).entrySet()) {
+      final LongQueue queue = new LongQueue();
+      for (Long id : entry.getValue()) {
+        final boolean stop = stopIds.contains(id);
+        if ((includeInitial || stop) && reported.add(id) && !processor.test(id)) return;
+        if (!stop && traversed.add(id)) queue.add(id);
+      }
+      queues.put(entry.getKey(), queue);
+    }
+
+    long foundCount = 0;
+    boolean hasNextLevel = true;
+    while (hasNextLevel) {
+      hasNextLevel = false;
+      for (Map.Entry<DAG<Long>, LongQueue> entry : queues.entrySet()) {
+        final DAG<Long> dag = entry.getKey();
+        final LongQueue queue = entry.getValue();
+        for (int levelSize = queue.size(); levelSize > 0; levelSize--) {
+          final long id = queue.poll();
+          for (Long linkedId : toParents ? dag.getParents(id) : dag.getChildren(id)) {
+            if (reported.add(linkedId)) {
+              if (!processor.test(linkedId)) return;
+              foundCount++;
+            }
+            if (recursive && !stopIds.contains(linkedId) && traversed.add(linkedId)) queue.add(linkedId);
+          }
+        }
+        if (!queue.isEmpty()) hasNextLevel = true;
+      }
+      if (hasNextLevel && lookupLimit != null && foundCount >= lookupLimit) {
+        LOG.debug("Hit lookupLimit " + lookupLimit + " while traversing changes graph, result is partial");
+        return;
+      }
+    }
+  }
+
+  @NotNull
+  private List<SVcsModification> getChanges(@NotNull final Locator locator, @NotNull final String dimensionName) {
+    final List<SVcsModification> result = new ArrayList<>();
+    for (String dimensionValue : locator.getDimensionValue(dimensionName)) {
+      result.addAll(myFinder.getItems(dimensionValue).myEntries);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Map<DAG<Long>, List<Long>> groupByDag(@NotNull final List<SVcsModification> items) {
+    final Map<DAG<Long>, List<Long>> result = new LinkedHashMap<>();
+    for (SVcsModification item : items) {
+      result.computeIfAbsent(getDag(item), dag -> new ArrayList<>()).add(item.getId());
+    }
+    return result;
+  }
+
+  @NotNull
+  private static DAG<Long> getDag(@NotNull final SVcsModification item) {
+    return ((VcsRootInstanceEx)item.getVcsRoot()).getDag();
+  }
+
+  @NotNull
+  private static IdSet getIds(@NotNull final List<SVcsModification> items1, @NotNull final List<SVcsModification> items2) {
+    final IdSet result = new IdSet();
+    for (SVcsModification item : items1) {
+      result.add(item.getId());
+    }
+    for (SVcsModification item : items2) {
+      result.add(item.getId());
+    }
+    return result;
+  }
+
+  private static class LongQueue {
+    @NotNull private long[] myItems = new long[64];
+    private int myHead;
+    private int myTail;
+
+    void add(final long item) {
+      if (myTail == myItems.length) {
+        if (myHead > 0) {
+          System.arraycopy(myItems, myHead, myItems, 0, myTail - myHead);
+          myTail -= myHead;
+          myHead = 0;
+        }
+        if (myTail == myItems.length) myItems = Arrays.copyOf(myItems, myItems.length * 2);
+      }
+      myItems[myTail++] = item;
+    }
+
+    long poll() {
+      return myItems[myHead++];
+    }
+
+    boolean isEmpty() {
+      return myHead == myTail;
+    }
+
+    int size() {
+      return myTail - myHead;
+    }
+
+    long get(final int index) {
+      return myItems[myHead + index];
+    }
+  }
+}
@@ -18,8 +18,10 @@ package jetbrains.buildServer.server.rest.data;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import jetbrains.buildServer.ServiceLocator;
+import jetbrains.buildServer.server.rest.data.change.BuildChangesCache;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
 import jetbrains.buildServer.server.rest.errors.NotFoundException;
@@ -29,13 +31,8 @@ import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.impl.RemoteBuildType;
 import jetbrains.buildServer.serverSide.userChanges.UserChangesFacade;
 import jetbrains.buildServer.users.SUser;
-import jetbrains.buildServer.util.CollectionsUtil;
-import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.ItemProcessor;
 import jetbrains.buildServer.util.StringUtil;
-import jetbrains.buildServer.util.graph.BFSVisitorAdapter;
-import jetbrains.buildServer.util.graph.DAG;
-import jetbrains.buildServer.util.graph.DAGIterator;
 import jetbrains.buildServer.vcs.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -80,6 +77,10 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
   @NotNull private final VcsModificationHistory myVcsModificationHistory;
   @NotNull private final ServiceLocator myServiceLocator;
   @NotNull private final BranchFinder myBranchFinder;
+  @NotNull private final PendingChangesCache myPendingChangesCache;
+  @NotNull private final ChangedFilesIndex myChangedFilesIndex;
+  @NotNull private final ChangeTextIndex myChangeTextIndex;
+  @NotNull private final BuildChangesCache myBuildChangesCache;
 
   public ChangeFinder(@NotNull final ProjectFinder projectFinder,
                       @NotNull final BuildFinder buildFinder,
@@ -91,7 +92,11 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
                       @NotNull final VcsManager vcsManager,
                       @NotNull final VcsModificationHistory vcsModificationHistory,
                       @NotNull final BranchFinder branchFinder,
-                      @NotNull final ServiceLocator serviceLocator, @NotNull final PermissionChecker permissionChecker) {
+                      @NotNull final ServiceLocator serviceLocator, @NotNull final PermissionChecker permissionChecker,
+                      @NotNull final PendingChangesCache pendingChangesCache,
+                      @NotNull final ChangedFilesIndex changedFilesIndex,
+                      @NotNull final ChangeTextIndex changeTextIndex,
+                      @NotNull final BuildChangesCache buildChangesCache) {
     super(DIMENSION_ID, PROJECT, BUILD_TYPE, BUILD, VCS_ROOT, VCS_ROOT_INSTANCE, USERNAME, USER, VERSION, INTERNAL_VERSION, COMMENT, FILE, PENDING,
           SINCE_CHANGE, Locator.LOCATOR_SINGLE_VALUE_UNUSED_NAME);
     setHiddenDimensions(BRANCH, PERSONAL, CHILD_CHANGE, PARENT_CHANGE, DAG_TRAVERSE, PROMOTION, PREV_BUILD_POLICY, //hide these for now
@@ -109,6 +114,10 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     myVcsModificationHistory = vcsModificationHistory;
     myServiceLocator = serviceLocator;
     myBranchFinder = branchFinder;
+    myPendingChangesCache = pendingChangesCache;
+    myChangedFilesIndex = changedFilesIndex;
+    myChangeTextIndex = changeTextIndex;
+    myBuildChangesCache = buildChangesCache;
   }
 
   @Nullable
@@ -206,8 +215,12 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
 
     final String username = locator.getSingleDimensionValue(USERNAME);
     if (username != null) {
+      final ChangeTextIndex.IndexedChanges indexedChanges = myChangeTextIndex.findByUsername(username);
       result.add(new FilterConditionChecker<SVcsModification>() {
         public boolean isIncluded(@NotNull final SVcsModification item) {
+          if (indexedChanges != null && indexedChanges.isCovered(item)) {
+            return indexedChanges.contains(item);
+          }
           return username.equalsIgnoreCase(item.getUserName()); //todo: is ignoreCase is right here?
         }
       });
@@ -323,8 +336,12 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
       final String containsText = new Locator(commentLocator).getSingleDimensionValue("contains"); //todo: use conditions here
       //todo: check unknown locator dimensions
       if (containsText != null) {
+        final ChangeTextIndex.IndexedChanges indexedChanges = myChangeTextIndex.findByCommentText(containsText);
         result.add(new FilterConditionChecker<SVcsModification>() {
           public boolean isIncluded(@NotNull final SVcsModification item) {
+            if (indexedChanges != null && indexedChanges.isCovered(item) && !indexedChanges.contains(item)) {
+              return false;
+            }
             return item.getDescription().contains(containsText);
           }
         });
@@ -336,7 +353,7 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
       if (pending != null) {
         final String buildTypeLocator = locator.getSingleDimensionValue(BUILD_TYPE); //todo: support multiple buildTypes here
         final SBuildType buildType = buildTypeLocator == null ? null : myBuildTypeFinder.getBuildType(null, buildTypeLocator, false);
-        final List<SVcsModification> pendingChanges = getPendingChanges(buildType, getFilterBranches(locator, buildType), locator);
+        final Set<SVcsModification> pendingChanges = new HashSet<>(getPendingChanges(buildType, getFilterBranches(locator, buildType), locator));
         result.add(new FilterConditionChecker<SVcsModification>() {
           public boolean isIncluded(@NotNull final SVcsModification item) {
             return FilterUtil.isIncludedByBooleanFilter(pending, pendingChanges.contains(item));
@@ -350,13 +367,17 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
       final String pathLocatorText = new Locator(fileLocator).getSingleDimensionValue("path"); //todo: use conditions here
       //todo: check unknown locator dimensions
       if (pathLocatorText != null) {
-        final String containsText = new Locator(pathLocatorText).getSingleDimensionValue("contains"); //todo: use conditions here
+        final ChangedFilesIndex.PathCondition pathCondition = ChangedFilesIndex.PathCondition.create(new Locator(pathLocatorText)); //todo: use conditions here
         //todo: check unknown locator dimensions
-        if (containsText != null) {
+        if (pathCondition != null) {
+          final ChangedFilesIndex.IndexedChanges indexedChanges = myChangedFilesIndex.findChanges(pathCondition);
           result.add(new FilterConditionChecker<SVcsModification>() {
             public boolean isIncluded(@NotNull final SVcsModification item) {
+              if (indexedChanges != null && indexedChanges.isCovered(item)) {
+                return indexedChanges.contains(item);
+              }
               for (VcsFileModification vcsFileModification : item.getChanges()) {
-                if (vcsFileModification.getFileName().contains(containsText)) {
+                if (pathCondition.matches(vcsFileModification.getFileName())) {
                   return true;
                 }
               }
@@ -452,45 +473,20 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     final String parentChangeLocator = locator.getSingleDimensionValue(CHILD_CHANGE);
     if (parentChangeLocator != null) {
       final SVcsModification parentChange = getItem(parentChangeLocator);
-      return getItemHolder(getChangesWhichHasChild(parentChange, locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT))); //todo: return iterator instead of processing lookup limit here
+      return new ChangeDagFinder(this, myVcsManager).getAncestors(parentChange, locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT));
     }
 
     final String childChangeLocator = locator.getSingleDimensionValue(PARENT_CHANGE);
     if (childChangeLocator != null) {
       final SVcsModification parentChange = getItem(childChangeLocator);
-      return getItemHolder(getChangesWhichHasParent(parentChange, locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT)));
+      return new ChangeDagFinder(this, myVcsManager).getDescendants(parentChange, locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT));
     }
 
     final String graphLocator = locator.getSingleDimensionValue(DAG_TRAVERSE);
     if (graphLocator != null) {
-      final GraphFinder<SVcsModification> graphFinder = new GraphFinder<SVcsModification>(this, new GraphFinder.Traverser<SVcsModification>() {
-        @NotNull
-        @Override
-        public GraphFinder.LinkRetriever<SVcsModification> getChildren() {
-          return new GraphFinder.LinkRetriever<SVcsModification>() {
-            @NotNull
-            @Override
-            public List<SVcsModification> getLinked(@NotNull final SVcsModification item) {
-              return new ArrayList<SVcsModification>(item.getParentModifications());
-            }
-          };
-        }
-
-        @NotNull
-        @Override
-        public GraphFinder.LinkRetriever<SVcsModification> getParents() {
-          return new GraphFinder.LinkRetriever<SVcsModification>() {
-            @NotNull
-            @Override
-            public List<SVcsModification> getLinked(@NotNull final SVcsModification item) {
-              final List<Long> resultIds = ((VcsRootInstanceEx)item.getVcsRoot()).getDag().getChildren(item.getId());
-              return getModificationsByIds(resultIds, myVcsManager);
-            }
-          };
-        }
-      });
+      final ChangeDagFinder graphFinder = new ChangeDagFinder(this, myVcsManager);
       graphFinder.setDefaultLookupLimit(1000L);
-      return getItemHolder(graphFinder.getItems(graphLocator).myEntries);
+      return graphFinder.getLazyItems(graphLocator);
     }
 
     final String userLocator = locator.getSingleDimensionValue(USER);
@@ -550,6 +546,20 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
       return getItemHolder(myVcsModificationHistory.getModificationsInRange(null, sinceChangeId, null));  //todo: use lookupLimit here or otherwise limit processing
     }
 
+    final ChangeTextIndex.IndexedChanges indexedChanges = getIndexedChanges(locator);
+    if (indexedChanges != null) {
+      //comment and username are still checked by the filter
+      return new ItemHolder<SVcsModification>() {
+        @Override
+        public void process(@NotNull final ItemProcessor<SVcsModification> processor) {
+          for (Long id : indexedChanges.getIds()) {
+            final SVcsModification modification = myVcsManager.findModificationById(id, false);
+            if (modification != null && !processor.processItem(modification)) return;
+          }
+        }
+      };
+    }
+
     return new ItemHolder<SVcsModification>() {
       @Override
       public void process(@NotNull final ItemProcessor<SVcsModification> processor) {
@@ -558,6 +568,27 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     };
   }
 
+  /**
+   * @return changes found in the text index if all the changes are indexed
+   */
+  @Nullable
+  private ChangeTextIndex.IndexedChanges getIndexedChanges(@NotNull final Locator locator) {
+    final String username = locator.lookupSingleDimensionValue(USERNAME);
+    if (username != null) {
+      final ChangeTextIndex.IndexedChanges result = myChangeTextIndex.findByUsername(username);
+      if (result != null && result.isComplete()) return result;
+    }
+    final String commentLocator = locator.lookupSingleDimensionValue(COMMENT);
+    if (commentLocator != null) {
+      final String containsText = new Locator(commentLocator).getSingleDimensionValue("contains");
+      if (containsText != null) {
+        final ChangeTextIndex.IndexedChanges result = myChangeTextIndex.findByCommentText(containsText);
+        if (result != null && result.isComplete()) return result;
+      }
+    }
+    return null;
+  }
+
   @Nullable
   private List<BranchData> getFilterBranches(@NotNull final Locator locator, @Nullable final SBuildType buildType) {
     String branchDimension = locator.getSingleDimensionValue(BRANCH);
@@ -578,15 +609,6 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     return null;
   }
 
-  private static List<SVcsModification> getModificationsByIds(final List<Long> ids, final VcsManager vcsManager) {
-    return CollectionsUtil.convertAndFilterNulls(ids, new Converter<SVcsModification, Long>() {
-      @Override
-      public SVcsModification createFrom(@NotNull final Long source) {
-        return vcsManager.findModificationById(source, false);
-      }
-    });
-  }
-
   @NotNull
   private List<SVcsModification> getPendingChanges(@Nullable final SBuildType buildType,
                                                    @Nullable final List<BranchData> filterBranches,
@@ -595,53 +617,23 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
       throw new BadRequestException("Getting pending changes is only supported when buildType is specified.");
     }
     if (filterBranches != null) {
-      return getBranchChanges(buildType, filterBranches, getBuildChangesPolicy(locator, SelectPrevBuildPolicy.SINCE_LAST_BUILD));
-    }
-    return buildType.getPendingChanges();
-  }
-
-  @NotNull
-  private List<SVcsModification> getChangesWhichHasChild(@NotNull final SVcsModification change, final Long limit) {
-    final ArrayList<SVcsModification> result = new ArrayList<SVcsModification>();
-
-    final DAG<Long> dag = ((VcsRootInstanceEx)change.getVcsRoot()).getDag();
-
-    int i = 0;
-    final DAGIterator<Long> iterator = dag.iterator(change.getId());
-    while (iterator.hasNext() && (limit == null || i < limit)) {
-      final SVcsModification modificationById = myVcsManager.findModificationById(iterator.next(), false);
-      if (modificationById != null) result.add(modificationById);
-    }
-
-    return result;
-  }
-
-  @NotNull
-  private List<SVcsModification> getChangesWhichHasParent(@NotNull final SVcsModification change, final Long limit) {
-    final ArrayList<SVcsModification> result = new ArrayList<SVcsModification>();
-
-    final DAG<Long> dag = ((VcsRootInstanceEx)change.getVcsRoot()).getDag();
-
-    final int i = 0;
-    dag.reverseBreadthFirstSearch(change.getId(), new BFSVisitorAdapter<Long>(){
-      @Override
-      public boolean discover(@NotNull final Long node) {
-        final SVcsModification modificationById = myVcsManager.findModificationById(node, false);
-        if (modificationById != null) result.add(modificationById);
-        return limit == null || i < limit;
+      final SelectPrevBuildPolicy policy = getBuildChangesPolicy(locator, SelectPrevBuildPolicy.SINCE_LAST_BUILD);
+      final List<Object> key = new ArrayList<>();
+      key.add(policy);
+      key.add(isIncludeDependencyChanges(buildType));
+      for (BranchData branch : filterBranches) {
+        key.add(branch.getName());
       }
-    });
-
-    return result;
+      return myPendingChangesCache.getPendingChanges(buildType, key, () -> getBranchChanges(buildType, filterBranches, policy));
+    }
+    return myPendingChangesCache.getPendingChanges(buildType, Collections.emptyList(), buildType::getPendingChanges);
   }
 
-
   @NotNull
   private List<SVcsModification> getBranchChanges(@Nullable final SBuildType buildType, @NotNull final List<BranchData> filterBranches, @NotNull final SelectPrevBuildPolicy policy) {
     //todo: buildType.getOption(BuildTypeOptions.BT_SHOW_DEPS_CHANGES) == false => do not include???
     //todo: 2 - allow to set the option in request
-    final boolean includeDependencyChanges = TeamCityProperties.getBoolean(IGNORE_CHANGES_FROM_DEPENDENCIES_OPTION) ||
-                                             (buildType != null && !buildType.getOption(BuildTypeOptions.BT_SHOW_DEPS_CHANGES));
+    final boolean includeDependencyChanges = isIncludeDependencyChanges(buildType);
     final List<ChangeDescriptor> changes = new ArrayList<>();
     for (BranchData branch : filterBranches) {
       changes.addAll(branch.getChanges(policy, includeDependencyChanges));
@@ -649,11 +641,28 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
     return convertChanges(changes);
   }
 
+  private static boolean isIncludeDependencyChanges(@Nullable final SBuildType buildType) {
+    return TeamCityProperties.getBoolean(IGNORE_CHANGES_FROM_DEPENDENCIES_OPTION) ||
+           (buildType != null && !buildType.getOption(BuildTypeOptions.BT_SHOW_DEPS_CHANGES));
+  }
+
   private Stream<SVcsModification> getBuildChanges(@NotNull final BuildPromotion buildPromotion, @Nullable final Locator locator) {
+    final SelectPrevBuildPolicy policy = getBuildChangesPolicy(locator, SelectPrevBuildPolicy.SINCE_LAST_BUILD);
+    final Boolean includeDependencies = getBuildChangesIncludeDependencies();
+    final Long limit = getBuildChangesLimit(locator);
+    final long[] changeIds = myBuildChangesCache.getChangeIds(buildPromotion, policy, includeDependencies);
+    if (changeIds != null) {
+      LongStream ids = Arrays.stream(changeIds);
+      if (limit != null) ids = ids.limit(limit);
+      return ids.mapToObj(id -> myVcsManager.findModificationById(id, false)).filter(Objects::nonNull);
+    }
+
     //todo: use fillDetectedChanges instead
-    return ((BuildPromotionEx)buildPromotion).getDetectedChanges(getBuildChangesPolicy(locator, SelectPrevBuildPolicy.SINCE_LAST_BUILD), getBuildChangesIncludeDependencies(),
-                                                                 getBuildChangesProcessor(getBuildChangesLimit(locator)))
-                                             .stream().map(ChangeDescriptor::getRelatedVcsChange).filter(Objects::nonNull);
+    final List<ChangeDescriptor> changes = ((BuildPromotionEx)buildPromotion).getDetectedChanges(policy, includeDependencies, getBuildChangesProcessor(limit));
+    if (limit == null) {
+      myBuildChangesCache.putChanges(buildPromotion, policy, includeDependencies, changes);
+    }
+    return changes.stream().map(ChangeDescriptor::getRelatedVcsChange).filter(Objects::nonNull);
   }
 
   public boolean isCheap(@NotNull final BuildPromotion buildPromotion, @Nullable final String locatorText) {
@@ -665,7 +674,11 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
         return false;
       }
     }
-    return ((BuildPromotionEx)buildPromotion).hasComputedChanges(getBuildChangesPolicy(locator, SelectPrevBuildPolicy.SINCE_LAST_BUILD), getBuildChangesProcessor(getBuildChangesLimit(locator)));
+    final SelectPrevBuildPolicy policy = getBuildChangesPolicy(locator, SelectPrevBuildPolicy.SINCE_LAST_BUILD);
+    if (myBuildChangesCache.getChangeIds(buildPromotion, policy, getBuildChangesIncludeDependencies()) != null) {
+      return true;
+    }
+    return ((BuildPromotionEx)buildPromotion).hasComputedChanges(policy, getBuildChangesProcessor(getBuildChangesLimit(locator)));
   }
 
   private static VcsModificationProcessor getBuildChangesProcessor(final @Nullable Long limit) {
@@ -674,11 +687,7 @@ public class ChangeFinder extends AbstractFinder<SVcsModification> {
 
   @Nullable
   private static Boolean getBuildChangesIncludeDependencies() {
-    Boolean includeDependencyChanges = null;
-    if (TeamCityProperties.getBoolean(IGNORE_CHANGES_FROM_DEPENDENCIES_OPTION)) {
-      includeDependencyChanges = true;
-    }
-    return includeDependencyChanges;
+    return BuildChangesCache.getDefaultIncludeDependencies();
   }
 
   @NotNull
@@ -0,0 +1,614 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import jetbrains.buildServer.vcs.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Inverted index of change comment terms and change usernames to change ids.
+ * All the changes are indexed in background on the first server start with the index enabled, new changes are indexed as they are detected.
+ * The index is stored in the plugin data directory periodically and on server shutdown, on the next start (also after a crash)
+ * only the changes detected after the stored state are indexed.
+ * Until all the changes are indexed only the changes detected since the server start are covered by the index.
+ * The number of the index entries is limited, once the limit is reached no more changes are indexed and only those already indexed are covered.
+ * Experimental, is disabled by default.
+ *
+ * @author Yegor.Yarko
+ *         Date: 18/10/2018
+ */
+public class ChangeTextIndex extends BuildServerAdapter {
+  private static final Logger LOG = Logger.getInstance(ChangeTextIndex.class.getName());
+
+  public static final String ENABLED_PROPERTY = "rest.request.changes.textIndex.enabled";
+  /**
+   * Max number of the (term, change) and (username, change) pairs in the index, an entry takes about 8 bytes plus the overhead of the term itself
+   */
+  public static final String MAX_ENTRIES_PROPERTY = "rest.request.changes.textIndex.maxEntries";
+  public static final String SAVE_INTERVAL_PROPERTY = "rest.request.changes.textIndex.saveIntervalSeconds";
+
+  /**
+   * Shorter parts of comment terms are not looked up in the index: they match too many terms to make the lookup faster than checking the changes
+   */
+  private static final int MIN_SUBSTRING_LENGTH = 3;
+  private static final int LOOKUPS_CACHE_SIZE = 16;
+
+  private static final int STORAGE_VERSION = 1;
+  private static final String STORAGE_FILE_NAME = "changeTextIndex.bin";
+
+  @NotNull private final ServerPaths myServerPaths;
+  @NotNull private final VcsModificationHistory myVcsModificationHistory;
+
+  @NotNull private final ReadWriteLock myLock = new ReentrantReadWriteLock();
+  @NotNull private Terms myTerms = new Terms(true);
+  @NotNull private Terms myUsernames = new Terms(false);
+  private long myEntriesCount;
+  private long myLastChangeId = -1;
+  private long myFirstDetectedChangeId = -1;
+  private long myLastCoveredChangeId = Long.MAX_VALUE;
+  private boolean myFull;
+  private long myVersion;
+  private volatile boolean myComplete;
+  private volatile boolean myModified;
+
+  /**
+   * Results of the recent lookups: the same lookup is usually performed several times while processing a request
+   */
+  @NotNull private final Map<String, CachedLookup> myLookups = new LinkedHashMap<String, CachedLookup>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, CachedLookup> eldest) {
+      return size() > LOOKUPS_CACHE_SIZE;
+    }
+  };
+
+  @Nullable private ScheduledExecutorService myExecutor;
+  @NotNull private final Object mySaveLock = new Object();
+
+  public ChangeTextIndex(@NotNull final SBuildServer server, @NotNull final ServerPaths serverPaths, @NotNull final VcsModificationHistory vcsModificationHistory) {
+    myServerPaths = serverPaths;
+    myVcsModificationHistory = vcsModificationHistory;
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBoolean(ENABLED_PROPERTY);
+  }
+
+  @Override
+  public synchronized void serverStartup() {
+    if (!isEnabled()) return;
+    final boolean loaded = load();
+    final long loadedLastChangeId = myLastChangeId;
+    myExecutor = Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory("REST API changes text index"));
+    myExecutor.submit(() -> {
+      try {
+        final long startTime = System.currentTimeMillis();
+        if (loaded) {
+          //changes detected after the index was stored, if any
+          for (SVcsModification modification : myVcsModificationHistory.getModificationsInRange(null, loadedLastChangeId, null)) {
+            if (!add(modification, false)) break;
+          }
+        } else {
+          ((VcsModificationHistoryEx)myVcsModificationHistory).processModifications(modification -> add(modification, false) && isEnabled() && !Thread.currentThread().isInterrupted());
+        }
+        if (isEnabled() && !Thread.currentThread().isInterrupted() && markComplete()) {
+          LOG.info("Changes text index is built in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+      } catch (Exception e) {
+        LOG.warnAndDebugDetails("Error while building changes text index, only the changes detected since the server start will be indexed", e);
+      }
+    });
+    final int saveIntervalSeconds = TeamCityProperties.getInteger(SAVE_INTERVAL_PROPERTY, 600);
+    if (saveIntervalSeconds > 0) {
+      myExecutor.scheduleWithFixedDelay(() -> {
+        if (myModified) save();
+      }, saveIntervalSeconds, saveIntervalSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void serverShutdown() {
+    if (myExecutor != null) {
+      myExecutor.shutdownNow();
+      try {
+        myExecutor.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      myExecutor = null;
+    }
+    save();
+  }
+
+  @Override
+  public void changeAdded(@NotNull final VcsModification modification, @NotNull final VcsRoot root, @Nullable final Collection<SBuildType> buildTypes) {
+    if (!isEnabled()) {
+      if (myLastChangeId != -1) reset(); //the changes are not indexed any more, so the index will not be complete
+      return;
+    }
+    if (modification.isPersonal()) return;
+    add(modification, true);
+  }
+
+  /**
+   * @return the ids of changes whose comment can contain the text (the comment should be checked to be sure), or null if the text cannot be looked up in the index
+   */
+  @Nullable
+  public IndexedChanges findByCommentText(@NotNull final String text) {
+    if (!isEnabled()) return null;
+    final List<String> tokens = getTerms(text);
+    if (tokens.isEmpty()) return null;
+    return lookup("comment:" + text, () -> {
+      Set<Long> result = null;
+      for (int i = 0; i < tokens.size(); i++) {
+        final String token = tokens.get(i);
+        //the text can start or end in the middle of the comment term
+        final boolean partialStart = i == 0 && isTermChar(text.charAt(0));
+        final boolean partialEnd = i == tokens.size() - 1 && isTermChar(text.charAt(text.length() - 1));
+        final Set<Long> ids = new HashSet<>();
+        if (partialStart && partialEnd) {
+          if (!myTerms.collectContaining(token, ids)) return null;
+        } else if (partialStart) {
+          myTerms.collectEndingWith(token, ids);
+        } else if (partialEnd) {
+          myTerms.collectStartingWith(token, ids);
+        } else {
+          myTerms.collectEqual(token, ids);
+        }
+        if (result == null) {
+          result = ids;
+        } else {
+          result.retainAll(ids);
+        }
+        if (result.isEmpty()) break;
+      }
+      return getIndexedChanges(result);
+    });
+  }
+
+  /**
+   * @return the ids of changes with username equal to the one passed ignoring case, or null if the index is not available
+   */
+  @Nullable
+  public IndexedChanges findByUsername(@NotNull final String username) {
+    if (!isEnabled()) return null;
+    return lookup("username:" + username, () -> {
+      final Set<Long> result = new HashSet<>();
+      myUsernames.collectEqual(normalizeUsername(username), result);
+      return getIndexedChanges(result);
+    });
+  }
+
+  @Nullable
+  private IndexedChanges lookup(@NotNull final String key, @NotNull final Supplier<IndexedChanges> lookup) {
+    myLock.readLock().lock();
+    try {
+      synchronized (myLookups) {
+        final CachedLookup cached = myLookups.get(key);
+        if (cached != null && cached.myVersion == myVersion) return cached.myResult;
+      }
+      final IndexedChanges result = lookup.get();
+      synchronized (myLookups) {
+        myLookups.put(key, new CachedLookup(myVersion, result));
+      }
+      return result;
+    } finally {
+      myLock.readLock().unlock();
+    }
+  }
+
+  @Nullable
+  private IndexedChanges getIndexedChanges(@NotNull final Set<Long> ids) {
+    if (!myComplete && myFirstDetectedChangeId == -1) return null;
+    return new IndexedChanges(ids, myComplete ? 0 : myFirstDetectedChangeId, myLastCoveredChangeId);
+  }
+
+  /**
+   * @return false if not all the changes are indexed as the index is full
+   */
+  private boolean markComplete() {
+    myLock.writeLock().lock();
+    try {
+      if (myFull) return false;
+      myComplete = true;
+      myVersion++;
+      return true;
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @param detected true if the change is just detected, so it and all the changes detected after it are indexed
+   * @return false if the change was not indexed as the index is full
+   */
+  private boolean add(@NotNull final VcsModification modification, final boolean detected) {
+    final long id = modification.getId();
+    final List<String> terms = getTerms(modification.getDescription());
+    final String username = modification.getUserName();
+    myLock.writeLock().lock();
+    try {
+      if (detected && myFirstDetectedChangeId == -1) myFirstDetectedChangeId = id;
+      if (myFull) return false;
+      for (String term : terms) {
+        if (myTerms.add(term, id)) myEntriesCount++;
+      }
+      if (username != null && myUsernames.add(normalizeUsername(username), id)) myEntriesCount++;
+      if (id > myLastChangeId) myLastChangeId = id;
+      myVersion++;
+      myModified = true;
+      final long maxEntries = TeamCityProperties.getLong(MAX_ENTRIES_PROPERTY, 10000000);
+      if (myEntriesCount >= maxEntries) {
+        LOG.info("Changes text index reached the limit of " + maxEntries + " entries (" + MAX_ENTRIES_PROPERTY + " internal property), no more changes are indexed");
+        myFull = true;
+        myComplete = false;
+        myLastCoveredChangeId = myLastChangeId;
+      }
+      return true;
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  private void reset() {
+    myLock.writeLock().lock();
+    try {
+      myTerms = new Terms(true);
+      myUsernames = new Terms(false);
+      myEntriesCount = 0;
+      myLastChangeId = -1;
+      myFirstDetectedChangeId = -1;
+      myLastCoveredChangeId = Long.MAX_VALUE;
+      myFull = false;
+      myVersion++;
+      myComplete = false;
+      myModified = false;
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  private static boolean isTermChar(final char c) {
+    return Character.isLetterOrDigit(c);
+  }
+
+  @NotNull
+  private static List<String> getTerms(@Nullable final String text) {
+    if (text == null) return Collections.emptyList();
+    final List<String> result = new ArrayList<>();
+    final StringBuilder term = new StringBuilder();
+    for (int i = 0; i <= text.length(); i++) {
+      if (i < text.length() && isTermChar(text.charAt(i))) {
+        term.append(Character.toLowerCase(text.charAt(i)));
+      } else if (term.length() > 0) {
+        result.add(term.toString());
+        term.setLength(0);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Names equal after normalization are exactly those equal by String.equalsIgnoreCase
+   */
+  @NotNull
+  private static String normalizeUsername(@NotNull final String username) {
+    final char[] result = username.toCharArray();
+    for (int i = 0; i < result.length; i++) {
+      result[i] = Character.toLowerCase(Character.toUpperCase(result[i]));
+    }
+    return new String(result);
+  }
+
+  @NotNull
+  private File getStorageFile() {
+    return new File(new File(myServerPaths.getPluginDataDirectory(), "rest-api"), STORAGE_FILE_NAME);
+  }
+
+  private boolean load() {
+    final File file = getStorageFile();
+    if (!file.isFile()) return false;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != STORAGE_VERSION) {
+        LOG.info("Ignoring changes text index stored in \"" + file.getAbsolutePath() + "\" in an unsupported format");
+        return false;
+      }
+      final long lastChangeId = in.readLong();
+      final Terms terms = new Terms(true);
+      final Terms usernames = new Terms(false);
+      final long entriesCount = terms.read(in) + usernames.read(in);
+      myLock.writeLock().lock();
+      try {
+        myTerms = terms;
+        myUsernames = usernames;
+        myEntriesCount = entriesCount;
+        myLastChangeId = lastChangeId;
+        myVersion++;
+      } finally {
+        myLock.writeLock().unlock();
+      }
+      return true;
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Error reading changes text index from \"" + file.getAbsolutePath() + "\", the index will be built anew", e);
+      reset();
+      return false;
+    }
+  }
+
+  /**
+   * Stores the index if all the changes are indexed. The file is replaced atomically, so a stored state is always consistent:
+   * all the changes up to the stored last change id are indexed there.
+   * Only a snapshot of the index is taken under the lock, so the changes are not blocked from being indexed while the file is written.
+   */
+  private void save() {
+    if (!isEnabled() || !myComplete) return;
+    final long lastChangeId;
+    final List<Term> terms;
+    final List<Term> usernames;
+    myLock.readLock().lock();
+    try {
+      myModified = false;
+      lastChangeId = myLastChangeId;
+      terms = myTerms.snapshot();
+      usernames = myUsernames.snapshot();
+    } finally {
+      myLock.readLock().unlock();
+    }
+    final File file = getStorageFile();
+    final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    synchronized (mySaveLock) {
+      try {
+        Files.createDirectories(tempFile.getParentFile().toPath());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+          out.writeInt(STORAGE_VERSION);
+          out.writeLong(lastChangeId);
+          Terms.write(terms, out);
+          Terms.write(usernames, out);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        myModified = true;
+        LOG.warnAndDebugDetails("Error storing changes text index to \"" + file.getAbsolutePath() + "\"", e);
+      }
+    }
+  }
+
+  public static class IndexedChanges {
+    @NotNull private final Set<Long> myIds;
+    private final long myFirstCoveredChangeId;
+    private final long myLastCoveredChangeId;
+
+    private IndexedChanges(@NotNull final Set<Long> ids, final long firstCoveredChangeId, final long lastCoveredChangeId) {
+      myIds = ids;
+      myFirstCoveredChangeId = firstCoveredChangeId;
+      myLastCoveredChangeId = lastCoveredChangeId;
+    }
+
+    /**
+     * @return true if all the changes are indexed
+     */
+    public boolean isComplete() {
+      return myFirstCoveredChangeId == 0 && myLastCoveredChangeId == Long.MAX_VALUE;
+    }
+
+    public boolean isCovered(@NotNull final VcsModification modification) {
+      return !modification.isPersonal() && modification.getId() >= myFirstCoveredChangeId && modification.getId() <= myLastCoveredChangeId;
+    }
+
+    public boolean contains(@NotNull final VcsModification modification) {
+      return myIds.contains(modification.getId());
+    }
+
+    /**
+     * @return ids of the found changes, most recent first
+     */
+    @NotNull
+    public List<Long> getIds() {
+      final List<Long> result = new ArrayList<>(myIds);
+      result.sort(Collections.reverseOrder());
+      return result;
+    }
+  }
+
+  private static class CachedLookup {
+    private final long myVersion;
+    @Nullable private final IndexedChanges myResult;
+
+    private CachedLookup(final long version, @Nullable final IndexedChanges result) {
+      myVersion = version;
+      myResult = result;
+    }
+  }
+
+  /**
+   * Sorted vocabulary so that terms starting with a text are found without checking all the terms.
+   * Optionally, also keeps reversed terms for the terms ending with a text and the terms by their trigrams for the terms containing a text.
+   */
+  private static class Terms {
+    @NotNull private final TreeMap<String, Term> myTerms = new TreeMap<>();
+    @Nullable private final TreeMap<String, Term> myReversedTerms;
+    @Nullable private final Map<Long, List<Term>> myTermsByTrigram;
+
+    private Terms(final boolean partialLookups) {
+      myReversedTerms = partialLookups ? new TreeMap<>() : null;
+      myTermsByTrigram = partialLookups ? new HashMap<>() : null;
+    }
+
+    /**
+     * @return true if the change was not indexed for the term before
+     */
+    private boolean add(@NotNull final String name, final long changeId) {
+      return getOrCreate(name).myIds.add(changeId);
+    }
+
+    @NotNull
+    private Term getOrCreate(@NotNull final String name) {
+      Term result = myTerms.get(name);
+      if (result != null) return result;
+      result = new Term(name);
+      myTerms.put(name, result);
+      if (myReversedTerms != null) myReversedTerms.put(reverse(name), result);
+      if (myTermsByTrigram != null) {
+        for (int i = 0; i + MIN_SUBSTRING_LENGTH <= name.length(); i++) {
+          final List<Term> terms = myTermsByTrigram.computeIfAbsent(getTrigram(name, i), t -> new ArrayList<>(1));
+          if (terms.isEmpty() || terms.get(terms.size() - 1) != result) terms.add(result);
+        }
+      }
+      return result;
+    }
+
+    private void collectEqual(@NotNull final String text, @NotNull final Set<Long> result) {
+      final Term term = myTerms.get(text);
+      if (term != null) term.myIds.addTo(result);
+    }
+
+    private void collectStartingWith(@NotNull final String text, @NotNull final Set<Long> result) {
+      for (Term term : myTerms.subMap(text, true, text + Character.MAX_VALUE, true).values()) {
+        term.myIds.addTo(result);
+      }
+    }
+
+    private void collectEndingWith(@NotNull final String text, @NotNull final Set<Long> result) {
+      assert myReversedTerms != null;
+      final String reversed = reverse(text);
+      for (Term term : myReversedTerms.subMap(reversed, true, reversed + Character.MAX_VALUE, true).values()) {
+        term.myIds.addTo(result);
+      }
+    }
+
+    /**
+     * @return false if the text is too short to be looked up
+     */
+    private boolean collectContaining(@NotNull final String text, @NotNull final Set<Long> result) {
+      assert myTermsByTrigram != null;
+      if (text.length() < MIN_SUBSTRING_LENGTH) return false;
+      //all the terms containing the text contain each of its trigrams, checking the terms of the rarest one
+      List<Term> candidates = null;
+      for (int i = 0; i + MIN_SUBSTRING_LENGTH <= text.length(); i++) {
+        final List<Term> terms = myTermsByTrigram.get(getTrigram(text, i));
+        if (terms == null) return true;
+        if (candidates == null || terms.size() < candidates.size()) candidates = terms;
+      }
+      assert candidates != null;
+      for (Term term : candidates) {
+        if (term.myName.contains(text)) term.myIds.addTo(result);
+      }
+      return true;
+    }
+
+    private static long getTrigram(@NotNull final String text, final int start) {
+      return ((long)text.charAt(start) << 32) | ((long)text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    @NotNull
+    private static String reverse(@NotNull final String text) {
+      return new StringBuilder(text).reverse().toString();
+    }
+
+    /**
+     * @return number of the read entries
+     */
+    private long read(@NotNull final DataInputStream in) throws IOException {
+      long result = 0;
+      final int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        final Term term = getOrCreate(in.readUTF());
+        final int idsCount = in.readInt();
+        for (int j = 0; j < idsCount; j++) {
+          if (term.myIds.add(in.readLong())) result++;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return copies of the terms with their postings, to be written without holding the index lock
+     */
+    @NotNull
+    private List<Term> snapshot() {
+      final List<Term> result = new ArrayList<>(myTerms.size());
+      for (Term term : myTerms.values()) {
+        result.add(term.copy());
+      }
+      return result;
+    }
+
+    private static void write(@NotNull final List<Term> terms, @NotNull final DataOutputStream out) throws IOException {
+      out.writeInt(terms.size());
+      for (Term term : terms) {
+        out.writeUTF(term.myName);
+        final LongList ids = term.myIds;
+        out.writeInt(ids.mySize);
+        for (int i = 0; i < ids.mySize; i++) {
+          out.writeLong(ids.myItems[i]);
+        }
+      }
+    }
+  }
+
+  private static class Term {
+    @NotNull private final String myName;
+    @NotNull private final LongList myIds = new LongList();
+
+    private Term(@NotNull final String name) {
+      myName = name;
+    }
+
+    @NotNull
+    private Term copy() {
+      final Term result = new Term(myName);
+      result.myIds.myItems = Arrays.copyOf(myIds.myItems, Math.max(myIds.mySize, 1));
+      result.myIds.mySize = myIds.mySize;
+      return result;
+    }
+  }
+
+  private static class LongList {
+    @NotNull private long[] myItems = new long[2];
+    private int mySize;
+
+    /**
+     * @return false if the item is the same as the last added one
+     */
+    private boolean add(final long item) {
+      if (mySize > 0 && myItems[mySize - 1] == item) return false;
+      if (mySize == myItems.length) myItems = Arrays.copyOf(myItems, mySize * 2);
+      myItems[mySize++] = item;
+      return true;
+    }
+
+    private void addTo(@NotNull final Set<Long> result) {
+      for (int i = 0; i < mySize; i++) {
+        result.add(myItems[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import jetbrains.buildServer.server.rest.errors.BadRequestException;
+import jetbrains.buildServer.server.rest.util.IdSet;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.vcs.VcsFileModification;
+import jetbrains.buildServer.vcs.VcsModification;
+import jetbrains.buildServer.vcs.VcsRoot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In-memory index of the files changed by the changes detected since the server start: a tree of path segments with ids of the changes in the nodes.
+ * Allows to find changes by file path without loading files of each change.
+ * Only the changes which are actually indexed are covered: the files of the changes detected before the server start, while the index was disabled
+ * or after it got full are still to be checked one by one.
+ * The conditions without a literal path prefix (like "contains") are not looked up in the index as that would need traversing the entire tree.
+ * Experimental, is disabled by default. Takes about 150 bytes of heap per indexed file change.
+ *
+ * @author Yegor.Yarko
+ *         Date: 18/10/2018
+ */
+public class ChangedFilesIndex extends BuildServerAdapter {
+  public static final String ENABLED_PROPERTY = "rest.request.changes.filesIndex.enabled";
+  /**
+   * Max number of the indexed file changes (a file changed in several changes is counted for each of them)
+   */
+  public static final String MAX_FILES_PROPERTY = "rest.request.changes.filesIndex.maxFiles";
+
+  @NotNull private final ReadWriteLock myLock = new ReentrantReadWriteLock();
+  @NotNull private final Node myRoot = new Node();
+  @NotNull private final IdSet myIndexedChanges = new IdSet();
+  /**
+   * Ids of the indexed changes in the order they were indexed, the first myIndexedCount elements are used
+   */
+  @NotNull private long[] myIndexingOrder = new long[64];
+  private int myIndexedCount;
+  private int myFilesCount;
+  private boolean myFull;
+
+  public ChangedFilesIndex(@NotNull final SBuildServer server) {
+    server.addListener(this);
+  }
+
+  @Override
+  public void changeAdded(@NotNull final VcsModification modification, @NotNull final VcsRoot root, @Nullable final Collection<SBuildType> buildTypes) {
+    if (!TeamCityProperties.getBoolean(ENABLED_PROPERTY) || modification.isPersonal()) return;
+    final List<VcsFileModification> files = modification.getChanges();
+    final long id = modification.getId();
+    myLock.writeLock().lock();
+    try {
+      if (myFull || !myIndexedChanges.add(id)) return;
+      if (myIndexedCount == myIndexingOrder.length) myIndexingOrder = Arrays.copyOf(myIndexingOrder, myIndexingOrder.length * 2);
+      myIndexingOrder[myIndexedCount++] = id;
+      for (VcsFileModification file : files) {
+        if (myRoot.add(file.getFileName(), id)) myFilesCount++;
+      }
+      if (myFilesCount >= TeamCityProperties.getInteger(MAX_FILES_PROPERTY, 100000)) {
+        //not indexing any more changes, only those already indexed are covered
+        myFull = true;
+      }
+    } finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return ids of the indexed changes with files matching the condition or null if the index is not available or cannot be used for the condition
+   */
+  @Nullable
+  public IndexedChanges findChanges(@NotNull final PathCondition condition) {
+    if (!TeamCityProperties.getBoolean(ENABLED_PROPERTY) || condition.myPrefix.isEmpty()) return null;
+    myLock.readLock().lock();
+    try {
+      if (myFilesCount == 0) return null;
+      final Set<Long> result = new HashSet<>();
+      myRoot.collect(condition.myPrefix, condition.myPathMatcher, result);
+      return new IndexedChanges(this, result, myIndexedCount);
+    } finally {
+      myLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return true if the change was among the first indexedCount indexed changes, without copying the set of the indexed changes for each lookup
+   */
+  private boolean isIndexed(final long id, final int indexedCount) {
+    myLock.readLock().lock();
+    try {
+      if (!myIndexedChanges.contains(id)) return false;
+      //the changes indexed after the lookup are not in its result
+      for (int i = indexedCount; i < myIndexedCount; i++) {
+        if (myIndexingOrder[i] == id) return false;
+      }
+      return true;
+    } finally {
+      myLock.readLock().unlock();
+    }
+  }
+
+  public static class IndexedChanges {
+    @NotNull private final ChangedFilesIndex myIndex;
+    @NotNull private final Set<Long> myIds;
+    private final int myIndexedCount;
+
+    private IndexedChanges(@NotNull final ChangedFilesIndex index, @NotNull final Set<Long> ids, final int indexedCount) {
+      myIndex = index;
+      myIds = ids;
+      myIndexedCount = indexedCount;
+    }
+
+    /**
+     * @return true if the files of the change were indexed, so the change matches the condition only if it is contained in the result
+     */
+    public boolean isCovered(@NotNull final VcsModification modification) {
+      return !modification.isPersonal() && myIndex.isIndexed(modification.getId(), myIndexedCount);
+    }
+
+    public boolean contains(@NotNull final VcsModification modification) {
+      return myIds.contains(modification.getId());
+    }
+  }
+
+  /**
+   * Condition on a file path, with the literal prefix of the matching paths known to look up the index
+   */
+  public static class PathCondition {
+    @NotNull private final String myPrefix;
+    @NotNull private final Predicate<String> myPathMatcher;
+
+    private PathCondition(@NotNull final String prefix, @NotNull final Predicate<String> pathMatcher) {
+      myPrefix = prefix;
+      myPathMatcher = pathMatcher;
+    }
+
+    public boolean matches(@NotNull final String path) {
+      return path.startsWith(myPrefix) && myPathMatcher.test(path);
+    }
+
+    /**
+     * @param locator path locator with one of "equals", "startsWith", "contains" or "glob" dimensions
+     * @return null if the locator has no supported conditions
+     */
+    @Nullable
+    public static PathCondition create(@NotNull final Locator locator) {
+      final String equalsText = locator.getSingleDimensionValue("equals");
+      if (equalsText != null) {
+        return new PathCondition(equalsText, equalsText::equals);
+      }
+      final String startsWithText = locator.getSingleDimensionValue("startsWith");
+      if (startsWithText != null) {
+        return new PathCondition(startsWithText, path -> true);
+      }
+      final String containsText = locator.getSingleDimensionValue("contains");
+      if (containsText != null) {
+        return new PathCondition("", path -> path.contains(containsText));
+      }
+      final String globText = locator.getSingleDimensionValue("glob");
+      if (globText != null) {
+        return new PathCondition(getLiteralPrefix(globText), getGlobPattern(globText).asPredicate());
+      }
+      return null;
+    }
+
+    @NotNull
+    private static String getLiteralPrefix(@NotNull final String glob) {
+      for (int i = 0; i < glob.length(); i++) {
+        if (glob.charAt(i) == '*' || glob.charAt(i) == '?') return glob.substring(0, i);
+      }
+      return glob;
+    }
+
+    /**
+     * "**" matches any characters, "*" matches any characters except for "/", "?" matches a single character except for "/"
+     */
+    @NotNull
+    private static Pattern getGlobPattern(@NotNull final String glob) {
+      final StringBuilder result = new StringBuilder("^");
+      int literalStart = 0;
+      for (int i = 0; i < glob.length(); i++) {
+        final char c = glob.charAt(i);
+        if (c != '*' && c != '?') continue;
+        if (literalStart < i) result.append(Pattern.quote(glob.substring(literalStart, i)));
+        if (c == '?') {
+          result.append("[^/]");
+        } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          result.append(".*");
+          i++;
+        } else {
+          result.append("[^/]*");
+        }
+        literalStart = i + 1;
+      }
+      if (literalStart < glob.length()) result.append(Pattern.quote(glob.substring(literalStart)));
+      result.append("$");
+      try {
+        return Pattern.compile(result.toString());
+      } catch (IllegalArgumentException e) {
+        throw new BadRequestException("Wrong path pattern '" + glob + "': " + e.getMessage());
+      }
+    }
+  }
+
+  private static class Node {
+    @Nullable private Map<String, Node> myChildren;
+    @Nullable private long[] myChangeIds;
+    private int myChangeIdsCount;
+
+    /**
+     * @return true if the change was not indexed for the path before
+     */
+    private boolean add(@NotNull final String path, final long changeId) {
+      Node node = this;
+      for (String segment : path.split("/", -1)) {
+        if (node.myChildren == null) node.myChildren = new HashMap<>();
+        node = node.myChildren.computeIfAbsent(segment, s -> new Node());
+      }
+      if (node.myChangeIds == null) {
+        node.myChangeIds = new long[1];
+      } else if (node.myChangeIds[node.myChangeIdsCount - 1] == changeId) {
+        return false;
+      } else if (node.myChangeIdsCount == node.myChangeIds.length) {
+        node.myChangeIds = Arrays.copyOf(node.myChangeIds, node.myChangeIdsCount * 2);
+      }
+      node.myChangeIds[node.myChangeIdsCount++] = changeId;
+      return true;
+    }
+
+    private void collect(@NotNull final String prefix, @NotNull final Predicate<String> pathMatcher, @NotNull final Set<Long> result) {
+      final String[] segments = prefix.split("/", -1);
+      Node node = this;
+      String path = null;
+      for (int i = 0; i < segments.length - 1; i++) {
+        node = node.myChildren == null ? null : node.myChildren.get(segments[i]);
+        if (node == null) return;
+        path = path == null ? segments[i] : path + "/" + segments[i];
+      }
+      if (node.myChildren == null) return;
+      final String lastSegment = segments[segments.length - 1];
+      for (Map.Entry<String, Node> child : node.myChildren.entrySet()) {
+        if (child.getKey().startsWith(lastSegment)) {
+          child.getValue().collectSubtree(path == null ? child.getKey() : path + "/" + child.getKey(), pathMatcher, result);
+        }
+      }
+    }
+
+    private void collectSubtree(@NotNull final String path, @NotNull final Predicate<String> pathMatcher, @NotNull final Set<Long> result) {
+      if (myChangeIds != null && pathMatcher.test(path)) {
+        for (int i = 0; i < myChangeIdsCount; i++) {
+          result.add(myChangeIds[i]);
+        }
+      }
+      if (myChildren != null) {
+        for (Map.Entry<String, Node> child : myChildren.entrySet()) {
+          child.getValue().collectSubtree(path + "/" + child.getKey(), pathMatcher, result);
+        }
+      }
+    }
+  }
+}
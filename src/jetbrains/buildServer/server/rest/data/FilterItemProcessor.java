@@ -18,6 +18,7 @@ package jetbrains.buildServer.server.rest.data;
 
 import java.util.ArrayList;
 import jetbrains.buildServer.util.ItemProcessor;
+import org.jetbrains.annotations.Nullable;
 
 /**
 * @author Yegor.Yarko
@@ -28,29 +29,59 @@ public class FilterItemProcessor<T> implements ItemProcessor<T> {
   private long myTotalItemsProcessed = 0;
   private final PagingItemFilter<T> myFilter;
   private final ArrayList<T> myList = new ArrayList<T>();
+  @Nullable private final ItemProcessor<T> myResultProcessor;
+  private long myPassedItemsCount = 0;
+  private boolean myStopped = false;
 
   public FilterItemProcessor(final PagingItemFilter<T> filter) {
+    this(filter, null);
+  }
+
+  /**
+   * @param resultProcessor if not null, gets the matched items instead of collecting them into the result
+   */
+  public FilterItemProcessor(final PagingItemFilter<T> filter, @Nullable final ItemProcessor<T> resultProcessor) {
     myFilter = filter;
+    myResultProcessor = resultProcessor;
   }
 
+  /**
+   * Once false is returned, all the next items are ignored as well: the items can be passed by several sources (e.g. aggregated item holders) which do not all stop on false
+   */
   public boolean processItem(final T item) {
+    if (myStopped) {
+      return false;
+    }
     final boolean withinRange = myFilter.isBelowUpperRangeLimit(myCurrentIndex, myTotalItemsProcessed++);
     if (!withinRange){
-      return false;
+      return stop();
     }
 
     if (myFilter.shouldStop(item)){
-      return false;
+      return stop();
     }
     if (!myFilter.isIncluded(item)) {
       return true;
     }
     if (myFilter.isIncludedByRange(myCurrentIndex++)) {
+      if (myResultProcessor != null) {
+        myPassedItemsCount++;
+        return myResultProcessor.processItem(item) || stop();
+      }
       myList.add(item);
     }
     return true;
   }
 
+  protected boolean stop() {
+    myStopped = true;
+    return false;
+  }
+
+  protected boolean isStopped() {
+    return myStopped;
+  }
+
   public ArrayList<T> getResult() {
     return myList;
   }
@@ -62,4 +93,11 @@ public class FilterItemProcessor<T> implements ItemProcessor<T> {
   public long getTotalItemsProcessed() {
     return myTotalItemsProcessed;
   }
+
+  /**
+   * @return number of the items passed to the result processor instead of collecting them into the result
+   */
+  public long getPassedItemsCount() {
+    return myPassedItemsCount;
+  }
 }
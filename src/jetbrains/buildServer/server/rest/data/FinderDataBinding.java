@@ -17,6 +17,8 @@
 package jetbrains.buildServer.server.rest.data;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -68,6 +70,16 @@ public interface FinderDataBinding<ITEM> {
      */
     @NotNull
     ItemFilter<ITEM> getFilter();
+
+    /**
+     * Returns comparator to order the matched items with, null if the items should be returned in the order of prefiltered items
+     * When not null, all the prefiltered items (up to lookupLimit) are processed, only the top "start + count" items are retained
+     * Should not have side-effects other than marking used locator dimensions
+     */
+    @Nullable
+    default Comparator<ITEM> getComparator() {
+      return null;
+    }
   }
 
   @NotNull
@@ -87,7 +99,12 @@ public interface FinderDataBinding<ITEM> {
 
   @NotNull
   static <P> ItemHolder<P> getItemHolder(@NotNull Stream<? extends P> items) {
-    return processor -> items.forEach(item -> processor.processItem(item));
+    return processor -> {
+      final Iterator<? extends P> iterator = items.iterator();
+      while (iterator.hasNext()) {
+        if (!processor.processItem(iterator.next())) break;
+      }
+    };
   }
 
   @NotNull
@@ -104,11 +121,14 @@ public interface FinderDataBinding<ITEM> {
 
     public void process(@NotNull final ItemProcessor<P> processor) {
       for (P entry : myEntries) {
-        processor.processItem(entry);
+        if (!processor.processItem(entry)) break;
       }
     }
   }
 
+  /**
+   * Processes the holders one by one, the next holders are not processed once the processor returns false, so the holders which compute the items lazily are not invoked then
+   */
   static class AggregatingItemHolder<P> implements ItemHolder<P> {
     @NotNull final private List<ItemHolder<P>> myItemHolders = new ArrayList<>();
 
@@ -117,8 +137,15 @@ public interface FinderDataBinding<ITEM> {
     }
 
     public void process(@NotNull final ItemProcessor<P> processor) {
+      final boolean[] stopped = {false};
+      final ItemProcessor<P> stopTrackingProcessor = item -> {
+        if (processor.processItem(item)) return true;
+        stopped[0] = true;
+        return false;
+      };
       for (ItemHolder<P> itemHolder : myItemHolders) {
-        itemHolder.process(processor);
+        itemHolder.process(stopTrackingProcessor);
+        if (stopped[0]) break;
       }
     }
   }
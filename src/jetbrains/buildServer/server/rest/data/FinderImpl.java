@@ -19,6 +19,8 @@ package jetbrains.buildServer.server.rest.data;
 import com.intellij.openapi.diagnostic.Logger;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
@@ -106,6 +108,55 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
                                                                 () -> getItemsByLocator(getLocatorOrNull(locatorText), true));
   }
 
+  /**
+   * Passes the items found by the locator to the processor as they are found instead of collecting them, e.g. to stream the items into the response.
+   * "count" locator dimension is ignored, so "lookupLimit" is the only bound of the processing.
+   * If the finder sorts the items, they are still collected and sorted before passing to the processor. "count" is applied then,
+   * so that only the first "start" + "count" of the sorted items are retained while processing.
+   */
+  public void processItems(@Nullable final String locatorText, @NotNull final ItemProcessor<ITEM> processor) {
+    prepareProcessItems(locatorText).accept(processor);
+  }
+
+  /**
+   * Same as {@link #processItems(String, ItemProcessor)}, but the locator is parsed and checked right away, so that errors in the locator are reported by this method,
+   * e.g. before a streaming response is started. The items are found and passed to the processor only when the returned consumer is invoked, which should be done once.
+   */
+  @NotNull
+  public Consumer<ItemProcessor<ITEM>> prepareProcessItems(@Nullable final String locatorText) {
+    final String threadName = "Using " + getName() + " to process items for locator \"" + locatorText + "\"";
+    final Function<ItemProcessor<ITEM>, PagedSearchResult<ITEM>> preparedSearch =
+      NamedThreadFactory.executeWithNewThreadNameFuncThrow(threadName, () -> prepareItemsByLocator(getLocatorOrNull(locatorText), true, true));
+    return processor -> NamedThreadFactory.executeWithNewThreadNameFuncThrow(threadName, () -> {
+      //the items are returned here only when they are not passed to the processor while filtering
+      for (ITEM item : preparedSearch.apply(processor).myEntries) {
+        if (!processor.processItem(item)) break;
+      }
+      return null;
+    });
+  }
+
+  /**
+   * @return the maximum number of the items returned by getItems for the locator or null if not limited, e.g. to apply "count" while processing the items via processItems
+   */
+  @Nullable
+  public Long getCount(@Nullable final String locatorText) {
+    return getCountNotMarkingAsUsed(createLocator(locatorText, Locator.createEmptyLocator()));
+  }
+
+  /**
+   * getItems processes at least "count" items when "lookupLimit" is not set explicitly, while processItems ignores "count".
+   * @return the locator with "lookupLimit" set so that processItems processes as many items as getItems would
+   */
+  @Nullable
+  public String getLocatorWithEffectiveLookupLimit(@Nullable final String locatorText) {
+    final Locator locator = createLocator(locatorText, Locator.createEmptyLocator());
+    if (locator.isSingleValue() || locator.lookupSingleDimensionValue(DIMENSION_LOOKUP_LIMIT) != null) return locatorText;
+    final Long lookupLimit = getLookupLimit(locator);
+    if (lookupLimit == null || lookupLimit.equals(myDataBinding.getDefaultLookupLimit())) return locatorText;
+    return Locator.setDimension(locatorText, DIMENSION_LOOKUP_LIMIT, lookupLimit);
+  }
+
   @NotNull
   @Override
   public ItemFilter<ITEM> getFilter(@NotNull final String locatorText) {
@@ -206,6 +257,17 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
 
   @NotNull
   private PagedSearchResult<ITEM> getItemsByLocator(@Nullable final Locator originalLocator, final boolean multipleItemsQuery) {
+    return prepareItemsByLocator(originalLocator, multipleItemsQuery, false).apply(null);
+  }
+
+  /**
+   * Parses and checks the locator, the items are searched for when the returned function is invoked.
+   * @param processWhileFiltering if true, the items are passed to the result processor (the function argument) while filtering where possible and "count" is ignored
+   */
+  @NotNull
+  private Function<ItemProcessor<ITEM>, PagedSearchResult<ITEM>> prepareItemsByLocator(@Nullable final Locator originalLocator,
+                                                                                       final boolean multipleItemsQuery,
+                                                                                       final boolean processWhileFiltering) {
     Locator locator;
     if (originalLocator == null) {
       //go on with empty locator
@@ -224,7 +286,7 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
 
       //so far do not support additional filtering or other dimensions if context item is used
       locator.checkLocatorFullyProcessed();
-      return new PagedSearchResult<ITEM>(contextObjects, null, null);
+      return getResult(new PagedSearchResult<ITEM>(contextObjects, null, null));
     }
 
     if (!locator.isEmpty()) {
@@ -235,7 +297,7 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
         if (multipleItemsQuery && !isReportErrorOnNothingFound(locator)) {
           //consider adding comment/warning messages to PagedSearchResult, return it as a header in the response
           //returning empty collection for multiple items query
-          return new PagedSearchResult<ITEM>(Collections.<ITEM>emptyList(), null, null);
+          return getResult(new PagedSearchResult<ITEM>(Collections.<ITEM>emptyList(), null, null));
         }
         throw e;
       }
@@ -264,18 +326,19 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
                                  ", but that was filtered out using the entire locator '" + locator + "'";
           if (multipleItemsQuery && !isReportErrorOnNothingFound(locator)) {
             LOG.debug(message);
-            return new PagedSearchResult<ITEM>(Collections.<ITEM>emptyList(), null, null);
+            return getResult(new PagedSearchResult<ITEM>(Collections.<ITEM>emptyList(), null, null));
           } else {
             throw new NotFoundException(message);
           }
         }
 
-        return new PagedSearchResult<ITEM>(Collections.singletonList(singleItem), null, null);
+        return getResult(new PagedSearchResult<ITEM>(Collections.singletonList(singleItem), null, null));
       }
       locator.markAllUnused(); // nothing found - no dimensions should be marked as used then
     }
     FinderDataBinding.ItemHolder<ITEM> unfilteredItems;
     PagingItemFilter<ITEM> pagingFilter;
+    Comparator<ITEM> comparator;
     try {
       FinderDataBinding.LocatorDataBinding<ITEM> locatorDataBinding = getDataBindingWithLogicOpsSupport(locator, myDataBinding);
       unfilteredItems = locatorDataBinding.getPrefilteredItems();
@@ -287,10 +350,14 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
         }
       }
 
+      comparator = locatorDataBinding.getComparator();
+      //sorted items are collected before passing to the processor, so "count" is applied to bound the number of the retained items
+      final boolean passWhileFiltering = processWhileFiltering && comparator == null;
       final Long start = locator.getSingleDimensionValueAsLong(PagerData.START);
-      final Long count = getCountNotMarkingAsUsed(locator);
+      final Long count = passWhileFiltering ? null : getCountNotMarkingAsUsed(locator);
       locator.markUsed(Collections.singleton(PagerData.COUNT));
-      final Long lookupLimit = getLookupLimit(locator);
+      final Long lookupLimit = passWhileFiltering ? locator.getSingleDimensionValueAsLong(DIMENSION_LOOKUP_LIMIT, myDataBinding.getDefaultLookupLimit())
+                                                  : getLookupLimit(locator);
 
       pagingFilter = new PagingItemFilter<ITEM>(locatorDataBinding.getFilter(), start, count == null ? null : count.intValue(), lookupLimit);
     } catch (LocatorProcessException | BadRequestException | IllegalArgumentException e) {
@@ -302,7 +369,17 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
     }
     locator.checkLocatorFullyProcessed();
     final FinderDataBinding.ItemHolder<ITEM> finalUnfilteredItems = unfilteredItems;
-    return NamedThreadFactory.executeWithNewThreadNameFuncThrow("Filtering items", () -> getItems(pagingFilter, finalUnfilteredItems, locator));
+    final Comparator<ITEM> finalComparator = comparator;
+    return resultProcessor -> {
+      final FilterItemProcessor<ITEM> filterItemProcessor = finalComparator == null ? new FilterItemProcessor<ITEM>(pagingFilter, resultProcessor)
+                                                                                    : new SortingFilterItemProcessor<ITEM>(pagingFilter, finalComparator);
+      return NamedThreadFactory.executeWithNewThreadNameFuncThrow("Filtering items", () -> getItems(pagingFilter, filterItemProcessor, finalUnfilteredItems, locator));
+    };
+  }
+
+  @NotNull
+  private static <T> Function<ItemProcessor<T>, PagedSearchResult<T>> getResult(@NotNull final PagedSearchResult<T> result) {
+    return resultProcessor -> result;
   }
 
   @Nullable
@@ -343,12 +420,13 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
 
   @NotNull
   private PagedSearchResult<ITEM> getItems(final @NotNull PagingItemFilter<ITEM> filter,
+                                           final @NotNull FilterItemProcessor<ITEM> filterItemProcessor,
                                            final @NotNull FinderDataBinding.ItemHolder<ITEM> unfilteredItems,
                                            @NotNull final Locator locator) {
     final long startTime = System.nanoTime();
-    final FilterItemProcessor<ITEM> filterItemProcessor = new FilterItemProcessor<ITEM>(filter);
     unfilteredItems.process(filterItemProcessor);
     final ArrayList<ITEM> result = filterItemProcessor.getResult();
+    final long resultSize = result.size() + filterItemProcessor.getPassedItemsCount();
     final long finishTime = System.nanoTime();
     final long totalItemsProcessed = filterItemProcessor.getTotalItemsProcessed();
     final long processingTimeMs = TimeUnit.MILLISECONDS.convert(finishTime - startTime, TimeUnit.NANOSECONDS);
@@ -356,16 +434,16 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
       final String lookupLimitMessage =
         filter.isLookupLimitReached() ? " (lookupLimit of " + filter.getLookupLimit() + " reached). Last processed item: " + LogUtil.describe(filter.getLastProcessedItem()) : "";
       if (LOG.isDebugEnabled()) {
-        LOG.debug("While processing locator '" + locator + "' by finder " + getName() + ", " + result.size() + " items were matched by the filter from " +
+        LOG.debug("While processing locator '" + locator + "' by finder " + getName() + ", " + resultSize + " items were matched by the filter from " +
                   totalItemsProcessed + " processed in total" + lookupLimitMessage + ", took " + processingTimeMs + " ms");
       }
     }
     if (totalItemsProcessed > TeamCityProperties.getLong("rest.finder.processedItemsWarnLimit", 10000) ||
         processingTimeMs > TeamCityProperties.getLong("rest.finder.timeWarnLimit", 10000)) {
       LOG.info("Server performance can be affected by REST request with locator '" + locator + "': " +
-               totalItemsProcessed + " items were processed and " + result.size() + " items were returned, took " + processingTimeMs + " ms");
+               totalItemsProcessed + " items were processed and " + resultSize + " items were returned, took " + processingTimeMs + " ms");
     }
-    if (result.isEmpty() && isReportErrorOnNothingFound(locator)){
+    if (resultSize <= 0 && isReportErrorOnNothingFound(locator)){
       throw new NotFoundException("Nothing is found by " + getLocatorDetailsForMessage(locator) + ".");
     }
     return new PagedSearchResult<ITEM>(result, filter.getStart(), filter.getCount(), totalItemsProcessed,
@@ -439,6 +517,18 @@ public class FinderImpl<ITEM> implements Finder<ITEM> {
         }
         return getFilterWithLogicOpsSupport(locator, myLocatorDataBinding);
       }
+
+      @Nullable
+      @Override
+      public Comparator<ITEM> getComparator() {
+        if (!locator.getDimensionValue(DIMENSION_ITEM).isEmpty()) {
+          return null;
+        }
+        if (myLocatorDataBinding == null) {
+          myLocatorDataBinding = originalDataBinding.getLocatorDataBinding(locator);
+        }
+        return myLocatorDataBinding.getComparator();
+      }
     };
   }
 
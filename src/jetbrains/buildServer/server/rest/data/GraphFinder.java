@@ -37,7 +37,7 @@ public class GraphFinder<T> extends AbstractFinder<T> {
   protected static final String DIMENSION_RECURSIVE = "recursive";
   protected static final String DIMENSION_INCLUDE_INITIAL = "includeInitial";
   private final Finder<T> myFinder;
-  @NotNull private final Traverser<T> myTraverser;
+  @Nullable private final Traverser<T> myTraverser;
   private Long myDefaultLookupLimit;
 
   public GraphFinder(@NotNull Finder<T> finder, @NotNull Traverser<T> traverser) {
@@ -46,6 +46,15 @@ public class GraphFinder<T> extends AbstractFinder<T> {
     myTraverser = traverser;
   }
 
+  /**
+   * For subclasses which traverse the graph themselves and override {@link #getPrefilteredItems(Locator)}
+   */
+  protected GraphFinder(@NotNull Finder<T> finder) {
+    super(new String[]{DIMENSION_FROM, DIMENSION_TO, DIMENSION_RECURSIVE, DIMENSION_INCLUDE_INITIAL, DIMENSION_STOP});
+    myFinder = finder;
+    myTraverser = null;
+  }
+
   @NotNull
   @Override
   public String getItemLocator(@NotNull final T t) {
@@ -71,6 +80,7 @@ public class GraphFinder<T> extends AbstractFinder<T> {
   @NotNull
   @Override
   public ItemHolder<T> getPrefilteredItems(@NotNull final Locator locator) {
+    if (myTraverser == null) throw new OperationException("No graph traverser is set in GraphFinder");
     boolean recursive = locator.getSingleDimensionValueAsStrictBoolean(DIMENSION_RECURSIVE, true);
 
     boolean includeOriginal = locator.getSingleDimensionValueAsStrictBoolean(DIMENSION_INCLUDE_INITIAL, false);
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import jetbrains.buildServer.server.rest.errors.OperationException;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.VcsModification;
+import jetbrains.buildServer.vcs.VcsRoot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps pending changes of build configurations (per set of branches) so that frequent polling does not recalculate them.
+ * Concurrent requests for the same build configuration and branches wait for the single calculation.
+ * Pending changes of a build configuration are dropped when a build of it starts or finishes and when a new change is detected for it or for any of its snapshot dependencies.
+ * As some settings affecting the pending changes are not tracked, the changes are also not kept longer than the timeout.
+ *
+ * @author Yegor.Yarko
+ *         Date: 18/10/2018
+ */
+public class PendingChangesCache extends BuildServerAdapter {
+  public static final String TIMEOUT_PROPERTY = "rest.request.changes.pendingCacheTimeoutSeconds";
+
+  @NotNull private final ConcurrentMap<String, ConcurrentMap<Object, Entry>> myEntries = new ConcurrentHashMap<>(); //build type internal id -> key -> pending changes
+
+  public PendingChangesCache(@NotNull final SBuildServer server) {
+    server.addListener(this);
+  }
+
+  /**
+   * @param key identifies the branches and options of the calculation within the build configuration, should implement equals/hashCode
+   */
+  @NotNull
+  public List<SVcsModification> getPendingChanges(@NotNull final SBuildType buildType,
+                                                  @NotNull final Object key,
+                                                  @NotNull final Supplier<List<SVcsModification>> calculation) {
+    final long timeout = TeamCityProperties.getInteger(TIMEOUT_PROPERTY, 60) * 1000L;
+    if (timeout <= 0) {
+      return calculation.get();
+    }
+    final ConcurrentMap<Object, Entry> entries = myEntries.computeIfAbsent(buildType.getInternalId(), id -> new ConcurrentHashMap<>());
+    while (true) {
+      final Entry entry = entries.get(key);
+      if (entry != null) {
+        if (!entry.isExpired(timeout)) {
+          return entry.getResult();
+        }
+        entries.remove(key, entry);
+        continue;
+      }
+
+      final Entry newEntry = new Entry();
+      if (entries.putIfAbsent(key, newEntry) != null) continue;
+      try {
+        final List<SVcsModification> result = Collections.unmodifiableList(calculation.get());
+        newEntry.myResult.complete(result);
+        return result;
+      } catch (RuntimeException | Error e) {
+        entries.remove(key, newEntry);
+        newEntry.myResult.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
+
+  private void invalidate(@Nullable final String buildTypeId) {
+    if (buildTypeId != null) myEntries.remove(buildTypeId);
+  }
+
+  @Override
+  public void changeAdded(@NotNull final VcsModification modification, @NotNull final VcsRoot root, @Nullable final Collection<SBuildType> buildTypes) {
+    if (myEntries.isEmpty()) return;
+    if (buildTypes == null) {
+      myEntries.clear();
+      return;
+    }
+    //the change can also be pending in the build configurations depending on the ones listed
+    final Set<String> processed = new HashSet<>();
+    final Deque<SBuildType> toProcess = new ArrayDeque<>(buildTypes);
+    while (!toProcess.isEmpty()) {
+      final SBuildType buildType = toProcess.poll();
+      if (!processed.add(buildType.getInternalId())) continue;
+      invalidate(buildType.getInternalId());
+      toProcess.addAll(buildType.getDependencyReferences());
+    }
+  }
+
+  @Override
+  public void buildStarted(@NotNull final SRunningBuild build) {
+    invalidate(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    invalidate(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildInterrupted(@NotNull final SRunningBuild build) {
+    invalidate(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    invalidate(buildType.getInternalId());
+  }
+
+  private static class Entry {
+    @NotNull private final CompletableFuture<List<SVcsModification>> myResult = new CompletableFuture<>();
+    private final long myCreated = System.currentTimeMillis();
+
+    private boolean isExpired(final long timeout) {
+      return System.currentTimeMillis() - myCreated > timeout;
+    }
+
+    @NotNull
+    private List<SVcsModification> getResult() {
+      try {
+        return myResult.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OperationException("Interrupted while waiting for pending changes calculation", e);
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if (cause instanceof Error) throw (Error)cause;
+        throw new OperationException("Error while calculating pending changes: " + cause, cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.BuildProblemData;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Maintains monotonic versions of the server state parts which are updated on the server events.
+ * A response which depends only on some parts of the state can use the versions of the parts to detect that it is not changed, see ETags.
+ * The versions are not persisted: they are in memory only and start anew on the server restart, so they should be used together with the epoch.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ServerStateVersions extends BuildServerAdapter {
+  /**
+   * Running and queued builds data like progress or estimates change without events. While there are such builds, the "running data" version
+   * changes every this number of seconds, so the responses with such builds can be stale for not longer than this.
+   * 0 or less means such responses are not detected as not changed.
+   */
+  public static final String RUNNING_DATA_PERIOD_PROPERTY = "rest.response.etag.runningDataPeriodSeconds";
+
+  @NotNull private final SBuildServer myServer;
+  @NotNull private final ProjectManager myProjectManager;
+  private final long myEpoch = System.currentTimeMillis();
+
+  @NotNull private final AtomicLong myQueueVersion = new AtomicLong();
+  @NotNull private final AtomicLong myBuildsVersion = new AtomicLong();
+  @NotNull private final AtomicLong myConfigVersion = new AtomicLong();
+  @NotNull private final ConcurrentMap<String, AtomicLong> myBuildTypeHistoryVersions = new ConcurrentHashMap<>(); //by build type internal id
+  @NotNull private final ConcurrentMap<String, AtomicLong> myProjectVersions = new ConcurrentHashMap<>(); //by project internal id, changes of the project itself
+  @NotNull private final ConcurrentMap<String, AtomicLong> myProjectSubtreeVersions = new ConcurrentHashMap<>(); //by project internal id, changes of the project and subprojects
+
+  public ServerStateVersions(@NotNull final SBuildServer server, @NotNull final ProjectManager projectManager) {
+    myServer = server;
+    myProjectManager = projectManager;
+    server.addListener(this);
+  }
+
+  /**
+   * @return identifier of this server run: the versions are comparable only within the same epoch
+   */
+  public long getEpoch() {
+    return myEpoch;
+  }
+
+  /**
+   * @return version of the build queue content and order
+   */
+  public long getQueueVersion() {
+    return myQueueVersion.get();
+  }
+
+  /**
+   * @return version of all the builds data (including queued builds)
+   */
+  public long getBuildsVersion() {
+    return myBuildsVersion.get();
+  }
+
+  /**
+   * @return version of the builds data (including queued builds) of the build type
+   */
+  public long getBuildTypeHistoryVersion(@NotNull final SBuildType buildType) {
+    return getVersion(myBuildTypeHistoryVersions, buildType.getInternalId());
+  }
+
+  /**
+   * @return version of the configuration of all the projects
+   */
+  public long getConfigVersion() {
+    return myConfigVersion.get();
+  }
+
+  /**
+   * @return version of the configuration of the project which changes also on changes in the parent projects (inherited settings) and subprojects
+   */
+  public long getProjectVersion(@NotNull final SProject project) {
+    long result = getVersion(myProjectSubtreeVersions, project.getProjectId());
+    for (SProject parent : project.getProjectPath()) {
+      if (!parent.getProjectId().equals(project.getProjectId())) result += getVersion(myProjectVersions, parent.getProjectId());
+    }
+    return result;
+  }
+
+  /**
+   * @return version of the data of running and queued builds which changes without events (e.g. progress),
+   * 0 if there are no such builds and null if a response which includes such builds should not be detected as not changed
+   */
+  @Nullable
+  public Long getRunningDataVersion() {
+    if (myServer.getRunningBuilds().isEmpty() && myServer.getQueue().getNumberOfItems() == 0) return 0L;
+    final int periodSeconds = TeamCityProperties.getInteger(RUNNING_DATA_PERIOD_PROPERTY, 5);
+    if (periodSeconds <= 0) return null;
+    return 1 + System.currentTimeMillis() / (periodSeconds * 1000L);
+  }
+
+  private static long getVersion(@NotNull final ConcurrentMap<String, AtomicLong> versions, @NotNull final String id) {
+    final AtomicLong result = versions.get(id);
+    return result == null ? 0 : result.get();
+  }
+
+  private static void increment(@NotNull final ConcurrentMap<String, AtomicLong> versions, @NotNull final String id) {
+    versions.computeIfAbsent(id, key -> new AtomicLong()).incrementAndGet();
+  }
+
+  private void queueChanged(@Nullable final String buildTypeId) {
+    myQueueVersion.incrementAndGet();
+    buildChanged(buildTypeId);
+  }
+
+  private void buildChanged(@Nullable final String buildTypeId) {
+    if (buildTypeId != null) increment(myBuildTypeHistoryVersions, buildTypeId);
+    myBuildsVersion.incrementAndGet();
+  }
+
+  private void projectChanged(@Nullable final SProject project) {
+    myConfigVersion.incrementAndGet();
+    if (project == null) return;
+    increment(myProjectVersions, project.getProjectId());
+    for (SProject parent : project.getProjectPath()) {
+      increment(myProjectSubtreeVersions, parent.getProjectId());
+    }
+  }
+
+  private void projectChanged(@NotNull final String projectId) {
+    projectChanged(myProjectManager.findProjectById(projectId));
+  }
+
+  @Override
+  public void buildTypeAddedToQueue(@NotNull final SQueuedBuild queuedBuild) {
+    queueChanged(queuedBuild.getBuildTypeId());
+  }
+
+  @Override
+  public void buildRemovedFromQueue(@NotNull final SQueuedBuild queued, final User user, final String comment) {
+    queueChanged(queued.getBuildTypeId());
+  }
+
+  @Override
+  public void buildQueueOrderChanged() {
+    for (SQueuedBuild queuedBuild : myServer.getQueue().getItems()) {
+      increment(myBuildTypeHistoryVersions, queuedBuild.getBuildTypeId());
+    }
+    queueChanged(null);
+  }
+
+  @Override
+  public void buildStarted(@NotNull final SRunningBuild build) {
+    queueChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildChangedStatus(@NotNull final SRunningBuild build, final Status oldStatus, final Status newStatus) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildInterrupted(@NotNull final SRunningBuild build) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildProblemsChanged(@NotNull final SBuild build, @NotNull final List<BuildProblemData> before, @NotNull final List<BuildProblemData> after) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildTagsChanged(@NotNull final SBuild build, @NotNull final List<String> oldTags, @NotNull final List<String> newTags) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildPinned(@NotNull final SBuild build, @Nullable final User user, @Nullable final String comment) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildUnpinned(@NotNull final SBuild build, @Nullable final User user, @Nullable final String comment) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void buildCommented(@NotNull final SBuild build, @Nullable final User user, @Nullable final String comment) {
+    buildChanged(build.getBuildTypeId());
+  }
+
+  @Override
+  public void entryDeleted(@NotNull final SFinishedBuild oldEntry) {
+    buildChanged(oldEntry.getBuildTypeId());
+  }
+
+  @Override
+  public void projectCreated(@NotNull final String projectId, final SUser user) {
+    projectChanged(projectId);
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    projectChanged(projectId);
+  }
+
+  @Override
+  public void projectRestored(@NotNull final String projectId) {
+    projectChanged(projectId);
+  }
+
+  @Override
+  public void projectArchived(@NotNull final String projectId) {
+    projectChanged(projectId);
+  }
+
+  @Override
+  public void projectDearchived(@NotNull final String projectId) {
+    projectChanged(projectId);
+  }
+
+  @Override
+  public void projectRemoved(@NotNull final SProject project) {
+    projectChanged(project);
+  }
+
+  @Override
+  public void projectMoved(@NotNull final SProject project, @NotNull final SProject originalParentProject) {
+    projectChanged(originalParentProject);
+    projectChanged(project);
+  }
+
+  @Override
+  public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+    projectChanged(buildType.getProject());
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    projectChanged(buildType.getProject());
+  }
+
+  @Override
+  public void buildTypeMoved(@NotNull final SBuildType buildType, @NotNull final SProject original) {
+    projectChanged(original);
+    projectChanged(buildType.getProject());
+  }
+
+  @Override
+  public void buildTypePersisted(@NotNull final SBuildType buildType) {
+    projectChanged(buildType.getProject());
+  }
+
+  @Override
+  public void buildTypeTemplatePersisted(@NotNull final BuildTypeTemplate buildTemplate) {
+    projectChanged(buildTemplate.getProject());
+  }
+
+  @Override
+  public void buildTypeActiveStatusChanged(@NotNull final SBuildType buildType) {
+    projectChanged(buildType.getProject());
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Collects the matched items ordered by the comparator. Retains only the top "start + count" items while processing
+ * (O(n log k) with the heap instead of sorting all the matched items), so all the items should be processed to get the result.
+ * Once false is returned (lookupLimit is reached or the filter requested to stop), all the next items are ignored as well.
+ *
+ * @author Yegor.Yarko
+ *         Date: 17/10/2018
+ */
+public class SortingFilterItemProcessor<T> extends FilterItemProcessor<T> {
+  private long myTotalItemsProcessed = 0;
+  private long myMatchedItemsCount = 0;
+  @NotNull private final PagingItemFilter<T> myFilter;
+  @NotNull private final Comparator<T> myComparator;
+  private final long myStart;
+  private final Long myRetainLimit;
+  @NotNull private final PriorityQueue<T> myTopItems; //the head is the "largest" of the retained items
+
+  public SortingFilterItemProcessor(@NotNull final PagingItemFilter<T> filter, @NotNull final Comparator<T> comparator) {
+    super(filter);
+    myFilter = filter;
+    myComparator = comparator;
+    myStart = filter.getStart() == null ? 0 : filter.getStart();
+    myRetainLimit = filter.getCount() == null ? null : myStart + filter.getCount();
+    myTopItems = new PriorityQueue<T>(11, Collections.reverseOrder(comparator));
+  }
+
+  @Override
+  public boolean processItem(final T item) {
+    if (isStopped()) {
+      return false;
+    }
+    //the count is applied after sorting, so only lookupLimit can stop the processing here
+    if (!myFilter.isBelowUpperRangeLimit(0, myTotalItemsProcessed++)) {
+      return stop();
+    }
+    if (myFilter.shouldStop(item)) {
+      return stop();
+    }
+    if (!myFilter.isIncluded(item)) {
+      return true;
+    }
+    myMatchedItemsCount++;
+    if (myRetainLimit == null || myTopItems.size() < myRetainLimit) {
+      myTopItems.add(item);
+    } else if (myRetainLimit > 0 && myComparator.compare(item, myTopItems.peek()) < 0) {
+      myTopItems.poll();
+      myTopItems.add(item);
+    }
+    return true;
+  }
+
+  @Override
+  public ArrayList<T> getResult() {
+    final ArrayList<T> sorted = new ArrayList<T>(myTopItems);
+    sorted.sort(myComparator);
+    if (myStart == 0) return sorted;
+    if (myStart >= sorted.size()) return new ArrayList<T>();
+    return new ArrayList<T>(sorted.subList((int)myStart, sorted.size()));
+  }
+
+  @Override
+  public long getProcessedItemsCount() {
+    return myMatchedItemsCount;
+  }
+
+  @Override
+  public long getTotalItemsProcessed() {
+    return myTotalItemsProcessed;
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data.change;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jetbrains.buildServer.server.rest.data.ChangeFinder;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.impl.LogUtil;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import jetbrains.buildServer.vcs.ChangeDescriptor;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
+import jetbrains.buildServer.vcs.VcsModificationProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps ids of the changes of finished builds (in the order of the changes) for the recently finished or requested builds.
+ * The changes are computed in background when a build finishes, so that requests for the build changes do not compute them.
+ * When a build is deleted, the entries of the builds of its build configuration and of the builds depending on it are dropped
+ * as changes of the next builds can change then.
+ *
+ * @author Yegor.Yarko
+ *         Date: 18/10/2018
+ */
+public class BuildChangesCache extends BuildServerAdapter {
+  private static final Logger LOG = Logger.getInstance(BuildChangesCache.class.getName());
+
+  public static final String CACHE_SIZE_PROPERTY = "rest.request.changes.buildChangesCacheSize";
+  public static final String PRECOMPUTE_POLICIES_PROPERTY = "rest.request.changes.buildChangesCache.precomputePolicies";
+  public static final String PRECOMPUTE_QUEUE_SIZE_PROPERTY = "rest.request.changes.buildChangesCache.precomputeQueueSize";
+
+  private final int myMaxSize;
+  @NotNull private final Map<Key, CachedChanges> myChangeIds;
+  @Nullable private ThreadPoolExecutor myExecutor;
+  private boolean myShutdown = false;
+
+  public BuildChangesCache(@NotNull final SBuildServer server) {
+    myMaxSize = TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 10000);
+    myChangeIds = new LinkedHashMap<Key, CachedChanges>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, CachedChanges> eldest) {
+        return size() > myMaxSize;
+      }
+    };
+    server.addListener(this);
+  }
+
+  /**
+   * @return ids of the changes of the build or null if they are not cached
+   */
+  @Nullable
+  public long[] getChangeIds(@NotNull final BuildPromotion buildPromotion, @NotNull final SelectPrevBuildPolicy policy, @Nullable final Boolean includeDependencies) {
+    if (!isCacheable(buildPromotion)) return null;
+    synchronized (myChangeIds) {
+      final CachedChanges entry = myChangeIds.get(new Key(buildPromotion.getId(), policy, includeDependencies));
+      return entry == null ? null : entry.myChangeIds;
+    }
+  }
+
+  /**
+   * Stores complete list of the changes computed for the build
+   */
+  public void putChanges(@NotNull final BuildPromotion buildPromotion, @NotNull final SelectPrevBuildPolicy policy, @Nullable final Boolean includeDependencies,
+                         @NotNull final List<ChangeDescriptor> changes) {
+    if (!isCacheable(buildPromotion)) return;
+    final long[] ids = new long[changes.size()];
+    int size = 0;
+    for (ChangeDescriptor change : changes) {
+      final SVcsModification modification = change.getRelatedVcsChange();
+      if (modification != null) ids[size++] = modification.getId();
+    }
+    final CachedChanges entry = new CachedChanges(size == ids.length ? ids : Arrays.copyOf(ids, size), getAffectingBuildTypeIds(buildPromotion));
+    synchronized (myChangeIds) {
+      myChangeIds.put(new Key(buildPromotion.getId(), policy, includeDependencies), entry);
+    }
+  }
+
+  /**
+   * @return ids of the build configurations whose builds deletion can change the changes of the build: its own one and those of all its dependencies
+   */
+  @NotNull
+  private static Set<String> getAffectingBuildTypeIds(@NotNull final BuildPromotion buildPromotion) {
+    final Set<String> result = new HashSet<>();
+    result.add(buildPromotion.getBuildTypeId());
+    for (BuildPromotion dependency : buildPromotion.getAllDependencies()) {
+      result.add(dependency.getBuildTypeId());
+    }
+    return result;
+  }
+
+  /**
+   * @return the include-dependencies value used for the build changes when it is not specified in the request
+   */
+  @Nullable
+  public static Boolean getDefaultIncludeDependencies() {
+    Boolean includeDependencyChanges = null;
+    if (TeamCityProperties.getBoolean(ChangeFinder.IGNORE_CHANGES_FROM_DEPENDENCIES_OPTION)) {
+      includeDependencyChanges = true;
+    }
+    return includeDependencyChanges;
+  }
+
+  private boolean isCacheable(@NotNull final BuildPromotion buildPromotion) {
+    if (myMaxSize <= 0 || buildPromotion.isPersonal()) return false;
+    final SBuild build = buildPromotion.getAssociatedBuild();
+    return build != null && build.isFinished();
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    if (myMaxSize <= 0 || build.isPersonal()) return;
+    final BuildPromotion buildPromotion = build.getBuildPromotion();
+    final ThreadPoolExecutor executor = getExecutor();
+    if (executor != null) {
+      executor.execute(() -> precompute(buildPromotion));
+    }
+  }
+
+  /**
+   * @return null if the server is shutting down
+   */
+  @Nullable
+  private synchronized ThreadPoolExecutor getExecutor() {
+    if (myShutdown) return null;
+    if (myExecutor == null) {
+      //when the queue is full, the changes of the build are computed on the first request as if there were no precomputation
+      final int queueSize = Math.max(1, TeamCityProperties.getInteger(PRECOMPUTE_QUEUE_SIZE_PROPERTY, 1000));
+      myExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                                          new NamedDaemonThreadFactory("REST API build changes precomputation"), new ThreadPoolExecutor.DiscardPolicy());
+      myExecutor.allowCoreThreadTimeOut(true);
+    }
+    return myExecutor;
+  }
+
+  private void precompute(@NotNull final BuildPromotion buildPromotion) {
+    final Boolean includeDependencies = getDefaultIncludeDependencies();
+    for (SelectPrevBuildPolicy policy : getPrecomputePolicies()) {
+      try {
+        if (getChangeIds(buildPromotion, policy, includeDependencies) != null) continue;
+        putChanges(buildPromotion, policy, includeDependencies,
+                   ((BuildPromotionEx)buildPromotion).getDetectedChanges(policy, includeDependencies, VcsModificationProcessor.ACCEPT_ALL));
+      } catch (Exception e) {
+        LOG.warnAndDebugDetails("Error while computing changes of build " + LogUtil.describe(buildPromotion) + " with policy " + policy, e);
+      }
+    }
+  }
+
+  @NotNull
+  private static List<SelectPrevBuildPolicy> getPrecomputePolicies() {
+    final List<SelectPrevBuildPolicy> result = new ArrayList<>();
+    for (String name : TeamCityProperties.getProperty(PRECOMPUTE_POLICIES_PROPERTY, SelectPrevBuildPolicy.SINCE_LAST_BUILD.name()).split(",")) {
+      if (name.trim().isEmpty()) continue;
+      try {
+        result.add(SelectPrevBuildPolicy.valueOf(name.trim()));
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Ignoring unknown policy \"" + name + "\" in the internal property \"" + PRECOMPUTE_POLICIES_PROPERTY + "\"");
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void entryDeleted(@NotNull final SFinishedBuild oldEntry) {
+    final long promotionId = oldEntry.getBuildPromotion().getId();
+    final String buildTypeId = oldEntry.getBuildTypeId();
+    synchronized (myChangeIds) {
+      myChangeIds.entrySet().removeIf(e -> e.getKey().myPromotionId == promotionId || e.getValue().myAffectingBuildTypeIds.contains(buildTypeId));
+    }
+  }
+
+  @Override
+  public synchronized void serverShutdown() {
+    myShutdown = true;
+    if (myExecutor != null) {
+      myExecutor.shutdownNow();
+      myExecutor = null;
+    }
+  }
+
+  private static class CachedChanges {
+    @NotNull private final long[] myChangeIds;
+    @NotNull private final Set<String> myAffectingBuildTypeIds;
+
+    private CachedChanges(@NotNull final long[] changeIds, @NotNull final Set<String> affectingBuildTypeIds) {
+      myChangeIds = changeIds;
+      myAffectingBuildTypeIds = affectingBuildTypeIds;
+    }
+  }
+
+  private static class Key {
+    private final long myPromotionId;
+    @NotNull private final SelectPrevBuildPolicy myPolicy;
+    @Nullable private final Boolean myIncludeDependencies;
+
+    private Key(final long promotionId, @NotNull final SelectPrevBuildPolicy policy, @Nullable final Boolean includeDependencies) {
+      myPromotionId = promotionId;
+      myPolicy = policy;
+      myIncludeDependencies = includeDependencies;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key)o;
+      return myPromotionId == key.myPromotionId && myPolicy == key.myPolicy && Objects.equals(myIncludeDependencies, key.myIncludeDependencies);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myPromotionId, myPolicy, myIncludeDependencies);
+    }
+  }
+}
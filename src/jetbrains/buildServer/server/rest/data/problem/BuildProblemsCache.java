@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data.problem;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jetbrains.buildServer.BuildProblemData;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.problems.BuildProblem;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps problem occurrences of the recently requested finished builds (the least recently used builds are evicted)
+ * so that repeated requests for the same builds do not load the problems again.
+ * An entry is dropped when the problems of the build are changed.
+ * Mute and investigation data is not cached: the problems retrieve it from the corresponding services on each call.
+ *
+ * @author Yegor.Yarko
+ *         Date: 18/10/2018
+ */
+public class BuildProblemsCache extends BuildServerAdapter {
+  public static final String CACHE_SIZE_PROPERTY = "rest.request.problemOccurrences.buildsCacheSize";
+
+  private final int myMaxSize;
+  @NotNull private final Map<Long, List<BuildProblem>> myProblems;
+
+  public BuildProblemsCache(@NotNull final SBuildServer server) {
+    myMaxSize = TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 1000);
+    myProblems = new LinkedHashMap<Long, List<BuildProblem>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Long, List<BuildProblem>> eldest) {
+        return size() > myMaxSize;
+      }
+    };
+    server.addListener(this);
+  }
+
+  @NotNull
+  public List<BuildProblem> getProblems(@NotNull final BuildPromotion buildPromotion) {
+    final SBuild build = buildPromotion.getAssociatedBuild();
+    if (myMaxSize <= 0 || build == null || !build.isFinished()) {
+      //problems of not finished builds can still change
+      return ProblemOccurrenceFinder.getProblemOccurrences(buildPromotion);
+    }
+    synchronized (myProblems) {
+      final List<BuildProblem> cached = myProblems.get(buildPromotion.getId());
+      if (cached != null) return cached;
+    }
+    final List<BuildProblem> result = Collections.unmodifiableList(ProblemOccurrenceFinder.getProblemOccurrences(buildPromotion));
+    synchronized (myProblems) {
+      myProblems.put(buildPromotion.getId(), result);
+    }
+    return result;
+  }
+
+  @Override
+  public void buildProblemsChanged(@NotNull final SBuild build, @NotNull final List<BuildProblemData> before, @NotNull final List<BuildProblemData> after) {
+    synchronized (myProblems) {
+      myProblems.remove(build.getBuildPromotion().getId());
+    }
+  }
+}
@@ -54,6 +54,8 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
   public static final String CURRENTLY_MUTED = "currentlyMuted";
   public static final String AFFECTED_PROJECT = "affectedProject";
 
+  private static final int IDS_PER_QUERY = 1000;
+
   @NotNull private final ProjectFinder myProjectFinder;
   @NotNull private final BuildFinder myBuildFinder;
   @NotNull private final ProblemFinder myProblemFinder;
@@ -61,13 +63,15 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
   @NotNull private final BuildProblemManager myBuildProblemManager;
   @NotNull private final ProjectManager myProjectManager;
   @NotNull private final jetbrains.buildServer.ServiceLocator myServiceLocator;
+  @NotNull private final BuildProblemsCache myBuildProblemsCache;
 
   public ProblemOccurrenceFinder(final @NotNull ProjectFinder projectFinder,
                                  final @NotNull BuildFinder buildFinder,
                                  final @NotNull ProblemFinder problemFinder,
                                  final @NotNull BuildProblemManager buildProblemManager,
                                  final @NotNull ProjectManager projectManager,
-                                 final @NotNull ServiceLocator serviceLocator) {
+                                 final @NotNull ServiceLocator serviceLocator,
+                                 final @NotNull BuildProblemsCache buildProblemsCache) {
     super(new String[]{PROBLEM, IDENTITY, "type", "build", AFFECTED_PROJECT, CURRENT, MUTED, CURRENTLY_MUTED, CURRENTLY_INVESTIGATED});
     myProjectFinder = projectFinder;
     myBuildFinder = buildFinder;
@@ -75,6 +79,7 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
     myBuildProblemManager = buildProblemManager;
     myProjectManager = projectManager;
     myServiceLocator = serviceLocator;
+    myBuildProblemsCache = buildProblemsCache;
   }
 
   @Override
@@ -145,13 +150,19 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
   public ItemHolder<BuildProblem> getPrefilteredItems(@NotNull final Locator locator) {
     String buildDimension = locator.getSingleDimensionValue(BUILD);
     if (buildDimension != null) {
-      List<BuildPromotion> builds = myBuildFinder.getBuilds(null, buildDimension).myEntries;
-      AggregatingItemHolder<BuildProblem> result = new AggregatingItemHolder<>();
-      for (BuildPromotion build : builds) {
-        List<BuildProblem> buildProblemOccurrences = getProblemOccurrences(build);
-        if (!buildProblemOccurrences.isEmpty()) result.add(getItemHolder(buildProblemOccurrences));
-      }
-      return result;
+      final List<BuildPromotion> builds = myBuildFinder.getBuilds(null, buildDimension).myEntries;
+      final Set<Long> buildIdsWithProblems = builds.size() > 1 ? getBuildIdsWithProblems(builds) : null;
+      return new ItemHolder<BuildProblem>() {
+        @Override
+        public void process(@NotNull final ItemProcessor<BuildProblem> processor) {
+          for (BuildPromotion build : builds) {
+            if (buildIdsWithProblems != null && !buildIdsWithProblems.contains(build.getId()) && !mayHaveNotStoredProblems(build)) continue;
+            for (BuildProblem problem : myBuildProblemsCache.getProblems(build)) {
+              if (!processor.processItem(problem)) return;
+            }
+          }
+        }
+      };
     }
 
     Boolean currentDimension = locator.getSingleDimensionValueAsBoolean(CURRENT);
@@ -181,11 +192,24 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
 
   @NotNull
   private ItemHolder<BuildProblem> getProblemOccurrences(@NotNull final Iterable<ProblemWrapper> problems) {
-    final AggregatingItemHolder<BuildProblem> result = new AggregatingItemHolder<BuildProblem>();
+    final List<Long> problemIds = new ArrayList<Long>();
     for (ProblemWrapper problem : problems) {
-      result.add(getProblemOccurrences(problem.getId(), myServiceLocator, myBuildFinder));
+      problemIds.add(problem.getId());
     }
-    return result;
+    final Map<Long, List<Long>> buildIdsByProblem = getBuildIdsByProblem(problemIds);
+    return new ItemHolder<BuildProblem>() {
+      @Override
+      public void process(@NotNull final ItemProcessor<BuildProblem> processor) {
+        for (Long problemId : problemIds) {
+          final List<Long> buildIds = buildIdsByProblem.get(problemId);
+          if (buildIds == null) continue;
+          for (Long buildId : buildIds) {
+            final BuildProblem problem = findProblem(buildId, problemId);
+            if (problem != null && !processor.processItem(problem)) return;
+          }
+        }
+      }
+    };
   }
 
   @NotNull
@@ -315,65 +339,107 @@ public class ProblemOccurrenceFinder extends AbstractFinder<BuildProblem> {
   }
 
   @Nullable
-  private static BuildProblem findProblem(@NotNull final BuildPromotion build, @NotNull final Long problemId) {
-    final List<BuildProblem> buildProblems = getProblemOccurrences(build);
-    for (BuildProblem buildProblem : buildProblems) {
-      if (buildProblem.getId() == problemId.intValue()) {
-        //todo: TeamCity API, JavaDoc (VB): add into the JavaDoc that problem with a given id can only occur once in a build
-        return buildProblem;
+  private BuildProblem findProblem(@NotNull final Long buildId, @NotNull final Long problemId) {
+    try {
+      final BuildPromotion buildByPromotionId = myBuildFinder.getBuildByPromotionId(buildId);
+      if (buildByPromotionId.getBuildType() == null) {
+        //missing build type, skip. Workaround for http://youtrack.jetbrains.com/issue/TW-34733
+        return null;
+      }
+      for (BuildProblem buildProblem : myBuildProblemsCache.getProblems(buildByPromotionId)) {
+        if (buildProblem.getId() == problemId.intValue()) {
+          //todo: TeamCity API, JavaDoc (VB): add into the JavaDoc that problem with a given id can only occur once in a build
+          return buildProblem;
+        }
       }
+    } catch (RuntimeException e) {
+      //addressing TW-41636
+      LOG.infoAndDebugDetails("Error getting problems for build promotion with id " + buildId + ", problemId: " + problemId + ", ignoring. Cause", e);
     }
     return null;
   }
 
+  /**
+   * @return ids of the builds with the problems, most recent first, for each of the problems. Problems are queried in chunks instead of a query per problem.
+   */
   @NotNull
-  private static ItemHolder<BuildProblem> getProblemOccurrences(@NotNull final Long problemId, @NotNull final ServiceLocator serviceLocator, @NotNull final BuildFinder buildFinder) {
+  private Map<Long, List<Long>> getBuildIdsByProblem(@NotNull final List<Long> problemIds) {
     //todo: TeamCity API (VB): how to do this?
-    final ArrayList<Long> buildIds = new ArrayList<Long>();
+    final Map<Long, List<Long>> result = new HashMap<Long, List<Long>>();
+    for (int i = 0; i < problemIds.size(); i += IDS_PER_QUERY) {
+      final List<Long> chunk = problemIds.subList(i, Math.min(i + IDS_PER_QUERY, problemIds.size()));
+      query("select problem_id, build_state_id from build_problem where problem_id in (" + getPlaceholders(chunk.size()) + ") order by build_state_id desc", chunk,
+            new Object() {
+              public void getBuildProblem(String problem_id, String build_state_id) throws IOException {
+                try {
+                  //do nothing within database connection
+                  result.computeIfAbsent(Long.valueOf(problem_id), id -> new ArrayList<Long>()).add(Long.valueOf(build_state_id));
+                } catch (NumberFormatException e) {
+                  LOG.infoAndDebugDetails("Non-number build promotion id " + build_state_id + " retrieved from the database for problemId: " + problem_id + ", ignoring.", e);
+                }
+              }
+            });
+    }
+    return result;
+  }
+
+  /**
+   * @return ids of those of the builds which have problems stored in the database, so that problems are not loaded for each of the builds.
+   * Builds for which {@link #mayHaveNotStoredProblems(BuildPromotion)} is true should be checked in memory regardless of the result
+   */
+  @NotNull
+  private Set<Long> getBuildIdsWithProblems(@NotNull final List<BuildPromotion> builds) {
+    final Set<Long> result = new HashSet<Long>();
+    for (int i = 0; i < builds.size(); i += IDS_PER_QUERY) {
+      final List<Long> chunk = new ArrayList<Long>();
+      for (BuildPromotion build : builds.subList(i, Math.min(i + IDS_PER_QUERY, builds.size()))) {
+        chunk.add(build.getId());
+      }
+      query("select distinct build_state_id from build_problem where build_state_id in (" + getPlaceholders(chunk.size()) + ")", chunk,
+            new Object() {
+              public void getBuildProblem(String build_state_id) throws IOException {
+                try {
+                  result.add(Long.valueOf(build_state_id));
+                } catch (NumberFormatException e) {
+                  LOG.infoAndDebugDetails("Non-number build promotion id " + build_state_id + " retrieved from the database, ignoring.", e);
+                }
+              }
+            });
+    }
+    return result;
+  }
+
+  /**
+   * Problems of not finished builds and of composite builds are not necessarily stored in the build_problem table
+   */
+  private static boolean mayHaveNotStoredProblems(@NotNull final BuildPromotion build) {
+    final SBuild associatedBuild = build.getAssociatedBuild();
+    return associatedBuild == null || !associatedBuild.isFinished() || build.isCompositeBuild();
+  }
+
+  private void query(@NotNull final String sql, @NotNull final List<Long> params, @NotNull final Object handler) {
     try {
       //final SQLRunner sqlRunner = myServiceLocator.getSingletonService(SQLRunner.class);
       //workaround for http://youtrack.jetbrains.com/issue/TW-25260
-      final SQLRunnerEx sqlRunner = serviceLocator.getSingletonService(BuildServerEx.class).getSQLRunner();
+      final SQLRunnerEx sqlRunner = myServiceLocator.getSingletonService(BuildServerEx.class).getSQLRunner();
       sqlRunner.withDB(new DBActionNoResults() {
         public void run(final DBFunctions dbf) throws DBException {
-          dbf.queryForTuples(new Object() {
-            public void getBuildProblem(String build_state_id) throws IOException {
-              try {
-                //do nothing within database connection
-                buildIds.add(Long.valueOf(build_state_id));
-              } catch (NumberFormatException e) {
-                LOG.infoAndDebugDetails("Non-number build promotion id " + build_state_id + " retrieved from the database for problemId: " + problemId + ", ignoring.", e);
-              }
-            }
-          }, "getBuildProblem", "select build_state_id from build_problem where problem_id = ? order by build_state_id desc", problemId);
+          dbf.queryForTuples(handler, "getBuildProblem", sql, params.toArray());
         }
       });
-
     } catch (Exception e) {
       throw new OperationException("Error performing database query: " + e.toString(), e);
     }
+  }
 
-    return new ItemHolder<BuildProblem>() {
-      @Override
-      public void process(@NotNull final ItemProcessor<BuildProblem> processor) {
-        for (Long buildId : buildIds) {
-          try {
-            final BuildPromotion buildByPromotionId = buildFinder.getBuildByPromotionId(Long.valueOf(buildId));
-            if (buildByPromotionId.getBuildType() == null) {
-              //missing build type, skip. Workaround for http://youtrack.jetbrains.com/issue/TW-34733
-            } else {
-              final BuildProblem problem = findProblem(buildByPromotionId, problemId);
-              if (problem != null) {
-                processor.processItem(problem);
-              }
-            }
-          } catch (RuntimeException e) {
-            //addressing TW-41636
-            LOG.infoAndDebugDetails("Error getting problems for build promotion with id " + buildId + ", problemId: " + problemId + ", ignoring. Cause", e);
-          }
-          }
-        }
-    };
+  @NotNull
+  private static String getPlaceholders(final int count) {
+    final StringBuilder result = new StringBuilder(count * 2);
+    for (int i = 0; i < count; i++) {
+      if (i > 0) result.append(',');
+      result.append('?');
+    }
+    return result.toString();
   }
 
   @NotNull
@@ -18,12 +18,15 @@ package jetbrains.buildServer.server.rest.data.problem;
 
 import com.google.common.collect.ComparisonChain;
 import java.util.*;
+import java.util.function.Function;
+import jetbrains.buildServer.messages.Status;
 import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
 import jetbrains.buildServer.server.rest.data.*;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.errors.NotFoundException;
 import jetbrains.buildServer.server.rest.request.BuildRequest;
 import jetbrains.buildServer.server.rest.request.Constants;
+import jetbrains.buildServer.server.rest.util.ParallelProcessingPools;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.mute.CurrentMuteInfo;
 import jetbrains.buildServer.tests.TestName;
@@ -49,9 +52,18 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
   public static final String CURRENTLY_INVESTIGATED = "currentlyInvestigated";
   public static final String MUTED = "muted";
   public static final String CURRENTLY_MUTED = "currentlyMuted";
+  protected static final String ORDER_BY = "orderBy";
   protected static final String EXPAND_INVOCATIONS = "expandInvocations"; //experimental
   protected static final String INVOCATIONS = "invocations"; //experimental
 
+  protected static final String ORDER_NAME = "name";
+  protected static final String ORDER_DURATION = "duration";
+  protected static final String ORDER_NEW_FAILURE = "newFailure";
+  protected static final String ORDER_STATUS = "status";
+
+  public static final String SORT_BY_NAME_AND_NEW_PROPERTY = "rest.beans.testOccurrences.sortByNameAndNew";
+  public static final String TEST_HISTORY_PARALLELISM_PROPERTY = "rest.request.testOccurrences.testHistory.parallelism";
+
   @NotNull private final TestFinder myTestFinder;
   @NotNull private final BuildFinder myBuildFinder;
   @NotNull private final BuildTypeFinder myBuildTypeFinder;
@@ -59,14 +71,16 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
 
   @NotNull private final BuildHistoryEx myBuildHistory;
   @NotNull private final CurrentProblemsManager myCurrentProblemsManager;
+  @NotNull private final ParallelProcessingPools myParallelProcessingPools;
 
   public TestOccurrenceFinder(final @NotNull TestFinder testFinder,
                               final @NotNull BuildFinder buildFinder,
                               final @NotNull BuildTypeFinder buildTypeFinder,
                               final @NotNull ProjectFinder projectFinder,
                               final @NotNull BuildHistoryEx buildHistory,
-                              final @NotNull CurrentProblemsManager currentProblemsManager) {
-    super(DIMENSION_ID, TEST, BUILD_TYPE, BUILD, AFFECTED_PROJECT, CURRENT, STATUS, BRANCH, IGNORED, MUTED, CURRENTLY_MUTED, CURRENTLY_INVESTIGATED);
+                              final @NotNull CurrentProblemsManager currentProblemsManager,
+                              final @NotNull ParallelProcessingPools parallelProcessingPools) {
+    super(DIMENSION_ID, TEST, BUILD_TYPE, BUILD, AFFECTED_PROJECT, CURRENT, STATUS, BRANCH, IGNORED, MUTED, CURRENTLY_MUTED, CURRENTLY_INVESTIGATED, ORDER_BY);
     setHiddenDimensions(EXPAND_INVOCATIONS, INVOCATIONS);
     myTestFinder = testFinder;
     myBuildFinder = buildFinder;
@@ -74,6 +88,7 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     myProjectFinder = projectFinder;
     myBuildHistory = buildHistory;
     myCurrentProblemsManager = currentProblemsManager;
+    myParallelProcessingPools = parallelProcessingPools;
   }
 
   @Override
@@ -181,14 +196,21 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
 
       String testDimension = locator.getSingleDimensionValue(TEST);
       if (testDimension == null) {
-        AggregatingItemHolder<STestRun> result = new AggregatingItemHolder<>();
-        for (BuildPromotion build : builds) {
-          SBuild associatedBuild = build.getAssociatedBuild();
-          if (associatedBuild != null) {
-            result.add(getPossibleExpandedTestsHolder(getBuildStatistics(associatedBuild).getAllTests(), locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS)));
+        final BuildStatisticsOptions options = getBuildStatisticsOptions(locator);
+        final Boolean expandInvocations = locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS);
+        return new ItemHolder<STestRun>() {
+          @Override
+          public void process(@NotNull final ItemProcessor<STestRun> processor) {
+            //statistics are loaded build by build, so that only the tests of the build being processed are held in memory
+            // and the rest of the builds are not loaded at all once the processor has got enough items
+            for (BuildPromotion build : builds) {
+              SBuild associatedBuild = build.getAssociatedBuild();
+              if (associatedBuild != null) {
+                if (!processTests(getBuildStatistics(associatedBuild, options).getAllTests(), expandInvocations, processor)) return;
+              }
+            }
           }
-        }
-        return result;
+        };
       }
 
       final PagedSearchResult<STest> tests = myTestFinder.getItems(testDimension);
@@ -214,19 +236,15 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
       String buildTypeDimension = locator.getSingleDimensionValue(BUILD_TYPE);
       if (buildTypeDimension != null) {
         final SBuildType buildType = myBuildTypeFinder.getBuildType(null, buildTypeDimension, false);
-        final ArrayList<STestRun> result = new ArrayList<STestRun>();
-        for (STest test : tests.myEntries) {
-          result.addAll(myBuildHistory.getTestHistory(test.getTestNameId(), buildType.getBuildTypeId(), 0, getBranch(locator))); //no personal builds
-        }
-        return getPossibleExpandedTestsHolder(result, locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS));
+        final String branch = getBranch(locator);
+        return getTestHistoryHolder(tests.myEntries, test -> myBuildHistory.getTestHistory(test.getTestNameId(), buildType.getBuildTypeId(), 0, branch), //no personal builds
+                                    locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS));
       }
 
-      final ArrayList<STestRun> result = new ArrayList<STestRun>();
       final SProject affectedProject = getAffectedProject(locator);
-      for (STest test : tests.myEntries) {
-        result.addAll(myBuildHistory.getTestHistory(test.getTestNameId(), affectedProject, 0, getBranch(locator))); //no personal builds
-      }
-      return getPossibleExpandedTestsHolder(result, locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS));
+      final String branch = getBranch(locator);
+      return getTestHistoryHolder(tests.myEntries, test -> myBuildHistory.getTestHistory(test.getTestNameId(), affectedProject, 0, branch), //no personal builds
+                                  locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS));
     }
 
     Boolean currentDimension = locator.getSingleDimensionValueAsBoolean(CURRENT);
@@ -239,11 +257,9 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     if (currentlyMutedDimension != null && currentlyMutedDimension) {
       final SProject affectedProject = getAffectedProject(locator);
       final Set<STest> currentlyMutedTests = myTestFinder.getCurrentlyMutedTests(affectedProject);
-      final ArrayList<STestRun> result = new ArrayList<STestRun>();
-      for (STest test : currentlyMutedTests) {
-        result.addAll(myBuildHistory.getTestHistory(test.getTestNameId(), affectedProject, 0, getBranch(locator)));  //no personal builds
-      }
-      return getPossibleExpandedTestsHolder(result, locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS));
+      final String branch = getBranch(locator);
+      return getTestHistoryHolder(currentlyMutedTests, test -> myBuildHistory.getTestHistory(test.getTestNameId(), affectedProject, 0, branch),  //no personal builds
+                                  locator.getSingleDimensionValueAsBoolean(EXPAND_INVOCATIONS));
     }
 
     ArrayList<String> exampleLocators = new ArrayList<String>();
@@ -278,19 +294,44 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     return new ItemHolder<STestRun>() {
       @Override
       public void process(@NotNull final ItemProcessor<STestRun> processor) {
-        for (STestRun entry : tests) {
-          if (!(entry instanceof MultiTestRun)) {
-            processor.processItem(entry);
-          } else {
-            for (STestRun nestedTestRun : getInvocations(entry)) {
-              processor.processItem(nestedTestRun);
-            }
-          }
-        }
+        processTests(tests, expandInvocations, processor);
+      }
+    };
+  }
+
+  /**
+   * Retrieves history of several tests in parallel, items are processed in the order of the tests.
+   * History of the tests not reached by the processor is not retrieved.
+   */
+  @NotNull
+  private ItemHolder<STestRun> getTestHistoryHolder(@NotNull final Collection<STest> tests,
+                                                    @NotNull final Function<STest, List<STestRun>> historyRetriever,
+                                                    @Nullable final Boolean expandInvocations) {
+    return new ItemHolder<STestRun>() {
+      @Override
+      public void process(@NotNull final ItemProcessor<STestRun> processor) {
+        final int parallelism = tests.size() > 1 ? TeamCityProperties.getInteger(TEST_HISTORY_PARALLELISM_PROPERTY, 4) : 1;
+        myParallelProcessingPools.getProcessor(ParallelProcessingPools.Purpose.TEST_HISTORY, parallelism).process(tests, historyRetriever, history -> processTests(history, expandInvocations, processor));
       }
     };
   }
 
+  /**
+   * @return false if the processor requested to stop processing
+   */
+  private boolean processTests(@NotNull final Iterable<STestRun> tests, @Nullable final Boolean expandInvocations, @NotNull final ItemProcessor<STestRun> processor) {
+    for (STestRun entry : tests) {
+      if (expandInvocations == null || !expandInvocations || !(entry instanceof MultiTestRun)) {
+        if (!processor.processItem(entry)) return false;
+      } else {
+        for (STestRun nestedTestRun : getInvocations(entry)) {
+          if (!processor.processItem(nestedTestRun)) return false;
+        }
+      }
+    }
+    return true;
+  }
+
   @Nullable
   private String getBranch(@NotNull final Locator locator) {
     return locator.getSingleDimensionValue(BRANCH);
@@ -438,21 +479,24 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     }
 
     final Boolean currentlyInvestigatedDimension = locator.getSingleDimensionValueAsBoolean(CURRENTLY_INVESTIGATED);
+    final Boolean currentlyMutedDimension = locator.getSingleDimensionValueAsBoolean(CURRENTLY_MUTED);
+    //the same tests are usually met in many test runs, so mutes and investigations are collected once per test within the request
+    final TestScopesIndex scopesIndex = currentlyInvestigatedDimension != null || currentlyMutedDimension != null ? new TestScopesIndex(myProjectFinder.getRootProject()) : null;
+
     if (currentlyInvestigatedDimension != null) {
       result.add(new FilterConditionChecker<STestRun>() {
         public boolean isIncluded(@NotNull final STestRun item) {
           //todo: check investigation in affected Project/buildType only, if set
-          return FilterUtil.isIncludedByBooleanFilter(currentlyInvestigatedDimension, isCurrentlyInvestigated(item));
+          return FilterUtil.isIncludedByBooleanFilter(currentlyInvestigatedDimension, scopesIndex.isCurrentlyInvestigated(item));
         }
       });
     }
 
-    final Boolean currentlyMutedDimension = locator.getSingleDimensionValueAsBoolean(CURRENTLY_MUTED);
     if (currentlyMutedDimension != null) { //it is important to filter even if prefiltered items processed the tests as that does not consider mute scope
       result.add(new FilterConditionChecker<STestRun>() {
         public boolean isIncluded(@NotNull final STestRun item) { //todo: TeamCity API (MP): is there an API way to figure out there is a mute for a STestRun ?
           //todo: check mute in affected Project/buildType only, if set
-          return FilterUtil.isIncludedByBooleanFilter(currentlyMutedDimension, isCurrentlyMuted(item));
+          return FilterUtil.isIncludedByBooleanFilter(currentlyMutedDimension, scopesIndex.isCurrentlyMuted(item));
         }
       });
     }
@@ -506,6 +550,72 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
     return result;
   }
 
+  @Nullable
+  @Override
+  public Comparator<STestRun> getComparator(@NotNull final Locator locator) {
+    final String orderByDimension = locator.getSingleDimensionValue(ORDER_BY);
+    if (orderByDimension == null) {
+      if (TeamCityProperties.getBoolean(SORT_BY_NAME_AND_NEW_PROPERTY)) {
+        return NEW_FIRST_NAME_ORDER;
+      }
+      return null;
+    }
+
+    final Locator orderByLocator = new Locator(orderByDimension);
+    final String field;
+    final boolean descending;
+    if (orderByLocator.isSingleValue()) {
+      field = orderByLocator.getSingleValue();
+      descending = false;
+    } else {
+      final Collection<String> dimensions = orderByLocator.getDefinedDimensions();
+      if (dimensions.size() != 1) {
+        throw new BadRequestException("Invalid '" + ORDER_BY + "' dimension value '" + orderByDimension + "': should be a single field name, optionally with 'asc' or 'desc' direction, e.g. '(" + ORDER_DURATION + ":desc)'");
+      }
+      field = dimensions.iterator().next();
+      final String direction = orderByLocator.getSingleDimensionValue(field);
+      if ("desc".equalsIgnoreCase(direction)) {
+        descending = true;
+      } else if ("asc".equalsIgnoreCase(direction)) {
+        descending = false;
+      } else {
+        throw new BadRequestException("Invalid direction '" + direction + "' in '" + ORDER_BY + "' dimension, should be 'asc' or 'desc'");
+      }
+    }
+
+    final Comparator<STestRun> result;
+    if (ORDER_NAME.equals(field)) {
+      result = NAME_ORDER;
+    } else if (ORDER_DURATION.equals(field)) {
+      result = Comparator.comparingInt(STestRun::getDuration);
+    } else if (ORDER_NEW_FAILURE.equals(field)) {
+      result = NEW_FIRST_NAME_ORDER;
+    } else if (ORDER_STATUS.equals(field)) {
+      result = Comparator.comparing((STestRun testRun) -> !testRun.getStatus().isFailed()).thenComparing(testRun -> testRun.isIgnored()).thenComparing(NAME_ORDER);
+    } else {
+      throw new BadRequestException("Unsupported field '" + field + "' in '" + ORDER_BY + "' dimension. Supported are: " + Arrays.asList(ORDER_NAME, ORDER_DURATION, ORDER_NEW_FAILURE, ORDER_STATUS));
+    }
+    //ensure stable order for the same values so that paging works
+    return (descending ? result.reversed() : result).thenComparing(STestRun::getBuildId).thenComparing(STestRun::getTestRunId);
+  }
+
+  private static final Comparator<STestRun> NAME_ORDER = Comparator.comparing((STestRun testRun) -> testRun.getTest().getName().getGroupName())
+                                                                   .thenComparing(testRun -> testRun.getTest().getName().getAsString());
+  private static final Comparator<STestRun> NEW_FIRST_NAME_ORDER = STestRun.NEW_FIRST_NAME_COMPARATOR::compare;
+
+  /**
+   * Sorts the items in the default order. Used for the test runs not retrieved via the finder.
+   */
+  @NotNull
+  public static List<STestRun> getInDefaultOrder(@NotNull final List<STestRun> testRuns) {
+    if (!TeamCityProperties.getBoolean(SORT_BY_NAME_AND_NEW_PROPERTY)) {
+      return testRuns;
+    }
+    final List<STestRun> result = new ArrayList<STestRun>(testRuns);
+    result.sort(NEW_FIRST_NAME_ORDER);
+    return result;
+  }
+
   public boolean isCurrentlyMuted(@NotNull final STestRun item) {  //todo: TeamCity API (MP): is there an API way to figure out there is an investigation for a STestRun ?
     final CurrentMuteInfo currentMuteInfo = item.getTest().getCurrentMuteInfo();
     if (currentMuteInfo == null){
@@ -538,20 +648,60 @@ public class TestOccurrenceFinder extends AbstractFinder<STestRun> {
 
   @NotNull
   public static BuildStatistics getBuildStatistics(@NotNull final SBuild build) {
+    return getBuildStatistics(build, getBuildStatisticsOptions(true, true));
+  }
+
+  @NotNull
+  private static BuildStatistics getBuildStatistics(@NotNull final SBuild build, @NotNull final BuildStatisticsOptions options) {
     //  This is different from build.getFullStatistics() in the following ways:
     //  - stacktrace are not pre-loaded (loads all them into memory), but will be retrieved in a lazy fashion
     //  - compilation errors are not loaded (not necessary)
 
     //ideally, need to check what will be used in the response and request only those details
-    BuildStatisticsOptions options = new BuildStatisticsOptions(
-      BuildStatisticsOptions.PASSED_TESTS
-      | BuildStatisticsOptions.IGNORED_TESTS
-      | BuildStatisticsOptions.FIRST_FAILED_IN_BUILD
-      | BuildStatisticsOptions.FIXED_IN_BUILD
-      , 0);
     return build.getBuildStatistics(options);
   }
 
+  /**
+   * Failed tests are always loaded, passed and ignored ones are loaded only if they can be matched by the locator
+   * Dimensions are only looked up here, they are marked as used when the filter is created
+   */
+  @NotNull
+  static BuildStatisticsOptions getBuildStatisticsOptions(@NotNull final Locator locator) {
+    boolean includePassed = true;
+    boolean includeIgnored = true;
+
+    final String statusDimension = locator.lookupSingleDimensionValue(STATUS);
+    if (statusDimension != null) {
+      if (Status.FAILURE.getText().equals(statusDimension)) {
+        includePassed = false;
+        includeIgnored = false;
+      } else if (Status.NORMAL.getText().equals(statusDimension)) {
+        includeIgnored = false;
+      } else if (Status.UNKNOWN.getText().equals(statusDimension)) {
+        includePassed = false;
+      }
+    }
+
+    final Boolean ignoredDimension = locator.lookupSingleDimensionValueAsBoolean(IGNORED);
+    if (ignoredDimension != null) {
+      if (ignoredDimension) {
+        includePassed = false;
+      } else {
+        includeIgnored = false;
+      }
+    }
+
+    return getBuildStatisticsOptions(includePassed, includeIgnored);
+  }
+
+  @NotNull
+  private static BuildStatisticsOptions getBuildStatisticsOptions(final boolean includePassed, final boolean includeIgnored) {
+    int flags = BuildStatisticsOptions.FIRST_FAILED_IN_BUILD | BuildStatisticsOptions.FIXED_IN_BUILD;
+    if (includePassed) flags |= BuildStatisticsOptions.PASSED_TESTS;
+    if (includeIgnored) flags |= BuildStatisticsOptions.IGNORED_TESTS;
+    return new BuildStatisticsOptions(flags, 0);
+  }
+
   @Nullable
   private STestRun findTest(final @NotNull Long testNameId, final @NotNull SBuild build) {
     return build.getBuildStatistics(ALL_TESTS_NO_DETAILS).findTestByTestNameId(testNameId);
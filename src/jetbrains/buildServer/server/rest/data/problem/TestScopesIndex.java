@@ -0,0 +1,180 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data.problem;
+
+import java.util.*;
+import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
+import jetbrains.buildServer.server.rest.data.ProjectFinder;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.STest;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.mute.CurrentMuteInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Snapshot of current mutes and investigations of tests to check many test runs without walking the project hierarchy for each of them.
+ * Projects are numbered in the depth-first order, so that a project with all its subprojects makes an interval of numbers
+ * and "is same or parent" check becomes an interval lookup.
+ * Scopes are collected per test on first use and are not updated afterwards, so the instance is to be used within a single request only. Not thread-safe.
+ *
+ * @author Yegor.Yarko
+ *         Date: 12/10/2018
+ */
+public class TestScopesIndex {
+  @NotNull private final SProject myRootProject;
+  @Nullable private Map<String, int[]> myProjectIntervals; //projectId -> {own position, position of the last subproject}
+
+  @NotNull private final Map<Long, Scopes> myMuteScopes = new HashMap<>();
+  @NotNull private final Map<Long, Scopes> myInvestigationScopes = new HashMap<>();
+
+  public TestScopesIndex(@NotNull final SProject rootProject) {
+    myRootProject = rootProject;
+  }
+
+  public boolean isCurrentlyMuted(@NotNull final STestRun item) {
+    final SBuildType buildType = item.getBuild().getBuildType();
+    if (buildType == null) {
+      return false; //might need to log this
+    }
+    final STest test = item.getTest();
+    return isInScopes(myMuteScopes.computeIfAbsent(test.getTestNameId(), id -> getMuteScopes(test)), buildType);
+  }
+
+  public boolean isCurrentlyInvestigated(@NotNull final STestRun item) {
+    final SBuildType buildType = item.getBuild().getBuildType();
+    if (buildType == null) {
+      return false; //might need to log this
+    }
+    final STest test = item.getTest();
+    return isInScopes(myInvestigationScopes.computeIfAbsent(test.getTestNameId(), id -> getInvestigationScopes(test)), buildType);
+  }
+
+  private boolean isInScopes(@NotNull final Scopes scopes, @NotNull final SBuildType buildType) {
+    if (scopes.isEmpty()) return false;
+    if (scopes.myBuildTypeIds.contains(buildType.getInternalId())) return true;
+    if (scopes.myProjects.isEmpty()) return false;
+
+    final int[] interval = getProjectIntervals().get(buildType.getProjectId());
+    if (interval == null || scopes.myStarts == null) {
+      //the project or some of the scopes appeared after the projects were numbered
+      return ProjectFinder.isSameOrParent(scopes.myProjects, buildType.getProject());
+    }
+    final int position = interval[0];
+    //intervals are disjoint and sorted, so the only candidate is the last interval starting not after the position
+    int index = Arrays.binarySearch(scopes.myStarts, position);
+    if (index < 0) index = -index - 2;
+    return index >= 0 && position <= scopes.myEnds[index];
+  }
+
+  @NotNull
+  private Scopes getMuteScopes(@NotNull final STest test) {
+    final CurrentMuteInfo currentMuteInfo = test.getCurrentMuteInfo();
+    if (currentMuteInfo == null) {
+      return Scopes.EMPTY;
+    }
+    final Set<String> buildTypeIds = new HashSet<>();
+    for (SBuildType buildType : currentMuteInfo.getBuildTypeMuteInfo().keySet()) {
+      buildTypeIds.add(buildType.getInternalId());
+    }
+    return createScopes(buildTypeIds, currentMuteInfo.getProjectsMuteInfo().keySet());
+  }
+
+  @NotNull
+  private Scopes getInvestigationScopes(@NotNull final STest test) {
+    final List<TestNameResponsibilityEntry> testResponsibilities = test.getAllResponsibilities(); //todo: TeamCity API (MP): what is the difference with getResponsibility() ?
+    if (testResponsibilities.isEmpty()) {
+      return Scopes.EMPTY;
+    }
+    final List<SProject> projects = new ArrayList<>(testResponsibilities.size());
+    for (TestNameResponsibilityEntry testResponsibility : testResponsibilities) {
+      projects.add(testResponsibility.getProject());
+    }
+    return createScopes(Collections.<String>emptySet(), projects);
+  }
+
+  @NotNull
+  private Scopes createScopes(@NotNull final Set<String> buildTypeIds, @NotNull final Collection<SProject> projects) {
+    final Map<String, int[]> projectIntervals = getProjectIntervals();
+    final List<int[]> intervals = new ArrayList<>(projects.size());
+    for (SProject project : projects) {
+      final int[] interval = projectIntervals.get(project.getProjectId());
+      if (interval == null) {
+        return new Scopes(buildTypeIds, projects, null, null);
+      }
+      intervals.add(interval);
+    }
+    intervals.sort(Comparator.comparingInt(interval -> interval[0]));
+
+    //project intervals are either nested or disjoint, so dropping nested ones leaves sorted disjoint intervals
+    final int[] starts = new int[intervals.size()];
+    final int[] ends = new int[intervals.size()];
+    int size = 0;
+    for (int[] interval : intervals) {
+      if (size > 0 && interval[0] <= ends[size - 1]) continue;
+      starts[size] = interval[0];
+      ends[size] = interval[1];
+      size++;
+    }
+    return new Scopes(buildTypeIds, projects, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+  }
+
+  @NotNull
+  private Map<String, int[]> getProjectIntervals() {
+    if (myProjectIntervals == null) {
+      final Map<String, int[]> result = new HashMap<>();
+      numberProjects(myRootProject, 0, result);
+      myProjectIntervals = result;
+    }
+    return myProjectIntervals;
+  }
+
+  /**
+   * @return position of the last project in the subtree
+   */
+  private static int numberProjects(@NotNull final SProject project, final int position, @NotNull final Map<String, int[]> result) {
+    final int[] interval = new int[]{position, position};
+    result.put(project.getProjectId(), interval);
+    int last = position;
+    for (SProject subProject : project.getOwnProjects()) {
+      last = numberProjects(subProject, last + 1, result);
+    }
+    interval[1] = last;
+    return last;
+  }
+
+  private static class Scopes {
+    private static final Scopes EMPTY = new Scopes(Collections.<String>emptySet(), Collections.<SProject>emptyList(), new int[0], new int[0]);
+
+    @NotNull private final Set<String> myBuildTypeIds;
+    @NotNull private final Collection<SProject> myProjects;
+    @Nullable private final int[] myStarts;
+    @Nullable private final int[] myEnds;
+
+    private Scopes(@NotNull final Set<String> buildTypeIds, @NotNull final Collection<SProject> projects, @Nullable final int[] starts, @Nullable final int[] ends) {
+      myBuildTypeIds = buildTypeIds;
+      myProjects = projects;
+      myStarts = starts;
+      myEnds = ends;
+    }
+
+    private boolean isEmpty() {
+      return myBuildTypeIds.isEmpty() && myProjects.isEmpty();
+    }
+  }
+}
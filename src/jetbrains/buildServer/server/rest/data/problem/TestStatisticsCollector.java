@@ -0,0 +1,387 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.data.problem;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.impl.LogUtil;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.buildServer.serverSide.BuildStatisticsOptions.ALL_TESTS_NO_DETAILS;
+
+/**
+ * Collects durations and statuses of the last test runs per test and build configuration as builds finish,
+ * so that test duration and flakiness statistics can be calculated without loading test runs of the builds.
+ * Only a fixed number of the last runs is stored for each test in each build configuration (a ring of compact values),
+ * statistics for several build configurations are calculated by merging the rings.
+ * The test runs are loaded in background after a build finishes; when there are too many builds waiting, the runs of the next finished builds are skipped.
+ * The number of the stored tests is limited, tests not updated for the longest time are dropped first.
+ * The data is stored in the plugin data directory periodically and on server shutdown and is loaded on startup.
+ * The statistics are not filtered by permissions, the callers should pass only the build configurations visible to the user.
+ * Experimental, is disabled by default.
+ *
+ * @author Yegor.Yarko
+ *         Date: 16/10/2018
+ */
+public class TestStatisticsCollector extends BuildServerAdapter {
+  private static final Logger LOG = Logger.getInstance(TestStatisticsCollector.class.getName());
+
+  public static final String ENABLED_PROPERTY = "rest.testStatistics.enabled";
+  public static final String MAX_RUNS_PROPERTY = "rest.testStatistics.maxRunsPerBuildType";
+  public static final String MAX_ENTRIES_PROPERTY = "rest.testStatistics.maxEntries";
+  public static final String MAX_PENDING_BUILDS_PROPERTY = "rest.testStatistics.maxPendingBuilds";
+  public static final String SAVE_INTERVAL_PROPERTY = "rest.testStatistics.saveIntervalSeconds";
+
+  private static final int STORAGE_VERSION = 2;
+  private static final String STORAGE_FILE_NAME = "testStatistics.bin";
+
+  @NotNull private final SBuildServer myServer;
+  @NotNull private final ServerPaths myServerPaths;
+  @NotNull private final Map<Key, Runs> myRuns; //guarded by itself, least recently updated first
+  private final int myMaxRuns;
+  @NotNull private final ScheduledExecutorService myExecutor = Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory("REST API test statistics"));
+  @NotNull private final AtomicInteger myPendingBuilds = new AtomicInteger();
+  private volatile boolean myModified = false;
+
+  public TestStatisticsCollector(@NotNull final SBuildServer server, @NotNull final ServerPaths serverPaths) {
+    myServer = server;
+    myServerPaths = serverPaths;
+    myMaxRuns = Math.max(2, TeamCityProperties.getInteger(MAX_RUNS_PROPERTY, 50));
+    final int maxEntries = TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 100000);
+    myRuns = new LinkedHashMap<Key, Runs>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, Runs> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    server.addListener(this);
+  }
+
+  public static boolean isEnabled() {
+    return TeamCityProperties.getBoolean(ENABLED_PROPERTY);
+  }
+
+  public int getMaxRuns() {
+    return myMaxRuns;
+  }
+
+  @Override
+  public void serverStartup() {
+    if (isEnabled()) {
+      load();
+    }
+    //saving periodically so that not all the data is lost if the server is not stopped gracefully
+    final long saveInterval = Math.max(1, TeamCityProperties.getInteger(SAVE_INTERVAL_PROPERTY, 10 * 60));
+    myExecutor.scheduleWithFixedDelay(() -> {
+      if (isEnabled() && myModified) save();
+    }, saveInterval, saveInterval, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void serverShutdown() {
+    myExecutor.shutdownNow();
+    if (!isEnabled()) return;
+    save();
+  }
+
+  @Override
+  public void buildFinished(@NotNull final SRunningBuild build) {
+    if (!isEnabled() || build.isPersonal()) return;
+    if (myPendingBuilds.incrementAndGet() > TeamCityProperties.getInteger(MAX_PENDING_BUILDS_PROPERTY, 1000)) {
+      myPendingBuilds.decrementAndGet();
+      LOG.debug("Too many builds are waiting for test statistics collection, skipping build " + LogUtil.describe(build));
+      return;
+    }
+    final long buildId = build.getBuildId();
+    try {
+      myExecutor.execute(() -> {
+        try {
+          final SBuild finishedBuild = myServer.findBuildInstanceById(buildId);
+          if (finishedBuild != null) collect(finishedBuild);
+        } finally {
+          myPendingBuilds.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      myPendingBuilds.decrementAndGet(); //shutting down
+    }
+  }
+
+  /**
+   * Adds the test runs of the finished build to the statistics. Invoked in background for the builds finishing on the server.
+   */
+  public void collect(@NotNull final SBuild build) {
+    final String buildTypeId = build.getBuildTypeId();
+    try {
+      final List<STestRun> testRuns = build.getBuildStatistics(ALL_TESTS_NO_DETAILS).getAllTests();
+      synchronized (myRuns) {
+        for (STestRun testRun : testRuns) {
+          if (testRun.isIgnored()) continue;
+          final Key key = new Key(testRun.getTest().getTestNameId(), buildTypeId);
+          Runs runs = myRuns.get(key);
+          if (runs == null) {
+            runs = new Runs(myMaxRuns);
+            myRuns.put(key, runs);
+          }
+          runs.add(testRun.getDuration(), testRun.getStatus().isFailed());
+        }
+        myModified = true;
+      }
+    } catch (Exception e) {
+      LOG.warnAndDebugDetails("Error while collecting test statistics for build " + LogUtil.describe(build), e);
+    }
+  }
+
+  /**
+   * @param buildTypeIds internal ids of the build configurations to include
+   * @param lastRunsCount number of the last runs to consider in each build configuration, is limited by {@link #getMaxRuns()}
+   */
+  @NotNull
+  public List<TestStatisticsData> getStatistics(@NotNull final Set<String> buildTypeIds, final int lastRunsCount) {
+    final Map<Long, Aggregate> aggregates = new HashMap<>();
+    synchronized (myRuns) {
+      for (Map.Entry<Key, Runs> entry : myRuns.entrySet()) {
+        if (!buildTypeIds.contains(entry.getKey().myBuildTypeId)) continue;
+        entry.getValue().addTo(aggregates.computeIfAbsent(entry.getKey().myTestNameId, id -> new Aggregate()), lastRunsCount);
+      }
+    }
+    final List<TestStatisticsData> result = new ArrayList<>(aggregates.size());
+    for (Map.Entry<Long, Aggregate> entry : aggregates.entrySet()) {
+      result.add(entry.getValue().toData(entry.getKey()));
+    }
+    return result;
+  }
+
+  @NotNull
+  private File getStorageFile() {
+    return new File(new File(myServerPaths.getPluginDataDirectory(), "rest-api"), STORAGE_FILE_NAME);
+  }
+
+  private void load() {
+    final File file = getStorageFile();
+    if (!file.isFile()) return;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != STORAGE_VERSION) {
+        LOG.info("Ignoring test statistics stored in \"" + file.getAbsolutePath() + "\" in an unsupported format");
+        return;
+      }
+      final int count = in.readInt();
+      final Map<String, String> buildTypeIds = new HashMap<>(); //not to keep a copy of the id for each test
+      synchronized (myRuns) {
+        for (int i = 0; i < count; i++) {
+          final String buildTypeId = in.readUTF();
+          final Key key = new Key(in.readLong(), buildTypeIds.computeIfAbsent(buildTypeId, id -> id));
+          final Runs runs = new Runs(myMaxRuns);
+          runs.read(in);
+          myRuns.put(key, runs);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Error reading test statistics from \"" + file.getAbsolutePath() + "\", the statistics will be collected anew", e);
+      synchronized (myRuns) {
+        myRuns.clear();
+      }
+    }
+  }
+
+  private synchronized void save() {
+    final File file = getStorageFile();
+    final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    try {
+      Files.createDirectories(tempFile.getParentFile().toPath());
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(STORAGE_VERSION);
+        final List<Map.Entry<Key, Runs>> entries;
+        synchronized (myRuns) {
+          entries = new ArrayList<>(myRuns.entrySet());
+          myModified = false;
+        }
+        out.writeInt(entries.size());
+        for (Map.Entry<Key, Runs> entry : entries) {
+          out.writeUTF(entry.getKey().myBuildTypeId);
+          out.writeLong(entry.getKey().myTestNameId);
+          entry.getValue().write(out);
+        }
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      myModified = true;
+      LOG.warnAndDebugDetails("Error storing test statistics to \"" + file.getAbsolutePath() + "\"", e);
+    }
+  }
+
+  public static class TestStatisticsData {
+    private final long myTestNameId;
+    private final int myRunsCount;
+    private final int myFailedCount;
+    private final int myFlipsCount;
+    private final int myTransitionsCount;
+    @NotNull private final int[] mySortedDurations;
+
+    TestStatisticsData(final long testNameId, final int runsCount, final int failedCount, final int flipsCount, final int transitionsCount, @NotNull final int[] sortedDurations) {
+      myTestNameId = testNameId;
+      myRunsCount = runsCount;
+      myFailedCount = failedCount;
+      myFlipsCount = flipsCount;
+      myTransitionsCount = transitionsCount;
+      mySortedDurations = sortedDurations;
+    }
+
+    public long getTestNameId() {
+      return myTestNameId;
+    }
+
+    public int getRunsCount() {
+      return myRunsCount;
+    }
+
+    public int getFailedCount() {
+      return myFailedCount;
+    }
+
+    /**
+     * @return number of status changes between successive runs in the same build configuration
+     */
+    public int getFlipsCount() {
+      return myFlipsCount;
+    }
+
+    public double getFlipRate() {
+      return myTransitionsCount == 0 ? 0 : (double)myFlipsCount / myTransitionsCount;
+    }
+
+    /**
+     * @param quantile value from 0 to 1
+     * @return duration in milliseconds, nearest-rank method is used
+     */
+    @Nullable
+    public Integer getDuration(final double quantile) {
+      if (mySortedDurations.length == 0) return null;
+      final int rank = (int)Math.ceil(quantile * mySortedDurations.length);
+      return mySortedDurations[Math.min(Math.max(rank - 1, 0), mySortedDurations.length - 1)];
+    }
+  }
+
+  private static class Aggregate {
+    private int myRunsCount;
+    private int myFailedCount;
+    private int myFlipsCount;
+    private int myTransitionsCount;
+    private int[] myDurations = new int[16];
+
+    private void addDuration(final int duration) {
+      if (myRunsCount == myDurations.length) {
+        myDurations = Arrays.copyOf(myDurations, myDurations.length * 2);
+      }
+      myDurations[myRunsCount++] = duration;
+    }
+
+    @NotNull
+    private TestStatisticsData toData(final long testNameId) {
+      final int[] durations = Arrays.copyOf(myDurations, myRunsCount);
+      Arrays.sort(durations);
+      return new TestStatisticsData(testNameId, myRunsCount, myFailedCount, myFlipsCount, myTransitionsCount, durations);
+    }
+  }
+
+  /**
+   * Last runs of a test in a build configuration, oldest to newest, overwriting the oldest ones when full
+   */
+  private static class Runs {
+    @NotNull private final int[] myDurations;
+    @NotNull private final boolean[] myFailed;
+    private int myNext;
+    private int mySize;
+
+    private Runs(final int maxSize) {
+      myDurations = new int[maxSize];
+      myFailed = new boolean[maxSize];
+    }
+
+    private synchronized void add(final int duration, final boolean failed) {
+      myDurations[myNext] = duration;
+      myFailed[myNext] = failed;
+      myNext = (myNext + 1) % myDurations.length;
+      if (mySize < myDurations.length) mySize++;
+    }
+
+    private synchronized void addTo(@NotNull final Aggregate aggregate, final int lastRunsCount) {
+      final int count = Math.min(mySize, lastRunsCount);
+      Boolean previousFailed = null;
+      for (int i = count; i > 0; i--) {
+        final int index = (myNext - i + myDurations.length) % myDurations.length;
+        aggregate.addDuration(myDurations[index]);
+        if (myFailed[index]) aggregate.myFailedCount++;
+        if (previousFailed != null) {
+          aggregate.myTransitionsCount++;
+          if (previousFailed != myFailed[index]) aggregate.myFlipsCount++;
+        }
+        previousFailed = myFailed[index];
+      }
+    }
+
+    private synchronized void write(@NotNull final DataOutputStream out) throws IOException {
+      out.writeInt(mySize);
+      for (int i = mySize; i > 0; i--) {
+        final int index = (myNext - i + myDurations.length) % myDurations.length;
+        out.writeInt(myFailed[index] ? -myDurations[index] - 1 : myDurations[index]); //the sign bit stores the status
+      }
+    }
+
+    private synchronized void read(@NotNull final DataInputStream in) throws IOException {
+      final int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        final int value = in.readInt();
+        add(value < 0 ? -(value + 1) : value, value < 0);
+      }
+    }
+  }
+
+  private static class Key {
+    private final long myTestNameId;
+    @NotNull private final String myBuildTypeId;
+
+    private Key(final long testNameId, @NotNull final String buildTypeId) {
+      myTestNameId = testNameId;
+      myBuildTypeId = buildTypeId;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key)o;
+      return myTestNameId == key.myTestNameId && myBuildTypeId.equals(key.myBuildTypeId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(myTestNameId) + myBuildTypeId.hashCode();
+    }
+  }
+}
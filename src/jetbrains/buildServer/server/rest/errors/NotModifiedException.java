@@ -0,0 +1,41 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.errors;
+
+import javax.ws.rs.core.EntityTag;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown to respond with "304 Not Modified" when the entity requested has not changed since the client got it.
+ * Not an error, so the stacktrace is not collected.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class NotModifiedException extends RuntimeException {
+  @NotNull private final EntityTag myEntityTag;
+
+  public NotModifiedException(@NotNull final EntityTag entityTag) {
+    super("Not modified, ETag: " + entityTag.getValue(), null, false, false);
+    myEntityTag = entityTag;
+  }
+
+  @NotNull
+  public EntityTag getEntityTag() {
+    return myEntityTag;
+  }
+}
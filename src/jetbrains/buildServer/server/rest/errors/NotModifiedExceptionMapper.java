@@ -0,0 +1,35 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.errors;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Not an error: responds with "304 Not Modified" without a body, so does not extend ExceptionMapperBase
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+@Provider
+public class NotModifiedExceptionMapper implements ExceptionMapper<NotModifiedException> {
+  @Override
+  public Response toResponse(final NotModifiedException exception) {
+    return Response.notModified(exception.getEntityTag()).build();
+  }
+}
@@ -17,9 +17,8 @@
 package jetbrains.buildServer.server.rest.model;
 
 import com.intellij.openapi.util.text.StringUtil;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import jetbrains.buildServer.server.rest.data.Locator;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
@@ -45,6 +44,10 @@ public class Fields {
 
   private static final String LOCATOR_CUSTOM_NAME = "$locator";
 
+  public static final String CACHE_SIZE_PROPERTY = "rest.beans.fields.cacheSize";
+  @NotNull private static final Map<String, ParsedSpec> ourParsedSpecs = new LinkedHashMap<>(16, 0.75f, true); //LRU, guarded by itself
+  @NotNull private static final Map<NestedFieldKey, Fields> NO_NESTED_FIELDS_CACHE = Collections.emptyMap();
+
   public static final Fields NONE = new Fields(NONE_FIELDS_PATTERN, null, null, true); // no fields at all
   public static final Fields SHORT = new Fields(DEFAULT_FIELDS_SHORT_PATTERN, null, null, true); // short (reference) form. Uses short or none form for the fields.
   public static final Fields ALL = new Fields(ALL_FIELDS_PATTERN, null, null, true); // all fields are present and are in the short form
@@ -53,15 +56,19 @@ public class Fields {
   public static final Fields ALL_NESTED = new Fields(ALL_NESTED_FIELDS_PATTERN, null, null, true); // maximum, all fields are included in the same maximum form
 
   @NotNull private final String myFieldsSpec;
-  private Locator myFieldsSpecLocator;
+  @Nullable private ParsedSpec myParsedSpec;
   @NotNull private final Map<String, Fields> myRestrictedFields;
+  @Nullable private volatile Map<NestedFieldKey, Fields> myNestedFields; //nested fields already created, by field name and defaults
 
   @Nullable
   private Context myContext = null;
 
+  /**
+   * @param restrictedFields should not be modified after the call
+   */
   private Fields(@NotNull String actualFieldsSpec, @Nullable Map<String, Fields> restrictedFields, @Nullable Context context, boolean isInternal) {
     myFieldsSpec = actualFieldsSpec;
-    myRestrictedFields = restrictedFields != null ? new HashMap<String, Fields>(restrictedFields) : Collections.emptyMap();
+    myRestrictedFields = restrictedFields != null ? restrictedFields : Collections.emptyMap();
     myContext = context;
   }
 
@@ -201,7 +208,7 @@ public class Fields {
   private static String getNestedField(@NotNull final String fieldSpec, @NotNull final String dimensionName) {
     if (fieldSpec.contains(dimensionName)) return null; //performance optimization: first check if the string appears inside
 
-    return new Fields(fieldSpec).getCustomDimension(dimensionName);
+    return StringUtil.isEmpty(fieldSpec) ? null : getParsedSpec(fieldSpec).getDimension(dimensionName);
   }
 
   @NotNull
@@ -219,6 +226,26 @@ public class Fields {
    */
   @NotNull
   public Fields getNestedField(@NotNull final String nestedFieldName, @NotNull final Fields defaultForShort, @NotNull final Fields defaultForLong) {
+    //the same nested fields are requested for each of the items in a collection, so they are created only once
+    Map<NestedFieldKey, Fields> nestedFields = myNestedFields;
+    if (nestedFields == null) {
+      nestedFields = TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 1000) <= 0 ? NO_NESTED_FIELDS_CACHE : new ConcurrentHashMap<>();
+      myNestedFields = nestedFields;
+    }
+    if (nestedFields == NO_NESTED_FIELDS_CACHE) {
+      return createNestedField(nestedFieldName, defaultForShort, defaultForLong);
+    }
+    final NestedFieldKey key = new NestedFieldKey(nestedFieldName, defaultForShort, defaultForLong);
+    Fields result = nestedFields.get(key);
+    if (result == null) {
+      result = createNestedField(nestedFieldName, defaultForShort, defaultForLong);
+      nestedFields.put(key, result);
+    }
+    return result;
+  }
+
+  @NotNull
+  private Fields createNestedField(@NotNull final String nestedFieldName, @NotNull final Fields defaultForShort, @NotNull final Fields defaultForLong) {
     final Boolean included = isIncluded(nestedFieldName);
     if (included != null && !included) {
       return NONE;
@@ -259,8 +286,11 @@ public class Fields {
 
   @Nullable
   public String getCustomDimension(@NotNull final String fieldName) {
-    final Locator parsedCustomFields = getParsedCustomFields();
-    return parsedCustomFields == null ? null : parsedCustomFields.lookupSingleDimensionValue(fieldName); //should use getSingleDimensionValue here, but since locator check is not invoked so far, can improve performance a bit by using lookupSingleDimensionValue
+    if (myParsedSpec == null) {
+      if (StringUtil.isEmpty(myFieldsSpec)) return null;
+      myParsedSpec = getParsedSpec(myFieldsSpec);
+    }
+    return myParsedSpec.getDimension(fieldName);
   }
 
   @Nullable
@@ -322,20 +352,36 @@ public class Fields {
     return new Fields(myFieldsSpec, newRestrictedFields, myContext, true);
   }
 
-  @Nullable
-  private Locator getParsedCustomFields() {
-    if (myFieldsSpecLocator == null && !StringUtil.isEmpty(myFieldsSpec)) {
-      try {
-        myFieldsSpecLocator = new Locator(myFieldsSpec, true,
-                                          NONE_FIELDS_PATTERN, DEFAULT_FIELDS_SHORT_PATTERN_ALTERNATIVE, DEFAULT_FIELDS_LONG_PATTERN, ALL_FIELDS_PATTERN, ALL_NESTED_FIELDS_PATTERN,
-                                          LOCATOR_CUSTOM_NAME, OPTIONAL_FIELDS_PATTERN);
-        //should add to hidden dimension, but since the locator is not currently checked, save performance by not doing it so far
-        //myFieldsSpecLocator.addHiddenDimensions(OPTIONAL_FIELDS_PATTERN);
-      } catch (LocatorProcessException e) {
-        throw new LocatorProcessException("Error parsing fields specification: " + e.getMessage(), e);
+  /**
+   * The same specs are used for all the beans of a request and in the subsequent requests of the same client, so the parsed specs are cached
+   */
+  @NotNull
+  private static ParsedSpec getParsedSpec(@NotNull final String fieldsSpec) {
+    final int cacheSize = TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, 1000);
+    if (cacheSize <= 0) {
+      return new ParsedSpec(fieldsSpec);
+    }
+    synchronized (ourParsedSpecs) {
+      final ParsedSpec result = ourParsedSpecs.get(fieldsSpec);
+      if (result != null) return result;
+    }
+    final ParsedSpec result = new ParsedSpec(fieldsSpec);
+    synchronized (ourParsedSpecs) {
+      ourParsedSpecs.put(fieldsSpec, result);
+      //the specs come from the requests, so the least recently used ones are dropped when there are too many of them
+      final Iterator<String> eldest = ourParsedSpecs.keySet().iterator();
+      while (ourParsedSpecs.size() > cacheSize && eldest.hasNext()) {
+        eldest.next();
+        eldest.remove();
       }
     }
-    return myFieldsSpecLocator;
+    return result;
+  }
+
+  static boolean isParsedSpecCached(@NotNull final String fieldsSpec) {
+    synchronized (ourParsedSpecs) {
+      return ourParsedSpecs.containsKey(fieldsSpec);
+    }
   }
 
   @NotNull
@@ -348,11 +394,92 @@ public class Fields {
     return getFieldsSpec();
   }
 
+  /**
+   * @deprecated the instance can be shared as nested fields of other instance, use {@link #withContext(BuildPromotion)} instead
+   */
+  @Deprecated
   public void setContext(@NotNull final BuildPromotion buildPromotion) {
     if (myContext == null) myContext = new Context();
     myContext.buildPromotion = buildPromotion;
   }
 
+  /**
+   * @return copy of the fields with the context build set
+   */
+  @NotNull
+  public Fields withContext(@NotNull final BuildPromotion buildPromotion) {
+    final Context context = new Context();
+    context.buildPromotion = buildPromotion;
+    return new Fields(myFieldsSpec, myRestrictedFields, context, true);
+  }
+
+  /**
+   * Nested field name with the defaults, the defaults are compared by their specs as they are usually the same constants
+   */
+  private static class NestedFieldKey {
+    @NotNull private final String myName;
+    @NotNull private final Fields myDefaultForShort;
+    @NotNull private final Fields myDefaultForLong;
+
+    private NestedFieldKey(@NotNull final String name, @NotNull final Fields defaultForShort, @NotNull final Fields defaultForLong) {
+      myName = name;
+      myDefaultForShort = defaultForShort;
+      myDefaultForLong = defaultForLong;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final NestedFieldKey key = (NestedFieldKey)o;
+      return myName.equals(key.myName) &&
+             (myDefaultForShort == key.myDefaultForShort || myDefaultForShort.myFieldsSpec.equals(key.myDefaultForShort.myFieldsSpec)) &&
+             (myDefaultForLong == key.myDefaultForLong || myDefaultForLong.myFieldsSpec.equals(key.myDefaultForLong.myFieldsSpec));
+    }
+
+    @Override
+    public int hashCode() {
+      return (myName.hashCode() * 31 + myDefaultForShort.myFieldsSpec.hashCode()) * 31 + myDefaultForLong.myFieldsSpec.hashCode();
+    }
+  }
+
+  /**
+   * Parsed fields specification, immutable
+   */
+  private static class ParsedSpec {
+    @NotNull private final Map<String, String> myDimensions = new HashMap<String, String>();
+    @NotNull private final Map<String, String> myErrors = new HashMap<String, String>();
+
+    private ParsedSpec(@NotNull final String fieldsSpec) {
+      final Locator locator;
+      try {
+        locator = new Locator(fieldsSpec, true,
+                              NONE_FIELDS_PATTERN, DEFAULT_FIELDS_SHORT_PATTERN_ALTERNATIVE, DEFAULT_FIELDS_LONG_PATTERN, ALL_FIELDS_PATTERN, ALL_NESTED_FIELDS_PATTERN,
+                              LOCATOR_CUSTOM_NAME, OPTIONAL_FIELDS_PATTERN);
+        //should add to hidden dimension, but since the locator is not currently checked, save performance by not doing it so far
+        //locator.addHiddenDimensions(OPTIONAL_FIELDS_PATTERN);
+      } catch (LocatorProcessException e) {
+        throw new LocatorProcessException("Error parsing fields specification: " + e.getMessage(), e);
+      }
+      for (String name : locator.getDefinedDimensions()) {
+        try {
+          //should use getSingleDimensionValue here, but since locator check is not invoked so far, can improve performance a bit by using lookupSingleDimensionValue
+          final String value = locator.lookupSingleDimensionValue(name);
+          if (value != null) myDimensions.put(name, value);
+        } catch (LocatorProcessException e) {
+          myErrors.put(name, e.getMessage()); //reported only when the field is actually used
+        }
+      }
+    }
+
+    @Nullable
+    private String getDimension(@NotNull final String name) {
+      final String error = myErrors.get(name);
+      if (error != null) throw new LocatorProcessException(error);
+      return myDimensions.get(name);
+    }
+  }
+
   private static class Context {
     @Nullable
     private BuildPromotion buildPromotion;
@@ -16,7 +16,6 @@
 
 package jetbrains.buildServer.server.rest.model.agent;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import javax.xml.bind.annotation.XmlAttribute;
@@ -28,6 +27,7 @@ import jetbrains.buildServer.server.rest.data.AgentPoolFinder;
 import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ItemBeans;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import jetbrains.buildServer.serverSide.SBuildAgent;
 import org.jetbrains.annotations.NotNull;
@@ -77,11 +77,8 @@ public class Agents {
       agents = ValueWithDefault.decideDefault(fields.isIncluded(AGENT, false, true), new ValueWithDefault.Value<List<Agent>>() {
         @Nullable
         public List<Agent> get() {
-          final ArrayList<Agent> items = new ArrayList<Agent>(agentObjects.size());
-          for (SBuildAgent item : agentObjects) {
-            items.add(new Agent(item, beanContext.getSingletonService(AgentPoolFinder.class), fields.getNestedField(AGENT), beanContext));
-          }
-          return items;
+          final AgentPoolFinder agentPoolFinder = beanContext.getSingletonService(AgentPoolFinder.class);
+          return ItemBeans.getList(agentObjects, item -> new Agent(item, agentPoolFinder, fields.getNestedField(AGENT), beanContext), beanContext);
         }
       });
 
@@ -995,7 +995,8 @@ public class Build {
                                                   public List<STestRun> get() {
                                                     String testOccurrencesLocator = testOccurrencesFields.getLocator();
                                                     if (testOccurrencesLocator == null) {
-                                                      return fullStatistics != null ? fullStatistics.getAllTests() : TestOccurrenceFinder.getBuildStatistics(myBuild).getAllTests();
+                                                      return TestOccurrenceFinder.getInDefaultOrder(
+                                                        fullStatistics != null ? fullStatistics.getAllTests() : TestOccurrenceFinder.getBuildStatistics(myBuild).getAllTests());
                                                     }
                                                     String  actualLocatorText = Locator.merge(TestOccurrenceFinder.getTestRunLocator(myBuild), testOccurrencesLocator);
                                                     return myServiceLocator.getSingletonService(TestOccurrenceFinder.class).getItems(actualLocatorText).myEntries;
@@ -1279,9 +1280,7 @@ public class Build {
   public Related getRelated() {
     return ValueWithDefault.decideDefault(myFields.isIncluded("related", false, false),
                                           () -> {
-                                            Fields nestedField = myFields.getNestedField("related", Fields.LONG, Fields.LONG);
-                                            nestedField.setContext(myBuildPromotion);
-                                            return new Related(nestedField, myBeanContext);
+                                            return new Related(myFields.getNestedField("related", Fields.LONG, Fields.LONG).withContext(myBuildPromotion), myBeanContext);
                                           });
   }
 
@@ -16,7 +16,6 @@
 
 package jetbrains.buildServer.server.rest.model.problem;
 
-import java.util.ArrayList;
 import java.util.List;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
@@ -26,6 +25,7 @@ import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.model.build.OccurrencesSummary;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ConvertingList;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
 import org.jetbrains.annotations.NotNull;
@@ -72,11 +72,7 @@ public class ProblemOccurrences extends OccurrencesSummary {
       items = ValueWithDefault.decideDefault(fields.isIncluded("problemOccurrence", false), new ValueWithDefault.Value<List<ProblemOccurrence>>() {
         @Nullable
         public List<ProblemOccurrence> get() {
-          final ArrayList<ProblemOccurrence> result = new ArrayList<ProblemOccurrence>(itemsP.size());
-          for (BuildProblem item : itemsP) {
-            result.add(new ProblemOccurrence(item, beanContext, fields.getNestedField("problemOccurrence")));
-          }
-          return result;
+          return new ConvertingList<>(itemsP, item -> new ProblemOccurrence(item, beanContext, fields.getNestedField("problemOccurrence")));
         }
       });
       this.count = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("count", true), itemsP.size());
@@ -16,8 +16,6 @@
 
 package jetbrains.buildServer.server.rest.model.problem;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
@@ -27,9 +25,9 @@ import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.model.build.OccurrencesSummary;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ItemBeans;
 import jetbrains.buildServer.server.rest.util.ValueWithDefault;
 import jetbrains.buildServer.serverSide.STestRun;
-import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -72,15 +70,8 @@ public class TestOccurrences extends OccurrencesSummary {
       items = ValueWithDefault.decideDefault(isTestOccurrenceIncluded(fields), new ValueWithDefault.Value<List<TestOccurrence>>() {
         @Nullable
         public List<TestOccurrence> get() {
-          final List<STestRun> sortedItems = new ArrayList<STestRun>(itemsP);
-          if (TeamCityProperties.getBoolean("rest.beans.testOccurrences.sortByNameAndNew")){
-            Collections.sort(sortedItems, STestRun.NEW_FIRST_NAME_COMPARATOR); //if we are to support customizable order, this should be done in the TestOccurrenceFinder
-          }
-          final ArrayList<TestOccurrence> result = new ArrayList<TestOccurrence>(sortedItems.size());
-          for (STestRun item : sortedItems) {
-            result.add(new TestOccurrence(item, beanContext, fields.getNestedField("testOccurrence")));
-          }
-          return result;
+          //the items are expected to be already ordered, see TestOccurrenceFinder.getComparator
+          return ItemBeans.getLazyList(itemsP, item -> new TestOccurrence(item, beanContext, fields.getNestedField("testOccurrence")), beanContext);
         }
       });
       this.count = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("count", true), itemsP.size());
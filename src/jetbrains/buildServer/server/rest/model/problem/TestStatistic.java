@@ -0,0 +1,73 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.model.problem;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import jetbrains.buildServer.server.rest.data.problem.TestStatisticsCollector;
+import jetbrains.buildServer.server.rest.model.Fields;
+import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.DefaultValueAware;
+import jetbrains.buildServer.server.rest.util.ValueWithDefault;
+import jetbrains.buildServer.serverSide.STest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Experimental, the model will change in future versions!
+ *
+ * @author Yegor.Yarko
+ *         Date: 16/10/2018
+ */
+@SuppressWarnings("PublicField")
+@XmlRootElement(name = "testStatistic")
+@XmlType(name = "testStatistic", propOrder = {"runs", "failed", "flips", "flipRate", "medianDuration", "percentile95Duration", "maxDuration",
+  "test"})
+public class TestStatistic implements DefaultValueAware {
+  @XmlAttribute public Integer runs;
+  @XmlAttribute public Integer failed;
+  @XmlAttribute public Integer flips;
+  @XmlAttribute public Double flipRate;
+  @XmlAttribute public Integer medianDuration;
+  @XmlAttribute public Integer percentile95Duration;
+  @XmlAttribute public Integer maxDuration;
+  @XmlElement public Test test;
+
+  public TestStatistic() {
+  }
+
+  public TestStatistic(@NotNull final TestStatisticsCollector.TestStatisticsData data,
+                       @Nullable final STest sTest,
+                       @NotNull final BeanContext beanContext,
+                       @NotNull final Fields fields) {
+    runs = ValueWithDefault.decideDefault(fields.isIncluded("runs"), data.getRunsCount());
+    failed = ValueWithDefault.decideDefault(fields.isIncluded("failed"), data.getFailedCount());
+    flips = ValueWithDefault.decideDefault(fields.isIncluded("flips"), data.getFlipsCount());
+    flipRate = ValueWithDefault.decideDefault(fields.isIncluded("flipRate"), data.getFlipRate());
+    medianDuration = ValueWithDefault.decideDefault(fields.isIncluded("medianDuration"), () -> data.getDuration(0.5));
+    percentile95Duration = ValueWithDefault.decideDefault(fields.isIncluded("percentile95Duration"), () -> data.getDuration(0.95));
+    maxDuration = ValueWithDefault.decideDefault(fields.isIncluded("maxDuration", false), () -> data.getDuration(1));
+    test = sTest == null ? null : ValueWithDefault.decideDefault(fields.isIncluded("test", true), () -> new Test(sTest, beanContext, fields.getNestedField("test")));
+  }
+
+  @Override
+  public boolean isDefault() {
+    return ValueWithDefault.isAllDefault(runs, failed, flips, flipRate, medianDuration, percentile95Duration, maxDuration, test);
+  }
+}
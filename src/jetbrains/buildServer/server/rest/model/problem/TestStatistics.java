@@ -0,0 +1,68 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.model.problem;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import jetbrains.buildServer.server.rest.data.problem.TestFinder;
+import jetbrains.buildServer.server.rest.data.problem.TestStatisticsCollector;
+import jetbrains.buildServer.server.rest.model.Fields;
+import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.DefaultValueAware;
+import jetbrains.buildServer.server.rest.util.ValueWithDefault;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Experimental, the model will change in future versions!
+ *
+ * @author Yegor.Yarko
+ *         Date: 16/10/2018
+ */
+@SuppressWarnings("PublicField")
+@XmlRootElement(name = "testStatistics")
+@XmlType(name = "testStatistics", propOrder = {"count", "lastRuns",
+  "items"})
+public class TestStatistics implements DefaultValueAware {
+  @XmlElement(name = "testStatistic") public List<TestStatistic> items;
+  @XmlAttribute public Integer count;
+  @XmlAttribute public Integer lastRuns;
+
+  public TestStatistics() {
+  }
+
+  public TestStatistics(@NotNull final List<TestStatisticsCollector.TestStatisticsData> itemsP,
+                        final int lastRunsCount,
+                        @NotNull final Fields fields,
+                        @NotNull final BeanContext beanContext) {
+    items = ValueWithDefault.decideDefault(fields.isIncluded("testStatistic", true), () -> {
+      final TestFinder testFinder = beanContext.getSingletonService(TestFinder.class);
+      final Fields nestedFields = fields.getNestedField("testStatistic");
+      return itemsP.stream().map(item -> new TestStatistic(item, testFinder.findTest(item.getTestNameId()), beanContext, nestedFields)).collect(Collectors.toList());
+    });
+    count = ValueWithDefault.decideIncludeByDefault(fields.isIncluded("count", true), itemsP.size());
+    lastRuns = ValueWithDefault.decideDefault(fields.isIncluded("lastRuns"), lastRunsCount);
+  }
+
+  @Override
+  public boolean isDefault() {
+    return ValueWithDefault.isAllDefault(count, lastRuns, items);
+  }
+}
@@ -25,6 +25,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.UriInfo;
 import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.server.rest.ApiUrlBuilder;
@@ -39,6 +40,7 @@ import jetbrains.buildServer.server.rest.model.build.BuildCancelRequest;
 import jetbrains.buildServer.server.rest.model.build.Builds;
 import jetbrains.buildServer.server.rest.model.build.Tags;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.EntityTags;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.tags.TagsManager;
 import jetbrains.buildServer.users.SUser;
@@ -85,7 +87,11 @@ public class BuildQueueRequest {
    */
   @GET
   @Produces({"application/xml", "application/json"})
-  public Builds getBuilds(@QueryParam("locator") String locator, @QueryParam("fields") String fields, @Context UriInfo uriInfo, @Context HttpServletRequest request) {
+  public Builds getBuilds(@QueryParam("locator") String locator, @QueryParam("fields") String fields, @Context UriInfo uriInfo, @Context HttpServletRequest request,
+                          @Context Request requestContext, @Context HttpServletResponse response) {
+    final ServerStateVersions versions = myServiceLocator.getSingletonService(ServerStateVersions.class);
+    EntityTags.checkNotModified(requestContext, request, response, myServiceLocator, fields,
+                                versions.getConfigVersion(), versions.getQueueVersion(), versions.getRunningDataVersion());
     final PagedSearchResult<SQueuedBuild> result = myQueuedBuildFinder.getItems(locator);
 
     final List<BuildPromotion> builds = CollectionsUtil.convertCollection(result.myEntries, new Converter<BuildPromotion, SQueuedBuild>() {
@@ -22,6 +22,8 @@ import io.swagger.annotations.ApiOperation;
 import java.io.*;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.servlet.ServletContext;
@@ -29,6 +31,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
+import javax.ws.rs.ext.Providers;
 import jetbrains.buildServer.agent.ServerProvidedProperties;
 import jetbrains.buildServer.controllers.FileSecurityUtil;
 import jetbrains.buildServer.controllers.HttpDownloadProcessor;
@@ -49,8 +52,11 @@ import jetbrains.buildServer.server.rest.model.change.BuildChanges;
 import jetbrains.buildServer.server.rest.model.issue.IssueUsages;
 import jetbrains.buildServer.server.rest.model.problem.ProblemOccurrences;
 import jetbrains.buildServer.server.rest.model.problem.TestOccurrences;
+import jetbrains.buildServer.server.rest.util.AdditionalMediaTypes;
 import jetbrains.buildServer.server.rest.util.AggregatedBuildArtifactsElementBuilder;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.EntityTags;
+import jetbrains.buildServer.server.rest.util.NdjsonStreamingOutput;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.TriggeredBy;
 import jetbrains.buildServer.serverSide.auth.*;
@@ -62,9 +68,7 @@ import jetbrains.buildServer.tags.TagsManager;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.users.User;
 import jetbrains.buildServer.users.UserModel;
-import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
-import jetbrains.buildServer.util.TCStreamUtil;
 import jetbrains.buildServer.util.browser.Element;
 import jetbrains.buildServer.vcs.VcsException;
 import jetbrains.buildServer.vcs.VcsManager;
@@ -174,13 +178,50 @@ public class BuildRequest {
                                @QueryParam("count") Integer count,
                                @QueryParam("locator") String locator,
                                @QueryParam("fields") String fields,
-                               @Context UriInfo uriInfo, @Context HttpServletRequest request) {
+                               @Context UriInfo uriInfo, @Context HttpServletRequest request,
+                               @Context Request requestContext, @Context HttpServletResponse response) {
+    EntityTags.checkNotModified(requestContext, request, response, myBeanContext.getServiceLocator(), fields, getBuildsVersions(locator, uriInfo));
     return myBuildFinder.getBuildsForRequest(myBuildTypeFinder.getBuildTypeIfNotNull(buildTypeLocator), status, userLocator, includePersonal,
                                            includeCanceled, onlyPinned, tags, agentName, sinceBuildLocator, sinceDate, start, count,
                                            locator, "locator", uriInfo, request,   new Fields(fields), myBeanContext
     );
   }
 
+  /**
+   * @return versions of the server state the builds found by the locator depend on
+   */
+  @NotNull
+  private Long[] getBuildsVersions(@Nullable final String locator, @NotNull final UriInfo uriInfo) {
+    final ServerStateVersions versions = myBeanContext.getSingletonService(ServerStateVersions.class);
+    List<SBuildType> buildTypes = null;
+    if (uriInfo.getQueryParameters().keySet().stream().allMatch(name -> "locator".equals(name) || "fields".equals(name))) { //no deprecated parameters
+      buildTypes = myBuildPromotionFinder.getHistoryBuildTypes(locator);
+    }
+    long buildsVersion = 0;
+    if (buildTypes == null) {
+      buildsVersion = versions.getBuildsVersion();
+    } else {
+      for (SBuildType buildType : buildTypes) {
+        buildsVersion += versions.getBuildTypeHistoryVersion(buildType);
+      }
+    }
+    return new Long[]{versions.getConfigVersion(), buildsVersion, versions.getRunningDataVersion()};
+  }
+
+  /**
+   * Experimental. Streams the builds found by the locator as newline-delimited JSON, one build per line, while they are being found.
+   * "count" locator dimension is ignored, use "lookupLimit" to limit the processing.
+   * @param fields fields of each build
+   */
+  @GET
+  @Path("/stream")
+  @Produces(AdditionalMediaTypes.APPLICATION_NDJSON)
+  public StreamingOutput streamBuilds(@QueryParam("locator") String locator, @QueryParam("fields") String fields, @Context Providers providers) {
+    final Fields buildFields = new Fields(fields);
+    return new NdjsonStreamingOutput<BuildPromotion>(providers, myBuildPromotionFinder.prepareProcessItems(locator),
+                                                     buildPromotion -> new Build(buildPromotion, buildFields, myBeanContext));
+  }
+
   /**
    * @deprecated Use DELETE request to .../app/rest/builds/multiple/{locator}
    */
@@ -243,7 +284,7 @@ public class BuildRequest {
 
   /**
    * Serves a build described by the locator provided searching through those accessible by the current user.
-   * See {@link jetbrains.buildServer.server.rest.request.BuildRequest#serveAllBuilds(String, String, String, boolean, boolean, boolean, java.util.List, String, String, String, Long, Integer, String, javax.ws.rs.core.UriInfo, javax.servlet.http.HttpServletRequest)}
+   * See {@link jetbrains.buildServer.server.rest.request.BuildRequest#serveAllBuilds(String, String, String, boolean, boolean, boolean, java.util.List, String, String, String, Long, Integer, String, javax.ws.rs.core.UriInfo, javax.servlet.http.HttpServletRequest, javax.ws.rs.core.Request, javax.servlet.http.HttpServletResponse)}
    * If several builds are matched, the first one is used (the effect is the same as if ",count:1" locator dimension is added)
    * @param buildLocator
    * @return A build matching the locator
@@ -679,7 +720,8 @@ public class BuildRequest {
   public TestOccurrences getTests(@PathParam("buildLocator") String buildLocator, @QueryParam("fields") String fields) {
     SBuild build = myBuildFinder.getBuild(null, buildLocator);
     //todo: investigate test repeat counts support
-    return new TestOccurrences(TestOccurrenceFinder.getBuildStatistics(build).getAllTests(), TestOccurrenceRequest.getHref(build), null, new Fields(fields), myBeanContext);
+    return new TestOccurrences(TestOccurrenceFinder.getInDefaultOrder(TestOccurrenceFinder.getBuildStatistics(build).getAllTests()), TestOccurrenceRequest.getHref(build), null,
+                               new Fields(fields), myBeanContext);
   }
 
   /**
@@ -998,20 +1040,21 @@ public class BuildRequest {
   // Note: authentication for this request is disabled in APIController configuration
   @GET
   @Path("/{buildLocator}/" + STATUS_ICON_REQUEST_NAME + "{suffix:(.*)?}")
-  public Response serveBuildStatusIcon(@PathParam("buildLocator") final String buildLocator, @PathParam("suffix") final String suffix, @Context HttpServletRequest request) {
-    //todo: may also use HTTP 304 for different resources in order to make it browser-cached
+  public Response serveBuildStatusIcon(@PathParam("buildLocator") final String buildLocator, @PathParam("suffix") final String suffix, @Context HttpServletRequest request,
+                                       @Context Request requestContext) {
     //todo: return something appropriate when in maintenance
 
-    final BuildIconStatus stateName = getStatus(buildLocator);
-    return processIconRequest(stateName.getIconName(), suffix, request);
+    final BuildIconStatus stateName = getCachedStatus(false, buildLocator, () -> getStatus(buildLocator));
+    return processIconRequest(buildLocator, stateName.getIconName(), suffix, request, requestContext);
   }
 
   // Note: authentication for this request is disabled in APIController configuration
   @GET
   @Path(AGGREGATED + "/{buildLocator}/" + STATUS_ICON_REQUEST_NAME + "{suffix:(.*)?}")
-  public Response serveAggregatedBuildStatusIcon(@PathParam("buildLocator") String locator, @PathParam("suffix") final String suffix, @Context HttpServletRequest request) {
-    final BuildIconStatus stateName = getAggregatedStatus(locator);
-    return processIconRequest(stateName.getIconName(), suffix, request);
+  public Response serveAggregatedBuildStatusIcon(@PathParam("buildLocator") String locator, @PathParam("suffix") final String suffix, @Context HttpServletRequest request,
+                                                 @Context Request requestContext) {
+    final BuildIconStatus stateName = getCachedStatus(true, locator, () -> getAggregatedStatus(locator));
+    return processIconRequest(locator, stateName.getIconName(), suffix, request, requestContext);
   }
 
   @GET
@@ -1060,36 +1103,29 @@ public class BuildRequest {
     return Build.getFieldValue(myBuildFinder.getBuildPromotion(null, buildLocator), field, myBeanContext);
   }
 
+  /**
+   * The builds are processed as they are found and the processing stops once the most severe status is found, as other builds cannot change the result then.
+   * As the builds are not collected, "count" (with the default page size) is applied here, and the default "lookupLimit" is raised to "count" as getItems does.
+   */
   @NotNull
   private BuildIconStatus getAggregatedStatus(@Nullable final String multipleBuildsLocator) {
-    BuildIconStatus resultState = BuildIconStatus.NOT_FOUND;
-    boolean[] hasNext = new boolean[1];
-    hasNext[0] = true;
-    final BuildIconStatus.Value<BuildPromotion> buildPromotionRetriever = new BuildIconStatus.Value<BuildPromotion>() {
-      private List<BuildPromotion> myBuilds;
-      private int currentIndex = 0;
-
-      @NotNull
-      @Override
-      public BuildPromotion get() {
-        if (myBuilds == null) {
-          hasNext[0] = false;
-          myBuilds = myBuildPromotionFinder.getItems(multipleBuildsLocator).myEntries;
-          if (myBuilds.isEmpty()) {
-            throw new NotFoundException("No builds found");
-          }
+    return BuildIconStatus.compute(myBeanContext, currentUserAuthorityHolder -> {
+      final Long count = myBuildPromotionFinder.getCount(multipleBuildsLocator);
+      final BuildIconStatus[] result = {BuildIconStatus.NOT_FOUND};
+      final long[] buildsCount = {0};
+      myBuildPromotionFinder.processItems(myBuildPromotionFinder.getLocatorWithEffectiveLookupLimit(multipleBuildsLocator), buildPromotion -> {
+        buildsCount[0]++;
+        final BuildIconStatus status = BuildIconStatus.getSafely(buildPromotion, currentUserAuthorityHolder, myBeanContext);
+        if (result[0].compareTo(status) < 0) {
+          result[0] = status;
         }
-        hasNext[0] = currentIndex < myBuilds.size() - 1;
-        return myBuilds.get(currentIndex++);
-      }
-    };
-    while (hasNext[0]) {
-      final BuildIconStatus stateName = BuildIconStatus.create(myBeanContext, buildPromotionRetriever);
-      if (resultState.compareTo(stateName) < 0) {
-        resultState = stateName;
+        return !result[0].isFinal() && (count == null || buildsCount[0] < count);
+      });
+      if (buildsCount[0] == 0) {
+        throw new NotFoundException("No builds found");
       }
-    }
-    return resultState;
+      return result[0];
+    });
   }
 
   @NotNull
@@ -1103,8 +1139,48 @@ public class BuildRequest {
     });
   }
 
-  private Response processIconRequest(final String stateName, final @PathParam("suffix") String suffix, final @Context HttpServletRequest request) {
+  /**
+   * The status is cached for the locator and the current user, see BuildStatusIconCache. Internal errors are not cached.
+   */
+  @NotNull
+  private BuildIconStatus getCachedStatus(final boolean aggregated, @Nullable final String locator, @NotNull final Supplier<BuildIconStatus> statusComputer) {
+    if (locator == null) return statusComputer.get();
+    final AuthorityHolder authorityHolder = myBeanContext.getSingletonService(SecurityContextEx.class).getAuthorityHolder();
+    final BuildIconStatus result = myBeanContext.getSingletonService(BuildStatusIconCache.class).getStatus(aggregated, locator, authorityHolder, () -> {
+      final BuildIconStatus status = statusComputer.get();
+      return status == BuildIconStatus.INTERNAL_ERROR ? null : status;
+    });
+    return result != null ? result : BuildIconStatus.INTERNAL_ERROR;
+  }
+
+  private Response processIconRequest(@Nullable final String locator, final String stateName, final String suffix,
+                                      @NotNull final HttpServletRequest request, @NotNull final Request requestContext) {
     final String iconFileName = IMG_STATUS_WIDGET_ROOT_DIRECTORY + "/" + stateName + (StringUtil.isEmpty(suffix) ? ".png" : suffix);
+    final BuildStatusIconCache.Icon icon;
+    try {
+      icon = myBeanContext.getSingletonService(BuildStatusIconCache.class).getIcon(getIconFile(iconFileName, suffix), new File(getRealFileName(IMG_STATUS_WIDGET_ROOT_DIRECTORY)));
+    } catch (IOException e) {
+      throw new OperationException("Error while retrieving file '" + iconFileName + "': " + e.getMessage(), e);
+    }
+
+    //strong ETag: the same content is always returned for the same status and icon
+    final EntityTag entityTag = new EntityTag(EncryptUtil.md5(locator + ":" + iconFileName + ":" + icon.getVersion()));
+    Response.ResponseBuilder response = requestContext.evaluatePreconditions(entityTag);
+    if (response == null) {
+      response = Response.ok(icon.getContent(), WebUtil.getMimeType(request, icon.getFileName())).tag(entityTag);
+    }
+    response.header("Cache-Control", "no-cache, private"); //the status can change, so the client should always revalidate
+    //see also setting no caching headers in jetbrains.buildServer.server.rest.request.FilesSubResource.getContentByStream()
+    // see jetbrains.buildServer.web.util.WebUtil.addCacheHeadersForIE and http://youtrack.jetbrains.com/issue/TW-9821 for details)
+    if (WebUtil.isIE(request)) {
+      response.header("Cache-Control", "private,must-revalidate");
+      response.header("Pragma", "private");
+    }
+    return response.build();
+  }
+
+  @NotNull
+  private File getIconFile(@NotNull final String iconFileName, @Nullable final String suffix) {
     final String resultIconFileName;
     try {
       resultIconFileName = getRealFileName(iconFileName);
@@ -1122,33 +1198,7 @@ public class BuildRequest {
                                   (StringUtil.isEmpty(suffix) ? " (installation corrupted?)" : ", try omitting '" + suffix + "' suffix"));
       //todo: list extensions in file under IMG_STATUS_WIDGET_ROOT_DIRECTORY, see also above
     }
-
-    final File resultIconFile = new File(resultIconFileName);
-    final StreamingOutput streamingOutput = new StreamingOutput() {
-      public void write(final OutputStream output) throws WebApplicationException {
-        InputStream inputStream = null;
-        try {
-          inputStream = new BufferedInputStream(new FileInputStream(resultIconFile));
-          TCStreamUtil.writeBinary(inputStream, output);
-        } catch (IOException e) {
-          //todo add better processing
-          throw new OperationException("Error while retrieving file '" + resultIconFile.getName() + "': " + e.getMessage(), e);
-        } finally {
-          FileUtil.close(inputStream);
-        }
-      }
-    };
-
-    final String mediaType = WebUtil.getMimeType(request, resultIconFileName);
-    final Response.ResponseBuilder response = Response.ok(streamingOutput, mediaType).header("Cache-Control", "no-cache, private");
-    //see also setting no caching headers in jetbrains.buildServer.server.rest.request.FilesSubResource.getContentByStream()
-    response.header("ETag", "W/\"" + EncryptUtil.md5(String.valueOf(stateName)) + "\"");  //mark ETag as "weak"
-    // see jetbrains.buildServer.web.util.WebUtil.addCacheHeadersForIE and http://youtrack.jetbrains.com/issue/TW-9821 for details)
-    if (WebUtil.isIE(request)) {
-      response.header("Cache-Control", "private,must-revalidate");
-      response.header("Pragma", "private");
-    }
-    return response.build();
+    return new File(resultIconFileName);
   }
 
   enum BuildIconStatus {
@@ -1171,48 +1221,31 @@ public class BuildRequest {
       return myIconName;
     }
 
-   @NotNull
+    /**
+     * @return true if the status is the most severe one, so that it cannot be changed by aggregating with the statuses of other builds.
+     * Running builds do not decide the aggregated status: RUNNING is less severe than SUCCESSFUL, ERROR and FAILED of the finished builds,
+     * so only FAILED allows to stop early without changing the result
+     */
+    public boolean isFinal() {
+      return this == FAILED;
+    }
+
+    @NotNull
     private static BuildIconStatus create(final BeanContext beanContext, final Value<BuildPromotion> buildPromotionRetriever) {
-      BuildIconStatus[] result = new BuildIconStatus[1];
+      return compute(beanContext, currentUserAuthorityHolder -> get(buildPromotionRetriever.get(), currentUserAuthorityHolder, beanContext));
+    }
+
+    /**
+     * Computes the status under the system user, reports errors as statuses
+     * @param statusComputer gets the authority holder of the current user
+     */
+    @NotNull
+    private static BuildIconStatus compute(final BeanContext beanContext, final Function<AuthorityHolder, BuildIconStatus> statusComputer) {
       try {
         final SecurityContextEx securityContext = beanContext.getSingletonService(SecurityContextEx.class);
         final AuthorityHolder currentUserAuthorityHolder = securityContext.getAuthorityHolder();
         try {
-          securityContext.runAsSystem(new SecurityContextEx.RunAsAction() {
-            public void run() throws Throwable {
-              BuildPromotion buildPromotion = buildPromotionRetriever.get();
-              if (!hasPermissionsToViewStatus(buildPromotion, currentUserAuthorityHolder, beanContext)) {
-                LOG.info("No permissions to access requested build. Either authenticate as user with appropriate permissions, or ensure 'guest' user has appropriate permissions " +
-                         "or enable external status widget for the build configuration.");
-                result[0] = PERMISSION;
-                return;
-              }
-              final SBuild build = buildPromotion.getAssociatedBuild();
-              //todo: support queued builds
-              if (build == null){
-                result[0] = NOT_FOUND;
-                return;
-              }
-              if (!build.isFinished()) {
-                result[0] = RUNNING;  //todo: support running/failing and may be running/last failed
-                return;
-              }
-              if (build.getCanceledInfo() != null) {
-                result[0] = CANCELED;
-                return;
-              }
-              if (build.getStatusDescriptor().isSuccessful()) {
-                result[0] = SUCCESSFUL;
-                return;
-              }
-              if (build.isInternalError()) {
-                result[0] = ERROR;
-                return;
-              }
-              result[0] = FAILED;
-            }
-          });
-          return result[0];
+          return securityContext.runAsSystem(() -> statusComputer.apply(currentUserAuthorityHolder));
         } catch (NotFoundException e) {
           if (TeamCityProperties.getBoolean("rest.buildRequest.statusIcon.enableNotFoundResponsesWithoutPermissions") ||
               hasPermissionsToViewStatusGlobally(securityContext, beanContext)) {
@@ -1233,6 +1266,49 @@ public class BuildRequest {
       }
     }
 
+    /**
+     * Same as get(), but reports errors as 'internal_error' status. Should be invoked under the system user
+     */
+    @NotNull
+    private static BuildIconStatus getSafely(@NotNull final BuildPromotion buildPromotion, @NotNull final AuthorityHolder currentUserAuthorityHolder, final BeanContext beanContext) {
+      try {
+        return get(buildPromotion, currentUserAuthorityHolder, beanContext);
+      } catch (Exception e) {
+        LOG.info("Error while getting status of build " + LogUtil.describe(buildPromotion) + ", returning 'internal_error'': " + e.toString(), e);
+        return INTERNAL_ERROR;
+      }
+    }
+
+    /**
+     * Should be invoked under the system user
+     */
+    @NotNull
+    private static BuildIconStatus get(@NotNull final BuildPromotion buildPromotion, @NotNull final AuthorityHolder currentUserAuthorityHolder, final BeanContext beanContext) {
+      if (!hasPermissionsToViewStatus(buildPromotion, currentUserAuthorityHolder, beanContext)) {
+        LOG.info("No permissions to access requested build. Either authenticate as user with appropriate permissions, or ensure 'guest' user has appropriate permissions " +
+                 "or enable external status widget for the build configuration.");
+        return PERMISSION;
+      }
+      final SBuild build = buildPromotion.getAssociatedBuild();
+      //todo: support queued builds
+      if (build == null){
+        return NOT_FOUND;
+      }
+      if (!build.isFinished()) {
+        return RUNNING;  //todo: support running/failing and may be running/last failed
+      }
+      if (build.getCanceledInfo() != null) {
+        return CANCELED;
+      }
+      if (build.getStatusDescriptor().isSuccessful()) {
+        return SUCCESSFUL;
+      }
+      if (build.isInternalError()) {
+        return ERROR;
+      }
+      return FAILED;
+    }
+
     public interface Value<S> {
       @NotNull
       S get();
@@ -23,7 +23,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.server.rest.ApiUrlBuilder;
 import jetbrains.buildServer.server.rest.data.BuildFinder;
@@ -41,8 +43,10 @@ import jetbrains.buildServer.server.rest.model.change.Change;
 import jetbrains.buildServer.server.rest.model.change.Changes;
 import jetbrains.buildServer.server.rest.model.change.VcsRootInstance;
 import jetbrains.buildServer.server.rest.model.issue.Issues;
+import jetbrains.buildServer.server.rest.util.AdditionalMediaTypes;
 import jetbrains.buildServer.server.rest.util.BeanContext;
 import jetbrains.buildServer.server.rest.util.BeanFactory;
+import jetbrains.buildServer.server.rest.util.NdjsonStreamingOutput;
 import jetbrains.buildServer.vcs.SVcsModification;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -117,6 +121,20 @@ public class ChangeRequest {
                        myBeanContext);
   }
 
+  /**
+   * Experimental. Streams the changes found by the locator as newline-delimited JSON, one change per line, while they are being found.
+   * "count" locator dimension is ignored, use "lookupLimit" to limit the processing.
+   * @param fields fields of each change
+   */
+  @GET
+  @Path("/stream")
+  @Produces(AdditionalMediaTypes.APPLICATION_NDJSON)
+  public StreamingOutput streamChanges(@QueryParam("locator") String locator, @QueryParam("fields") String fields, @Context Providers providers) {
+    final Fields changeFields = new Fields(fields);
+    return new NdjsonStreamingOutput<SVcsModification>(providers, myChangeFinder.prepareProcessItems(locator),
+                                                       modification -> new Change(modification, changeFields, myBeanContext));
+  }
+
   private void updateLocatorDimension(@NotNull final Locator locator, @NotNull final String dimensionName, @Nullable final String value) {
     if (!StringUtil.isEmpty(value)){
       final String dimensionValue = locator.getSingleDimensionValue(dimensionName);
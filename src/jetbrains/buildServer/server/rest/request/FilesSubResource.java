@@ -19,13 +19,17 @@ package jetbrains.buildServer.server.rest.request;
 import com.google.common.base.Stopwatch;
 import com.intellij.openapi.diagnostic.Logger;
 import io.swagger.annotations.Api;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
@@ -42,6 +46,10 @@ import jetbrains.buildServer.server.rest.model.Util;
 import jetbrains.buildServer.server.rest.model.files.FileApiUrlBuilder;
 import jetbrains.buildServer.server.rest.model.files.Files;
 import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.server.rest.util.ByteRanges;
+import jetbrains.buildServer.server.rest.util.ContainerFileTransfer;
+import jetbrains.buildServer.server.rest.util.MultipartByteRangesOutput;
+import jetbrains.buildServer.server.rest.util.ParallelProcessingPools;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
 import jetbrains.buildServer.util.*;
@@ -314,6 +322,7 @@ public class FilesSubResource {
                             @QueryParam("basePath") final String basePath,
                             @QueryParam("locator") final String locator,
                             @QueryParam("name") final String name,
+                            @QueryParam("compression") final String compression,
 //                            @QueryParam("ignoreErrors") final String ignoreErrors, //todo: implement
                             @Context HttpServletRequest request) {
     final String processedPath = myProvider.preprocess(StringUtil.removeLeadingSlash(path));
@@ -330,10 +339,12 @@ public class FilesSubResource {
     final List<ArtifactTreeElement> elements = BuildArtifactsFinder.getItems(myProvider.getElement(processedPath), actualBasePath, actualLocator, urlBuilder,
                                                                              myBeanContext.getServiceLocator());
 
-    final ArchiveElement archiveElement = new ArchiveElement(elements, finalName);
+    final String compressionSetting = getSetting(ArchiveElement.COMPRESSION_PROPERTY, "deflate", "compression", compression, true, "deflate", "none", "auto", "store");
+    final ArchiveElement archiveElement = new ArchiveElement(elements, finalName, myBeanContext.getSingletonService(ParallelProcessingPools.class),
+                                                             ArchiveElement.Compression.valueOf(compressionSetting.toUpperCase(Locale.ENGLISH)));
     final Response.ResponseBuilder builder = getContentByStream(archiveElement, request, new StreamingOutputProvider() {
       public boolean isRangeSupported() {
-        return false;
+        return archiveElement.isRangeSupported();
       }
 
       public StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length) {
@@ -391,6 +402,12 @@ public class FilesSubResource {
       public StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length) {
         return FilesSubResource.getStreamingOutput(element, startOffset, length);
       }
+
+      @Nullable
+      @Override
+      public File getLocalFile() {
+        return ContainerFileTransfer.getLocalFile(element);
+      }
     });
   }
 
@@ -402,7 +419,10 @@ public class FilesSubResource {
     if (!element.isContentAvailable()) {
       throw new NotFoundException("Cannot provide content for '" + element.getFullName() + "' (not a file).");
     }
-    final String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+    final Long lastModified = element instanceof ArtifactTreeElement ? ((ArtifactTreeElement)element).getLastModified() : null;
+    final String eTag = getETag(element, lastModified);
+    //the range of the changed content should not be combined with the parts got before, the entire content is sent instead
+    final String rangeHeader = isIfRangeMatched(request.getHeader("If-Range"), eTag, lastModified) ? request.getHeader(HttpHeaders.RANGE) : null;
 
     Long fullFileSize = null;
     try {
@@ -414,47 +434,58 @@ public class FilesSubResource {
       //just do not set size in the case
     }
 
-    Response.ResponseBuilder builder;
-    if (StringUtil.isEmpty(rangeHeader)) {
-      builder = Response.ok().entity(streamingOutputProvider.getStreamingOutput(null, null));
-      if (fullFileSize != null) {
-        builder.header(HttpHeaders.CONTENT_LENGTH, fullFileSize);
-      }
-    } else {
+    final String contentType = TeamCityProperties.getBooleanOrTrue("rest.build.artifacts.setMimeType") ? WebUtil.getMimeType(request, element.getName())
+                                                                                                         : MediaType.APPLICATION_OCTET_STREAM;
+    String responseContentType = contentType;
+    Response.ResponseBuilder builder = null;
+    List<ByteRanges.Range> ranges = null;
+    if (!StringUtil.isEmpty(rangeHeader)) {
       if (!streamingOutputProvider.isRangeSupported()) {
         throw new BadRequestException("Ranged requests are not supported for this entity");
       }
       try {
-        HttpByteRange range = new HttpByteRange(rangeHeader, fullFileSize);
-        //todo: support requests with "Range: bytes=XX-" header and unknown content-length via multipart/byteranges Content-Type including Content-Range fields for each part
-        if (range.getRangesCount() > 1) {
-          builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("Multiple Range header ranges are not (yet) supported");
-        } else {
-          final HttpByteRange.SimpleRange firstRange = range.getSimpleRangesIterator().next();
-
-          builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT);
-          final long rangeLength = firstRange.getLength();
-          builder.entity(streamingOutputProvider.getStreamingOutput(firstRange.getBeginIndex(), rangeLength));
-          builder.header("Content-Range", range.getContentRangeHeaderValue(firstRange));
-          if (fullFileSize != null) {
-            builder.header(HttpHeaders.CONTENT_LENGTH, rangeLength);
-          }
-        }
-      } catch (ParseException e) {
-        builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("Error parsing Range header: " + e.getMessage());
+        ranges = ByteRanges.parse(rangeHeader, fullFileSize); //null for invalid header or "bytes=XX-" and unknown length: the entire content is sent then
+      } catch (ByteRanges.NotSatisfiableException e) {
+        builder = Response.status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE).entity("Cannot satisfy Range header: " + e.getMessage());
         if (fullFileSize != null) {
           builder.header("Content-Range", HttpByteRange.getContentRangeHeaderValueFor416Response(fullFileSize));
         }
       }
     }
 
-    builder.header("Accept-Ranges", HttpByteRange.RANGE_UNIT_BYTES);
-
-    if (TeamCityProperties.getBooleanOrTrue("rest.build.artifacts.setMimeType")) {
-      builder = builder.type(WebUtil.getMimeType(request, element.getName()));
+    if (builder != null) {
+      //error response is already prepared
+    } else if (ranges == null) {
+      builder = Response.ok();
+      if (fullFileSize == null || !transferLocalFile(request, streamingOutputProvider, 0, fullFileSize)) {
+        builder.entity(streamingOutputProvider.getStreamingOutput(null, null));
+      }
+      if (fullFileSize != null) {
+        builder.header(HttpHeaders.CONTENT_LENGTH, fullFileSize);
+      }
+    } else if (ranges.size() == 1) {
+      final ByteRanges.Range range = ranges.get(0);
+      builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT);
+      if (fullFileSize == null || !transferLocalFile(request, streamingOutputProvider, range.getFirst(), range.getLength())) {
+        builder.entity(streamingOutputProvider.getStreamingOutput(range.getFirst(), range.getLength()));
+      }
+      builder.header("Content-Range", range.getContentRange(fullFileSize));
+      if (fullFileSize != null) {
+        builder.header(HttpHeaders.CONTENT_LENGTH, range.getLength());
+      }
     } else {
-      builder = builder.type(MediaType.APPLICATION_OCTET_STREAM_TYPE);
+      final MultipartByteRangesOutput output = new MultipartByteRangesOutput(ranges, fullFileSize, contentType, streamingOutputProvider::getStreamingOutput,
+                                                                             streamingOutputProvider.getLocalFile() != null);
+      builder = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT).entity(output);
+      if (fullFileSize != null) {
+        //with unknown length the ranges are not clipped to the content, so the body length is not known either
+        builder.header(HttpHeaders.CONTENT_LENGTH, output.getContentLength());
+      }
+      responseContentType = output.getContentType();
     }
+
+    builder.header("Accept-Ranges", HttpByteRange.RANGE_UNIT_BYTES);
+    builder = builder.type(responseContentType);
     if (TeamCityProperties.getBooleanOrTrue("rest.build.artifacts.forceContentDisposition.Attachment")) {
       // make sure the file is not displayed in the browser (TW-27206)
       builder = builder.header("Content-Disposition", WebUtil.getContentDispositionValue(request, "attachment", element.getName()));
@@ -462,34 +493,73 @@ public class FilesSubResource {
       builder = builder.header("Content-Disposition", WebUtil.getContentDispositionValue(request, null, element.getName()));
     }
 
-    if (element instanceof ArtifactTreeElement) {
-      final Long lastModified = ((ArtifactTreeElement)element).getLastModified();
-      if (lastModified != null) {
-        builder.lastModified(new Date(lastModified));
-      }
-      final long size = element.getSize();
-      builder.header("ETag", "W/\"" + EncryptUtil.md5((size >= 0 ? String.valueOf(size) : "") + (lastModified != null ? lastModified : "")) + "\""); //mark ETag as "weak"
-    } else {
-      final long size = element.getSize();
-      if (size >= 0) {
-        builder.header("ETag", "W/\"" + EncryptUtil.md5(String.valueOf(size)) + "\""); //mark ETag as "weak"
-      }
+    if (lastModified != null) {
+      builder.lastModified(new Date(lastModified));
+    }
+    if (eTag != null) {
+      builder.header("ETag", eTag);
     }
 
     return builder;
   }
 
+  @Nullable
+  private static String getETag(@NotNull final Element element, @Nullable final Long lastModified) {
+    if (element instanceof ArchiveElement) {
+      final String storedArchiveTag = ((ArchiveElement)element).getStoredArchiveTag();
+      if (storedArchiveTag != null) {
+        return "\"" + storedArchiveTag + "\""; //strong ETag: the stored archive is the same byte-to-byte for the same tag, so its ranges can be combined
+      }
+    }
+    final long size = element.getSize();
+    if (element instanceof ArtifactTreeElement) {
+      return "W/\"" + EncryptUtil.md5((size >= 0 ? String.valueOf(size) : "") + (lastModified != null ? lastModified : "")) + "\""; //mark ETag as "weak"
+    }
+    return size >= 0 ? "W/\"" + EncryptUtil.md5(String.valueOf(size)) + "\"" : null; //mark ETag as "weak"
+  }
+
+  /**
+   * @return true if there is no "If-Range" header or it matches the current strong ETag or the modification time, see RFC 7233, section 3.2
+   */
+  private static boolean isIfRangeMatched(@Nullable final String ifRange, @Nullable final String eTag, @Nullable final Long lastModified) {
+    if (StringUtil.isEmpty(ifRange)) return true;
+    final String value = ifRange.trim();
+    if (value.startsWith("\"")) return value.equals(eTag); //the current ETag should be strong as well
+    if (value.startsWith("W/") || lastModified == null) return false; //weak tags never match
+    final SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return httpDateFormat.parse(value).getTime() / 1000 == lastModified / 1000; //the date has seconds precision
+    } catch (ParseException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Lets the container send the content directly from the local file if possible, the response should have "Content-Length" set and no entity then
+   * @return false if the content should be sent as the entity
+   */
+  private static boolean transferLocalFile(@NotNull final HttpServletRequest request, @NotNull final StreamingOutputProvider streamingOutputProvider,
+                                           final long start, final long length) {
+    final File file = streamingOutputProvider.getLocalFile();
+    if (file == null || !ContainerFileTransfer.transfer(request, file, start, length)) return false;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("File \"" + file.getAbsolutePath() + "\" (" + StringUtil.formatFileSize(length) + ") is sent by the container for a REST request");
+    }
+    return true;
+  }
+
   private static StreamingOutput getStreamingOutput(@NotNull final Element element, @Nullable final Long startOffset, @Nullable final Long length) {
     return new StreamingOutput() {
       public void write(final OutputStream output) throws WebApplicationException {
         InputStream inputStream = null;
         Stopwatch action = new Stopwatch().start();
         try {
-          inputStream = element.getInputStream();
           if (startOffset != null || length != null) {
-            TCStreamUtil.skip(inputStream, startOffset != null ? startOffset : 0);
+            inputStream = ContainerFileTransfer.getInputStream(element, startOffset != null ? startOffset : 0);
             TCStreamUtil.writeBinary(inputStream, length != null ? length : element.getSize(), output);
           } else {
+            inputStream = element.getInputStream();
             TCStreamUtil.writeBinary(inputStream, output);
           }
         } catch (IOException e) {
@@ -510,6 +580,14 @@ public class FilesSubResource {
     boolean isRangeSupported();
 
     StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length);
+
+    /**
+     * @return local file with the same content if the container can send it directly (see ContainerFileTransfer), null if the content can only be streamed
+     */
+    @Nullable
+    default File getLocalFile() {
+      return null;
+    }
   }
 
   abstract static class Provider {
@@ -20,7 +20,9 @@ import io.swagger.annotations.Api;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.server.rest.ApiUrlBuilder;
 import jetbrains.buildServer.server.rest.data.PagedSearchResult;
@@ -30,8 +32,10 @@ import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.model.problem.ProblemOccurrence;
 import jetbrains.buildServer.server.rest.model.problem.ProblemOccurrences;
+import jetbrains.buildServer.server.rest.util.AdditionalMediaTypes;
 import jetbrains.buildServer.server.rest.util.BeanContext;
 import jetbrains.buildServer.server.rest.util.BeanFactory;
+import jetbrains.buildServer.server.rest.util.NdjsonStreamingOutput;
 import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
@@ -95,6 +99,21 @@ public class ProblemOccurrenceRequest {
     );
   }
 
+  /**
+   * Experimental. Streams the problem occurrences found by the locator as newline-delimited JSON, one problem occurrence per line, while they are being found.
+   * "count" locator dimension is ignored, use "lookupLimit" to limit the processing.
+   * @param fields fields of each problem occurrence
+   */
+  @GET
+  @Path("/stream")
+  @Produces(AdditionalMediaTypes.APPLICATION_NDJSON)
+  public StreamingOutput streamProblems(@QueryParam("locator") String locatorText, @QueryParam("fields") String fields, @Context Providers providers) {
+    final Fields problemOccurrenceFields = new Fields(fields);
+    final BeanContext beanContext = new BeanContext(myFactory, myServiceLocator, myApiUrlBuilder);
+    return new NdjsonStreamingOutput<BuildProblem>(providers, myProblemOccurrenceFinder.prepareProcessItems(locatorText),
+                                                   problem -> new ProblemOccurrence(problem, beanContext, problemOccurrenceFields));
+  }
+
   @GET
   @Path("/{problemLocator}")
   @Produces({"application/xml", "application/json"})
@@ -20,7 +20,9 @@ import io.swagger.annotations.Api;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import jetbrains.buildServer.ServiceLocator;
 import jetbrains.buildServer.server.rest.ApiUrlBuilder;
 import jetbrains.buildServer.server.rest.data.PagedSearchResult;
@@ -29,8 +31,10 @@ import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.PagerData;
 import jetbrains.buildServer.server.rest.model.problem.TestOccurrence;
 import jetbrains.buildServer.server.rest.model.problem.TestOccurrences;
+import jetbrains.buildServer.server.rest.util.AdditionalMediaTypes;
 import jetbrains.buildServer.server.rest.util.BeanContext;
 import jetbrains.buildServer.server.rest.util.BeanFactory;
+import jetbrains.buildServer.server.rest.util.NdjsonStreamingOutput;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.STest;
 import jetbrains.buildServer.serverSide.STestRun;
@@ -90,6 +94,21 @@ public class TestOccurrenceRequest {
     );
   }
 
+  /**
+   * Experimental. Streams the test occurrences found by the locator as newline-delimited JSON, one test occurrence per line, while they are being found.
+   * "count" locator dimension is ignored, use "lookupLimit" to limit the processing.
+   * @param fields fields of each test occurrence
+   */
+  @GET
+  @Path("/stream")
+  @Produces(AdditionalMediaTypes.APPLICATION_NDJSON)
+  public StreamingOutput streamTestOccurrences(@QueryParam("locator") String locatorText, @QueryParam("fields") String fields, @Context Providers providers) {
+    final Fields testOccurrenceFields = new Fields(fields);
+    final BeanContext beanContext = new BeanContext(myBeanFactory, myServiceLocator, myApiUrlBuilder);
+    return new NdjsonStreamingOutput<STestRun>(providers, myTestOccurrenceFinder.prepareProcessItems(locatorText),
+                                               testRun -> new TestOccurrence(testRun, beanContext, testOccurrenceFields));
+  }
+
   @GET
   @Path("/{testLocator}")
   @Produces({"application/xml", "application/json"})
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.request;
+
+import io.swagger.annotations.Api;
+import java.util.*;
+import java.util.stream.Collectors;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import jetbrains.buildServer.ServiceLocator;
+import jetbrains.buildServer.server.rest.data.BuildTypeFinder;
+import jetbrains.buildServer.server.rest.data.Locator;
+import jetbrains.buildServer.server.rest.data.PermissionChecker;
+import jetbrains.buildServer.server.rest.data.ProjectFinder;
+import jetbrains.buildServer.server.rest.data.problem.TestStatisticsCollector;
+import jetbrains.buildServer.server.rest.errors.BadRequestException;
+import jetbrains.buildServer.server.rest.errors.OperationException;
+import jetbrains.buildServer.server.rest.model.Fields;
+import jetbrains.buildServer.server.rest.model.PagerData;
+import jetbrains.buildServer.server.rest.model.problem.TestStatistics;
+import jetbrains.buildServer.server.rest.util.BeanContext;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Test duration and flakiness statistics collected as builds finish, see {@link TestStatisticsCollector}
+ * Experimental, the requests and results returned will change in future versions!
+ *
+ * @author Yegor.Yarko
+ *         Date: 16/10/2018
+ */
+@Path(TestStatisticsRequest.API_SUB_URL)
+@Api("TestStatistics")
+public class TestStatisticsRequest {
+  @Context @NotNull private ServiceLocator myServiceLocator;
+  @Context @NotNull private BeanContext myBeanContext;
+
+  public static final String API_SUB_URL = Constants.API_URL + "/testStatistics";
+
+  protected static final String AFFECTED_PROJECT = "affectedProject";
+  protected static final String BUILD_TYPE = "buildType";
+  protected static final String LAST_RUNS = "lastRuns";
+  protected static final String ORDER_BY = "orderBy";
+
+  protected static final String ORDER_BY_DURATION = "duration";
+  protected static final String ORDER_BY_MEDIAN_DURATION = "medianDuration";
+  protected static final String ORDER_BY_FLIP_RATE = "flipRate";
+  protected static final String ORDER_BY_FAILED = "failed";
+
+  public static String getHref() {
+    return API_SUB_URL;
+  }
+
+  /**
+   * Lists tests of the build configurations sorted by the "orderBy" value (descending)
+   * Supported locator dimensions: affectedProject, buildType, lastRuns (number of the last runs in each build configuration),
+   * orderBy (duration (95th percentile), medianDuration, flipRate, failed), count
+   */
+  @GET
+  @Produces({"application/xml", "application/json"})
+  public TestStatistics getTestStatistics(@QueryParam("locator") String locatorText, @QueryParam("fields") String fields) {
+    if (!TestStatisticsCollector.isEnabled()) {
+      throw new OperationException("Test statistics collection is disabled. Set \"" + TestStatisticsCollector.ENABLED_PROPERTY + "\" internal property to \"true\" to enable it.");
+    }
+    final TestStatisticsCollector collector = myServiceLocator.getSingletonService(TestStatisticsCollector.class);
+
+    final Locator locator = locatorText == null ? Locator.createEmptyLocator() : new Locator(locatorText, AFFECTED_PROJECT, BUILD_TYPE, LAST_RUNS, ORDER_BY, PagerData.COUNT);
+
+    final Set<String> buildTypeIds = getBuildTypes(locator).stream().map(SBuildType::getInternalId).collect(Collectors.toSet());
+
+    final Long lastRunsDimension = locator.getSingleDimensionValueAsLong(LAST_RUNS);
+    final int lastRuns = lastRunsDimension == null ? collector.getMaxRuns() : (int)Math.min(lastRunsDimension, collector.getMaxRuns());
+    if (lastRuns <= 0) throw new BadRequestException("Dimension '" + LAST_RUNS + "' should be a positive number");
+
+    final Comparator<TestStatisticsCollector.TestStatisticsData> comparator = getComparator(locator.getSingleDimensionValue(ORDER_BY));
+    final Long count = locator.getSingleDimensionValueAsLong(PagerData.COUNT, (long)Constants.getDefaultPageItemsCount());
+    locator.checkLocatorFullyProcessed();
+
+    final List<TestStatisticsCollector.TestStatisticsData> result = collector.getStatistics(buildTypeIds, lastRuns);
+    result.sort(comparator);
+    return new TestStatistics(result.subList(0, (int)Math.min(result.size(), Math.max(0, count))), lastRuns,
+                              new Fields(fields), myBeanContext);
+  }
+
+  /**
+   * @return build configurations visible to the current user
+   */
+  @NotNull
+  private List<SBuildType> getBuildTypes(@NotNull final Locator locator) {
+    final List<SBuildType> result;
+    final String buildTypeDimension = locator.getSingleDimensionValue(BUILD_TYPE);
+    if (buildTypeDimension != null) {
+      result = myServiceLocator.getSingletonService(BuildTypeFinder.class).getBuildTypes(null, buildTypeDimension);
+    } else {
+      final ProjectFinder projectFinder = myServiceLocator.getSingletonService(ProjectFinder.class);
+      final String affectedProjectDimension = locator.getSingleDimensionValue(AFFECTED_PROJECT);
+      result = affectedProjectDimension != null ? projectFinder.getItem(affectedProjectDimension).getBuildTypes() : projectFinder.getRootProject().getBuildTypes();
+    }
+    final PermissionChecker permissionChecker = myServiceLocator.getSingletonService(PermissionChecker.class);
+    return result.stream().filter(buildType -> permissionChecker.isPermissionGranted(Permission.VIEW_PROJECT, buildType.getProjectId())).collect(Collectors.toList());
+  }
+
+  @NotNull
+  private static Comparator<TestStatisticsCollector.TestStatisticsData> getComparator(final String orderBy) {
+    if (orderBy == null || ORDER_BY_DURATION.equals(orderBy)) {
+      return Comparator.comparing((TestStatisticsCollector.TestStatisticsData data) -> data.getDuration(0.95), Comparator.nullsLast(Comparator.reverseOrder()));
+    }
+    if (ORDER_BY_MEDIAN_DURATION.equals(orderBy)) {
+      return Comparator.comparing((TestStatisticsCollector.TestStatisticsData data) -> data.getDuration(0.5), Comparator.nullsLast(Comparator.reverseOrder()));
+    }
+    if (ORDER_BY_FLIP_RATE.equals(orderBy)) {
+      return Comparator.comparingDouble(TestStatisticsCollector.TestStatisticsData::getFlipRate).reversed();
+    }
+    if (ORDER_BY_FAILED.equals(orderBy)) {
+      return Comparator.comparingInt(TestStatisticsCollector.TestStatisticsData::getFailedCount).reversed();
+    }
+    throw new BadRequestException("Unsupported value of '" + ORDER_BY + "' dimension: '" + orderBy + "'. Supported are: " +
+                                  Arrays.asList(ORDER_BY_DURATION, ORDER_BY_MEDIAN_DURATION, ORDER_BY_FLIP_RATE, ORDER_BY_FAILED));
+  }
+
+  public void initForTests(@NotNull final BeanContext beanContext) {
+    myServiceLocator = beanContext.getServiceLocator();
+    myBeanContext = beanContext;
+  }
+}
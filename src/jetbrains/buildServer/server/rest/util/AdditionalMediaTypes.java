@@ -23,6 +23,8 @@ public class AdditionalMediaTypes {
   public static final MediaType APPLICATION_YAML_TYPE = new MediaType("application", "yaml");
   public static final String APPLICATION_YAML = "application/yaml";
 
+  public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
   private AdditionalMediaTypes() {
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Parses HTTP "Range" request header with byte ranges (RFC 7233) into the ranges to send.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ByteRanges {
+  private static final Logger LOG = Logger.getInstance(ByteRanges.class.getName());
+  public static final String MAX_RANGES_PROPERTY = "rest.files.content.maxRangesCount";
+
+  private static final String BYTES_UNIT_PREFIX = "bytes=";
+
+  /**
+   * @param rangeHeader value of the "Range" header
+   * @param totalLength full length of the content, null if not known
+   * @return the ranges to send ordered by offset with overlapping and adjacent ranges coalesced,
+   * null if the entire content should be sent instead: the header cannot be parsed or has too many ranges (it is ignored then as RFC 7233 allows)
+   * or the ranges cannot be resolved as the length is not known ("bytes=XX-" or "bytes=-XX")
+   * @throws NotSatisfiableException if the header is valid, but none of the ranges is satisfiable
+   */
+  @Nullable
+  public static List<Range> parse(@NotNull final String rangeHeader, @Nullable final Long totalLength) throws NotSatisfiableException {
+    try {
+      return parseRanges(rangeHeader, totalLength);
+    } catch (ParseException e) {
+      LOG.debug("Ignoring \"Range\" header \"" + rangeHeader + "\": " + e.getMessage());
+      return null;
+    }
+  }
+
+  @Nullable
+  private static List<Range> parseRanges(@NotNull final String rangeHeader, @Nullable final Long totalLength) throws ParseException, NotSatisfiableException {
+    final String header = rangeHeader.trim();
+    if (!header.regionMatches(true, 0, BYTES_UNIT_PREFIX, 0, BYTES_UNIT_PREFIX.length())) {
+      throw new ParseException("Only \"" + BYTES_UNIT_PREFIX + "\" ranges are supported", 0);
+    }
+    final String[] specs = header.substring(BYTES_UNIT_PREFIX.length()).split(",");
+    final int maxRangesCount = TeamCityProperties.getInteger(MAX_RANGES_PROPERTY, 100);
+    if (specs.length > maxRangesCount) {
+      throw new ParseException("Too many ranges: " + specs.length + ", at most " + maxRangesCount + " are supported", 0);
+    }
+
+    final List<Range> ranges = new ArrayList<>(specs.length);
+    boolean resolvable = true;
+    for (String rawSpec : specs) {
+      final String spec = rawSpec.trim();
+      final int dashIndex = spec.indexOf('-');
+      if (dashIndex < 0) throw new ParseException("Invalid range \"" + spec + "\"", 0);
+      final Long first = parseNumber(spec.substring(0, dashIndex), spec);
+      final Long last = parseNumber(spec.substring(dashIndex + 1), spec);
+      if (first == null) {
+        if (last == null) throw new ParseException("Invalid range \"" + spec + "\"", 0);
+        //suffix range: last N bytes
+        if (totalLength == null) {
+          resolvable = false;
+        } else if (last > 0 && totalLength > 0) {
+          ranges.add(new Range(Math.max(0, totalLength - last), totalLength - 1));
+        }
+      } else {
+        if (last != null && last < first) throw new ParseException("Invalid range \"" + spec + "\": last position is before the first one", 0);
+        if (totalLength == null) {
+          if (last == null) {
+            resolvable = false;
+          } else {
+            ranges.add(new Range(first, last));
+          }
+        } else if (first < totalLength) {
+          ranges.add(new Range(first, last == null ? totalLength - 1 : Math.min(last, totalLength - 1)));
+        }
+      }
+    }
+    if (!resolvable) return null;
+    if (ranges.isEmpty()) {
+      throw new NotSatisfiableException("None of the ranges is satisfiable" + (totalLength == null ? "" : " for the length " + totalLength));
+    }
+    return coalesce(ranges);
+  }
+
+  @NotNull
+  private static List<Range> coalesce(@NotNull final List<Range> ranges) {
+    ranges.sort(Comparator.comparingLong(Range::getFirst));
+    final List<Range> result = new ArrayList<>(ranges.size());
+    Range current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); i++) {
+      final Range next = ranges.get(i);
+      if (next.getFirst() <= current.getLast() + 1) {
+        current = new Range(current.getFirst(), Math.max(current.getLast(), next.getLast()));
+      } else {
+        result.add(current);
+        current = next;
+      }
+    }
+    result.add(current);
+    return result;
+  }
+
+  @Nullable
+  private static Long parseNumber(@NotNull final String text, @NotNull final String spec) throws ParseException {
+    final String value = text.trim();
+    if (value.isEmpty()) return null;
+    for (int i = 0; i < value.length(); i++) {
+      if (!Character.isDigit(value.charAt(i))) throw new ParseException("Invalid range \"" + spec + "\"", 0);
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new ParseException("Invalid range \"" + spec + "\"", 0);
+    }
+  }
+
+  public static class NotSatisfiableException extends Exception {
+    public NotSatisfiableException(@NotNull final String message) {
+      super(message);
+    }
+  }
+
+  public static class Range {
+    private final long myFirst;
+    private final long myLast;
+
+    public Range(final long first, final long last) {
+      myFirst = first;
+      myLast = last;
+    }
+
+    public long getFirst() {
+      return myFirst;
+    }
+
+    /**
+     * @return last position, inclusive
+     */
+    public long getLast() {
+      return myLast;
+    }
+
+    public long getLength() {
+      return myLast - myFirst + 1;
+    }
+
+    /**
+     * @return value for "Content-Range" header
+     */
+    @NotNull
+    public String getContentRange(@Nullable final Long totalLength) {
+      return "bytes " + myFirst + "-" + myLast + "/" + (totalLength == null ? "*" : String.valueOf(totalLength));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Range range = (Range)o;
+      return myFirst == range.myFirst && myLast == range.myLast;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(myFirst) + Long.hashCode(myLast);
+    }
+
+    @Override
+    public String toString() {
+      return myFirst + "-" + myLast;
+    }
+  }
+}
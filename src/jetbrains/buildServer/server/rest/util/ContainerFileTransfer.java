@@ -0,0 +1,118 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletRequest;
+import jetbrains.buildServer.server.rest.data.BuildArtifactsFinder;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.TCStreamUtil;
+import jetbrains.buildServer.util.browser.Element;
+import jetbrains.buildServer.util.browser.FileSystemBrowser;
+import jetbrains.buildServer.util.browser.ZipElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lets the servlet container send the content of a local file as the response body directly (zero-copy, e.g. via FileChannel.transferTo/sendfile)
+ * instead of copying the bytes through the user-space buffers.
+ * So far Tomcat "sendfile" request attributes are used: the container sends the file after the request is processed, if the connector supports it.
+ * Tomcat does not apply its response compression when sending a file this way, so the "Content-Length" set for the file stays valid.
+ * Responses with several ranges are always written as the entity.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ContainerFileTransfer {
+  private static final Logger LOG = Logger.getInstance(ContainerFileTransfer.class.getName());
+
+  public static final String ENABLED_PROPERTY = "rest.files.content.containerFileTransfer";
+
+  private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+  /**
+   * @return the local file with the content of the element or null if the content is not stored in a local file as is (e.g. a zip entry or an artifact in an external storage)
+   */
+  @Nullable
+  public static File getLocalFile(@NotNull final Element element) {
+    if (!element.isContentAvailable() || (element instanceof ZipElement && ((ZipElement)element).isInsideArchive())) return null;
+    final File result;
+    if (element instanceof FileSystemBrowser.FileElement) {
+      result = ((FileSystemBrowser.FileElement)element).getFile();
+    } else if (element instanceof BuildArtifactsFinder.BuildHoldingElement) {
+      final BuildArtifactsFinder.BuildHoldingElement artifactElement = (BuildArtifactsFinder.BuildHoldingElement)element;
+      final BuildArtifact artifact = artifactElement.getBuildArtifact();
+      if (!artifact.isFile() || artifact.getRelativePath().contains("!")) return null;
+      result = new File(artifactElement.getBuildPromotion().getArtifactsDirectory(), artifact.getRelativePath());
+    } else {
+      return null;
+    }
+    //the artifact can be listed, but stored externally
+    return result.isFile() && result.length() == element.getSize() ? result : null;
+  }
+
+  /**
+   * @return the stream of the element content positioned at the offset. For local files the skipped content is not read, so several ranges of large files are served effectively
+   */
+  @NotNull
+  public static InputStream getInputStream(@NotNull final Element element, final long offset) throws IOException {
+    final File file = offset > 0 ? ContainerFileTransfer.getLocalFile(element) : null;
+    if (file != null) {
+      final FileInputStream result = new FileInputStream(file);
+      try {
+        result.getChannel().position(offset);
+      } catch (IOException e) {
+        FileUtil.close(result);
+        throw e;
+      }
+      return result;
+    }
+    final InputStream result = element.getInputStream();
+    TCStreamUtil.skip(result, offset);
+    return result;
+  }
+
+  /**
+   * Asks the container to send the region of the file as the response body. The response should have no entity and should have "Content-Length" header set to the length then.
+   *
+   * @return false if the container does not support the transfer, the content should be written into the response in the usual way then
+   */
+  public static boolean transfer(@NotNull final HttpServletRequest request, @NotNull final File file, final long start, final long length) {
+    if (!TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY) || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) return false;
+    final String path;
+    try {
+      path = file.getCanonicalPath();
+    } catch (IOException e) {
+      LOG.debug("Cannot get canonical path of file \"" + file + "\", sending the content via the stream: " + e.toString());
+      return false;
+    }
+    request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, path);
+    request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+    request.setAttribute(SENDFILE_END_ATTRIBUTE, start + length);
+    return true;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Read-only list view which converts the source items on access and does not keep the results.
+ * Used for the items of collection beans so that the beans of the items are created one at a time while the response is serialized
+ * and the memory used does not depend on the number of items in the response.
+ * Each access creates a new item, so the list should not be used when the items are modified after creation.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ConvertingList<S, T> extends AbstractList<T> implements RandomAccess {
+  @NotNull private final List<S> mySource;
+  @NotNull private final Function<S, T> myConverter;
+
+  public ConvertingList(@NotNull final List<S> source, @NotNull final Function<S, T> converter) {
+    mySource = source;
+    myConverter = converter;
+  }
+
+  @Override
+  public T get(final int index) {
+    return myConverter.apply(mySource.get(index));
+  }
+
+  @Override
+  public int size() {
+    return mySource.size();
+  }
+}
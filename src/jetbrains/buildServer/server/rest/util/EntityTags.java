@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import jetbrains.buildServer.ServiceLocator;
+import jetbrains.buildServer.server.rest.data.ServerStateVersions;
+import jetbrains.buildServer.server.rest.errors.NotModifiedException;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.Permissions;
+import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Supports conditional GET requests: the strong ETag of a response is computed from the versions of the server state parts the response depends on
+ * (see ServerStateVersions) with the epoch of the versions, the request URL, the accepted media types, the current user and the user's permissions.
+ * This allows to respond with "304 Not Modified" before finding the entities and serializing the response.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class EntityTags {
+  public static final String ENABLED_PROPERTY = "rest.response.etag.enabled";
+  /**
+   * Custom "fields" can include the data which changes without the events tracked in the versions (e.g. investigations or agents of the builds),
+   * so ETags are used only for the default fields unless this is enabled
+   */
+  public static final String ANY_FIELDS_PROPERTY = "rest.response.etag.anyFields";
+
+  /**
+   * Throws NotModifiedException if the request has "If-None-Match" header matching the current ETag, otherwise sets the ETag header of the response.
+   * @param fields   "fields" of the response
+   * @param versions versions the response depends on, if any of them is null, the response is considered not cacheable and nothing is done
+   */
+  public static void checkNotModified(@NotNull final Request request,
+                                      @NotNull final HttpServletRequest servletRequest,
+                                      @NotNull final HttpServletResponse response,
+                                      @NotNull final ServiceLocator serviceLocator,
+                                      @Nullable final String fields,
+                                      @NotNull final Long... versions) {
+    if (fields != null && !TeamCityProperties.getBoolean(ANY_FIELDS_PROPERTY)) return;
+    final EntityTag entityTag = getEntityTag(servletRequest, serviceLocator, versions);
+    if (entityTag == null) return;
+    if (request.evaluatePreconditions(entityTag) != null) {
+      throw new NotModifiedException(entityTag);
+    }
+    response.setHeader(HttpHeaders.ETAG, "\"" + entityTag.getValue() + "\"");
+  }
+
+  @Nullable
+  private static EntityTag getEntityTag(@NotNull final HttpServletRequest servletRequest, @NotNull final ServiceLocator serviceLocator, @NotNull final Long... versions) {
+    if (!TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY)) return null;
+    final StringBuilder result = new StringBuilder();
+    result.append(serviceLocator.getSingletonService(ServerStateVersions.class).getEpoch()).append(':');
+    for (Long version : versions) {
+      if (version == null) return null;
+      result.append(version).append(':');
+    }
+    result.append(servletRequest.getRequestURI()).append('?').append(StringUtil.emptyIfNull(servletRequest.getQueryString())).append(':');
+    result.append(StringUtil.emptyIfNull(servletRequest.getHeader(HttpHeaders.ACCEPT))).append(':');
+    final AuthorityHolder authorityHolder = serviceLocator.getSingletonService(SecurityContextEx.class).getAuthorityHolder();
+    final User user = authorityHolder.getAssociatedUser();
+    result.append(user != null ? String.valueOf(user.getId()) : authorityHolder.getClass().getName());
+    appendPermissions(result, authorityHolder);
+    return new EntityTag(EncryptUtil.md5(result.toString()));
+  }
+
+  /**
+   * The responses are filtered by the permissions which can change without the events tracked in the versions (e.g. roles or groups of the user),
+   * so the permissions themselves are a part of the ETag
+   */
+  private static void appendPermissions(@NotNull final StringBuilder result, @NotNull final AuthorityHolder authorityHolder) {
+    result.append(':').append(getSortedNames(authorityHolder.getGlobalPermissions()));
+    for (Map.Entry<String, Permissions> entry : new TreeMap<>(authorityHolder.getProjectsPermissions()).entrySet()) {
+      result.append(':').append(entry.getKey()).append('=').append(getSortedNames(entry.getValue()));
+    }
+  }
+
+  @NotNull
+  private static String getSortedNames(@NotNull final Permissions permissions) {
+    final List<String> result = new ArrayList<>();
+    for (Permission permission : permissions.toList()) {
+      result.add(permission.name());
+    }
+    Collections.sort(result);
+    return String.join(",", result);
+  }
+}
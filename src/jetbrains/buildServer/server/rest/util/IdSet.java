@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Set of entity ids (e.g. change ids): a bitmap for the ids which fit into int, which is the case for most of the servers, and a usual set for the rest.
+ * Not thread-safe.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class IdSet {
+  @NotNull private final BitSet myBits = new BitSet();
+  @Nullable private Set<Long> myLargeIds;
+
+  /**
+   * @return true if the id was not in the set
+   */
+  public boolean add(final long id) {
+    if (id >= 0 && id <= Integer.MAX_VALUE) {
+      if (myBits.get((int)id)) return false;
+      myBits.set((int)id);
+      return true;
+    }
+    if (myLargeIds == null) myLargeIds = new HashSet<>();
+    return myLargeIds.add(id);
+  }
+
+  public boolean contains(final long id) {
+    if (id >= 0 && id <= Integer.MAX_VALUE) return myBits.get((int)id);
+    return myLargeIds != null && myLargeIds.contains(id);
+  }
+}
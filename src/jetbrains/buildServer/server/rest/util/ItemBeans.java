@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Creates the item beans of collection beans.
+ * When enabled via the internal property, the beans of the items are created in parallel, using the permissions and the RestContext of the request.
+ * The order of the items is always preserved.
+ * Only makes sense for the beans which compute their data in the constructor (like TestOccurrence or Agent): beans like Build or BuildType
+ * compute the data in the getters while being serialized, so creating them in parallel gains nothing.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ItemBeans {
+  /**
+   * Max number of item beans created in parallel for a collection, 1 or less (default) means the beans are created sequentially in the request thread
+   */
+  public static final String PARALLELISM_PROPERTY = "rest.beans.collections.parallelism";
+
+  /**
+   * @return list which creates the beans on access, see {@link ConvertingList}
+   */
+  @NotNull
+  public static <S, T> List<T> getLazyList(@NotNull final List<S> items, @NotNull final Function<S, T> beanCreator, @NotNull final BeanContext beanContext) {
+    final OrderedParallelProcessor parallelProcessor = getParallelProcessor(items, beanContext);
+    final Function<S, Future<T>> submitter = parallelProcessor == null ? null : parallelProcessor.getSubmitter(beanCreator);
+    if (submitter == null) return new ConvertingList<>(items, beanCreator);
+    return new ParallelConvertingList<>(items, submitter, parallelProcessor.getParallelism());
+  }
+
+  /**
+   * @return modifiable list with the beans already created
+   */
+  @NotNull
+  public static <S, T> List<T> getList(@NotNull final Collection<S> items, @NotNull final Function<S, T> beanCreator, @NotNull final BeanContext beanContext) {
+    final OrderedParallelProcessor parallelProcessor = getParallelProcessor(items, beanContext);
+    if (parallelProcessor == null) {
+      final List<T> result = new ArrayList<>(items.size());
+      for (S item : items) {
+        result.add(beanCreator.apply(item));
+      }
+      return result;
+    }
+    return parallelProcessor.map(items, beanCreator);
+  }
+
+  @Nullable
+  private static OrderedParallelProcessor getParallelProcessor(@NotNull final Collection<?> items, @NotNull final BeanContext beanContext) {
+    if (items.size() <= 1) return null;
+    final int parallelism = TeamCityProperties.getInteger(PARALLELISM_PROPERTY, 1);
+    if (parallelism <= 1) return null;
+    return beanContext.getSingletonService(ParallelProcessingPools.class).getProcessor(ParallelProcessingPools.Purpose.ITEM_BEANS, Math.min(parallelism, items.size()));
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes several ranges of the content as "multipart/byteranges" body (RFC 7233, appendix A).
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class MultipartByteRangesOutput implements StreamingOutput {
+  @NotNull private final List<ByteRanges.Range> myRanges;
+  @Nullable private final Long myTotalLength;
+  @NotNull private final String myPartContentType;
+  @NotNull private final BiFunction<Long, Long, StreamingOutput> myPartOutputProvider;
+  private final boolean mySeekable;
+  @NotNull private final String myBoundary = UUID.randomUUID().toString().replace("-", "");
+
+  /**
+   * @param ranges             non-overlapping ranges ordered by offset, as returned by {@link ByteRanges#parse(String, Long)}
+   * @param partOutputProvider provides the output writing the range of the content by the offset and length. Should not close the stream.
+   * @param seekable           true if starting the output at any offset is cheap (e.g. a local file) and it is requested for each range,
+   *                           otherwise (e.g. an entry of an archive which is unpacked from the start each time) the output is requested once
+   *                           for the span from the first range to the last one and the bytes between the ranges are skipped
+   */
+  public MultipartByteRangesOutput(@NotNull final List<ByteRanges.Range> ranges,
+                                   @Nullable final Long totalLength,
+                                   @NotNull final String partContentType,
+                                   @NotNull final BiFunction<Long, Long, StreamingOutput> partOutputProvider,
+                                   final boolean seekable) {
+    myRanges = ranges;
+    myTotalLength = totalLength;
+    myPartContentType = partContentType;
+    myPartOutputProvider = partOutputProvider;
+    mySeekable = seekable;
+  }
+
+  @NotNull
+  public String getContentType() {
+    return "multipart/byteranges; boundary=" + myBoundary;
+  }
+
+  /**
+   * @return exact length of the body
+   */
+  public long getContentLength() {
+    long result = getEnd().length;
+    for (ByteRanges.Range range : myRanges) {
+      result += getPartHeader(range).length + range.getLength();
+    }
+    return result;
+  }
+
+  @Override
+  public void write(final OutputStream output) throws IOException, WebApplicationException {
+    if (mySeekable) {
+      for (ByteRanges.Range range : myRanges) {
+        output.write(getPartHeader(range));
+        myPartOutputProvider.apply(range.getFirst(), range.getLength()).write(output);
+      }
+    } else {
+      final long start = myRanges.get(0).getFirst();
+      final RangesOutputStream rangesOutput = new RangesOutputStream(output, start);
+      myPartOutputProvider.apply(start, myRanges.get(myRanges.size() - 1).getLast() + 1 - start).write(rangesOutput);
+      if (rangesOutput.myRangeIndex < myRanges.size()) {
+        throw new IOException("Content ended at position " + rangesOutput.myPosition + " before the range " + myRanges.get(rangesOutput.myRangeIndex));
+      }
+    }
+    output.write(getEnd());
+  }
+
+  @NotNull
+  private byte[] getPartHeader(@NotNull final ByteRanges.Range range) {
+    return ("\r\n--" + myBoundary + "\r\n" +
+            "Content-Type: " + myPartContentType + "\r\n" +
+            "Content-Range: " + range.getContentRange(myTotalLength) + "\r\n" +
+            "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @NotNull
+  private byte[] getEnd() {
+    return ("\r\n--" + myBoundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Gets the content starting at the first range and passes the bytes of the ranges preceded by the part headers, dropping the bytes between the ranges
+   */
+  private class RangesOutputStream extends OutputStream {
+    @NotNull private final OutputStream myOutput;
+    private long myPosition;
+    private int myRangeIndex = 0; //the range being written or the next one
+
+    RangesOutputStream(@NotNull final OutputStream output, final long startPosition) {
+      myOutput = output;
+      myPosition = startPosition;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, int off, int len) throws IOException {
+      while (len > 0 && myRangeIndex < myRanges.size()) {
+        final ByteRanges.Range range = myRanges.get(myRangeIndex);
+        if (myPosition < range.getFirst()) {
+          final int skipped = (int)Math.min(len, range.getFirst() - myPosition);
+          myPosition += skipped;
+          off += skipped;
+          len -= skipped;
+          continue;
+        }
+        if (myPosition == range.getFirst()) {
+          myOutput.write(getPartHeader(range));
+        }
+        final int written = (int)Math.min(len, range.getLast() + 1 - myPosition);
+        myOutput.write(b, off, written);
+        myPosition += written;
+        off += written;
+        len -= written;
+        if (myPosition > range.getLast()) {
+          myRangeIndex++;
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      myOutput.flush();
+    }
+  }
+}
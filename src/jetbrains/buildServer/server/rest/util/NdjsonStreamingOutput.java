@@ -0,0 +1,100 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
+import jetbrains.buildServer.server.rest.jersey.JacksonObjectMapperResolver;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.ItemProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes newline-delimited JSON: a line with the JSON of the bean per each item, as the items are found.
+ * The output is flushed every several items so that the client can process the items while the rest are still being found.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class NdjsonStreamingOutput<T> implements StreamingOutput {
+  public static final String FLUSH_ITEMS_PROPERTY = "rest.response.ndjson.flushItemsCount";
+
+  @NotNull private final ObjectMapper myMapper;
+  @NotNull private final Consumer<ItemProcessor<T>> myItemsProcessor;
+  @NotNull private final Function<T, ?> myBeanCreator;
+
+  /**
+   * @param itemsProcessor should pass the items to the processor got, e.g. the one returned by FinderImpl.prepareProcessItems
+   * @param beanCreator    creates the bean to serialize for an item
+   */
+  public NdjsonStreamingOutput(@Nullable final Providers providers,
+                               @NotNull final Consumer<ItemProcessor<T>> itemsProcessor,
+                               @NotNull final Function<T, ?> beanCreator) {
+    myMapper = getMapper(providers);
+    myItemsProcessor = itemsProcessor;
+    myBeanCreator = beanCreator;
+  }
+
+  @Override
+  public void write(final OutputStream output) throws IOException, WebApplicationException {
+    final ObjectWriter writer = myMapper.writer().without(SerializationFeature.INDENT_OUTPUT).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    final int flushItemsCount = TeamCityProperties.getInteger(FLUSH_ITEMS_PROPERTY, 100);
+    final JsonGenerator generator = myMapper.getFactory().createGenerator(output);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.setRootValueSeparator(null); //lines are separated explicitly
+    try {
+      final int[] notFlushedCount = {0};
+      myItemsProcessor.accept(item -> {
+        try {
+          writer.writeValue(generator, myBeanCreator.apply(item));
+          generator.writeRaw('\n');
+          if (++notFlushedCount[0] >= flushItemsCount) {
+            generator.flush();
+            notFlushedCount[0] = 0;
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e); //the client has disconnected, stop finding the items
+        }
+        return true;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      generator.close();
+    }
+  }
+
+  @NotNull
+  private static ObjectMapper getMapper(@Nullable final Providers providers) {
+    final ContextResolver<ObjectMapper> resolver = providers == null ? null : providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+    final ObjectMapper result = resolver == null ? null : resolver.getContext(Object.class);
+    return result != null ? result : new JacksonObjectMapperResolver().getContext(Object.class);
+  }
+}
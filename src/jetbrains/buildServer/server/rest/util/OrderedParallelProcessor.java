@@ -0,0 +1,146 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import jetbrains.buildServer.server.rest.data.RestContext;
+import jetbrains.buildServer.server.rest.errors.OperationException;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.util.ItemProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes results for a sequence of sources on a thread pool (see {@link ParallelProcessingPools}) and passes the results to the processor in the order of the sources.
+ * Computations run with the permissions and the RestContext of the calling thread.
+ * Not more than "parallelism" computations are started ahead of the processor, so when the processor stops processing, the rest of the sources are not computed.
+ *
+ * @author Yegor.Yarko
+ *         Date: 15/10/2018
+ */
+public class OrderedParallelProcessor {
+  private static final ThreadLocal<Boolean> ourInsidePool = new ThreadLocal<>();
+
+  @NotNull private final SecurityContextEx mySecurityContext;
+  @Nullable private final ExecutorService myExecutor;
+  private final int myParallelism;
+
+  /**
+   * @param executor    pool to perform the computations in, null means the computations are performed sequentially in the calling thread
+   * @param parallelism max number of computations performed in parallel for the sequence, 1 or less means the computations are performed sequentially in the calling thread
+   */
+  OrderedParallelProcessor(@NotNull final SecurityContextEx securityContext, @Nullable final ExecutorService executor, final int parallelism) {
+    mySecurityContext = securityContext;
+    myExecutor = executor;
+    myParallelism = executor == null ? 1 : parallelism;
+  }
+
+  public <S, R> void process(@NotNull final Iterable<S> sources, @NotNull final Function<S, R> computation, @NotNull final ItemProcessor<R> processor) {
+    if (myParallelism <= 1 || ourInsidePool.get() != null) {
+      //computing sequentially if invoked from the pool to avoid waiting for the pool in the pool thread
+      for (S source : sources) {
+        if (!processor.processItem(computation.apply(source))) return;
+      }
+      return;
+    }
+
+    final AuthorityHolder authorityHolder = mySecurityContext.getAuthorityHolder();
+    final RestContext restContext = RestContext.getThreadLocal();
+    final ExecutorService executor = myExecutor;
+    assert executor != null;
+    final Iterator<S> sourcesIterator = sources.iterator();
+    final ArrayDeque<Future<R>> pending = new ArrayDeque<>(myParallelism);
+    try {
+      while (true) {
+        while (pending.size() < myParallelism && sourcesIterator.hasNext()) {
+          final S source = sourcesIterator.next();
+          pending.add(executor.submit(() -> compute(source, computation, authorityHolder, restContext)));
+        }
+        final Future<R> next = pending.poll();
+        if (next == null) return;
+        if (!processor.processItem(getResult(next))) return;
+      }
+    } finally {
+      for (Future<R> future : pending) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * @return results for all the sources in the order of the sources
+   */
+  @NotNull
+  public <S, R> List<R> map(@NotNull final Collection<S> sources, @NotNull final Function<S, R> computation) {
+    final List<R> result = new ArrayList<>(sources.size());
+    process(sources, computation, result::add);
+    return result;
+  }
+
+  /**
+   * Captures the permissions and the RestContext of the calling thread and returns a function which starts the computation for a source on the pool,
+   * the result of the computation can be got with {@link #getResult(Future)}.
+   * @return null if the computations should be performed sequentially in the calling thread
+   */
+  @Nullable
+  public <S, R> Function<S, Future<R>> getSubmitter(@NotNull final Function<S, R> computation) {
+    if (myParallelism <= 1 || ourInsidePool.get() != null) return null;
+    final AuthorityHolder authorityHolder = mySecurityContext.getAuthorityHolder();
+    final RestContext restContext = RestContext.getThreadLocal();
+    final ExecutorService executor = myExecutor;
+    assert executor != null;
+    return source -> executor.submit(() -> compute(source, computation, authorityHolder, restContext));
+  }
+
+  public int getParallelism() {
+    return myParallelism;
+  }
+
+  private <S, R> R compute(@NotNull final S source, @NotNull final Function<S, R> computation,
+                           @NotNull final AuthorityHolder authorityHolder, @Nullable final RestContext restContext) throws Exception {
+    ourInsidePool.set(Boolean.TRUE);
+    try {
+      //the context is already set when the computation is performed in the calling thread as the pool is saturated
+      final boolean contextSet = restContext == null || RestContext.getThreadLocal() == restContext;
+      return mySecurityContext.runAs(authorityHolder, () -> contextSet ? computation.apply(source) : restContext.run(() -> computation.apply(source)));
+    } catch (Exception | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new OperationException("Error while computing value for " + source + ": " + e.toString());
+    } finally {
+      ourInsidePool.remove();
+    }
+  }
+
+  public static <R> R getResult(@NotNull final Future<R> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OperationException("Interrupted while waiting for the computation result", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      if (cause instanceof Exception) throw new OperationException("Error while computing value: " + cause, (Exception)cause);
+      throw new OperationException("Error while computing value: " + cause);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Same as {@link ConvertingList}, but when the items are accessed one after another, converts several next items in parallel ahead of the access.
+ * Not more than "parallelism" items are converted ahead, so the memory used still does not depend on the number of items.
+ * Random access cancels the items converted ahead.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ParallelConvertingList<S, T> extends AbstractList<T> implements RandomAccess {
+  @NotNull private final List<S> mySource;
+  @NotNull private final Function<S, Future<T>> mySubmitter;
+  private final int myParallelism;
+
+  @NotNull private final ArrayDeque<Future<T>> myPending;
+  private int myPendingStart; //index of the item of the first pending future
+  private int myNextIndex; //index of the next item to submit
+
+  /**
+   * @param submitter starts conversion of an item, see {@link OrderedParallelProcessor#getSubmitter(Function)}
+   */
+  public ParallelConvertingList(@NotNull final List<S> source, @NotNull final Function<S, Future<T>> submitter, final int parallelism) {
+    mySource = source;
+    mySubmitter = submitter;
+    myParallelism = Math.max(1, parallelism);
+    myPending = new ArrayDeque<>(myParallelism);
+  }
+
+  @Override
+  public synchronized T get(final int index) {
+    if (index < 0 || index >= mySource.size()) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mySource.size());
+    if (index != myPendingStart || myPending.isEmpty()) {
+      cancelPending();
+      myPendingStart = index;
+      myNextIndex = index;
+    }
+    while (myPending.size() < myParallelism && myNextIndex < mySource.size()) {
+      myPending.add(mySubmitter.apply(mySource.get(myNextIndex++)));
+    }
+    myPendingStart++;
+    return OrderedParallelProcessor.getResult(myPending.poll());
+  }
+
+  @Override
+  public int size() {
+    return mySource.size();
+  }
+
+  private void cancelPending() {
+    for (Future<T> future : myPending) {
+      future.cancel(false);
+    }
+    myPending.clear();
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SecurityContextEx;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.NamedDaemonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Thread pools used by {@link OrderedParallelProcessor}. Each kind of processing has its own pool, so that e.g. a large archive download does not hold up
+ * the threads needed for other requests.
+ * The pools have bounded queues: when a pool is saturated, the computation is performed in the requesting thread.
+ * The pools are created on first use and are shut down with the server.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ParallelProcessingPools extends BuildServerAdapter {
+  private static final String PROPERTY_PREFIX = "rest.parallelProcessing.";
+
+  public enum Purpose {
+    TEST_HISTORY("testHistory"),
+    ITEM_BEANS("itemBeans"),
+    ARCHIVES("archives");
+
+    @NotNull private final String myId;
+
+    Purpose(@NotNull final String id) {
+      myId = id;
+    }
+
+    /**
+     * @return name of the internal property with the number of threads of the pool
+     */
+    @NotNull
+    public String getPoolSizeProperty() {
+      return PROPERTY_PREFIX + myId + ".poolSize";
+    }
+
+    /**
+     * @return name of the internal property with the max number of computations waiting for a thread of the pool
+     */
+    @NotNull
+    public String getQueueSizeProperty() {
+      return PROPERTY_PREFIX + myId + ".queueSize";
+    }
+
+    private int getDefaultPoolSize() {
+      final int processors = Runtime.getRuntime().availableProcessors();
+      //archiving is CPU-bound and can last long, so it does not get all the processors
+      return this == ARCHIVES ? Math.max(1, processors / 2) : Math.max(2, processors);
+    }
+  }
+
+  @NotNull private final SecurityContextEx mySecurityContext;
+  @NotNull private final Map<Purpose, ThreadPoolExecutor> myExecutors = new EnumMap<>(Purpose.class);
+  private boolean myShutdown = false;
+
+  public ParallelProcessingPools(@NotNull final SBuildServer server, @NotNull final SecurityContextEx securityContext) {
+    mySecurityContext = securityContext;
+    server.addListener(this);
+  }
+
+  /**
+   * @param parallelism max number of computations performed in parallel, 1 or less means the computations are performed sequentially in the calling thread
+   */
+  @NotNull
+  public OrderedParallelProcessor getProcessor(@NotNull final Purpose purpose, final int parallelism) {
+    return new OrderedParallelProcessor(mySecurityContext, parallelism <= 1 ? null : getExecutor(purpose), parallelism);
+  }
+
+  /**
+   * @return null if the server is shutting down
+   */
+  @Nullable
+  private synchronized ExecutorService getExecutor(@NotNull final Purpose purpose) {
+    if (myShutdown) return null;
+    ThreadPoolExecutor result = myExecutors.get(purpose);
+    if (result == null) {
+      final int poolSize = Math.max(1, TeamCityProperties.getInteger(purpose.getPoolSizeProperty(), purpose.getDefaultPoolSize()));
+      final int queueSize = Math.max(1, TeamCityProperties.getInteger(purpose.getQueueSizeProperty(), poolSize * 4));
+      result = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                                      new NamedDaemonThreadFactory("REST API parallel processing (" + purpose.myId + ")"), ParallelProcessingPools::runInCaller);
+      result.allowCoreThreadTimeOut(true);
+      myExecutors.put(purpose, result);
+    }
+    return result;
+  }
+
+  /**
+   * Unlike ThreadPoolExecutor.CallerRunsPolicy, does not discard the task after shutdown as that would leave its future never completed
+   */
+  private static void runInCaller(@NotNull final Runnable task, @NotNull final ThreadPoolExecutor executor) {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("The server is shutting down");
+    }
+    task.run();
+  }
+
+  @Override
+  public synchronized void serverShutdown() {
+    myShutdown = true;
+    for (ThreadPoolExecutor executor : myExecutors.values()) {
+      executor.shutdownNow();
+    }
+    myExecutors.clear();
+  }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes zip archive into a not seekable stream with the entry data compressed outside of the writer, e.g. in parallel.
+ * The data of file entries is raw "deflate" stream which can be written in several parts,
+ * CRC and sizes of such entries are written after the data (data descriptor), so they do not need to be known in advance.
+ * Entries can also be stored (not compressed) with the CRC and size known before the data: the layout of such an archive depends on the entries metadata only,
+ * so the writer can be used to produce a part of the archive (see {@link #ZipStreamWriter(OutputStream, long, long)}).
+ * Zip64 extensions are used for large entries and archives. Entry names are written in UTF-8.
+ *
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ZipStreamWriter {
+  private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+  private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+  private static final int VERSION_DEFAULT = 20;
+  private static final int VERSION_ZIP64 = 45;
+  private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+  private static final int FLAG_UTF8 = 1 << 11;
+  public static final int METHOD_STORED = 0;
+  public static final int METHOD_DEFLATED = 8;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+  private static final long ZIP32_MAX = 0xFFFFFFFFL;
+  private static final int ZIP16_MAX = 0xFFFF;
+  /**
+   * Entries larger than this are written with Zip64 extensions in the local header as the compressed data can be a bit larger than the original one.
+   * For entries of unknown size, the size format in the data descriptor depends on the actual sizes only (the same as java.util.zip.ZipInputStream expects)
+   */
+  private static final long ZIP64_ENTRY_SIZE_THRESHOLD = ZIP32_MAX - (ZIP32_MAX >> 8);
+
+  @NotNull private final OutputStream myOutput;
+  private final long myRangeStart;
+  private final long myRangeEnd;
+  @NotNull private final List<EntryRecord> myEntries = new ArrayList<>();
+  @NotNull private final byte[] myBuffer = new byte[64]; //holds one fixed-size record at a time, the largest is Zip64 end of central directory record (56 bytes)
+  private long myOffset = 0;
+  @Nullable private EntryRecord myCurrentEntry;
+  @Nullable private CRC32 myCurrentCrc;
+  private long myCurrentStoredWritten;
+
+  /**
+   * @param output the stream to write into, better buffered. The stream is not closed by the writer.
+   */
+  public ZipStreamWriter(@NotNull final OutputStream output) {
+    this(output, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a writer which writes only the bytes of the archive within the range into the output, the rest of the bytes are only counted.
+   * The data of the stored entries outside of the range can be skipped via {@link #skipStored(long)}.
+   *
+   * @param rangeStart offset of the first byte to write
+   * @param rangeEnd   offset of the byte after the last one to write
+   */
+  public ZipStreamWriter(@NotNull final OutputStream output, final long rangeStart, final long rangeEnd) {
+    myOutput = output;
+    myRangeStart = rangeStart;
+    myRangeEnd = rangeEnd;
+  }
+
+  /**
+   * @return number of bytes written so far
+   */
+  public long getOffset() {
+    return myOffset;
+  }
+
+  public void addDirectory(@NotNull final String name, @Nullable final Long lastModified) throws IOException {
+    checkNoCurrentEntry();
+    final EntryRecord entry = new EntryRecord(name.endsWith("/") ? name : name + "/", lastModified, METHOD_STORED, 0, false, true, myOffset);
+    writeLocalFileHeader(entry);
+    myEntries.add(entry);
+  }
+
+  /**
+   * @return true if any of the bytes from the current offset to the offset + length are within the range to write
+   */
+  public boolean isInRange(final long length) {
+    return length > 0 && myOffset < myRangeEnd && myOffset + length > myRangeStart;
+  }
+
+  /**
+   * @return true if all the bytes within the range to write are already written
+   */
+  public boolean isRangeWritten() {
+    return myOffset >= myRangeEnd;
+  }
+
+  /**
+   * Starts a stored (not compressed) entry, the data is written via {@link #writeStored(byte[], int, int)} and {@link #skipStored(long)},
+   * then the entry should be closed via {@link #closeEntry()}
+   */
+  public void startStoredEntry(@NotNull final String name, @Nullable final Long lastModified, final long size, final long crc) throws IOException {
+    checkNoCurrentEntry();
+    final EntryRecord entry = new EntryRecord(name, lastModified, METHOD_STORED, 0, size >= ZIP32_MAX, false, myOffset);
+    entry.myCrc = crc;
+    entry.mySize = size;
+    entry.myCompressedSize = size;
+    writeLocalFileHeader(entry);
+    myCurrentEntry = entry;
+    myCurrentStoredWritten = 0;
+  }
+
+  public void writeStored(@NotNull final byte[] data, final int offset, final int length) throws IOException {
+    checkStoredLength(length);
+    write(data, offset, length);
+    myCurrentStoredWritten += length;
+  }
+
+  /**
+   * Skips the data of the current stored entry which is out of the range to write
+   */
+  public void skipStored(final long length) {
+    checkStoredLength(length);
+    if (isInRange(length)) throw new IllegalStateException("Cannot skip data within the range to write");
+    myOffset += length;
+    myCurrentStoredWritten += length;
+  }
+
+  private void checkStoredLength(final long length) {
+    final EntryRecord entry = getCurrentEntry();
+    if (entry.myMethod != METHOD_STORED) throw new IllegalStateException("Entry '" + entry.myName + "' is not stored");
+    if (myCurrentStoredWritten + length > entry.mySize) throw new IllegalStateException("Data of entry '" + entry.myName + "' exceeds its size " + entry.mySize);
+  }
+
+  /**
+   * Starts an entry with "deflate" compressed data, the data is written via {@link #writeDeflated(byte[], int, byte[], int, int)}, then the entry should be closed via {@link #closeEntry()}
+   *
+   * @param size the size of the uncompressed data if known or -1
+   */
+  public void startDeflatedEntry(@NotNull final String name, @Nullable final Long lastModified, final long size) throws IOException {
+    checkNoCurrentEntry();
+    final boolean zip64 = size >= ZIP64_ENTRY_SIZE_THRESHOLD;
+    final EntryRecord entry = new EntryRecord(name, lastModified, METHOD_DEFLATED, FLAG_DATA_DESCRIPTOR, zip64, false, myOffset);
+    writeLocalFileHeader(entry);
+    myCurrentEntry = entry;
+    myCurrentCrc = new CRC32();
+  }
+
+  /**
+   * Writes the next part of the compressed data of the current entry
+   *
+   * @param compressed a part of raw "deflate" stream (without zlib header), all the parts but the last one should not be final deflate blocks
+   * @param data       the uncompressed data of the part, used to compute CRC
+   */
+  public void writeDeflated(@NotNull final byte[] compressed, final int compressedLength, @NotNull final byte[] data, final int dataOffset, final int dataLength) throws IOException {
+    final EntryRecord entry = getCurrentEntry();
+    write(compressed, 0, compressedLength);
+    //noinspection ConstantConditions
+    myCurrentCrc.update(data, dataOffset, dataLength);
+    entry.myCompressedSize += compressedLength;
+    entry.mySize += dataLength;
+  }
+
+  public void closeEntry() throws IOException {
+    final EntryRecord entry = getCurrentEntry();
+    if (entry.myMethod == METHOD_STORED) {
+      if (myCurrentStoredWritten != entry.mySize) {
+        throw new IllegalStateException("Data of entry '" + entry.myName + "' has size " + myCurrentStoredWritten + " while " + entry.mySize + " is expected");
+      }
+      myEntries.add(entry);
+      myCurrentEntry = null;
+      return;
+    }
+    //noinspection ConstantConditions
+    entry.myCrc = myCurrentCrc.getValue();
+    int pos = 0;
+    pos = putInt(pos, DATA_DESCRIPTOR_SIGNATURE);
+    pos = putInt(pos, entry.myCrc);
+    if (entry.myZip64 || entry.mySize >= ZIP32_MAX || entry.myCompressedSize >= ZIP32_MAX) {
+      pos = putLong(pos, entry.myCompressedSize);
+      pos = putLong(pos, entry.mySize);
+    } else {
+      pos = putInt(pos, entry.myCompressedSize);
+      pos = putInt(pos, entry.mySize);
+    }
+    write(myBuffer, 0, pos);
+    myEntries.add(entry);
+    myCurrentEntry = null;
+    myCurrentCrc = null;
+  }
+
+  /**
+   * Writes the central directory, the writer cannot be used after that
+   */
+  public void finish() throws IOException {
+    checkNoCurrentEntry();
+    final long centralDirectoryOffset = myOffset;
+    for (EntryRecord entry : myEntries) {
+      entry.myCentralDirectoryHeaderOffset = myOffset;
+      writeCentralDirectoryHeader(entry);
+    }
+    final long centralDirectorySize = myOffset - centralDirectoryOffset;
+    final long entriesCount = myEntries.size();
+
+    if (entriesCount >= ZIP16_MAX || centralDirectoryOffset >= ZIP32_MAX || centralDirectorySize >= ZIP32_MAX) {
+      final long zip64EndOffset = myOffset;
+      int pos = 0;
+      pos = putInt(pos, ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      pos = putLong(pos, 44); //size of the rest of the record
+      pos = putShort(pos, VERSION_ZIP64);
+      pos = putShort(pos, VERSION_ZIP64);
+      pos = putInt(pos, 0); //number of this disk
+      pos = putInt(pos, 0); //disk with the central directory
+      pos = putLong(pos, entriesCount);
+      pos = putLong(pos, entriesCount);
+      pos = putLong(pos, centralDirectorySize);
+      pos = putLong(pos, centralDirectoryOffset);
+      write(myBuffer, 0, pos);
+
+      pos = 0;
+      pos = putInt(pos, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+      pos = putInt(pos, 0); //disk with the zip64 end of central directory
+      pos = putLong(pos, zip64EndOffset);
+      pos = putInt(pos, 1); //total number of disks
+      write(myBuffer, 0, pos);
+    }
+
+    int pos = 0;
+    pos = putInt(pos, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    pos = putShort(pos, 0); //number of this disk
+    pos = putShort(pos, 0); //disk with the central directory
+    pos = putShort(pos, (int)Math.min(entriesCount, ZIP16_MAX));
+    pos = putShort(pos, (int)Math.min(entriesCount, ZIP16_MAX));
+    pos = putInt(pos, Math.min(centralDirectorySize, ZIP32_MAX));
+    pos = putInt(pos, Math.min(centralDirectoryOffset, ZIP32_MAX));
+    pos = putShort(pos, 0); //comment length
+    write(myBuffer, 0, pos);
+    myOutput.flush();
+  }
+
+  private void writeLocalFileHeader(@NotNull final EntryRecord entry) throws IOException {
+    final boolean dataDescriptor = (entry.myFlags & FLAG_DATA_DESCRIPTOR) != 0;
+    int pos = 0;
+    pos = putInt(pos, LOCAL_FILE_HEADER_SIGNATURE);
+    pos = putShort(pos, entry.getVersionNeeded());
+    pos = putShort(pos, entry.myFlags);
+    pos = putShort(pos, entry.myMethod);
+    pos = putInt(pos, entry.myDosTime);
+    pos = putInt(pos, dataDescriptor ? 0 : entry.myCrc);
+    if (entry.myZip64) {
+      pos = putInt(pos, ZIP32_MAX);
+      pos = putInt(pos, ZIP32_MAX);
+    } else {
+      pos = putInt(pos, dataDescriptor ? 0 : entry.myCompressedSize);
+      pos = putInt(pos, dataDescriptor ? 0 : entry.mySize);
+    }
+    pos = putShort(pos, entry.myNameBytes.length);
+    pos = putShort(pos, entry.myZip64 ? 20 : 0);
+    write(myBuffer, 0, pos);
+    write(entry.myNameBytes, 0, entry.myNameBytes.length);
+    if (entry.myZip64) {
+      pos = 0;
+      pos = putShort(pos, ZIP64_EXTRA_ID);
+      pos = putShort(pos, 16);
+      pos = putLong(pos, dataDescriptor ? 0 : entry.mySize);
+      pos = putLong(pos, dataDescriptor ? 0 : entry.myCompressedSize);
+      write(myBuffer, 0, pos);
+    }
+  }
+
+  private void writeCentralDirectoryHeader(@NotNull final EntryRecord entry) throws IOException {
+    final boolean sizeOverflow = entry.mySize >= ZIP32_MAX;
+    final boolean compressedSizeOverflow = entry.myCompressedSize >= ZIP32_MAX;
+    final boolean offsetOverflow = entry.myOffset >= ZIP32_MAX;
+    final int zip64ExtraLength = (sizeOverflow ? 8 : 0) + (compressedSizeOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+    final int version = zip64ExtraLength > 0 ? VERSION_ZIP64 : entry.getVersionNeeded();
+
+    int pos = 0;
+    pos = putInt(pos, CENTRAL_DIRECTORY_HEADER_SIGNATURE);
+    pos = putShort(pos, version); //version made by
+    pos = putShort(pos, version); //version needed to extract
+    pos = putShort(pos, entry.myFlags);
+    pos = putShort(pos, entry.myMethod);
+    pos = putInt(pos, entry.myDosTime);
+    pos = putInt(pos, entry.myCrc);
+    pos = putInt(pos, compressedSizeOverflow ? ZIP32_MAX : entry.myCompressedSize);
+    pos = putInt(pos, sizeOverflow ? ZIP32_MAX : entry.mySize);
+    pos = putShort(pos, entry.myNameBytes.length);
+    pos = putShort(pos, zip64ExtraLength > 0 ? zip64ExtraLength + 4 : 0);
+    pos = putShort(pos, 0); //comment length
+    pos = putShort(pos, 0); //disk number start
+    pos = putShort(pos, 0); //internal attributes
+    pos = putInt(pos, entry.myDirectory ? DIRECTORY_ATTRIBUTE : 0); //external attributes
+    pos = putInt(pos, offsetOverflow ? ZIP32_MAX : entry.myOffset);
+    write(myBuffer, 0, pos);
+    write(entry.myNameBytes, 0, entry.myNameBytes.length);
+    if (zip64ExtraLength > 0) {
+      pos = 0;
+      pos = putShort(pos, ZIP64_EXTRA_ID);
+      pos = putShort(pos, zip64ExtraLength);
+      if (sizeOverflow) pos = putLong(pos, entry.mySize);
+      if (compressedSizeOverflow) pos = putLong(pos, entry.myCompressedSize);
+      if (offsetOverflow) pos = putLong(pos, entry.myOffset);
+      write(myBuffer, 0, pos);
+    }
+  }
+
+  @NotNull
+  private EntryRecord getCurrentEntry() {
+    final EntryRecord result = myCurrentEntry;
+    if (result == null) throw new IllegalStateException("No entry is started");
+    return result;
+  }
+
+  private void checkNoCurrentEntry() {
+    if (myCurrentEntry != null) throw new IllegalStateException("Entry '" + myCurrentEntry.myName + "' is not closed");
+  }
+
+  /**
+   * @return offset of the central directory header of the entry with the index (in the order of adding), available after {@link #finish()}
+   */
+  public long getCentralDirectoryHeaderOffset(final int entryIndex) {
+    return myEntries.get(entryIndex).myCentralDirectoryHeaderOffset;
+  }
+
+  private void write(@NotNull final byte[] bytes, final int offset, final int length) throws IOException {
+    final long start = Math.max(myOffset, myRangeStart);
+    final long end = Math.min(myOffset + length, myRangeEnd);
+    if (start < end) {
+      myOutput.write(bytes, offset + (int)(start - myOffset), (int)(end - start));
+    }
+    myOffset += length;
+  }
+
+  private int putShort(final int pos, final int value) {
+    myBuffer[pos] = (byte)value;
+    myBuffer[pos + 1] = (byte)(value >>> 8);
+    return pos + 2;
+  }
+
+  private int putInt(final int pos, final long value) {
+    putShort(pos, (int)value);
+    return putShort(pos + 2, (int)(value >>> 16));
+  }
+
+  private int putLong(final int pos, final long value) {
+    putInt(pos, value);
+    return putInt(pos + 4, value >>> 32);
+  }
+
+  /**
+   * @return date and time in MS-DOS format (local time), as used in zip headers
+   */
+  static long toDosTime(@Nullable final Long time) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time != null ? time : System.currentTimeMillis());
+    final int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16); //1980-01-01 00:00
+    }
+    return ((long)(year - 1980) << 25) | ((long)(calendar.get(Calendar.MONTH) + 1) << 21) | ((long)calendar.get(Calendar.DAY_OF_MONTH) << 16) |
+           ((long)calendar.get(Calendar.HOUR_OF_DAY) << 11) | ((long)calendar.get(Calendar.MINUTE) << 5) | ((long)calendar.get(Calendar.SECOND) >> 1);
+  }
+
+  private static class EntryRecord {
+    @NotNull private final String myName;
+    @NotNull private final byte[] myNameBytes;
+    private final long myDosTime;
+    private final int myMethod;
+    private final int myFlags;
+    private final boolean myZip64;
+    private final boolean myDirectory;
+    private final long myOffset;
+    private long myCentralDirectoryHeaderOffset = -1;
+    private long myCrc;
+    private long mySize;
+    private long myCompressedSize;
+
+    private EntryRecord(@NotNull final String name, @Nullable final Long lastModified, final int method, final int flags, final boolean zip64, final boolean directory,
+                        final long offset) {
+      myName = name;
+      myNameBytes = name.getBytes(StandardCharsets.UTF_8);
+      myDosTime = toDosTime(lastModified);
+      myMethod = method;
+      myFlags = flags | FLAG_UTF8;
+      myZip64 = zip64;
+      myDirectory = directory;
+      myOffset = offset;
+    }
+
+    private int getVersionNeeded() {
+      return myZip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+    }
+  }
+}
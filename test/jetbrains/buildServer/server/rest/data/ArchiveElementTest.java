@@ -0,0 +1,121 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletRequest;
+import jetbrains.buildServer.server.rest.request.FilesSubResource;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.browser.FileSystemBrowser;
+import jetbrains.buildServer.web.artifacts.browser.ArtifactTreeElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ArchiveElementTest extends BaseServerTestCase {
+  private File myDir;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    myDir = createTempDir();
+    FileUtil.writeFile(new File(myDir, "a.txt"), "0123456789", "US-ASCII");
+    FileUtil.writeFile(new File(myDir, "b.txt"), "abcdefghij", "US-ASCII");
+    setInternalProperty("rest.build.artifacts.setMimeType", "false");
+  }
+
+  @Test
+  public void testStoredArchiveTag() {
+    final String tag = createArchive(ArchiveElement.Compression.STORE).getStoredArchiveTag();
+    assertNotNull(tag);
+    assertEquals(tag, createArchive(ArchiveElement.Compression.STORE).getStoredArchiveTag());
+    assertNull(createArchive(ArchiveElement.Compression.DEFLATE).getStoredArchiveTag());
+
+    assertTrue(new File(myDir, "b.txt").setLastModified(new File(myDir, "b.txt").lastModified() - 10000));
+    assertFalse(tag.equals(createArchive(ArchiveElement.Compression.STORE).getStoredArchiveTag()));
+  }
+
+  @Test
+  public void testIfRange() {
+    final ArchiveElement archive = createArchive(ArchiveElement.Compression.STORE);
+    final Response response = getContent(archive, null, null);
+    assertEquals(200, response.getStatus());
+    final String eTag = String.valueOf(response.getMetadata().getFirst("ETag"));
+    assertEquals("\"" + archive.getStoredArchiveTag() + "\"", eTag);
+
+    assertEquals(206, getContent(archive, "bytes=0-9", null).getStatus());
+    assertEquals(206, getContent(archive, "bytes=0-9", eTag).getStatus());
+    assertEquals(200, getContent(archive, "bytes=0-9", "\"other\"").getStatus());
+    assertEquals(200, getContent(archive, "bytes=0-9", "W/" + eTag).getStatus());
+  }
+
+  @Test
+  public void testStoredArchiveReadError() throws IOException {
+    final ArchiveElement archive = createArchive(ArchiveElement.Compression.STORE);
+    final StreamingOutput output = archive.getStreamingOutput(null, null, () -> "test");
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    output.write(result);
+    assertEquals(archive.getSize(), result.size());
+
+    //the size and CRC of the entry are written before the data, so the archive is aborted
+    FileUtil.delete(new File(myDir, "b.txt"));
+    try {
+      archive.getStreamingOutput(null, null, () -> "test").write(new ByteArrayOutputStream());
+      fail("The archive should be aborted when a file cannot be read");
+    } catch (IOException e) {
+      //expected
+    }
+  }
+
+  @NotNull
+  private ArchiveElement createArchive(@NotNull final ArchiveElement.Compression compression) {
+    final FileSystemBrowser browser = new FileSystemBrowser(myDir);
+    final List<ArtifactTreeElement> artifacts = Arrays.asList(new BuildArtifactsFinder.ArtifactTreeElementWrapper(browser.getElement("a.txt")),
+                                                              new BuildArtifactsFinder.ArtifactTreeElementWrapper(browser.getElement("b.txt")));
+    return new ArchiveElement(artifacts, "archive.zip", null, compression);
+  }
+
+  @NotNull
+  private static Response getContent(@NotNull final ArchiveElement archive, @Nullable final String range, @Nullable final String ifRange) {
+    final FakeHttpServletRequest request = new FakeHttpServletRequest();
+    if (range != null) request.addHeader("Range", range);
+    if (ifRange != null) request.addHeader("If-Range", ifRange);
+    return FilesSubResource.getContentByStream(archive, request, new FilesSubResource.StreamingOutputProvider() {
+      public boolean isRangeSupported() {
+        return archive.isRangeSupported();
+      }
+
+      public StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length) {
+        return archive.getStreamingOutput(startOffset, length, () -> "test");
+      }
+    }).build();
+  }
+}
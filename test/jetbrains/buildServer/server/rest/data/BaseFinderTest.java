@@ -27,7 +27,9 @@ import jetbrains.buildServer.log.Loggable;
 import jetbrains.buildServer.responsibility.ResponsibilityFacadeEx;
 import jetbrains.buildServer.server.rest.ApiUrlBuilder;
 import jetbrains.buildServer.server.rest.PathTransformer;
+import jetbrains.buildServer.server.rest.data.change.BuildChangesCache;
 import jetbrains.buildServer.server.rest.data.investigations.InvestigationFinder;
+import jetbrains.buildServer.server.rest.data.problem.BuildProblemsCache;
 import jetbrains.buildServer.server.rest.data.problem.ProblemFinder;
 import jetbrains.buildServer.server.rest.data.problem.ProblemOccurrenceFinder;
 import jetbrains.buildServer.server.rest.data.problem.TestFinder;
@@ -35,9 +37,11 @@ import jetbrains.buildServer.server.rest.data.problem.TestOccurrenceFinder;
 import jetbrains.buildServer.server.rest.errors.NotFoundException;
 import jetbrains.buildServer.server.rest.util.BeanContext;
 import jetbrains.buildServer.server.rest.util.BeanFactory;
+import jetbrains.buildServer.server.rest.util.ParallelProcessingPools;
 import jetbrains.buildServer.serverSide.ArtifactDependencyFactory;
 import jetbrains.buildServer.serverSide.CurrentProblemsManager;
 import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.TestName2IndexImpl;
 import jetbrains.buildServer.serverSide.artifacts.SArtifactDependency;
 import jetbrains.buildServer.serverSide.identifiers.VcsRootIdentifiersManagerImpl;
@@ -155,13 +159,16 @@ public abstract class BaseFinderTest<T> extends BaseServerTestCase{
     myFixture.addService(myTestFinder);
 
     final CurrentProblemsManager currentProblemsManager = myServer.getSingletonService(CurrentProblemsManager.class);
-    myTestOccurrenceFinder = new TestOccurrenceFinder(myTestFinder, myBuildFinder, myBuildTypeFinder, myProjectFinder, myServer.getHistory(), currentProblemsManager);
+    final ParallelProcessingPools parallelProcessingPools = new ParallelProcessingPools(myServer, myServer.getSecurityContext());
+    myFixture.addService(parallelProcessingPools);
+    myTestOccurrenceFinder = new TestOccurrenceFinder(myTestFinder, myBuildFinder, myBuildTypeFinder, myProjectFinder, myServer.getHistory(), currentProblemsManager,
+                                                      parallelProcessingPools);
     myFixture.addService(myTestOccurrenceFinder);
 
     final BuildProblemManager buildProblemManager = myFixture.getSingletonService(BuildProblemManager.class);
     myProblemFinder = new ProblemFinder(myProjectFinder, myBuildPromotionFinder, buildProblemManager, myProjectManager, myFixture, problemMutingService);
     myFixture.addService(myProblemFinder);
-    myProblemOccurrenceFinder = new ProblemOccurrenceFinder(myProjectFinder, myBuildFinder, myProblemFinder, buildProblemManager, myProjectManager, myFixture);
+    myProblemOccurrenceFinder = new ProblemOccurrenceFinder(myProjectFinder, myBuildFinder, myProblemFinder, buildProblemManager, myProjectManager, myFixture, new BuildProblemsCache(myServer));
     myFixture.addService(myProblemOccurrenceFinder);
 
     final ResponsibilityFacadeEx responsibilityFacade = myFixture.getResponsibilityFacadeEx();
@@ -174,7 +181,10 @@ public abstract class BaseFinderTest<T> extends BaseServerTestCase{
     myFixture.addService(myQueuedBuildFinder);
 
     myChangeFinder = new ChangeFinder(myProjectFinder, myBuildFinder, myBuildPromotionFinder, myBuildTypeFinder, myVcsRootFinder, myVcsRootInstanceFinder, myUserFinder,
-                                      myVcsManager, myFixture.getVcsHistory(), myBranchFinder, myFixture, myPermissionChecker);
+                                      myVcsManager, myFixture.getVcsHistory(), myBranchFinder, myFixture, myPermissionChecker,
+                                      new PendingChangesCache(myServer), new ChangedFilesIndex(myServer),
+                                      new ChangeTextIndex(myServer, myFixture.getSingletonService(ServerPaths.class), myFixture.getVcsHistory()),
+                                      new BuildChangesCache(myServer));
     myFixture.addService(myChangeFinder);
   }
 
@@ -23,13 +23,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import jetbrains.BuildServerCreator;
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.TempFiles;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
+import jetbrains.buildServer.server.rest.util.ContainerFileTransfer;
+import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.SFinishedBuild;
 import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.db.TestDB;
 import jetbrains.buildServer.util.*;
 import jetbrains.buildServer.util.filters.Filter;
@@ -682,6 +687,98 @@ public class BuildArtifactsFinderTest extends BaseTestCase {
     return result;
   }
 
+  @Test
+  public void testLocalFile() throws Exception {
+    final File file = ContainerFileTransfer.getLocalFile(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "dir1/file.txt", myFixture));
+    assertNotNull(file);
+    assertEquals(myFile2.getCanonicalFile(), file.getCanonicalFile());
+
+    assertNotNull(ContainerFileTransfer.getLocalFile(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "archive.zip", myFixture)));
+    assertNull(ContainerFileTransfer.getLocalFile(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "archive.zip!/a/file1.txt", myFixture)));
+    assertNull(ContainerFileTransfer.getLocalFile(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "dir1", myFixture)));
+  }
+
+  @Test
+  public void testIndex() throws Exception {
+    final String[] paths = {"", "dir1", "archive.zip!/a", "archive_nested.zip!/archive.zip"};
+    final String[] locators = {null, "recursive:true", "browseArchives:true,recursive:true", "hidden:true,recursive:true", "recursive:true,pattern:**/*.txt",
+                               "browseArchives:true,recursive:true,pattern:**/file4.txt", "directory:false,recursive:true,browseArchives:2"};
+    final Map<String, String> expected = new HashMap<>();
+    for (String path : paths) {
+      for (String locator : locators) {
+        expected.put(path + " " + locator, describe(getArtifacts(path, locator)));
+      }
+    }
+
+    setInternalProperty(BuildArtifactsIndex.ENABLED_PROPERTY, "true");
+    final BuildArtifactsIndex index = new BuildArtifactsIndex(myFixture.getServer(), myFixture.getSingletonService(ServerPaths.class), myFixture.getSecurityContext());
+    assertNull(index.getElement(myBuildWithArtifacts.getBuildPromotion(), ""));
+    assertTrue(index.create(myBuildWithArtifacts.getBuildPromotion()));
+    myFixture.addService(index);
+
+    assertTrue(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "", myFixture) instanceof BuildArtifactsIndex.IndexedElement);
+    assertTrue(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "archive.zip!/a", myFixture) instanceof BuildArtifactsIndex.IndexedElement);
+    //files are served from the artifacts storage
+    assertFalse(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "dir1/file.txt", myFixture) instanceof BuildArtifactsIndex.IndexedElement);
+    assertFalse(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), ".teamcity", myFixture) instanceof BuildArtifactsIndex.IndexedElement);
+    assertEquals("content1", StreamUtil.readText(BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), "archive.zip!/a/file1.txt", myFixture)
+                                                                     .getInputStream(), "UTF-8"));
+
+    for (String path : paths) {
+      for (String locator : locators) {
+        assertEquals("Path '" + path + "', locator '" + locator + "'", expected.get(path + " " + locator), describe(getArtifacts(path, locator)));
+      }
+    }
+  }
+
+  @Test
+  public void testIndexInvalidation() throws Exception {
+    setInternalProperty(BuildArtifactsIndex.ENABLED_PROPERTY, "true");
+    final BuildPromotion promotion = myBuildWithArtifacts.getBuildPromotion();
+    final BuildArtifactsIndex index = new BuildArtifactsIndex(myFixture.getServer(), myFixture.getSingletonService(ServerPaths.class), myFixture.getSecurityContext());
+    try {
+      assertTrue(index.create(promotion));
+      assertEquals("archive_nested.zip!/archive.zip", index.getElement(promotion, "archive_nested.zip!/archive.zip").getFullName());
+      assertEquals("dir1", index.getElement(promotion, "/dir1/").getFullName());
+      assertNull(index.getElement(promotion, "archive.zip!/missing"));
+      assertNull(index.getElement(promotion, "dir"));
+
+      //publishing artifacts to the finished build drops the index, it is created anew on request
+      index.buildArtifactsChanged(myBuildWithArtifacts);
+      assertNull(index.getElement(promotion, "archive.zip!/a"));
+      waitForIndex(index, promotion, "archive.zip!/a");
+
+      //a loaded index checks only the root directory, all the directories are checked when the index is loaded again, e.g. after cleanup
+      final File dir1 = new File(promotion.getArtifactsDirectory(), "dir1");
+      assertTrue(dir1.setLastModified(dir1.lastModified() - 10 * 1000));
+      assertNotNull(index.getElement(promotion, "archive.zip!/a"));
+      index.cleanupFinished();
+      assertNull(index.getElement(promotion, "archive.zip!/a"));
+      waitForIndex(index, promotion, "archive.zip!/a");
+    } finally {
+      index.serverShutdown();
+      index.entryDeleted(myBuildWithArtifacts); //do not leave the index file for other tests
+    }
+  }
+
+  private static void waitForIndex(@NotNull final BuildArtifactsIndex index, @NotNull final BuildPromotion promotion, @NotNull final String path) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10 * 1000;
+    while (index.getElement(promotion, path) == null) {
+      if (System.currentTimeMillis() > deadline) fail("Artifacts index is not created in time");
+      Thread.sleep(10);
+    }
+  }
+
+  @NotNull
+  private static String describe(@NotNull final List<ArtifactTreeElement> artifacts) {
+    final StringBuilder result = new StringBuilder();
+    for (ArtifactTreeElement artifact : artifacts) {
+      result.append(artifact.getFullName()).append(" leaf:").append(artifact.isLeaf()).append(" archive:").append(artifact.isArchive())
+            .append(" size:").append(artifact.isContentAvailable() ? artifact.getSize() : -1).append(" modified:").append(artifact.getLastModified()).append('\n');
+    }
+    return result.toString();
+  }
+
   @NotNull
   private String getArtifact(final String path) {
     return BuildArtifactsFinder.getArtifactElement(myBuildWithArtifacts.getBuildPromotion(), path, myFixture).getFullName();
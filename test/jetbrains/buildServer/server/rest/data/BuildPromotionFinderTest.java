@@ -20,9 +20,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import jetbrains.buildServer.MockTimeService;
@@ -33,6 +35,7 @@ import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
 import jetbrains.buildServer.server.rest.errors.NotFoundException;
 import jetbrains.buildServer.server.rest.model.Util;
 import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
 import jetbrains.buildServer.serverSide.dependency.DependencyFactory;
 import jetbrains.buildServer.serverSide.impl.*;
 import jetbrains.buildServer.serverSide.impl.projects.ProjectImpl;
@@ -187,6 +190,39 @@ public class BuildPromotionFinderTest extends BaseFinderTest<BuildPromotion> {
     checkBuilds("snapshotDependency:(to:(id:" + (build4.getId() + 10) + ")),state:any");
   }
 
+  @Test
+  public void testSnapshotDependenciesTraversal() throws Exception {
+    final BuildTypeImpl buildConf0 = registerBuildType("buildConf0", "project");
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final BuildTypeImpl buildConf3 = registerBuildType("buildConf3", "project");
+    addDependency(buildConf3, buildConf2);
+    addDependency(buildConf2, buildConf1);
+    addDependency(buildConf1, buildConf0);
+    final BuildPromotion build3 = build().in(buildConf3).addToQueue().getBuildPromotion();
+    final BuildPromotion build2 = build3.getDependencies().iterator().next().getDependOn();
+    final BuildPromotion build1 = build2.getDependencies().iterator().next().getDependOn();
+    final BuildPromotion build0 = build1.getDependencies().iterator().next().getDependOn();
+
+    //"to" dimension
+    checkBuilds("snapshotDependency:(to:(id:" + build3.getId() + ")),state:any", build2, build1, build0);
+    checkBuilds("snapshotDependency:(to:(id:" + build3.getId() + "),lookupLimit:2),state:any", build2, build1);
+    checkBuilds("snapshotDependency:(to:(id:" + build3.getId() + "),stop:(id:" + build1.getId() + ")),state:any", build2, build1);
+    checkBuilds("snapshotDependency:(to:(id:" + build3.getId() + "),stop:(id:" + build1.getId() + "),includeInitial:true),state:any", build3, build2, build1);
+    checkBuilds("snapshotDependency:(to:(id:" + build3.getId() + "),to:(id:" + build2.getId() + ")),state:any", build2, build1, build0);
+
+    //"from" dimension
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + ")),state:any", build3, build2, build1);
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + "),lookupLimit:2),state:any", build2, build1);
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + "),stop:(id:" + build2.getId() + ")),state:any", build2, build1);
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + "),recursive:false,includeInitial:true),state:any", build1, build0);
+
+    //both: intersection of the results, but when one side finds nothing, the result of the other side
+    checkBuilds("snapshotDependency:(from:(id:" + build0.getId() + "),to:(id:" + build3.getId() + ")),state:any", build2, build1);
+    checkBuilds("snapshotDependency:(from:(id:" + build2.getId() + "),to:(id:" + build1.getId() + ")),state:any");
+    checkBuilds("snapshotDependency:(from:(id:" + build2.getId() + "),to:(id:" + build0.getId() + ")),state:any", build3);
+  }
+
   @Test
   public void testSnapshotDependenciesAndBranches() throws Exception {
     final BuildTypeImpl buildConf0 = registerBuildType("buildConf0", "project");
@@ -2092,6 +2128,136 @@ public class BuildPromotionFinderTest extends BaseFinderTest<BuildPromotion> {
     }, "searching builds with locator \"" + multipleBuildsLocator + "\"");
   }
 
+  @Test
+  public void testHistoryBuildTypes() {
+    final BuildTypeImpl buildType2 = registerBuildType("buildConf2", "project");
+    final String buildTypeDimension = "buildType:(id:" + buildType2.getExternalId() + ")";
+    assertEquals(Collections.singletonList(buildType2), myBuildPromotionFinder.getHistoryBuildTypes(buildTypeDimension + ",state:any,count:5"));
+    assertNull(myBuildPromotionFinder.getHistoryBuildTypes(null));
+    assertNull(myBuildPromotionFinder.getHistoryBuildTypes("state:any"));
+    assertNull(myBuildPromotionFinder.getHistoryBuildTypes(buildTypeDimension + ",agentName:agent1"));
+    assertNull(myBuildPromotionFinder.getHistoryBuildTypes("buildType:(id:missing)"));
+  }
+
+  @Test
+  public void testServerStateVersions() {
+    final ServerStateVersions versions = new ServerStateVersions(myServer, myProjectManager);
+    final BuildTypeImpl buildType2 = registerBuildType("buildConf2", "project");
+    final long buildsVersion = versions.getBuildsVersion();
+    final long historyVersion = versions.getBuildTypeHistoryVersion(myBuildType);
+    final long history2Version = versions.getBuildTypeHistoryVersion(buildType2);
+
+    build().in(myBuildType).finish();
+    assertTrue(versions.getBuildsVersion() > buildsVersion);
+    assertTrue(versions.getBuildTypeHistoryVersion(myBuildType) > historyVersion);
+    assertEquals(history2Version, versions.getBuildTypeHistoryVersion(buildType2));
+    assertEquals(Long.valueOf(0), versions.getRunningDataVersion());
+
+    final ProjectEx parent = getRootProject().createProject("parent", "parent");
+    final ProjectEx child = parent.createProject("child", "child");
+    final ProjectEx other = getRootProject().createProject("other", "other");
+    final long parentVersion = versions.getProjectVersion(parent);
+    final long childVersion = versions.getProjectVersion(child);
+    final long otherVersion = versions.getProjectVersion(other);
+
+    versions.projectPersisted(child.getProjectId());
+    assertTrue(versions.getProjectVersion(parent) > parentVersion); //subprojects are included
+    assertTrue(versions.getProjectVersion(child) > childVersion);
+    assertEquals(otherVersion, versions.getProjectVersion(other));
+
+    final long childVersion2 = versions.getProjectVersion(child);
+    versions.projectPersisted(parent.getProjectId());
+    assertTrue(versions.getProjectVersion(child) > childVersion2); //settings are inherited
+    assertEquals(otherVersion, versions.getProjectVersion(other));
+  }
+
+  @Test
+  public void testBuildStatusIconCache() throws IOException {
+    final BuildStatusIconCache cache = new BuildStatusIconCache(new ServerStateVersions(myServer, myProjectManager), myBuildPromotionFinder, myFixture.getSecurityContext());
+    final AuthorityHolder authorityHolder = myFixture.getSecurityContext().getAuthorityHolder();
+    final String locator = "buildType:(id:" + myBuildType.getExternalId() + ")";
+    final int[] computationsCount = {0};
+    final Supplier<String> statusComputer = () -> "status" + (++computationsCount[0]);
+
+    assertEquals("status1", cache.getStatus(false, locator, authorityHolder, statusComputer));
+    assertEquals("status1", cache.getStatus(false, locator, authorityHolder, statusComputer));
+    assertEquals("status2", cache.getStatus(true, locator, authorityHolder, statusComputer));
+
+    build().in(myBuildType).finish();
+    assertEquals("status3", cache.getStatus(false, locator, authorityHolder, statusComputer));
+    assertEquals("status3", cache.getStatus(false, locator, authorityHolder, statusComputer));
+
+    final File iconsDir = createTempDir();
+    final File iconFile = new File(iconsDir, "icon.png");
+    Files.write(iconFile.toPath(), new byte[]{1, 2, 3});
+    final BuildStatusIconCache.Icon icon = cache.getIcon(iconFile, iconsDir);
+    assertEquals(3, icon.getContent().length);
+    assertSame(icon, cache.getIcon(new File(iconsDir, "../" + iconsDir.getName() + "/icon.png"), iconsDir));
+
+    Files.write(iconFile.toPath(), new byte[]{1, 2, 3, 4});
+    assertEquals("changed file is read again", 4, cache.getIcon(iconFile, iconsDir).getContent().length);
+
+    final File otherFile = new File(createTempDir(), "icon.png");
+    Files.write(otherFile.toPath(), new byte[]{1});
+    assertNotSame("files outside of the icons directory are not cached", cache.getIcon(otherFile, iconsDir), cache.getIcon(otherFile, iconsDir));
+
+    setInternalProperty(BuildStatusIconCache.ICONS_CACHE_SIZE_PROPERTY, "1");
+    final File iconFile2 = new File(iconsDir, "icon2.png");
+    Files.write(iconFile2.toPath(), new byte[]{1});
+    final BuildStatusIconCache.Icon icon1 = cache.getIcon(iconFile, iconsDir);
+    cache.getIcon(iconFile2, iconsDir);
+    assertNotSame("the least recently used icon is evicted", icon1, cache.getIcon(iconFile, iconsDir));
+  }
+
+  @Test
+  public void testProcessingStop() {
+    final SProject project = createProject("prj", "project");
+    final BuildTypeEx buildConf1 = (BuildTypeEx)project.createBuildType("buildConf1", "buildConf1");
+    final BuildTypeEx buildConf2 = (BuildTypeEx)project.createBuildType("buildConf2", "buildConf2");
+
+    build().in(buildConf1).finish();
+    final BuildPromotion build20 = build().in(buildConf2).finish().getBuildPromotion();
+    final BuildPromotion build30 = build().in(buildConf1).finish().getBuildPromotion();
+
+    assertEquals(Long.valueOf(2), myBuildPromotionFinder.getCount("count:2"));
+    assertEquals(Long.valueOf(100), myBuildPromotionFinder.getCount(null));
+
+    assertEquals(Collections.singletonList(build30), processFirstBuilds("buildType:(id:" + buildConf1.getExternalId() + ")", 1));
+    final String strobLocator = "strob:(buildType:(project:(id:" + project.getExternalId() + ")))";
+    assertEquals(Collections.singletonList(build30), processFirstBuilds(strobLocator, 1)); //builds of buildConf2 are not searched
+    assertEquals(Arrays.asList(build30, build20), processFirstBuilds(strobLocator, 10));
+  }
+
+  @Test
+  public void testProcessingLookupLimit() {
+    final BuildPromotion build10 = build().in(myBuildType).finish().getBuildPromotion();
+    final BuildPromotion build20 = build().in(myBuildType).finish().getBuildPromotion();
+    final BuildPromotion build30 = build().in(myBuildType).finish().getBuildPromotion();
+    final BuildPromotion build40 = build().in(myBuildType).finish().getBuildPromotion();
+    setInternalProperty("rest.request.builds.defaultLookupLimit", "2");
+    final String locator = "buildType:(id:" + myBuildType.getExternalId() + ")";
+
+    assertEquals(Arrays.asList(build40, build30), processFirstBuilds(locator + ",count:3", 10));
+    //as getItems does, the default lookupLimit is raised to "count"
+    final String countLocator = myBuildPromotionFinder.getLocatorWithEffectiveLookupLimit(locator + ",count:3");
+    assertEquals(Arrays.asList(build40, build30, build20), processFirstBuilds(countLocator, 10));
+    assertEquals(3, myBuildPromotionFinder.getItems(locator + ",count:3").myEntries.size());
+
+    assertEquals(locator + ",lookupLimit:1,count:3", myBuildPromotionFinder.getLocatorWithEffectiveLookupLimit(locator + ",lookupLimit:1,count:3"));
+    assertEquals(locator + ",count:1", myBuildPromotionFinder.getLocatorWithEffectiveLookupLimit(locator + ",count:1"));
+    assertEquals(Arrays.asList(build40, build30, build20, build10), processFirstBuilds(myBuildPromotionFinder.getLocatorWithEffectiveLookupLimit(locator + ",count:10"), 10));
+  }
+
+  @NotNull
+  private List<BuildPromotion> processFirstBuilds(@NotNull final String locator, final int count) {
+    final List<BuildPromotion> result = new ArrayList<>();
+    myBuildPromotionFinder.processItems(locator, item -> {
+      result.add(item);
+      return result.size() < count;
+    });
+    return result;
+  }
+
   @NotNull
   public static BuildPromotion[] getBuildPromotions(final BuildPromotionOwner... builds) {
     final BuildPromotion[] buildPromotions = new BuildPromotion[builds.length];
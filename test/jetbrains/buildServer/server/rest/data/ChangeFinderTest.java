@@ -16,18 +16,23 @@
 
 package jetbrains.buildServer.server.rest.data;
 
-import java.util.Date;
+import java.util.*;
+import jetbrains.buildServer.buildTriggers.vcs.BuildBuilder;
+import jetbrains.buildServer.server.rest.data.change.BuildChangesCache;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.change.Change;
 import jetbrains.buildServer.server.rest.model.change.FileChange;
 import jetbrains.buildServer.server.rest.model.change.FileChanges;
+import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.impl.BuildTypeImpl;
 import jetbrains.buildServer.serverSide.impl.MockVcsModification;
 import jetbrains.buildServer.serverSide.impl.MockVcsSupport;
 import jetbrains.buildServer.util.Util;
 import jetbrains.buildServer.vcs.*;
 import jetbrains.buildServer.vcs.impl.SVcsRootImpl;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -214,6 +219,362 @@ public class ChangeFinderTest extends BaseFinderTest<SVcsModification> {
     checkCounts("version:50", 1, 6);
   }
 
+  @Test
+  public void testDagTraversal() {
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
+
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    vcs.setDAGBased(true);
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    SVcsRootEx parentRoot1 = myFixture.addVcsRoot(vcs.getName(), "", buildConf);
+    VcsRootInstance root1 = buildConf.getVcsRootInstanceForParent(parentRoot1);
+    assert root1 != null;
+
+    final BuildFinderTestBase.MockCollectRepositoryChangesPolicy changesPolicy = new BuildFinderTestBase.MockCollectRepositoryChangesPolicy();
+    vcs.setCollectChangesPolicy(changesPolicy);
+
+    SVcsModification m10 = myFixture.addModification(modification().in(root1).version("10"));
+    SVcsModification m20 = myFixture.addModification(modification().in(root1).version("20").parentVersions("10"));
+    SVcsModification m30 = myFixture.addModification(modification().in(root1).version("30").parentVersions("20"));
+    SVcsModification m40 = myFixture.addModification(modification().in(root1).version("40").parentVersions("30"));
+    SVcsModification m50 = myFixture.addModification(modification().in(root1).version("50").parentVersions("40"));
+    SVcsModification m60 = myFixture.addModification(modification().in(root1).version("60").parentVersions("30"));
+
+    changesPolicy.setCurrentState(root1, RepositoryStateData.createVersionState("master", Util.map("master", "50",
+                                                                                                   "branch1", "60")));
+    myFixture.getVcsModificationChecker().checkForModifications(buildConf.getVcsRootInstances(), OperationRequestor.UNKNOWN);
+
+    //"to" dimension: changes which are ancestors
+    check("dag:(to:" + id(m50) + ")", m40, m30, m20, m10);
+    check("dag:(to:" + id(m50) + ",includeInitial:true)", m50, m40, m30, m20, m10);
+    check("dag:(to:" + id(m50) + ",recursive:false)", m40);
+    check("dag:(to:" + id(m50) + ",lookupLimit:2)", m40, m30);
+    check("dag:(to:" + id(m50) + ",stop:" + id(m30) + ")", m40, m30);
+    check("dag:(to:" + id(m50) + ",to:" + id(m60) + ")", m40, m30, m20, m10);
+    check("dag:(to:" + id(m50) + ",to:" + id(m40) + ")", m40, m30, m20, m10);
+    check("childChange:" + id(m30), m30, m20, m10);
+
+    //"from" dimension: changes which are descendants
+    check("dag:(from:" + id(m40) + ")", m50);
+    check("dag:(from:" + id(m40) + ",includeInitial:true)", m40, m50);
+    check("dag:(from:" + id(m10) + ",recursive:false)", m20);
+    check("dag:(from:" + id(m10) + ",stop:" + id(m30) + ")", m20, m30);
+    check("dag:(from:" + id(m10) + ",lookupLimit:2)", m20, m30);
+    check("parentChange:" + id(m40), m40, m50);
+
+    //both: intersection of the results, but when one side finds nothing, the result of the other side
+    check("dag:(from:" + id(m20) + ",to:" + id(m50) + ")", m40, m30);
+    check("dag:(from:" + id(m20) + ",to:" + id(m50) + ",includeInitial:true)", m50, m40, m30, m20);
+    check("dag:(from:" + id(m60) + ",to:" + id(m50) + ")", m40, m30, m20, m10);
+  }
+
+  @Test
+  public void testPendingChangesCache() {
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final BuildTypeImpl buildConf3 = registerBuildType("buildConf3", "project");
+    final BuildTypeImpl buildConf4 = registerBuildType("buildConf4", "project");
+    addDependency(buildConf2, buildConf1);
+    addDependency(buildConf3, buildConf2);
+
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    SVcsRootEx root = myFixture.addVcsRoot(vcs.getName(), "", buildConf1);
+
+    final PendingChangesCache cache = new PendingChangesCache(myServer);
+    final List<BuildTypeImpl> buildTypes = Arrays.asList(buildConf1, buildConf2, buildConf3, buildConf4);
+    final Integer[] calculations = {0, 0, 0, 0};
+    final Runnable getAll = () -> {
+      for (int i = 0; i < buildTypes.size(); i++) {
+        final int index = i;
+        cache.getPendingChanges(buildTypes.get(i), "key", () -> {
+          calculations[index]++;
+          return Collections.emptyList();
+        });
+      }
+    };
+
+    getAll.run();
+    getAll.run();
+    assertEquals(Arrays.asList(1, 1, 1, 1), Arrays.asList(calculations));
+
+    //the change is pending in the build configuration and in the ones which depend on it
+    cache.changeAdded(MockVcsModification.createWithoutFiles("user1", "descr1", new Date()), root, Collections.singletonList(buildConf2));
+    getAll.run();
+    assertEquals(Arrays.asList(1, 2, 2, 1), Arrays.asList(calculations));
+
+    cache.changeAdded(MockVcsModification.createWithoutFiles("user1", "descr1", new Date()), root, Collections.singletonList(buildConf1));
+    getAll.run();
+    assertEquals(Arrays.asList(2, 3, 3, 1), Arrays.asList(calculations));
+
+    cache.changeAdded(MockVcsModification.createWithoutFiles("user1", "descr1", new Date()), root, null);
+    getAll.run();
+    assertEquals(Arrays.asList(3, 4, 4, 2), Arrays.asList(calculations));
+
+    build().in(buildConf4).finish();
+    getAll.run();
+    assertEquals(Arrays.asList(3, 4, 4, 3), Arrays.asList(calculations));
+  }
+
+  @Test
+  public void testBuildChangesCache() throws Exception {
+    final BuildTypeImpl buildConf1 = registerBuildType("buildConf1", "project");
+    final BuildTypeImpl buildConf2 = registerBuildType("buildConf2", "project");
+    final BuildTypeImpl buildConf3 = registerBuildType("buildConf3", "project");
+    addDependency(buildConf2, buildConf1);
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    SVcsRootEx parentRoot = myFixture.addVcsRoot(vcs.getName(), "", buildConf1);
+    VcsRootInstance root = buildConf1.getVcsRootInstanceForParent(parentRoot);
+    assert root != null;
+
+    final BuildChangesCache cache = new BuildChangesCache(myServer);
+
+    SVcsModification m10 = myFixture.addModification(modification().in(root).version("10"));
+    final BuildPromotion build10 = build().in(buildConf1).finish().getBuildPromotion();
+    assertTrue("changes are computed when the build finishes", Arrays.equals(new long[]{m10.getId()}, waitForCachedChanges(cache, build10)));
+
+    final BuildPromotion build30 = build().in(buildConf2).addToQueue().getBuildPromotion();
+    final BuildPromotion build20 = build30.getDependencies().iterator().next().getDependOn();
+    finishBuild(BuildBuilder.run(build20.getQueuedBuild(), myFixture), false);
+    finishBuild(BuildBuilder.run(build30.getQueuedBuild(), myFixture), false);
+    final BuildPromotion build40 = build().in(buildConf3).finish().getBuildPromotion();
+    waitForCachedChanges(cache, build20);
+    waitForCachedChanges(cache, build30);
+    waitForCachedChanges(cache, build40);
+
+    final SFinishedBuild deleted = build().in(buildConf1).finish();
+    waitForCachedChanges(cache, deleted.getBuildPromotion());
+    myFixture.getSingletonService(BuildHistory.class).removeEntry(deleted);
+    assertNull(getCachedChanges(cache, deleted.getBuildPromotion()));
+    assertNull("builds of the same build configuration are dropped", getCachedChanges(cache, build10));
+    assertNull(getCachedChanges(cache, build20));
+    assertNull("builds depending on the build configuration are dropped", getCachedChanges(cache, build30));
+    assertNotNull("other builds are kept", getCachedChanges(cache, build40));
+
+    cache.putChanges(build10, SelectPrevBuildPolicy.SINCE_LAST_BUILD, BuildChangesCache.getDefaultIncludeDependencies(), Collections.emptyList());
+    assertTrue(Arrays.equals(new long[0], getCachedChanges(cache, build10)));
+
+    cache.serverShutdown();
+    final BuildPromotion build50 = build().in(buildConf3).finish().getBuildPromotion();
+    assertNull("nothing is computed after shutdown", getCachedChanges(cache, build50));
+
+    setInternalProperty(BuildChangesCache.CACHE_SIZE_PROPERTY, "0");
+    final BuildChangesCache disabledCache = new BuildChangesCache(myServer);
+    disabledCache.putChanges(build10, SelectPrevBuildPolicy.SINCE_LAST_BUILD, BuildChangesCache.getDefaultIncludeDependencies(), Collections.emptyList());
+    assertNull(getCachedChanges(disabledCache, build10));
+  }
+
+  @Nullable
+  private static long[] getCachedChanges(@NotNull final BuildChangesCache cache, @NotNull final BuildPromotion buildPromotion) {
+    return cache.getChangeIds(buildPromotion, SelectPrevBuildPolicy.SINCE_LAST_BUILD, BuildChangesCache.getDefaultIncludeDependencies());
+  }
+
+  @NotNull
+  private static long[] waitForCachedChanges(@NotNull final BuildChangesCache cache, @NotNull final BuildPromotion buildPromotion) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10 * 1000;
+    while (true) {
+      final long[] result = getCachedChanges(cache, buildPromotion);
+      if (result != null) return result;
+      if (System.currentTimeMillis() > deadline) fail("Changes of the build are not computed in time");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testChangedFilesIndex() {
+    MockVcsSupport vcsSupport = new MockVcsSupport("svn");
+    myFixture.getVcsManager().registerVcsSupport(vcsSupport);
+    SVcsRootImpl vcsRoot = myFixture.addVcsRoot(vcsSupport.getName(), "", myBuildType);
+
+    final MockVcsModification m10 = createModification("a/file.txt", "a/dir/file2.txt");
+    final MockVcsModification m15 = createModification("a/file.txt");
+    final MockVcsModification m20 = createModification("b/file.txt", "a/file.txt.bak");
+
+    final ChangedFilesIndex disabledIndex = new ChangedFilesIndex(myServer);
+    disabledIndex.changeAdded(m10, vcsRoot, null);
+    assertNull(disabledIndex.findChanges(getPathCondition("startsWith:a/")));
+
+    setInternalProperty(ChangedFilesIndex.ENABLED_PROPERTY, "true");
+    final ChangedFilesIndex index = new ChangedFilesIndex(myServer);
+    assertNull("nothing is indexed yet", index.findChanges(getPathCondition("startsWith:a/")));
+    index.changeAdded(m10, vcsRoot, null);
+    index.changeAdded(m20, vcsRoot, null);
+
+    ChangedFilesIndex.IndexedChanges changes = index.findChanges(getPathCondition("startsWith:a/"));
+    assertNotNull(changes);
+    assertTrue(changes.isCovered(m10));
+    assertTrue(changes.contains(m10));
+    assertTrue(changes.isCovered(m20));
+    assertTrue(changes.contains(m20));
+    assertFalse("not indexed change should be checked by its files", changes.isCovered(m15));
+
+    changes = index.findChanges(getPathCondition("equals:a/file.txt"));
+    assertNotNull(changes);
+    assertTrue(changes.contains(m10));
+    assertFalse(changes.contains(m20));
+
+    changes = index.findChanges(getPathCondition("glob:a/**/*.txt"));
+    assertNotNull(changes);
+    assertTrue(changes.contains(m10));
+    assertFalse(changes.contains(m20));
+
+    changes = index.findChanges(getPathCondition("startsWith:b"));
+    assertNotNull(changes);
+    assertFalse(changes.contains(m10));
+    assertTrue(changes.contains(m20));
+
+    index.changeAdded(m15, vcsRoot, null);
+    assertFalse("the change indexed after the lookup is not in its result", changes.isCovered(m15));
+    assertTrue(changes.isCovered(m10));
+    assertTrue(index.findChanges(getPathCondition("startsWith:a/")).isCovered(m15));
+
+    assertNull("no path prefix to look up", index.findChanges(getPathCondition("contains:file")));
+    assertNull("no path prefix to look up", index.findChanges(getPathCondition("glob:**/file.txt")));
+
+    setInternalProperty(ChangedFilesIndex.MAX_FILES_PROPERTY, "2");
+    final ChangedFilesIndex smallIndex = new ChangedFilesIndex(myServer);
+    smallIndex.changeAdded(m10, vcsRoot, null);
+    smallIndex.changeAdded(m20, vcsRoot, null);
+    changes = smallIndex.findChanges(getPathCondition("startsWith:a/"));
+    assertNotNull(changes);
+    assertTrue(changes.isCovered(m10));
+    assertTrue(changes.contains(m10));
+    assertFalse("the index got full before the change", changes.isCovered(m20));
+  }
+
+  @Test
+  public void testChangeTextIndex() {
+    MockVcsSupport vcsSupport = new MockVcsSupport("svn");
+    myFixture.getVcsManager().registerVcsSupport(vcsSupport);
+    SVcsRootImpl vcsRoot = myFixture.addVcsRoot(vcsSupport.getName(), "", myBuildType);
+
+    final MockVcsModification m5 = MockVcsModification.createWithoutFiles("user1", "Fix before the start", new Date());
+    final MockVcsModification m10 = MockVcsModification.createWithoutFiles("user1", "Fix the build of prefixed modules", new Date());
+    final MockVcsModification m20 = MockVcsModification.createWithoutFiles("User2", "Unfixable issue: bar", new Date());
+    final MockVcsModification m30 = MockVcsModification.createWithoutFiles("user1", "other text", new Date());
+
+    setInternalProperty(ChangeTextIndex.ENABLED_PROPERTY, "true");
+    final ChangeTextIndex index = new ChangeTextIndex(myServer, myFixture.getSingletonService(ServerPaths.class), myFixture.getVcsHistory());
+    assertNull("nothing is indexed yet", index.findByUsername("user1"));
+    index.changeAdded(m10, vcsRoot, null);
+    index.changeAdded(m20, vcsRoot, null);
+    index.changeAdded(m30, vcsRoot, null);
+
+    ChangeTextIndex.IndexedChanges changes = index.findByCommentText("fix");
+    assertNotNull(changes);
+    assertFalse(changes.isComplete());
+    assertFalse("changes detected before are not indexed", changes.isCovered(m5));
+    assertTrue(changes.isCovered(m10));
+    assertContains(changes, m10, m20);
+
+    assertContains(index.findByCommentText(" fix "), m10);
+    assertContains(index.findByCommentText("the build"), m10);
+    assertContains(index.findByCommentText("he bui"), m10);
+    assertContains(index.findByCommentText("ue: ba"), m20);
+    assertContains(index.findByCommentText("prefixed unfixable"));
+    assertNull("too short to look up", index.findByCommentText("fi"));
+    assertContains(index.findByUsername("USER1"), m10, m30);
+    assertContains(index.findByUsername("user2"), m20);
+
+    changes = index.findByUsername("user1");
+    assertSame("the same lookup is cached while the index is not changed", changes, index.findByUsername("user1"));
+    index.changeAdded(MockVcsModification.createWithoutFiles("user1", "new", new Date()), vcsRoot, null);
+    assertNotSame(changes, index.findByUsername("user1"));
+
+    setInternalProperty(ChangeTextIndex.MAX_ENTRIES_PROPERTY, "3");
+    final ChangeTextIndex smallIndex = new ChangeTextIndex(myServer, myFixture.getSingletonService(ServerPaths.class), myFixture.getVcsHistory());
+    smallIndex.changeAdded(m10, vcsRoot, null);
+    smallIndex.changeAdded(m20, vcsRoot, null);
+    changes = smallIndex.findByUsername("user2");
+    assertNotNull(changes);
+    assertTrue(changes.isCovered(m10));
+    assertFalse("the index got full before the change", changes.isCovered(m20));
+    assertContains(smallIndex.findByUsername("user1"), m10);
+  }
+
+  @Test
+  public void testChangeTextIndexStorage() throws Exception {
+    final BuildTypeImpl buildConf = registerBuildType("buildConf1", "project");
+    MockVcsSupport vcs = new MockVcsSupport("vcs");
+    myFixture.getVcsManager().registerVcsSupport(vcs);
+    SVcsRootEx parentRoot1 = myFixture.addVcsRoot(vcs.getName(), "", buildConf);
+    VcsRootInstance root1 = buildConf.getVcsRootInstanceForParent(parentRoot1);
+    assert root1 != null;
+
+    SVcsModification m10 = myFixture.addModification(modification().in(root1).by("user1").version("10"));
+    SVcsModification m20 = myFixture.addModification(modification().in(root1).by("user2").version("20"));
+
+    setInternalProperty(ChangeTextIndex.ENABLED_PROPERTY, "true");
+    final ServerPaths serverPaths = myFixture.getSingletonService(ServerPaths.class);
+    final ChangeTextIndex index1 = new ChangeTextIndex(myServer, serverPaths, myFixture.getVcsHistory());
+    index1.serverStartup();
+    waitForCompleteIndex(index1);
+    assertContains(index1.findByUsername("user1"), m10);
+    index1.serverShutdown();
+
+    SVcsModification m30 = myFixture.addModification(modification().in(root1).by("user1").version("30"));
+
+    //loads the stored state and indexes the changes detected after it
+    final ChangeTextIndex index2 = new ChangeTextIndex(myServer, serverPaths, myFixture.getVcsHistory());
+    index2.serverStartup();
+    waitForCompleteIndex(index2);
+    assertContains(index2.findByUsername("user1"), m30, m10);
+    assertContains(index2.findByUsername("user2"), m20);
+
+    SVcsModification m40 = myFixture.addModification(modification().in(root1).by("user2").version("40"));
+
+    //index2 is not shut down like on a crash: the last stored state is still used
+    final ChangeTextIndex index3 = new ChangeTextIndex(myServer, serverPaths, myFixture.getVcsHistory());
+    index3.serverStartup();
+    waitForCompleteIndex(index3);
+    assertContains(index3.findByUsername("user1"), m30, m10);
+    assertContains(index3.findByUsername("user2"), m40, m20);
+
+    index2.serverShutdown();
+    index3.serverShutdown();
+  }
+
+  private static void waitForCompleteIndex(@NotNull final ChangeTextIndex index) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10 * 1000;
+    while (true) {
+      final ChangeTextIndex.IndexedChanges changes = index.findByUsername("any");
+      if (changes != null && changes.isComplete()) return;
+      if (System.currentTimeMillis() > deadline) fail("Changes text index is not built in time");
+      Thread.sleep(10);
+    }
+  }
+
+  private static void assertContains(@Nullable final ChangeTextIndex.IndexedChanges changes, @NotNull final VcsModification... expected) {
+    assertNotNull(changes);
+    final List<Long> expectedIds = new ArrayList<>();
+    for (VcsModification modification : expected) {
+      expectedIds.add(modification.getId());
+    }
+    expectedIds.sort(Collections.reverseOrder());
+    assertEquals(expectedIds, changes.getIds());
+  }
+
+  @NotNull
+  private static MockVcsModification createModification(@NotNull final String... files) {
+    final MockVcsModification result = MockVcsModification.createWithoutFiles("user1", "descr1", new Date());
+    for (String file : files) {
+      result.addChange(new VcsChange(VcsChangeInfo.Type.CHANGED, file, file, null, null));
+    }
+    return result;
+  }
+
+  @NotNull
+  private static ChangedFilesIndex.PathCondition getPathCondition(@NotNull final String locatorText) {
+    final ChangedFilesIndex.PathCondition result = ChangedFilesIndex.PathCondition.create(new Locator(locatorText));
+    assertNotNull(result);
+    return result;
+  }
+
+  private static String id(final SVcsModification modification) {
+    return "(id:" + modification.getId() + ")";
+  }
+
   private void check(final FileChange fileChangeToCheck, final String type, final String typeComment, final Boolean isDirectory, final String filePath, final String relativePath) {
     assertEquals(type, fileChangeToCheck.changeType);
     assertEquals(typeComment, fileChangeToCheck.changeTypeComment);
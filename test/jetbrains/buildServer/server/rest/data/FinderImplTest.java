@@ -16,9 +16,12 @@
 
 package jetbrains.buildServer.server.rest.data;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
+import jetbrains.buildServer.util.ItemProcessor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.testng.annotations.BeforeMethod;
@@ -50,12 +53,123 @@ public class FinderImplTest extends BaseFinderTest<String> {
     check("prefixed:(or:(firstChar:a,firstChar:b),count:4),count:10", "_a1", "_a2", "_a3", "_b1");
   }
 
+  @Test
+  public void testProcessItems() {
+    final TestItemFinder finder = new TestItemFinder(2L, "a1", "a2", "a3", "b1", "b2", "b3", "c1", "c2", "c3");
+    setFinder(finder);
+    assertEquals(Arrays.asList("a1", "a2", "a3"), processItems(finder, "firstChar:a", -1));
+    assertEquals(Arrays.asList("a1", "a2", "a3"), processItems(finder, "firstChar:a,count:1", -1));
+    assertEquals(Arrays.asList("a1", "a2"), processItems(finder, "firstChar:a,lookupLimit:2", -1));
+    assertEquals(Arrays.asList("a2", "a3", "b1"), processItems(finder, "start:1,lookupLimit:4", -1));
+    assertEquals(Arrays.asList("b1", "b2"), processItems(finder, "firstChar:b", 2));
+    assertEquals(Arrays.asList("a1"), processItems(finder, "text:a1", -1));
+  }
+
+  @Test
+  public void testPrepareProcessItems() {
+    final TestItemFinder finder = new TestItemFinder(2L, "a1", "a2", "a3", "b1");
+    setFinder(finder);
+    //the locator errors are reported before any item is processed
+    checkException(LocatorProcessException.class, () -> finder.prepareProcessItems("firstChar:a,unknownDimension:1"), "preparing items processing");
+
+    final Consumer<ItemProcessor<String>> prepared = finder.prepareProcessItems("firstChar:a,lookupLimit:2");
+    final List<String> result = new ArrayList<>();
+    prepared.accept(item -> result.add(item));
+    assertEquals(Arrays.asList("a1", "a2"), result);
+  }
+
+  @Test
+  public void testSortedProcessItems() {
+    final TestItemFinder finder = new TestItemFinder(2L, "a1", "b1", "c1", "a2", "b2", "c2", "a3", "b3", "c3");
+    setFinder(finder);
+    check("reversed:true,count:3", "c3", "c2", "c1");
+    check("reversed:true,firstChar:a", "a3", "a2");
+
+    //the sorted items are passed after the processing, only "start" + "count" of them are retained
+    assertEquals(Arrays.asList("c3", "c2"), processItems(finder, "reversed:true", -1));
+    assertEquals(Arrays.asList("c2", "c1", "b3"), processItems(finder, "reversed:true,start:1,count:3", -1));
+    assertEquals(Arrays.asList("c3", "c2", "c1", "b3"), processItems(finder, "reversed:true,count:10", 4));
+    assertEquals(Arrays.asList("c1", "b1", "a1"), processItems(finder, "reversed:true,lookupLimit:3,count:10", -1));
+  }
+
+  @Test
+  public void testSortingProcessorStop() {
+    final PagingItemFilter<String> filter = new PagingItemFilter<>(new MultiCheckerFilter<>(), null, 2, 3L);
+    final SortingFilterItemProcessor<String> processor = new SortingFilterItemProcessor<>(filter, Comparator.naturalOrder());
+    assertTrue(processor.processItem("c"));
+    assertTrue(processor.processItem("a"));
+    assertTrue(processor.processItem("b"));
+    assertFalse(processor.processItem("0"));
+    //an aggregating source can pass items after the stop
+    assertFalse(processor.processItem("1"));
+    assertEquals(Arrays.asList("a", "b"), processor.getResult());
+    assertEquals(4, processor.getTotalItemsProcessed());
+  }
+
+  @Test
+  public void testItemHoldersStop() {
+    final List<String> processed = new ArrayList<>();
+    final ItemProcessor<String> stopAtB = item -> {
+      processed.add(item);
+      return !item.startsWith("b");
+    };
+
+    FinderDataBinding.getItemHolder(Arrays.asList("a1", "b1", "c1")).process(stopAtB);
+    assertEquals(Arrays.asList("a1", "b1"), processed);
+
+    processed.clear();
+    FinderDataBinding.getItemHolder(Stream.of("a1", "b1", "c1")).process(stopAtB);
+    assertEquals(Arrays.asList("a1", "b1"), processed);
+
+    processed.clear();
+    final boolean[] lazyHolderInvoked = {false};
+    final FinderDataBinding.AggregatingItemHolder<String> aggregatingHolder = new FinderDataBinding.AggregatingItemHolder<>();
+    aggregatingHolder.add(FinderDataBinding.getItemHolder(Arrays.asList("a1", "b1", "a2")));
+    aggregatingHolder.add(processor -> {
+      lazyHolderInvoked[0] = true;
+      FinderDataBinding.getItemHolder(Collections.singletonList("a3")).process(processor);
+    });
+    aggregatingHolder.process(stopAtB);
+    assertEquals(Arrays.asList("a1", "b1"), processed);
+    assertFalse("the holders after the stop are not invoked", lazyHolderInvoked[0]);
+  }
+
+  @Test
+  public void testFilterItemProcessorStop() {
+    final List<String> passed = new ArrayList<>();
+    final FilterItemProcessor<String> processor = new FilterItemProcessor<>(new PagingItemFilter<>(new MultiCheckerFilter<>(), null, null, null), item -> {
+      passed.add(item);
+      return !item.equals("b");
+    });
+    assertTrue(processor.processItem("a"));
+    assertFalse(processor.processItem("b"));
+    //an aggregating source can pass items after the stop, they are not passed further
+    assertFalse(processor.processItem("c"));
+    assertEquals(Arrays.asList("a", "b"), passed);
+
+    final FilterItemProcessor<String> countProcessor = new FilterItemProcessor<>(new PagingItemFilter<>(new MultiCheckerFilter<>(), null, 1, null));
+    assertTrue(countProcessor.processItem("a"));
+    assertFalse(countProcessor.processItem("b"));
+    assertFalse(countProcessor.processItem("c"));
+    assertEquals(Arrays.asList("a"), countProcessor.getResult());
+  }
+
+  @NotNull
+  private static List<String> processItems(@NotNull final TestItemFinder finder, @NotNull final String locator, final int maxItems) {
+    final List<String> result = new ArrayList<>();
+    finder.processItems(locator, item -> {
+      result.add(item);
+      return maxItems < 0 || result.size() < maxItems;
+    });
+    return result;
+  }
+
   private static class TestItemFinder extends AbstractFinder<String> {
     private final List<String> testItems;
     private final Long myDefaultCount;
 
     TestItemFinder(@Nullable final Long defaultCount, String... items) {
-      super("text", "start", "end", "firstChar", "secondChar", "prefixed");
+      super("text", "start", "end", "firstChar", "secondChar", "prefixed", "reversed");
       myDefaultCount = defaultCount;
       testItems = Arrays.asList(items);
     }
@@ -101,6 +215,12 @@ public class FinderImplTest extends BaseFinderTest<String> {
       return result;
     }
 
+    @Nullable
+    @Override
+    public Comparator<String> getComparator(@NotNull final Locator locator) {
+      return locator.getSingleDimensionValueAsStrictBoolean("reversed", false) ? Comparator.<String>reverseOrder() : null;
+    }
+
     @NotNull
     @Override
     public String getItemLocator(@NotNull final String s) {
@@ -16,12 +16,20 @@
 
 package jetbrains.buildServer.server.rest.data;
 
+import java.util.Collections;
+import java.util.List;
 import jetbrains.buildServer.BuildProblemData;
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.server.rest.data.problem.BuildProblemsCache;
 import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.serverSide.BuildPromotionEx;
 import jetbrains.buildServer.serverSide.SFinishedBuild;
 import jetbrains.buildServer.serverSide.impl.BuildTypeImpl;
+import jetbrains.buildServer.serverSide.impl.problems.BuildProblemInfoImpl;
+import jetbrains.buildServer.serverSide.mute.ProblemMutingService;
 import jetbrains.buildServer.serverSide.problems.BuildProblem;
+import jetbrains.buildServer.serverSide.problems.BuildProblemInfo;
+import jetbrains.buildServer.users.SUser;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.testng.annotations.BeforeMethod;
@@ -170,6 +178,81 @@ public class ProblemOccurrenceFinderTest extends BaseFinderTest<BuildProblem> {
                  pd(3, "id1", "type3", build10.getId()));
   }
 
+  @Test
+  public void testByBuildWithRunningBuild() throws Exception {
+    final BuildTypeImpl buildType = registerBuildType("buildConf1", "project");
+    final BuildPromotionEx build10 = (BuildPromotionEx)build().in(buildType).withProblem(BuildProblemData.createBuildProblem("id1", "type1", "descr")).finish().getBuildPromotion();
+    final BuildPromotionEx build15 = (BuildPromotionEx)build().in(buildType).finish().getBuildPromotion();
+    final BuildPromotionEx build20 = (BuildPromotionEx)build().in(buildType).withProblem(BuildProblemData.createBuildProblem("id2", "type1", "descr")).run().getBuildPromotion();
+
+    //problems of the running build are found even when they are not stored in the database yet
+    checkProblem("build:(item:(id:" + build10.getId() + "),item:(id:" + build15.getId() + "),item:(id:" + build20.getId() + "))",
+                 pd(1, "id1", "type1", build10.getId()),
+                 pd(2, "id2", "type1", build20.getId()));
+  }
+
+  @Test
+  public void testBuildProblemsCache() throws Exception {
+    final BuildTypeImpl buildType = registerBuildType("buildConf1", "project");
+    final SFinishedBuild build10 = build().in(buildType).withProblem(BuildProblemData.createBuildProblem("id1", "type1", "descr")).finish();
+    final SFinishedBuild build20 = build().in(buildType).withProblem(BuildProblemData.createBuildProblem("id2", "type1", "descr")).finish();
+
+    final BuildProblemsCache cache = new BuildProblemsCache(myServer);
+    final List<BuildProblem> problems10 = cache.getProblems(build10.getBuildPromotion());
+    assertEquals(1, problems10.size());
+    assertSame(problems10, cache.getProblems(build10.getBuildPromotion()));
+    final List<BuildProblem> problems20 = cache.getProblems(build20.getBuildPromotion());
+
+    build10.addBuildProblem(BuildProblemData.createBuildProblem("id3", "type1", "descr"));
+
+    final List<BuildProblem> updated10 = cache.getProblems(build10.getBuildPromotion());
+    assertNotSame(problems10, updated10);
+    assertEquals(2, updated10.size());
+    assertSame("only the changed build should be invalidated", problems20, cache.getProblems(build20.getBuildPromotion()));
+
+    checkProblem("build:(id:" + build10.getBuildPromotion().getId() + ")",
+                 pd(1, "id1", "type1", build10.getBuildPromotion().getId()),
+                 pd(3, "id3", "type1", build10.getBuildPromotion().getId()));
+
+    setInternalProperty(BuildProblemsCache.CACHE_SIZE_PROPERTY, "1");
+    final BuildProblemsCache smallCache = new BuildProblemsCache(myServer);
+    final List<BuildProblem> cached10 = smallCache.getProblems(build10.getBuildPromotion());
+    smallCache.getProblems(build20.getBuildPromotion());
+    assertNotSame("the least recently used build should be evicted", cached10, smallCache.getProblems(build10.getBuildPromotion()));
+  }
+
+  @Test
+  public void testBuildProblemsCacheMuteAndInvestigation() throws Exception {
+    final BuildTypeImpl buildType = registerBuildType("buildConf1", "project");
+    final SFinishedBuild build10 = build().in(buildType).withProblem(BuildProblemData.createBuildProblem("id1", "type1", "descr")).finish();
+    final long promotionId = build10.getBuildPromotion().getId();
+    final SUser user = createUser("user");
+
+    //populate the cache
+    checkProblem("build:(id:" + promotionId + ")", pd(1, "id1", "type1", promotionId));
+    checkProblem("build:(id:" + promotionId + "),currentlyMuted:true");
+    checkProblem("build:(id:" + promotionId + "),currentlyInvestigated:true");
+
+    final BuildProblemInfo problemInfo = new BuildProblemInfoImpl(buildType.getProjectId(), 1, null);
+    final ProblemMutingService mutingService = myFixture.getSingletonService(ProblemMutingService.class);
+    mutingService.muteProblemsInProject(user, null, false, null, buildType.getProject(), Collections.singletonList(problemInfo));
+
+    checkProblem("build:(id:" + promotionId + "),currentlyMuted:true", pd(1, "id1", "type1", promotionId));
+    checkProblem("build:(id:" + promotionId + "),currentlyMuted:false");
+    checkProblem("build:(id:" + promotionId + "),currentlyInvestigated:true");
+
+    myFixture.getResponsibilityFacadeEx().setBuildProblemResponsibility(problemInfo, buildType.getProjectId(), createRespEntry(ResponsibilityEntry.State.TAKEN, user));
+
+    checkProblem("build:(id:" + promotionId + "),currentlyInvestigated:true", pd(1, "id1", "type1", promotionId));
+
+    mutingService.unmuteProblems(user, null, buildType.getProject(), Collections.singletonList(problemInfo));
+    myFixture.getResponsibilityFacadeEx().removeBuildProblemResponsibility(problemInfo, buildType.getProjectId());
+
+    checkProblem("build:(id:" + promotionId + "),currentlyMuted:true");
+    checkProblem("build:(id:" + promotionId + "),currentlyInvestigated:true");
+    checkProblem("build:(id:" + promotionId + "),currentlyInvestigated:false", pd(1, "id1", "type1", promotionId));
+  }
+
   public void checkProblem(@Nullable final String locator, ProblemData... items) {
     check(locator, new Matcher<ProblemData, BuildProblem>() {
       @Override
@@ -18,6 +18,8 @@ package jetbrains.buildServer.server.rest.data;
 
 import com.google.common.base.Objects;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import jetbrains.buildServer.messages.Status;
@@ -29,12 +31,15 @@ import jetbrains.buildServer.server.rest.errors.BadRequestException;
 import jetbrains.buildServer.server.rest.model.Fields;
 import jetbrains.buildServer.server.rest.model.problem.TestOccurrence;
 import jetbrains.buildServer.server.rest.model.problem.TypedValue;
+import jetbrains.buildServer.serverSide.BuildTypeEx;
 import jetbrains.buildServer.serverSide.RunningBuildEx;
 import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.STest;
 import jetbrains.buildServer.serverSide.STestRun;
 import jetbrains.buildServer.serverSide.TestName2Index;
 import jetbrains.buildServer.serverSide.impl.BuildTypeImpl;
 import jetbrains.buildServer.serverSide.impl.ProjectEx;
+import jetbrains.buildServer.serverSide.mute.ProblemMutingService;
 import jetbrains.buildServer.tests.TestName;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.util.StringUtil;
@@ -94,6 +99,52 @@ public class TestOccurrenceFinderTest extends BaseFinderTest<STestRun> {
     check("build:(id:" + build10.getBuildId() + "),test:(currentlyFailing:true)", TEST_MATCHER, t("aaa", Status.FAILURE, 1), t("ccc", Status.FAILURE, 3));
   }
 
+  @Test
+  public void testByStatusInBuild() throws Exception {
+    final BuildTypeImpl buildType = registerBuildType("buildConf1", "project");
+    final SFinishedBuild build10 = build().in(buildType)
+                                          .withTest("aaa", false)
+                                          .withTest("bbb", true)
+                                          .withTest("ccc", false)
+                                          .finish();
+    final SFinishedBuild build20 = build().in(buildType)
+                                          .withTest("aaa", true)
+                                          .withTest("bbb", false)
+                                          .finish();
+
+    check("build:(id:" + build10.getBuildId() + "),status:FAILURE", TEST_MATCHER, t("aaa", Status.FAILURE, 1), t("ccc", Status.FAILURE, 3));
+    check("build:(id:" + build10.getBuildId() + "),status:SUCCESS", TEST_MATCHER, t("bbb", Status.NORMAL, 2));
+    check("build:(id:" + build10.getBuildId() + "),ignored:false", TEST_MATCHER, t("aaa", Status.FAILURE, 1), t("bbb", Status.NORMAL, 2), t("ccc", Status.FAILURE, 3));
+    check("build:(id:" + build10.getBuildId() + "),ignored:true", TEST_MATCHER);
+
+    check("build:(buildType:(id:" + buildType.getExternalId() + ")),status:FAILURE", TEST_WITH_BUILD_MATCHER,
+          t("bbb", Status.FAILURE, 2, build20.getBuildId()),
+          t("aaa", Status.FAILURE, 1, build10.getBuildId()),
+          t("ccc", Status.FAILURE, 3, build10.getBuildId()));
+    check("build:(buildType:(id:" + buildType.getExternalId() + ")),status:FAILURE,count:1", TEST_WITH_BUILD_MATCHER, t("bbb", Status.FAILURE, 2, build20.getBuildId()));
+  }
+
+  @Test
+  public void testOrderBy() throws Exception {
+    final BuildTypeImpl buildType = registerBuildType("buildConf1", "project");
+    final SFinishedBuild build10 = build().in(buildType)
+                                          .withTest("aaa", false)
+                                          .withTest("bbb", true)
+                                          .withTest("ccc", false)
+                                          .finish();
+
+    final String buildLocator = "build:(id:" + build10.getBuildId() + ")";
+    check(buildLocator + ",orderBy:name", TEST_MATCHER, t("aaa", Status.FAILURE, 1), t("bbb", Status.NORMAL, 2), t("ccc", Status.FAILURE, 3));
+    check(buildLocator + ",orderBy:(name:desc)", TEST_MATCHER, t("ccc", Status.FAILURE, 3), t("bbb", Status.NORMAL, 2), t("aaa", Status.FAILURE, 1));
+    check(buildLocator + ",orderBy:status", TEST_MATCHER, t("aaa", Status.FAILURE, 1), t("ccc", Status.FAILURE, 3), t("bbb", Status.NORMAL, 2));
+    check(buildLocator + ",orderBy:(name:desc),count:1", TEST_MATCHER, t("ccc", Status.FAILURE, 3));
+    check(buildLocator + ",orderBy:(name:desc),start:1,count:1", TEST_MATCHER, t("bbb", Status.NORMAL, 2));
+    check(buildLocator + ",orderBy:status,status:FAILURE,start:1", TEST_MATCHER, t("ccc", Status.FAILURE, 3));
+
+    checkExceptionOnItemsSearch(BadRequestException.class, buildLocator + ",orderBy:unknown");
+    checkExceptionOnItemsSearch(BadRequestException.class, buildLocator + ",orderBy:(name:up)");
+  }
+
   @Test
   public void testSameTestInDifferentBuilds() throws Exception {
     final BuildTypeImpl buildType1 = registerBuildType("buildConf1", "project1");
@@ -125,6 +176,67 @@ public class TestOccurrenceFinderTest extends BaseFinderTest<STestRun> {
     check("currentlyFailing:true,currentlyInvestigated:false", TEST_MATCHER, t("aaa", Status.FAILURE, 1));
   }
 
+  @Test
+  public void testCurrentlyMutedAndInvestigatedScopes() throws Exception {
+    final ProjectEx project1 = createProject("project1", "project1");
+    final ProjectEx project11 = project1.createProject("project11", "project11");
+    final ProjectEx project2 = createProject("project2", "project2");
+    final BuildTypeEx buildType1 = project1.createBuildType("buildConf1");
+    final BuildTypeEx buildType11 = project11.createBuildType("buildConf11");
+    final BuildTypeEx buildType2 = project2.createBuildType("buildConf2");
+    final SFinishedBuild build1 = build().in(buildType1).withTest("aaa", false).finish();
+    final SFinishedBuild build11 = build().in(buildType11).withTest("aaa", false).finish();
+    final SFinishedBuild build2 = build().in(buildType2).withTest("aaa", false).finish();
+
+    final List<SFinishedBuild> builds = Arrays.asList(build1, build11, build2);
+    checkScopes(builds, "currentlyMuted:true");
+    checkScopes(builds, "currentlyMuted:false", build1, build11, build2);
+    checkScopes(builds, "currentlyInvestigated:true");
+
+    final SUser user = createUser("user");
+    final STest test = myFixture.getTestManager().createTest(new TestName("aaa"), project1.getProjectId());
+    final ProblemMutingService mutingService = myFixture.getSingletonService(ProblemMutingService.class);
+    mutingService.muteTestsInProject(user, null, false, null, project1, Collections.singletonList(test));
+
+    checkScopes(builds, "currentlyMuted:true", build1, build11);
+    checkScopes(builds, "currentlyMuted:false", build2);
+
+    mutingService.muteTestsInBuildTypes(user, null, false, null, Collections.singletonList(buildType2), Collections.singletonList(test), false);
+    checkScopes(builds, "currentlyMuted:true", build1, build11, build2);
+
+    final long nameId = myFixture.getSingletonService(TestName2Index.class).getOrSaveTestNameId("aaa");
+    myFixture.getSingletonService(TestNameResponsibilityFacade.class).setTestNameResponsibility(
+      new TestName("aaa"), project11.getProjectId(),
+      new TestNameResponsibilityEntryImpl(new TestName("aaa"), nameId, ResponsibilityEntry.State.TAKEN, user, user, new Date(), "Please, fix", project11,
+                                          ResponsibilityEntry.RemoveMethod.MANUALLY));
+
+    checkScopes(builds, "currentlyInvestigated:true", build11);
+    checkScopes(builds, "currentlyInvestigated:false", build1, build2);
+
+    //scopes are collected per request: builds finished and projects created after the previous queries are considered
+    final ProjectEx project12 = project1.createProject("project12", "project12");
+    final BuildTypeEx buildType12 = project12.createBuildType("buildConf12");
+    final SFinishedBuild build12 = build().in(buildType12).withTest("aaa", false).finish();
+    final SFinishedBuild build11_2 = build().in(buildType11).withTest("aaa", false).finish();
+
+    final List<SFinishedBuild> newBuilds = Arrays.asList(build1, build12, build11_2, build2);
+    checkScopes(newBuilds, "currentlyMuted:true", build1, build12, build11_2, build2);
+    checkScopes(newBuilds, "currentlyInvestigated:true", build11_2);
+    checkScopes(newBuilds, "currentlyInvestigated:false,currentlyMuted:true", build1, build12, build2);
+  }
+
+  private void checkScopes(@NotNull final List<SFinishedBuild> builds, @NotNull final String dimensions, @NotNull final SFinishedBuild... expected) {
+    final StringBuilder buildsLocator = new StringBuilder();
+    for (SFinishedBuild build : builds) {
+      buildsLocator.append(buildsLocator.length() == 0 ? "" : ",").append("item:(id:").append(build.getBuildId()).append(")");
+    }
+    final TestRunDataWithBuild[] expectedRuns = new TestRunDataWithBuild[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      expectedRuns[i] = t("aaa", Status.FAILURE, 1, expected[i].getBuildId());
+    }
+    check("build:(" + buildsLocator + ")," + dimensions, TEST_WITH_BUILD_MATCHER, expectedRuns);
+  }
+
   @Test
   public void testSeveralInvocations() throws Exception {
     final BuildTypeImpl buildType = registerBuildType("buildConf1", "project");
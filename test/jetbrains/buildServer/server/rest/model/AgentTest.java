@@ -18,13 +18,20 @@ package jetbrains.buildServer.server.rest.model;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import jetbrains.buildServer.server.rest.data.BaseFinderTest;
 import jetbrains.buildServer.server.rest.model.agent.Agent;
 import jetbrains.buildServer.server.rest.model.agent.AgentEnabledInfo;
+import jetbrains.buildServer.server.rest.model.agent.Agents;
 import jetbrains.buildServer.server.rest.request.AgentRequest;
+import jetbrains.buildServer.server.rest.util.ItemBeans;
+import jetbrains.buildServer.server.rest.util.ParallelProcessingPools;
 import jetbrains.buildServer.serverSide.SBuildAgent;
 import jetbrains.buildServer.serverSide.impl.MockBuildAgent;
+import org.jetbrains.annotations.NotNull;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -67,4 +74,39 @@ public class AgentTest extends BaseFinderTest<SBuildAgent> {
       assertTrue(new SimpleDateFormat("yyyyMMdd'T'HHmmssZ").parse(enabledInfo.statusSwitchTime).getTime() - new Date().getTime() - 10 * 60 * 60 * 1000 < 1000);
     }
   }
+
+  @Test
+  public void testParallelItemBeans() {
+    final List<SBuildAgent> agents = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      agents.add(myFixture.createEnabledAgent("agent" + i, "runType"));
+    }
+    final Fields fields = new Fields("agent(id,name)");
+    final List<String> sequential = getNames(new Agents(agents, null, fields, getBeanContext(myFixture)));
+    assertEquals(agents.stream().map(agent -> agent.getName()).collect(Collectors.toList()), sequential);
+
+    setInternalProperty(ItemBeans.PARALLELISM_PROPERTY, "3");
+    assertEquals(sequential, getNames(new Agents(agents, null, fields, getBeanContext(myFixture))));
+  }
+
+  @Test
+  public void testItemBeansCreatedInParallel() {
+    setInternalProperty(ItemBeans.PARALLELISM_PROPERTY, "3");
+    setInternalProperty(ParallelProcessingPools.Purpose.ITEM_BEANS.getPoolSizeProperty(), "3");
+    //each bean waits for the other two, so the beans can only be created when they are created in parallel
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    final List<Integer> result = ItemBeans.getList(Arrays.asList(1, 2, 3), item -> {
+      try {
+        barrier.await(10, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new RuntimeException("Beans are not created in parallel", e);
+      }
+      return item * 10;
+    }, getBeanContext(myFixture));
+    assertEquals(Arrays.asList(10, 20, 30), result);
+  }
+
+  private static List<String> getNames(@NotNull final Agents agents) {
+    return agents.agents.stream().map(agent -> agent.name).collect(Collectors.toList());
+  }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.model;
+
+import jetbrains.buildServer.server.rest.errors.LocatorProcessException;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import org.testng.annotations.Test;
+
+/**
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class FieldsTest extends BaseServerTestCase {
+  private static final String BUILDS_SPEC = "count,build(id,status,buildType(id,name),agent(name),changes($locator(count:5),change(id,version)))";
+
+  @Test
+  public void testNestedFields() {
+    final Fields fields = new Fields(BUILDS_SPEC);
+    assertEquals(Boolean.TRUE, fields.isIncluded("count"));
+    assertEquals(Boolean.FALSE, fields.isIncluded("href", true, true));
+
+    final Fields buildFields = fields.getNestedField("build");
+    assertSame(buildFields, fields.getNestedField("build"));
+    assertEquals(Boolean.TRUE, buildFields.isIncluded("status"));
+    assertEquals(Boolean.FALSE, buildFields.isIncluded("number", true, true));
+
+    final Fields buildTypeFields = buildFields.getNestedField("buildType");
+    assertEquals(Boolean.TRUE, buildTypeFields.isIncluded("name"));
+    assertEquals(Boolean.FALSE, buildTypeFields.isIncluded("projectId", true, true));
+
+    final Fields changesFields = buildFields.getNestedField("changes");
+    assertEquals("count:5", changesFields.getLocator());
+    assertEquals(Boolean.TRUE, changesFields.getNestedField("change").isIncluded("version"));
+
+    assertEquals(Fields.NONE.getFieldsSpec(), buildFields.getNestedField("number").getFieldsSpec());
+    assertNotSame(fields.getNestedField("build", Fields.SHORT, Fields.LONG), buildFields);
+  }
+
+  @Test
+  public void testDefaultPresentations() {
+    final Fields longFields = Fields.LONG.getNestedField("buildType", Fields.SHORT, Fields.LONG);
+    assertTrue(longFields.isLong());
+    assertTrue(Fields.LONG.getNestedField("buildType").isShort());
+    assertTrue(Fields.SHORT.getNestedField("buildType").isNone());
+    assertTrue(new Fields("$long,id").isLong());
+  }
+
+  @Test
+  public void testErrors() {
+    try {
+      new Fields("id,name(").isIncluded("id");
+      fail("Exception is expected");
+    } catch (LocatorProcessException e) {
+      //expected
+    }
+
+    //not cached, so reported each time
+    try {
+      new Fields("id,name(").isIncluded("id");
+      fail("Exception is expected");
+    } catch (LocatorProcessException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testNestedFieldsCache() {
+    final Fields fields = new Fields(BUILDS_SPEC);
+    final Fields buildFields = fields.getNestedField("build", Fields.NONE, Fields.LONG);
+    assertSame(buildFields, fields.getNestedField("build", Fields.NONE, Fields.LONG));
+    assertSame("defaults are compared by their specs", buildFields, fields.getNestedField("build", new Fields("-"), new Fields("$long")));
+    assertNotSame(buildFields, fields.getNestedField("build", Fields.SHORT, Fields.LONG));
+    assertNotSame(buildFields, fields.getNestedField("changes", Fields.NONE, Fields.LONG));
+
+    setInternalProperty(Fields.CACHE_SIZE_PROPERTY, "0");
+    final Fields notCachedFields = new Fields(BUILDS_SPEC);
+    final Fields notCachedBuildFields = notCachedFields.getNestedField("build", Fields.NONE, Fields.LONG);
+    assertNotSame(notCachedBuildFields, notCachedFields.getNestedField("build", Fields.NONE, Fields.LONG));
+    assertEquals(buildFields.getFieldsSpec(), notCachedBuildFields.getFieldsSpec());
+  }
+
+  @Test
+  public void testParsedSpecsCache() {
+    setInternalProperty(Fields.CACHE_SIZE_PROPERTY, "2");
+    new Fields("id,spec1").isIncluded("id");
+    new Fields("id,spec2").isIncluded("id");
+    new Fields("id,spec1").isIncluded("id");
+    new Fields("id,spec3").isIncluded("id");
+    assertTrue("recently used spec is kept", Fields.isParsedSpecCached("id,spec1"));
+    assertFalse("least recently used spec is dropped", Fields.isParsedSpecCached("id,spec2"));
+    assertTrue(Fields.isParsedSpecCached("id,spec3"));
+
+    setInternalProperty(Fields.CACHE_SIZE_PROPERTY, "0");
+    new Fields("id,spec4").isIncluded("id");
+    assertFalse(Fields.isParsedSpecCached("id,spec4"));
+  }
+}
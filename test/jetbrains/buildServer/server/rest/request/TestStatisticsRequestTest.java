@@ -0,0 +1,163 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.server.rest.request;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import jetbrains.buildServer.server.rest.data.BaseFinderTest;
+import jetbrains.buildServer.server.rest.data.problem.TestStatisticsCollector;
+import jetbrains.buildServer.server.rest.model.problem.TestStatistic;
+import jetbrains.buildServer.server.rest.model.problem.TestStatistics;
+import jetbrains.buildServer.serverSide.BuildTypeEx;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.RoleScope;
+import jetbrains.buildServer.serverSide.impl.ProjectEx;
+import jetbrains.buildServer.users.SUser;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class TestStatisticsRequestTest extends BaseFinderTest<STestRun> {
+  private static final String FIELDS = "testStatistic(runs,failed,flips,test(name))";
+
+  private TestStatisticsCollector myCollector;
+  private TestStatisticsRequest myRequest;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    setInternalProperty(TestStatisticsCollector.ENABLED_PROPERTY, "true");
+    setInternalProperty(TestStatisticsCollector.MAX_PENDING_BUILDS_PROPERTY, "0"); //collecting explicitly in the tests
+    myCollector = new TestStatisticsCollector(myServer, myFixture.getSingletonService(ServerPaths.class));
+    myFixture.addService(myCollector);
+    myRequest = new TestStatisticsRequest();
+    myRequest.initForTests(BaseFinderTest.getBeanContext(myFixture));
+  }
+
+  @Test
+  public void testBasic() throws Exception {
+    final ProjectEx project1 = createProject("project1", "project1");
+    final BuildTypeEx buildType1 = project1.createBuildType("buildConf1");
+    myCollector.collect(build().in(buildType1).withTest("aaa", false).withTest("bbb", true).finish());
+    myCollector.collect(build().in(buildType1).withTest("aaa", true).withTest("bbb", true).finish());
+    myCollector.collect(build().in(buildType1).withTest("aaa", false).withTest("bbb", true).withTest("ccc", true).finish());
+
+    check(getStatistics("affectedProject:(id:" + project1.getExternalId() + ")"), "aaa 3/2/2", "bbb 3/0/0", "ccc 1/0/0");
+    check(getStatistics("affectedProject:(id:" + project1.getExternalId() + "),orderBy:flipRate,count:1"), "aaa 3/2/2");
+    check(getStatistics("buildType:(id:" + buildType1.getExternalId() + "),orderBy:failed,count:1"), "aaa 3/2/2");
+    check(getStatistics("lastRuns:2"), "aaa 2/1/1", "bbb 2/0/0", "ccc 1/0/0");
+  }
+
+  @Test
+  public void testRunsWindow() throws Exception {
+    setInternalProperty(TestStatisticsCollector.MAX_RUNS_PROPERTY, "3");
+    myCollector.serverShutdown();
+    myCollector = new TestStatisticsCollector(myServer, myFixture.getSingletonService(ServerPaths.class));
+    myFixture.addService(myCollector);
+
+    final BuildTypeEx buildType1 = createProject("project1", "project1").createBuildType("buildConf1");
+    for (int i = 0; i < 5; i++) {
+      myCollector.collect(build().in(buildType1).withTest("aaa", i < 2).finish());
+    }
+    check(getStatistics("orderBy:failed"), "aaa 3/3/0");
+    check(getStatistics("orderBy:failed,lastRuns:10"), "aaa 3/3/0");
+  }
+
+  @Test
+  public void testPermissions() throws Throwable {
+    myFixture.getServerSettings().setPerProjectPermissionsEnabled(true);
+    final ProjectEx project1 = createProject("project1", "project1");
+    final ProjectEx project2 = createProject("project2", "project2");
+    final BuildTypeEx buildType1 = project1.createBuildType("buildConf1");
+    final BuildTypeEx buildType2 = project2.createBuildType("buildConf2");
+    myCollector.collect(build().in(buildType1).withTest("aaa", false).withTest("bbb", false).finish());
+    myCollector.collect(build().in(buildType2).withTest("aaa", true).finish());
+
+    check(getStatistics("orderBy:failed"), "aaa 2/1/0", "bbb 1/1/0");
+
+    final SUser user = createUser("user");
+    user.addRole(RoleScope.projectScope(project2.getProjectId()), getTestRoles().createRole(Permission.VIEW_PROJECT));
+    myFixture.getSecurityContext().runAs(user, () -> {
+      check(getStatistics("orderBy:failed"), "aaa 1/0/0");
+      check(getStatistics("affectedProject:(id:" + project2.getExternalId() + "),orderBy:failed"), "aaa 1/0/0");
+    });
+  }
+
+  @Test
+  public void testStorage() throws Exception {
+    final BuildTypeEx buildType1 = createProject("project1", "project1").createBuildType("buildConf1");
+    final SFinishedBuild build10 = build().in(buildType1).withTest("aaa", false).withTest("bbb", true).finish();
+    final SFinishedBuild build20 = build().in(buildType1).withTest("aaa", true).finish();
+    myCollector.collect(build10);
+    myCollector.collect(build20);
+    check(getStatistics("orderBy:failed"), "aaa 2/1/1", "bbb 1/0/0");
+
+    myCollector.serverShutdown();
+    myCollector = new TestStatisticsCollector(myServer, myFixture.getSingletonService(ServerPaths.class));
+    myFixture.addService(myCollector);
+    check(getStatistics("orderBy:failed"));
+
+    myCollector.serverStartup();
+    check(getStatistics("orderBy:failed"), "aaa 2/1/1", "bbb 1/0/0");
+  }
+
+  @Test
+  public void testMaxEntries() throws Exception {
+    setInternalProperty(TestStatisticsCollector.MAX_ENTRIES_PROPERTY, "2");
+    myCollector.serverShutdown();
+    myCollector = new TestStatisticsCollector(myServer, myFixture.getSingletonService(ServerPaths.class));
+    myFixture.addService(myCollector);
+
+    final BuildTypeEx buildType1 = createProject("project1", "project1").createBuildType("buildConf1");
+    myCollector.collect(build().in(buildType1).withTest("aaa", false).withTest("bbb", true).finish());
+    myCollector.collect(build().in(buildType1).withTest("aaa", false).finish());
+    myCollector.collect(build().in(buildType1).withTest("ccc", false).finish());
+
+    //the test updated least recently is dropped
+    check(getStatistics("orderBy:failed"), "aaa 2/2/0", "ccc 1/1/0");
+  }
+
+  @NotNull
+  private TestStatistics getStatistics(@NotNull final String locator) {
+    return myRequest.getTestStatistics(locator, FIELDS);
+  }
+
+  /**
+   * Checks the items ignoring the order as the order of the items with the same sorting value is not defined
+   */
+  private static void check(@NotNull final TestStatistics statistics, @NotNull final String... expected) {
+    final List<String> actual = statistics.items == null
+                                ? Collections.emptyList()
+                                : statistics.items.stream().map(TestStatisticsRequestTest::describe).sorted().collect(Collectors.toList());
+    assertEquals(Arrays.stream(expected).sorted().collect(Collectors.toList()), actual);
+  }
+
+  @NotNull
+  private static String describe(@NotNull final TestStatistic item) {
+    return item.test.name + " " + item.runs + "/" + item.failed + "/" + item.flips;
+  }
+}
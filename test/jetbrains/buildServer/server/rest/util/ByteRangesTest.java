@@ -0,0 +1,123 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.Test;
+
+/**
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ByteRangesTest extends BaseServerTestCase {
+  @Test
+  public void testParse() throws ByteRanges.NotSatisfiableException {
+    check("bytes=0-9", 100L, "0-9");
+    check("bytes=90-", 100L, "90-99");
+    check("bytes=-10", 100L, "90-99");
+    check("bytes=-200", 100L, "0-99");
+    check("bytes=95-200", 100L, "95-99");
+    check("bytes=0-9,20-29", 100L, "0-9", "20-29");
+    check("bytes=20-29, 0-9", 100L, "0-9", "20-29");
+    check("bytes=0-9,10-19,15-25,40-49", 100L, "0-25", "40-49"); //adjacent and overlapping are coalesced
+    check("bytes=0-9,200-300", 100L, "0-9"); //not satisfiable are ignored
+    check("bytes=0-9", null, "0-9");
+    assertNull(ByteRanges.parse("bytes=10-", null));
+    assertNull(ByteRanges.parse("bytes=0-9,-10", null));
+  }
+
+  @Test
+  public void testIgnored() throws ByteRanges.NotSatisfiableException {
+    assertNull(ByteRanges.parse("items=0-9", 100L));
+    assertNull(ByteRanges.parse("bytes=9-0", 100L));
+    assertNull(ByteRanges.parse("bytes=a-b", 100L));
+    assertNull(ByteRanges.parse("bytes=-", 100L));
+    assertNull(ByteRanges.parse("bytes=0-9,x", 100L));
+
+    setInternalProperty(ByteRanges.MAX_RANGES_PROPERTY, "2");
+    assertNull(ByteRanges.parse("bytes=0-1,3-4,6-7", 100L));
+  }
+
+  @Test
+  public void testNotSatisfiable() {
+    checkNotSatisfiable("bytes=100-", 100L);
+    checkNotSatisfiable("bytes=-0", 100L);
+    checkNotSatisfiable("bytes=100-200,300-", 100L);
+    checkNotSatisfiable("bytes=0-9", 0L);
+  }
+
+  @Test
+  public void testMultipartOutput() throws IOException, ByteRanges.NotSatisfiableException {
+    final byte[] content = "0123456789".getBytes(StandardCharsets.ISO_8859_1);
+    final List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=1-2,5-", (long)content.length);
+    assertNotNull(ranges);
+    for (boolean seekable : new boolean[]{true, false}) {
+      final List<String> requested = new ArrayList<>();
+      final MultipartByteRangesOutput output = new MultipartByteRangesOutput(ranges, (long)content.length, "text/plain", (start, length) -> {
+        requested.add(start + "+" + length);
+        return out -> {
+          //write by single bytes and chunks to check part boundaries inside a chunk
+          out.write(content[start.intValue()]);
+          out.write(content, start.intValue() + 1, length.intValue() - 1);
+        };
+      }, seekable);
+      final ByteArrayOutputStream result = new ByteArrayOutputStream();
+      output.write(result);
+      assertEquals(output.getContentLength(), result.size());
+      assertEquals(seekable ? "[1+2, 5+5]" : "[1+9]", requested.toString());
+
+      final String boundary = output.getContentType().substring("multipart/byteranges; boundary=".length());
+      assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 1-2/10\r\n\r\n12" +
+                   "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 5-9/10\r\n\r\n56789" +
+                   "\r\n--" + boundary + "--\r\n", new String(result.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testMultipartOutputShortContent() throws IOException, ByteRanges.NotSatisfiableException {
+    final byte[] content = "0123456789".getBytes(StandardCharsets.ISO_8859_1);
+    final List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=1-2,20-29", null); //not clipped as the length is not known
+    assertNotNull(ranges);
+    new MultipartByteRangesOutput(ranges, null, "text/plain",
+                                  (start, length) -> out -> out.write(content, start.intValue(), content.length - start.intValue()), false)
+      .write(new ByteArrayOutputStream());
+  }
+
+  private static void check(@NotNull final String header, @Nullable final Long totalLength, @NotNull final String... expected) throws ByteRanges.NotSatisfiableException {
+    final List<ByteRanges.Range> ranges = ByteRanges.parse(header, totalLength);
+    assertNotNull(ranges);
+    assertEquals(Arrays.asList(expected).toString(), ranges.toString());
+  }
+
+  private static void checkNotSatisfiable(@NotNull final String header, @Nullable final Long totalLength) {
+    try {
+      ByteRanges.parse(header, totalLength);
+      fail("Exception is expected for \"" + header + "\"");
+    } catch (ByteRanges.NotSatisfiableException e) {
+      //expected
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import jetbrains.buildServer.controllers.fakes.FakeHttpServletRequest;
+import jetbrains.buildServer.server.rest.request.FilesSubResource;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.TCStreamUtil;
+import jetbrains.buildServer.util.browser.Element;
+import jetbrains.buildServer.util.browser.FileSystemBrowser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ContainerFileTransferTest extends BaseServerTestCase {
+  private static final String CONTENT = "0123456789";
+  private static final String SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  private static final String FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  private static final String START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  private static final String END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+  private File myFile;
+  private Element myElement;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    final File dir = createTempDir();
+    myFile = new File(dir, "file.txt");
+    FileUtil.writeFile(myFile, CONTENT, "US-ASCII");
+    myElement = new FileSystemBrowser(dir).getElement("file.txt");
+    assertNotNull(myElement);
+    setInternalProperty("rest.build.artifacts.setMimeType", "false");
+  }
+
+  @Test
+  public void testTransfer() throws Exception {
+    final FakeHttpServletRequest request = createRequest(true);
+    assertTrue(ContainerFileTransfer.transfer(request, myFile, 2, 5));
+    assertEquals(myFile.getCanonicalPath(), request.getAttribute(FILENAME_ATTRIBUTE));
+    assertEquals(2L, request.getAttribute(START_ATTRIBUTE));
+    assertEquals(7L, request.getAttribute(END_ATTRIBUTE));
+
+    final FakeHttpServletRequest notSupportingRequest = createRequest(false);
+    assertFalse(ContainerFileTransfer.transfer(notSupportingRequest, myFile, 0, CONTENT.length()));
+    assertNull(notSupportingRequest.getAttribute(FILENAME_ATTRIBUTE));
+
+    setInternalProperty(ContainerFileTransfer.ENABLED_PROPERTY, "false");
+    final FakeHttpServletRequest disabledRequest = createRequest(true);
+    assertFalse(ContainerFileTransfer.transfer(disabledRequest, myFile, 0, CONTENT.length()));
+    assertNull(disabledRequest.getAttribute(FILENAME_ATTRIBUTE));
+  }
+
+  @Test
+  public void testContentSentByContainer() throws Exception {
+    final FakeHttpServletRequest request = createRequest(true);
+    final Response response = FilesSubResource.getContentByStream(myElement, request, new FileProvider(true)).build();
+    assertEquals(200, response.getStatus());
+    assertNull("the container sends the content", response.getEntity());
+    assertEquals(String.valueOf(CONTENT.length()), String.valueOf(response.getMetadata().getFirst("Content-Length")));
+    assertEquals(myFile.getCanonicalPath(), request.getAttribute(FILENAME_ATTRIBUTE));
+    assertEquals(0L, request.getAttribute(START_ATTRIBUTE));
+    assertEquals((long)CONTENT.length(), request.getAttribute(END_ATTRIBUTE));
+
+    final FakeHttpServletRequest rangeRequest = createRequest(true);
+    rangeRequest.addHeader("Range", "bytes=2-4");
+    final Response rangeResponse = FilesSubResource.getContentByStream(myElement, rangeRequest, new FileProvider(true)).build();
+    assertEquals(206, rangeResponse.getStatus());
+    assertNull(rangeResponse.getEntity());
+    assertEquals("3", String.valueOf(rangeResponse.getMetadata().getFirst("Content-Length")));
+    assertEquals("bytes 2-4/10", String.valueOf(rangeResponse.getMetadata().getFirst("Content-Range")));
+    assertEquals(2L, rangeRequest.getAttribute(START_ATTRIBUTE));
+    assertEquals(5L, rangeRequest.getAttribute(END_ATTRIBUTE));
+  }
+
+  @Test
+  public void testContentFallback() throws Exception {
+    //the container does not support sending files
+    final FakeHttpServletRequest request = createRequest(false);
+    final Response response = FilesSubResource.getContentByStream(myElement, request, new FileProvider(true)).build();
+    assertEquals(200, response.getStatus());
+    assertEquals(CONTENT, write(response));
+
+    //no local file
+    final FakeHttpServletRequest noFileRequest = createRequest(true);
+    final Response noFileResponse = FilesSubResource.getContentByStream(myElement, noFileRequest, new FileProvider(false)).build();
+    assertEquals(CONTENT, write(noFileResponse));
+    assertNull(noFileRequest.getAttribute(FILENAME_ATTRIBUTE));
+
+    //several ranges are sent as a multipart entity
+    final FakeHttpServletRequest rangesRequest = createRequest(true);
+    rangesRequest.addHeader("Range", "bytes=0-1,5-6");
+    final Response rangesResponse = FilesSubResource.getContentByStream(myElement, rangesRequest, new FileProvider(true)).build();
+    assertEquals(206, rangesResponse.getStatus());
+    final String multipart = write(rangesResponse);
+    assertTrue(multipart, multipart.contains("01") && multipart.contains("56"));
+    assertNull(rangesRequest.getAttribute(FILENAME_ATTRIBUTE));
+
+    //several ranges without a local file are read in one pass
+    final FakeHttpServletRequest noFileRangesRequest = createRequest(true);
+    noFileRangesRequest.addHeader("Range", "bytes=0-1,5-6");
+    final String noFileMultipart = write(FilesSubResource.getContentByStream(myElement, noFileRangesRequest, new FileProvider(false)).build());
+    assertEquals(multipart.replaceAll("boundary|[0-9a-f]{32}", ""), noFileMultipart.replaceAll("boundary|[0-9a-f]{32}", ""));
+
+    //invalid Range header is ignored
+    final FakeHttpServletRequest invalidRangeRequest = createRequest(false);
+    invalidRangeRequest.addHeader("Range", "bytes=5-2");
+    final Response invalidRangeResponse = FilesSubResource.getContentByStream(myElement, invalidRangeRequest, new FileProvider(true)).build();
+    assertEquals(200, invalidRangeResponse.getStatus());
+    assertEquals(CONTENT, write(invalidRangeResponse));
+
+    final FakeHttpServletRequest notSatisfiableRequest = createRequest(false);
+    notSatisfiableRequest.addHeader("Range", "bytes=20-30");
+    final Response notSatisfiableResponse = FilesSubResource.getContentByStream(myElement, notSatisfiableRequest, new FileProvider(true)).build();
+    assertEquals(416, notSatisfiableResponse.getStatus());
+    final String contentRange = String.valueOf(notSatisfiableResponse.getMetadata().getFirst("Content-Range"));
+    assertTrue(contentRange, contentRange.endsWith("/10"));
+  }
+
+  @NotNull
+  private static FakeHttpServletRequest createRequest(final boolean sendfileSupported) {
+    final FakeHttpServletRequest result = new FakeHttpServletRequest();
+    if (sendfileSupported) result.setAttribute(SUPPORT_ATTRIBUTE, Boolean.TRUE);
+    return result;
+  }
+
+  @NotNull
+  private static String write(@NotNull final Response response) throws Exception {
+    assertNotNull("the content should be sent as the entity", response.getEntity());
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    ((StreamingOutput)response.getEntity()).write(result);
+    return new String(result.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  private class FileProvider implements FilesSubResource.StreamingOutputProvider {
+    private final boolean myLocalFile;
+
+    private FileProvider(final boolean localFile) {
+      myLocalFile = localFile;
+    }
+
+    public boolean isRangeSupported() {
+      return true;
+    }
+
+    public StreamingOutput getStreamingOutput(@Nullable final Long startOffset, @Nullable final Long length) {
+      return output -> {
+        try (InputStream input = ContainerFileTransfer.getInputStream(myElement, startOffset != null ? startOffset : 0)) {
+          TCStreamUtil.writeBinary(input, length != null ? length : myElement.getSize(), output);
+        }
+      };
+    }
+
+    @Nullable
+    @Override
+    public File getLocalFile() {
+      return myLocalFile ? ContainerFileTransfer.getLocalFile(myElement) : null;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.server.rest.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import jetbrains.buildServer.serverSide.impl.BaseServerTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+/**
+ * @author Yegor.Yarko
+ *         Date: 19/10/2018
+ */
+public class ZipStreamWriterTest extends BaseServerTestCase {
+  private static final int CHUNK_SIZE = 1000;
+
+  @Test
+  public void testChunkedEntries() throws IOException {
+    final byte[] text = new byte[10 * CHUNK_SIZE + 7];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte)('a' + i % 5);
+    }
+    final byte[] binary = new byte[3 * CHUNK_SIZE];
+    new Random(1).nextBytes(binary);
+
+    for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.NO_COMPRESSION}) {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final ZipStreamWriter writer = new ZipStreamWriter(output);
+      writer.addDirectory("dir/", null);
+      writeEntry(writer, "dir/text.txt", text, level);
+      writeEntry(writer, "empty.txt", new byte[0], level);
+      writeEntry(writer, "dir/файл.bin", binary, level); //chunk-aligned size: the last chunk is empty
+      writer.finish();
+
+      try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()), StandardCharsets.UTF_8)) {
+        assertEntry(input, "dir/", new byte[0]);
+        assertEntry(input, "dir/text.txt", text);
+        assertEntry(input, "empty.txt", new byte[0]);
+        assertEntry(input, "dir/файл.bin", binary);
+        assertNull(input.getNextEntry());
+      }
+    }
+  }
+
+  @Test
+  public void testStoredRanges() throws IOException {
+    final byte[][] contents = {"text".getBytes(StandardCharsets.UTF_8), new byte[0], new byte[5000]};
+    new Random(1).nextBytes(contents[2]);
+
+    final byte[] full = writeStored(contents, 0, Long.MAX_VALUE);
+    try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(full), StandardCharsets.UTF_8)) {
+      assertEntry(input, "dir/", new byte[0]);
+      for (int i = 0; i < contents.length; i++) {
+        assertEntry(input, "dir/file" + i, contents[i]);
+      }
+      assertNull(input.getNextEntry());
+    }
+
+    final int[][] ranges = {{0, 10}, {10, 200}, {100, 4000}, {4000, full.length - 10}, {full.length - 10, full.length}, {3, full.length}};
+    for (int[] range : ranges) {
+      assertTrue(Arrays.equals(Arrays.copyOfRange(full, range[0], range[1]), writeStored(contents, range[0], range[1])));
+    }
+  }
+
+  @Test
+  public void testZip64EntriesCount() throws IOException {
+    final int count = 0xFFFF + 10;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final ZipStreamWriter writer = new ZipStreamWriter(output);
+    for (int i = 0; i < count; i++) {
+      writer.addDirectory("dir" + i, 1500000000000L);
+    }
+    writer.finish();
+
+    final File file = new File(createTempDir(), "many.zip");
+    Files.write(file.toPath(), output.toByteArray());
+    try (ZipFile zipFile = new ZipFile(file)) {
+      assertEquals(count, zipFile.size());
+      assertNotNull(zipFile.getEntry("dir" + (count - 1) + "/"));
+    }
+  }
+
+  @Test
+  public void testZip64Offsets() throws IOException {
+    final long size = 0xFFFFFFFFL + 10;
+    //count only to get the offset of the data after the large entry, then write the rest of the archive
+    final long tailStart = writeLargeStored(new ByteArrayOutputStream(), size, Long.MAX_VALUE);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final long end = writeLargeStored(output, size, tailStart);
+    final ByteBuffer tail = ByteBuffer.wrap(output.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(end - tailStart, tail.limit());
+
+    final int endPos = tail.limit() - 22;
+    assertEquals(0x06054b50, tail.getInt(endPos));
+    assertEquals(0xFFFFFFFF, tail.getInt(endPos + 16)); //central directory offset is in Zip64 record
+
+    final int locatorPos = endPos - 20;
+    assertEquals(0x07064b50, tail.getInt(locatorPos));
+    final long zip64EndOffset = tail.getLong(locatorPos + 8);
+    assertEquals(tailStart + locatorPos - 56, zip64EndOffset);
+
+    final int zip64EndPos = (int)(zip64EndOffset - tailStart);
+    assertEquals(0x06064b50, tail.getInt(zip64EndPos));
+    assertEquals(44, tail.getLong(zip64EndPos + 4));
+    assertEquals(2, tail.getLong(zip64EndPos + 24)); //entries count
+    final long centralDirectoryOffset = tail.getLong(zip64EndPos + 48);
+    assertEquals(zip64EndOffset - centralDirectoryOffset, tail.getLong(zip64EndPos + 40)); //central directory size
+    assertEquals(0x02014b50, tail.getInt((int)(centralDirectoryOffset - tailStart)));
+  }
+
+  /**
+   * Writes the part of an archive with a large stored entry (the data is skipped) and a directory after it
+   * @param rangeStart offset to write from, Long.MAX_VALUE to only count the length of the large entry
+   * @return the archive length or the large entry length if rangeStart is Long.MAX_VALUE
+   */
+  private static long writeLargeStored(@NotNull final ByteArrayOutputStream output, final long size, final long rangeStart) throws IOException {
+    final ZipStreamWriter writer = new ZipStreamWriter(output, rangeStart, Long.MAX_VALUE);
+    writer.startStoredEntry("large.bin", 1500000000000L, size, 0);
+    writer.skipStored(size);
+    writer.closeEntry();
+    if (rangeStart == Long.MAX_VALUE) return writer.getOffset();
+    writer.addDirectory("dir", 1500000000000L);
+    writer.finish();
+    return writer.getOffset();
+  }
+
+  /**
+   * Writes the part of the stored archive skipping the data out of the range, as ArchiveElement does
+   */
+  @NotNull
+  private static byte[] writeStored(@NotNull final byte[][] contents, final long start, final long end) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final ZipStreamWriter writer = new ZipStreamWriter(output, start, end);
+    writer.addDirectory("dir/", 1500000000000L);
+    for (int i = 0; i < contents.length; i++) {
+      final byte[] data = contents[i];
+      final CRC32 crc = new CRC32();
+      crc.update(data);
+      writer.startStoredEntry("dir/file" + i, 1500000000000L, data.length, crc.getValue());
+      if (writer.isInRange(data.length)) {
+        final int skipped = (int)Math.max(0, start - writer.getOffset());
+        final int length = (int)Math.min(data.length, end - writer.getOffset()) - skipped;
+        writer.skipStored(skipped);
+        writer.writeStored(data, skipped, length);
+        writer.skipStored(data.length - skipped - length);
+      } else {
+        writer.skipStored(data.length);
+      }
+      writer.closeEntry();
+    }
+    writer.finish();
+    return output.toByteArray();
+  }
+
+  /**
+   * Compresses each chunk separately, as ArchiveElement does
+   */
+  private static void writeEntry(@NotNull final ZipStreamWriter writer, @NotNull final String name, @NotNull final byte[] data, final int level) throws IOException {
+    writer.startDeflatedEntry(name, 1500000000000L, data.length);
+    int offset = 0;
+    while (true) {
+      final int length = Math.min(CHUNK_SIZE, data.length - offset);
+      final boolean last = length < CHUNK_SIZE;
+      final Deflater deflater = new Deflater(level, true);
+      deflater.setInput(data, offset, length);
+      if (last) deflater.finish();
+      final byte[] compressed = new byte[2 * CHUNK_SIZE];
+      final int compressedLength = last ? deflater.deflate(compressed) : deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+      deflater.end();
+      writer.writeDeflated(compressed, compressedLength, data, offset, length);
+      offset += length;
+      if (last) break;
+    }
+    writer.closeEntry();
+  }
+
+  private static void assertEntry(@NotNull final ZipInputStream input, @NotNull final String name, @NotNull final byte[] expected) throws IOException {
+    final ZipEntry entry = input.getNextEntry();
+    assertNotNull(entry);
+    assertEquals(name, entry.getName());
+    assertTrue(Arrays.equals(expected, readAll(input)));
+  }
+
+  @NotNull
+  private static byte[] readAll(@NotNull final InputStream input) throws IOException {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int read;
+    while ((read = input.read(buffer)) > 0) {
+      result.write(buffer, 0, read);
+    }
+    return result.toByteArray();
+  }
+}